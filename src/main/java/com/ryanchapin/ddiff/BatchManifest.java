@@ -0,0 +1,124 @@
+package com.ryanchapin.ddiff;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Manifest of the pairs of reference and test inputs diffed by a single job
+ * in the batch mode, see {@link DistributedDiff#OPTION_KEY_MANIFEST_LONG}.
+ * <p>
+ * The manifest is a text file with one pair per line, holding the id of
+ * the pair, the reference input path and the test input path, separated by
+ * tabs.  Blank lines and lines starting with {@code #} are skipped.  Pair
+ * ids name the directory of the output of the pair, so they must be unique
+ * and may only hold letters, digits, {@code .}, {@code _} and {@code -},
+ * starting with a letter or digit so that an id can neither name a
+ * directory outside of the output path nor one hidden from input formats.
+ * Pairs are numbered by their order in the manifest, and that index is
+ * what is carried in the {@link PairHashKeyWritable} keys.
+ *
+ * @since  1.3.0
+ */
+public class BatchManifest {
+
+   private static final Pattern PAIR_ID_PATTERN = Pattern.compile("[A-Za-z0-9][A-Za-z0-9._-]*");
+
+   private List<String> pairIds        = new ArrayList<String>();
+   private List<String> referencePaths = new ArrayList<String>();
+   private List<String> testPaths      = new ArrayList<String>();
+   private Set<String> pairIdSet       = new HashSet<String>();
+
+   // ------------------------------------------------------------------------
+   // Accessor/Mutators
+   //
+
+   public int size() {
+      return pairIds.size();
+   }
+
+   public String getPairId(int pair) {
+      return pairIds.get(pair);
+   }
+
+   public String getReferencePath(int pair) {
+      return referencePaths.get(pair);
+   }
+
+   public String getTestPath(int pair) {
+      return testPaths.get(pair);
+   }
+
+   // ------------------------------------------------------------------------
+   // Member Methods
+   //
+
+   /**
+    * Adds a pair to the end of the manifest.
+    *
+    * @throws IllegalArgumentException
+    *        if the pair id is not valid or is already in the manifest
+    */
+   public void add(String pairId, String referencePath, String testPath)
+         throws IllegalArgumentException
+   {
+      if (!PAIR_ID_PATTERN.matcher(pairId).matches()) {
+         throw new IllegalArgumentException("Invalid pair id '" + pairId + "'");
+      }
+      if (!pairIdSet.add(pairId)) {
+         throw new IllegalArgumentException("Duplicate pair id '" + pairId + "'");
+      }
+      pairIds.add(pairId);
+      referencePaths.add(referencePath);
+      testPaths.add(testPath);
+   }
+
+   /**
+    * Reads the manifest file at the given path.
+    *
+    * @throws IOException
+    *        if the file cannot be read, holds an invalid line or no pairs
+    */
+   public static BatchManifest read(FileSystem fs, Path manifest) throws IOException {
+      BatchManifest retVal = new BatchManifest();
+      BufferedReader reader = new BufferedReader(
+            new InputStreamReader(fs.open(manifest), StandardCharsets.UTF_8));
+      try {
+         String line = null;
+         int lineNumber = 0;
+         while (null != (line = reader.readLine())) {
+            lineNumber++;
+            if (line.trim().isEmpty() || line.startsWith("#")) {
+               continue;
+            }
+            String[] fields = line.split("\t");
+            if (fields.length != 3 || fields[1].isEmpty() || fields[2].isEmpty()) {
+               throw new IOException("Line " + lineNumber + " of manifest " + manifest +
+                     " is not a tab separated pair id, reference path and test path");
+            }
+            try {
+               retVal.add(fields[0], fields[1], fields[2]);
+            } catch (IllegalArgumentException e) {
+               throw new IOException("Line " + lineNumber + " of manifest " + manifest +
+                     ": " + e.getMessage(), e);
+            }
+         }
+      } finally {
+         reader.close();
+      }
+
+      if (retVal.size() == 0) {
+         throw new IOException("Manifest " + manifest + " holds no pairs");
+      }
+      return retVal;
+   }
+}
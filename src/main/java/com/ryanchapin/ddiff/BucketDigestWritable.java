@@ -0,0 +1,66 @@
+package com.ryanchapin.ddiff;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+
+/**
+ * The signed record count and hash sums of a single hash bucket, written by
+ * the {@link FingerprintMapper} in the bucket digest mode, see
+ * {@link BucketDigests}.
+ *
+ * @since  1.3.0
+ */
+public class BucketDigestWritable implements Writable {
+
+   private long count;
+   private long sumHigh;
+   private long sumLow;
+
+   // ------------------------------------------------------------------------
+   // Accessor/Mutators
+   //
+
+   public long getCount() {
+      return count;
+   }
+
+   public long getSumHigh() {
+      return sumHigh;
+   }
+
+   public long getSumLow() {
+      return sumLow;
+   }
+
+   public void set(long count, long sumHigh, long sumLow) {
+      this.count   = count;
+      this.sumHigh = sumHigh;
+      this.sumLow  = sumLow;
+   }
+
+   // ------------------------------------------------------------------------
+   // Member Methods
+   //
+
+   @Override
+   public void write(DataOutput out) throws IOException {
+      out.writeLong(count);
+      out.writeLong(sumHigh);
+      out.writeLong(sumLow);
+   }
+
+   @Override
+   public void readFields(DataInput in) throws IOException {
+      count   = in.readLong();
+      sumHigh = in.readLong();
+      sumLow  = in.readLong();
+   }
+
+   @Override
+   public String toString() {
+      return count + "\t" + sumHigh + "\t" + sumLow;
+   }
+}
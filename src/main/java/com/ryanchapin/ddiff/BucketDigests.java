@@ -0,0 +1,191 @@
+package com.ryanchapin.ddiff;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * Per-bucket digests of both inputs for the bucket digest mode, see
+ * {@link DistributedDiff#OPTION_KEY_DIGEST_BUCKETS_LONG}.
+ * <p>
+ * Records are assigned to one of a fixed number of buckets by the leading
+ * bytes of their hash, in the same contiguous ranges as the
+ * {@link HashKeyPartitioner}.  The digest of a bucket is the signed count
+ * of its records and the signed sums of the two leading 64 bit words of
+ * their hashes, positive for {@link Source#REFERENCE} and negative for
+ * {@link Source#TEST} records, so it is zero in every field when both
+ * inputs hold the same records in that bucket.  The driver sums the
+ * partial digests written by each {@link FingerprintMapper} and writes the
+ * set of dirty buckets, those whose digest is not zero, to a file that is
+ * shipped to the {@link DdiffMapper} of the diff via the distributed cache.
+ *
+ * @since  1.3.0
+ */
+public class BucketDigests {
+
+   private final int numBuckets;
+   private final long[] counts;
+   private final long[] sumsHigh;
+   private final long[] sumsLow;
+
+   // ------------------------------------------------------------------------
+   // Accessor/Mutators
+   //
+
+   public int getNumBuckets() {
+      return numBuckets;
+   }
+
+   // ------------------------------------------------------------------------
+   // Constructor
+   //
+
+   /**
+    * @throws IllegalArgumentException
+    *        if numBuckets is not positive
+    */
+   public BucketDigests(int numBuckets) {
+      if (numBuckets < 1) {
+         throw new IllegalArgumentException("Number of buckets must be positive, numBuckets = " +
+               numBuckets);
+      }
+      this.numBuckets = numBuckets;
+      counts   = new long[numBuckets];
+      sumsHigh = new long[numBuckets];
+      sumsLow  = new long[numBuckets];
+   }
+
+   // ------------------------------------------------------------------------
+   // Member Methods
+   //
+
+   /**
+    * Adds a record to the digest of its bucket.
+    *
+    * @param hash
+    *        array holding the hash of the record, starting at index 0
+    * @param hashLength
+    *        number of bytes in the hash, of which at most the first 16 are
+    *        summed
+    * @param sign
+    *        the sign of the {@link Source} of the record
+    */
+   public void add(byte[] hash, int hashLength, long sign) {
+      int bucket = getBucket(hash, numBuckets);
+      counts[bucket] += sign;
+      sumsHigh[bucket] += sign * WritableComparator.readLong(hash, 0);
+      if (hashLength >= 16) {
+         sumsLow[bucket] += sign * WritableComparator.readLong(hash, 8);
+      }
+   }
+
+   /**
+    * Adds a partial digest to the digest of the bucket.
+    */
+   public void add(int bucket, BucketDigestWritable digest) {
+      counts[bucket]   += digest.getCount();
+      sumsHigh[bucket] += digest.getSumHigh();
+      sumsLow[bucket]  += digest.getSumLow();
+   }
+
+   /**
+    * Returns true if the digest of the bucket is not zero, in which case it
+    * is copied to the given Writable.
+    */
+   public boolean copyDigest(int bucket, BucketDigestWritable digest) {
+      if (counts[bucket] == 0 && sumsHigh[bucket] == 0 && sumsLow[bucket] == 0) {
+         return false;
+      }
+      digest.set(counts[bucket], sumsHigh[bucket], sumsLow[bucket]);
+      return true;
+   }
+
+   /**
+    * Adds each of the partial digests in the SequenceFiles written to the
+    * directory.
+    */
+   public void load(Configuration conf, FileSystem fs, Path dir) throws IOException {
+      FileStatus[] files = fs.globStatus(new Path(dir, "part-*"));
+      if (null == files) {
+         return;
+      }
+      IntWritable bucket = new IntWritable();
+      BucketDigestWritable digest = new BucketDigestWritable();
+      for (FileStatus file : files) {
+         SequenceFile.Reader reader = new SequenceFile.Reader(conf,
+               SequenceFile.Reader.file(file.getPath()));
+         try {
+            while (reader.next(bucket, digest)) {
+               add(bucket.get(), digest);
+            }
+         } finally {
+            reader.close();
+         }
+      }
+   }
+
+   /**
+    * @return the buckets whose digest is not zero.
+    */
+   public BitSet getDirtyBuckets() {
+      BitSet retVal = new BitSet(numBuckets);
+      BucketDigestWritable digest = new BucketDigestWritable();
+      for (int i = 0; i < numBuckets; i++) {
+         if (copyDigest(i, digest)) {
+            retVal.set(i);
+         }
+      }
+      return retVal;
+   }
+
+   /**
+    * @return the bucket of the hash among numBuckets buckets.
+    */
+   public static int getBucket(byte[] hash, int numBuckets) {
+      return HashKeyPartitioner.getPartition(WritableComparator.readInt(hash, 0), numBuckets);
+   }
+
+   /**
+    * Writes the set of buckets to the file.
+    */
+   public static void writeBuckets(FileSystem fs, Path file, BitSet buckets)
+         throws IOException
+   {
+      long[] words = buckets.toLongArray();
+      FSDataOutputStream out = fs.create(file, true);
+      try {
+         out.writeInt(words.length);
+         for (long word : words) {
+            out.writeLong(word);
+         }
+      } finally {
+         out.close();
+      }
+   }
+
+   /**
+    * Reads a set of buckets written by
+    * {@link #writeBuckets(FileSystem, Path, BitSet)}.
+    */
+   public static BitSet readBuckets(FileSystem fs, Path file) throws IOException {
+      FSDataInputStream in = fs.open(file);
+      try {
+         long[] words = new long[in.readInt()];
+         for (int i = 0; i < words.length; i++) {
+            words[i] = in.readLong();
+         }
+         return BitSet.valueOf(words);
+      } finally {
+         in.close();
+      }
+   }
+}
@@ -1,59 +1,123 @@
 package com.ryanchapin.ddiff;
 
 import java.io.IOException;
-import java.util.Iterator;
+import java.util.Map;
 
-import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Reducer;
 
 /**
  * Will combine any duplicate records emitted from the map method.
+ * <p>
+ * As the counts of {@link Source#REFERENCE} and {@link Source#TEST} records
+ * are signed, the counts for each record are simply summed, which also
+ * cancels out matching records wherever the combiner sees values from both
+ * sources, ie when it is run during the merge on the reduce side.  Records
+ * whose counts net to zero are dropped.
+ * <p>
+ * When a reference is diffed against several test sets, see
+ * {@link DistributedDiff#CONF_TEST_SET_LABELS_KEY}, the reference counts
+ * are needed to diff each of the test sets, so the counts are instead
+ * summed separately for each source id and written out with that id.
  * 
  * @since   1.0.0
  *
  */
-public class DdiffCombiner extends Reducer<Text, TaggedTextWithCountWritableComparable, Text, TaggedTextWithCountWritableComparable> {
+public class DdiffCombiner extends Reducer<HashKeyWritable, TaggedTextWithCountWritableComparable, HashKeyWritable, TaggedTextWithCountWritableComparable> {
 
+   private boolean collisionSafe;
+   
+   private RecordDeltas deltas;
+   
+   /**
+    * Whether the counts are summed separately for each source id.
+    */
+   private boolean testSets;
+   
+   private TaggedTextWithCountWritableComparable outVal =
+         new TaggedTextWithCountWritableComparable();
+   
+   @Override
+   protected void setup(Context context) throws IOException, InterruptedException {
+      super.setup(context);
+      collisionSafe = context.getConfiguration().getBoolean(
+            DistributedDiff.CONF_COLLISION_SAFE_KEY, false);
+      String[] labels = context.getConfiguration().getStrings(
+            DistributedDiff.CONF_TEST_SET_LABELS_KEY);
+      testSets = null != labels;
+      deltas = testSets ? new RecordDeltas(labels.length + 1) : new RecordDeltas();
+   }
+   
    @Override
-   public void reduce(Text key, Iterable<TaggedTextWithCountWritableComparable> values, Context context)
+   public void reduce(HashKeyWritable key, Iterable<TaggedTextWithCountWritableComparable> values, Context context)
          throws IOException, InterruptedException
    {
-      TaggedTextWithCountWritableComparable value  = null;
-      Source source = null;
-      int count = 0;
+      long refCount  = 0;
+      long testCount = 0;
+      deltas.reset();
       
-      Iterator<TaggedTextWithCountWritableComparable> itr = values.iterator();
-      while (itr.hasNext()) {
-         value = itr.next();
-         count += value.getCount().get();
-         if (null == source && null != value) {
-            // Only set this once, not for every element in the iterator
-            source = Source.valueOf(value.getSource().toString().toUpperCase());
+      for (TaggedTextWithCountWritableComparable value : values) {
+         Source source = value.getSource();
+         int column = testSets ? value.getSourceId() : 0;
+         if (null == source || column >= deltas.getDeltas().length) {
+            // Leave it to the reducer to account for invalid values
+            context.write(key, value);
+            continue;
          }
-      }
-      
-      if (count > 1) {
+         
+         long count = value.getCount();
          switch (source) {
             case REFERENCE:
-               context.getCounter(DdiffCombinerCounter.REFERENCE_COUNT)
-                  .increment((long) count);
+               refCount += count;
                break;
             case TEST:
-               context.getCounter(DdiffCombinerCounter.TEST_COUNT)
-                  .increment((long) count);
+               testCount -= count;
                break;
          }
+         deltas.add(value.getRecord(), column, count, collisionSafe);
       }
       
-      Text outSource = new Text(value.getSource().toString());
-      Text outRecord = new Text(value.getRecord().toString());
-      
-      TaggedTextWithCountWritableComparable outVal = new TaggedTextWithCountWritableComparable();
-      outVal.setSource(outSource);
-      outVal.setRecord(outRecord);
-      outVal.setCount(new IntWritable(count));
+      if (refCount > 1) {
+         context.getCounter(DdiffCombinerCounter.REFERENCE_COUNT).increment(refCount);
+      }
+      if (testCount > 1) {
+         context.getCounter(DdiffCombinerCounter.TEST_COUNT).increment(testCount);
+      }
       
+      if (deltas.isEmpty()) {
+         return;
+      }
+      write(key, deltas.getRecord(), deltas.getDeltas(), context);
+      for (Map.Entry<Text, long[]> entry : deltas.getCollisions().entrySet()) {
+         write(key, entry.getKey(), entry.getValue(), context);
+      }
+   }
+   
+   /**
+    * Writes the net count of the record, or, when diffing several test sets,
+    * the count of each source id.
+    */
+   private void write(HashKeyWritable key, Text record, long[] delta, Context context)
+         throws IOException, InterruptedException
+   {
+      if (!testSets) {
+         write(key, record, Source.forDelta(delta[0]).getId(), delta[0], context);
+         return;
+      }
+      for (int column = 0; column < delta.length; column++) {
+         write(key, record, (byte) column, delta[column], context);
+      }
+   }
+   
+   private void write(HashKeyWritable key, Text record, byte sourceId, long delta,
+         Context context) throws IOException, InterruptedException
+   {
+      if (0 == delta) {
+         return;
+      }
+      outVal.setRecord(record);
+      outVal.setSourceId(sourceId);
+      outVal.setCount(delta);
       context.write(key, outVal);
    }
    
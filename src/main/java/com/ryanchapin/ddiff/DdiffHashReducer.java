@@ -0,0 +1,73 @@
+package com.ryanchapin.ddiff;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ryanchapin.ddiff.DdiffReducer.DdiffReduceCounter;
+
+/**
+ * Reducer for the first job of the two-pass mode, see
+ * {@link DistributedDiff#OPTION_KEY_TWO_PASS_LONG}.
+ * <p>
+ * The values for each key carry only the {@link Source} and signed count of
+ * the records with that hash, as the mappers shuffle empty records in this
+ * mode.  The counts are summed and, for every hash for which the sum is
+ * non-zero, the hash is written along with the sum, which is the
+ * {@link Source#REFERENCE} count less the {@link Source#TEST} count.  The
+ * output is used to filter the input of the second job which materializes
+ * the missing and extra records.
+ *
+ * @since  1.3.0
+ */
+public class DdiffHashReducer extends Reducer<HashKeyWritable, TaggedTextWithCountWritableComparable, HashKeyWritable, LongWritable> {
+
+   private static final Logger LOGGER = LoggerFactory.getLogger(DdiffHashReducer.class);
+
+   private LongWritable outDiff = new LongWritable();
+
+   @Override
+   protected void reduce(HashKeyWritable key, Iterable<TaggedTextWithCountWritableComparable> values, Context context)
+         throws IOException, InterruptedException
+   {
+      long diff = 0;
+
+      for (TaggedTextWithCountWritableComparable value : values) {
+         long count = value.getCount();
+         Source source = value.getSource();
+         if (null == source) {
+            LOGGER.error("Invalid source id found in reduce record, sourceId = {}",
+                  value.getSourceId());
+            count = Math.abs(count);
+            context.getCounter(DdiffReduceCounter.INVALID_SOURCE)
+               .increment((count < 1) ? 1 : count);
+            continue;
+         }
+
+         switch (source) {
+            case REFERENCE:
+               context.getCounter(DdiffReduceCounter.REFERENCE_SOURCE).increment(count);
+               break;
+            case TEST:
+               context.getCounter(DdiffReduceCounter.TEST_SOURCE).increment(-count);
+               break;
+            default:
+         }
+         diff += count;
+      }
+
+      if (diff > 0) {
+         context.getCounter(DdiffReduceCounter.MISSING).increment(diff);
+      } else if (diff < 0) {
+         context.getCounter(DdiffReduceCounter.EXTRA).increment(-diff);
+      } else {
+         return;
+      }
+
+      outDiff.set(diff);
+      context.write(key, outDiff);
+   }
+}
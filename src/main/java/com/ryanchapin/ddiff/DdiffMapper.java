@@ -1,52 +1,160 @@
 package com.ryanchapin.ddiff;
 
+import java.io.File;
 import java.io.IOException;
-import java.security.NoSuchAlgorithmException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.ryanchapin.util.HashGenerator;
-import com.ryanchapin.util.HashGenerator.HashAlgorithm;
-
 /**
  * Reads input files, line by line, creates a hash of the records and then
- * emits keys as the hash of the records, and values as a
+ * emits keys as the binary hash of the records, as a {@link HashKeyWritable},
+ * and values as a
  * {@link TaggedTextWithCountWritableComparable} instance for each record.
+ * <p>
+ * Records are hashed directly from the bytes backing each input {@link Text}
+ * with the {@link RecordHasher} for the configured {@link RecordHashAlgorithm},
+ * which is obtained once per task.  The hasher, output key and output value
+ * are all reused across calls to {@link #map(LongWritable, Text, Context)}
+ * so that no per-record String, byte[] or MessageDigest instances are
+ * allocated.
+ * <p>
+ * In the two-pass mode, see {@link DistributedDiff#OPTION_KEY_TWO_PASS_LONG},
+ * the mappers of the first job emit empty records so that only the hash,
+ * source and count are shuffled, and the mappers of the second job only
+ * emit records whose hash is in the set of differing hashes written by the
+ * first job and read from the distributed cache.
+ * <p>
+ * In the secondary sort mode, see
+ * {@link DistributedDiff#OPTION_KEY_SECONDARY_SORT_LONG}, the record and
+ * source are emitted in a {@link HashRecordKeyWritable} key, and the record
+ * is left out of the value.
+ * <p>
+ * With in-mapper aggregation enabled, see
+ * {@link DistributedDiff#CONF_MAP_AGGREGATION_MB_KEY}, records are not
+ * emitted as they are read but are counted in an {@link OffHeapCountTable},
+ * held outside of the task heap, and emitted once, with their net count,
+ * whenever the table reaches its memory budget and when the task
+ * completes.  On inputs with many duplicate
+ * records this reduces the records written to the sort buffer, and so
+ * spilled and combined, by the duplication factor.
+ * <p>
+ * In the broadcast mode, see
+ * {@link DistributedDiff#OPTION_KEY_BROADCAST_THRESHOLD_MB_LONG}, the
+ * {@link Source#TEST} mappers load the distinct reference records, written
+ * by the {@link ReferenceTableBuilder}, from the distributed cache.  Test
+ * records found in that table are only counted against it, and the net
+ * count of each reference record matched is emitted once when the task
+ * completes, so that only the records not in the reference set are emitted
+ * as they are read.
+ * <p>
+ * In the bucket digest mode, see
+ * {@link DistributedDiff#OPTION_KEY_DIGEST_BUCKETS_LONG}, only the records
+ * whose hash falls in one of the dirty buckets, read from the distributed
+ * cache, are emitted, see {@link BucketDigests}.
+ * <p>
+ * In the batch mode, see {@link DistributedDiff#OPTION_KEY_MANIFEST_LONG},
+ * the mapper reads a {@link PairSplit}, from which it takes its source, and
+ * emits {@link PairHashKeyWritable} keys tagged with the pair of the split.
+ * <p>
+ * When a reference is diffed against several test sets, see
+ * {@link DistributedDiff#OPTION_KEY_TEST_INPUT_PATH_LONG}, the mapper reads
+ * a {@link SourceSplit} and tags its values with the source id of the
+ * split, which is that of the reference or of one of the test sets.
  * 
  * @since  1.0.0
  */
-public class DdiffMapper extends Mapper<LongWritable, Text, Text, TaggedTextWithCountWritableComparable> {
+public class DdiffMapper extends Mapper<LongWritable, Text, HashKeyWritable, TaggedTextWithCountWritableComparable> {
    
    protected static final Logger LOGGER = LoggerFactory.getLogger(DdiffMapper.class);
    
    /**
-    * Hash algorithm to be used when generating keys for each record with the
-    * {@link HashGenerator} class.
+    * Hash algorithm to be used when generating keys for each record if one
+    * is not provided in the Configuration.
     */
-   public static final HashAlgorithm HASH_ALGO_DEFAULT = HashAlgorithm.SHA256SUM;
+   public static final RecordHashAlgorithm HASH_ALGO_DEFAULT = RecordHashAlgorithm.SHA256SUM;
+   
+   protected RecordHashAlgorithm hashAlgorithm;
+   protected String stringEncoding;
+   protected Source source;
    
    /**
-    * Default String encoding to be passed to
-    * {@link HashGenerator#createHash(String, String, HashAlgorithm)}
+    * Id with which the values are tagged, that of the {@link #source} unless
+    * it is one of several test sets.
     */
-   public static final String ENCODING_DEFAULT = "UTF-8";
+   private byte sourceId;
    
-   protected static final IntWritable ONE = new IntWritable(1);
-   protected HashAlgorithm hashAlgorithm;
-   protected String stringEncoding;
-   protected Source source;
+   /**
+    * Per-task hasher instance for the configured {@link #hashAlgorithm}.
+    */
+   private RecordHasher hasher;
+   
+   /**
+    * Reusable buffer into which each hash is written.
+    */
+   private byte[] hashBuffer;
+   
+   private HashKeyWritable outKey;
+   private TaggedTextWithCountWritableComparable outVal;
+   
+   /**
+    * Whether only the hash, source and count are to be emitted.
+    */
+   private boolean hashOnly;
+   private Text emptyRecord = new Text();
+   
+   /**
+    * The {@link #outKey}, if the record is to be emitted in the key for the
+    * secondary sort, else null.
+    */
+   private HashRecordKeyWritable recordKey;
+   
+   /**
+    * Hashes of the records to be emitted, or null if all records are to be
+    * emitted.
+    */
+   private Set<HashKeyWritable> hashFilter;
+   
+   /**
+    * Hash buckets of the records to be emitted, or null if all records are
+    * to be emitted.
+    */
+   private BitSet bucketFilter;
+   private int numBuckets;
+   
+   /**
+    * Counts of the records read since the last flush, or null if records
+    * are emitted as they are read.
+    */
+   private OffHeapCountTable countTable;
+   private byte[] flushHash;
+   private byte[] flushBytes = new byte[1024];
+   private Text flushRecord = new Text();
+   
+   /**
+    * Counts of the test records matched against the broadcast reference
+    * records, or null if not in the broadcast mode.
+    */
+   private RecordCountTable broadcastTable;
    
    // ------------------------------------------------------------------------
    // Accessor/Mutators:
    //
    
-   public HashAlgorithm getHashAlgorithm() {
+   public RecordHashAlgorithm getHashAlgorithm() {
       return hashAlgorithm;
    }
 
@@ -72,18 +180,72 @@ public class DdiffMapper extends Mapper<LongWritable, Text, Text, TaggedTextWith
       
       // Read our configuration data from the Configuration instance
       Configuration conf = context.getConfiguration();
-      hashAlgorithm = Enum.valueOf(HashAlgorithm.class,
-            conf.get(DistributedDiff.CONF_HASH_ALGO_KEY));
+      hashAlgorithm = Enum.valueOf(RecordHashAlgorithm.class,
+            conf.get(DistributedDiff.CONF_HASH_ALGO_KEY, HASH_ALGO_DEFAULT.name()));
       stringEncoding = conf.get(DistributedDiff.CONF_ENCODING_KEY);
 
       LOGGER.info("Values from Configuration instance\n\t{} = {}\n\t{} = {}",
             DistributedDiff.CONF_HASH_ALGO_KEY, hashAlgorithm.toString(),
             DistributedDiff.CONF_ENCODING_KEY, stringEncoding);
+      
+      hasher = hashAlgorithm.newHasher();
+      hashBuffer = new byte[hasher.getHashLength()];
+      
+      InputSplit split = context.getInputSplit();
+      if (split instanceof SourceSplit) {
+         source = ((SourceSplit) split).getSource();
+         sourceId = ((SourceSplit) split).getSourceId();
+      } else {
+         sourceId = source.getId();
+      }
+      
+      if (conf.getBoolean(DistributedDiff.CONF_SECONDARY_SORT_KEY, false)) {
+         recordKey = new HashRecordKeyWritable();
+         recordKey.setSourceId(sourceId);
+         outKey = recordKey;
+      } else if (split instanceof PairSplit) {
+         // Only the hash of the key is updated for each record
+         PairHashKeyWritable pairKey = new PairHashKeyWritable();
+         pairKey.setPair(((PairSplit) split).getPair());
+         outKey = pairKey;
+      } else {
+         outKey = new HashKeyWritable();
+      }
+      outVal = new TaggedTextWithCountWritableComparable(null, source, source.getSign());
+      outVal.setSourceId(sourceId);
+      
+      hashOnly = conf.getBoolean(DistributedDiff.CONF_HASH_ONLY_KEY, false);
+      if (conf.getBoolean(DistributedDiff.CONF_HASH_FILTER_KEY, false)) {
+         hashFilter = loadHashFilter(conf, context.getCacheFiles());
+         LOGGER.info("Loaded {} hashes to filter input records", hashFilter.size());
+      }
+      
+      if (conf.getBoolean(DistributedDiff.CONF_BUCKET_FILTER_KEY, false)) {
+         numBuckets = conf.getInt(DistributedDiff.CONF_DIGEST_BUCKETS_KEY, 0);
+         bucketFilter = loadBucketFilter(conf, context.getCacheFiles());
+         LOGGER.info("Loaded {} of {} buckets to filter input records",
+               bucketFilter.cardinality(), numBuckets);
+      }
+      
+      if (Source.TEST == source && conf.getBoolean(DistributedDiff.CONF_BROADCAST_KEY, false)) {
+         broadcastTable = loadBroadcastTable(conf, context.getCacheFiles(),
+               HashKeyWritable.keyWidth(hasher.getHashLength()));
+         LOGGER.info("Loaded {} broadcast reference records", broadcastTable.size());
+      }
+      
+      int aggregationMb = conf.getInt(DistributedDiff.CONF_MAP_AGGREGATION_MB_KEY, 0);
+      if (aggregationMb > 0) {
+         int keyWidth = HashKeyWritable.keyWidth(hasher.getHashLength());
+         countTable = new OffHeapCountTable(keyWidth, true, aggregationMb * 1024L * 1024L);
+         flushHash = new byte[keyWidth];
+         LOGGER.info("Aggregating records in the mapper with a budget of {} MB", aggregationMb);
+      }
    }
    
    /**
     * Takes each line from the source file, hashes the value, and then creates
-    * a key with that hash and an output value that is a
+    * a {@link HashKeyWritable} key from the raw bytes of that hash and an
+    * output value that is a
     * {@link TaggedTextWithCountWritableComparable} instance which is the
     * record and it's count.
     * 
@@ -95,27 +257,36 @@ public class DdiffMapper extends Mapper<LongWritable, Text, Text, TaggedTextWith
          throws IOException, InterruptedException
          
    {
-      String hashKey = null;
-      try {
-         hashKey = HashGenerator.createHash(value.toString(),
-               ENCODING_DEFAULT, HASH_ALGO_DEFAULT);
-      } catch (IllegalArgumentException | NoSuchAlgorithmException e) {
-         // Catch an exception that might be thrown directly by the HashGenerator,
-         // log the error and then throw an un-checked exception to cause the
-         // mapper to fail, as we cannot continue processing with null keys.
-         String errMsg = "Exception thrown from HashGenerator when attempting " +
-               " to hash the input key, e = " + e.getCause().getMessage();
-         LOGGER.error(errMsg);
-         e.printStackTrace();
-         throw new IllegalStateException(errMsg);
+      int hashLength = hasher.hash(value.getBytes(), 0, value.getLength(), hashBuffer);
+      outKey.set(hashBuffer, 0, hashLength);
+      if (null != hashFilter && !hashFilter.contains(outKey)) {
+         return;
+      }
+      if (null != bucketFilter && !bucketFilter.get(BucketDigests.getBucket(hashBuffer, numBuckets))) {
+         return;
       }
-      
-      Text outKey = new Text(hashKey);
-      TaggedTextWithCountWritableComparable outVal =
-            new TaggedTextWithCountWritableComparable(
-                  value, new Text(source.toString()), ONE);
 
-      context.write(outKey, outVal);
+      Text record = hashOnly ? emptyRecord : value;
+      if (null != broadcastTable &&
+            broadcastTable.addIfPresent(outKey.getBytes(), record.getBytes(), record.getLength(),
+                  source.getSign()))
+      {
+         context.getCounter(DdiffMapperCounter.BROADCAST_MATCHES).increment(1L);
+      } else if (null == countTable) {
+         write(record, source.getSign(), context);
+      } else if (!countTable.add(outKey.getBytes(), 0, record.getBytes(), 0,
+            record.getLength(), source.getSign()))
+      {
+         // The flush reuses the key, so restore the hash of the record
+         flush(context);
+         outKey.set(hashBuffer, 0, hashLength);
+         if (!countTable.add(outKey.getBytes(), 0, record.getBytes(), 0,
+               record.getLength(), source.getSign()))
+         {
+            // The record alone exceeds the budget
+            write(record, source.getSign(), context);
+         }
+      }
       
       switch (source) {
          case REFERENCE:
@@ -128,7 +299,174 @@ public class DdiffMapper extends Mapper<LongWritable, Text, Text, TaggedTextWith
       }
    }
    
+   @Override
+   protected void cleanup(Context context) throws IOException, InterruptedException {
+      if (null != countTable) {
+         flush(context);
+      }
+      if (null != broadcastTable) {
+         // Emit the net count of each reference record that was matched
+         for (int i = 0; i < broadcastTable.size(); i++) {
+            long count = broadcastTable.getCount(i);
+            if (count != 0) {
+               broadcastTable.copyHash(i, outKey);
+               broadcastTable.copyRecord(i, flushRecord);
+               write(flushRecord, count, context);
+            }
+         }
+      }
+      super.cleanup(context);
+   }
+   
+   /**
+    * Writes the record with the current {@link #outKey} hash.
+    */
+   private void write(Text record, long count, Context context)
+         throws IOException, InterruptedException
+   {
+      // The Text instance handed to us is owned by the framework and is
+      // serialized by context.write, so it can be used as the record directly.
+      if (null != recordKey) {
+         recordKey.setRecord(record);
+         outVal.setRecord(emptyRecord);
+      } else {
+         outVal.setRecord(record);
+      }
+      outVal.setCount(count);
+      context.write(outKey, outVal);
+   }
+   
+   /**
+    * Writes each of the records in the {@link #countTable} with its net
+    * count and clears the table.
+    */
+   private void flush(Context context) throws IOException, InterruptedException {
+      LOGGER.debug("Flushing {} aggregated records", countTable.size());
+      for (long slot = countTable.nextEntry(0); slot >= 0; slot = countTable.nextEntry(slot + 1)) {
+         countTable.copyHash(slot, flushHash, 0);
+         outKey.set(flushHash, 0, flushHash.length);
+         int length = countTable.getRecordLength(slot);
+         if (flushBytes.length < length) {
+            flushBytes = new byte[Math.max(flushBytes.length * 2, length)];
+         }
+         countTable.copyRecord(slot, flushBytes, 0);
+         flushRecord.set(flushBytes, 0, length);
+         write(flushRecord, countTable.getCount(slot), context);
+      }
+      countTable.clear();
+      context.getCounter(DdiffMapperCounter.AGGREGATION_FLUSHES).increment(1L);
+   }
+   
+   /**
+    * Reads the {@link HashKeyWritable} keys from each of the SequenceFiles
+    * written by the {@link DdiffHashReducer}, see {@link #getCachePath(URI)}.
+    */
+   private static Set<HashKeyWritable> loadHashFilter(Configuration conf, URI[] cacheFiles)
+         throws IOException
+   {
+      Set<HashKeyWritable> retVal = new HashSet<HashKeyWritable>();
+      if (null == cacheFiles) {
+         // The first job found no differing hashes
+         return retVal;
+      }
+      
+      HashKeyWritable key = new HashKeyWritable();
+      LongWritable diff   = new LongWritable();
+      for (Path path : getCachePaths(cacheFiles, DistributedDiff.HASH_CACHE_FILE_PREFIX)) {
+         SequenceFile.Reader reader = new SequenceFile.Reader(conf,
+               SequenceFile.Reader.file(path));
+         try {
+            while (reader.next(key, diff)) {
+               HashKeyWritable hash = new HashKeyWritable();
+               hash.set(key);
+               retVal.add(hash);
+            }
+         } finally {
+            reader.close();
+         }
+      }
+      return retVal;
+   }
+   
+   /**
+    * Reads the distinct reference records written by the
+    * {@link ReferenceTableBuilder} into a table with a count of zero for
+    * each.
+    */
+   private static RecordCountTable loadBroadcastTable(Configuration conf, URI[] cacheFiles,
+         int hashWidth) throws IOException
+   {
+      RecordCountTable retVal = new RecordCountTable(hashWidth, Long.MAX_VALUE);
+      if (null == cacheFiles) {
+         return retVal;
+      }
+      
+      HashKeyWritable key = new HashKeyWritable();
+      Text record = new Text();
+      for (Path path : getCachePaths(cacheFiles, DistributedDiff.REFERENCE_CACHE_FILE_NAME)) {
+         SequenceFile.Reader reader = new SequenceFile.Reader(conf,
+               SequenceFile.Reader.file(path));
+         try {
+            while (reader.next(key, record)) {
+               retVal.add(key.getBytes(), record.getBytes(), record.getLength(), 0L);
+            }
+         } finally {
+            reader.close();
+         }
+      }
+      return retVal;
+   }
+   
+   /**
+    * Reads the dirty buckets written by the driver in the bucket digest
+    * mode, or returns an empty set if there are none.
+    */
+   private static BitSet loadBucketFilter(Configuration conf, URI[] cacheFiles)
+         throws IOException
+   {
+      BitSet retVal = new BitSet();
+      if (null == cacheFiles) {
+         return retVal;
+      }
+      for (Path path : getCachePaths(cacheFiles, DistributedDiff.DIRTY_BUCKETS_CACHE_FILE_NAME)) {
+         retVal.or(BucketDigests.readBuckets(path.getFileSystem(conf), path));
+      }
+      return retVal;
+   }
+   
+   /**
+    * Returns the paths, see {@link #getCachePath(URI)}, of the cache files
+    * whose link name, or file name if they have no link name, starts with
+    * the given prefix.
+    */
+   private static List<Path> getCachePaths(URI[] cacheFiles, String prefix) {
+      List<Path> retVal = new ArrayList<Path>();
+      for (URI uri : cacheFiles) {
+         String name = (null == uri.getFragment()) ?
+               new Path(uri.getPath()).getName() : uri.getFragment();
+         if (name.startsWith(prefix)) {
+            retVal.add(getCachePath(uri));
+         }
+      }
+      return retVal;
+   }
+   
+   /**
+    * Returns the path of the localized copy of the cache file in the task's
+    * working directory if the framework has linked one there, and otherwise
+    * its original location.
+    */
+   private static Path getCachePath(URI uri) {
+      File localFile = (null == uri.getFragment()) ? null : new File(uri.getFragment());
+      if (null != localFile && localFile.exists()) {
+         return new Path(localFile.toURI());
+      }
+      return new Path(uri.getScheme(), uri.getAuthority(), uri.getPath());
+   }
+   
    public static enum DdiffMapperCounter {
+      AGGREGATION_FLUSHES,
+      BROADCAST_MATCHES,
       REFERENCE_COUNT,
       TEST_COUNT;
    }
@@ -1,11 +1,12 @@
 package com.ryanchapin.ddiff;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 
-import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
@@ -16,145 +17,377 @@ import org.slf4j.LoggerFactory;
  * Keys are aggregated by the hash of the input records across both
  * {@link Source#REFERENCE} and {@link Source#TEST} inputs.
  * <p>
- * The records are then bucketed by their source and comparisons made to
- * determine if there are any records missing in the {@link Source#TEST}
- * and if there are any additional records in the {@link Source#TEST}.
+ * The counts of the values are signed, positive for {@link Source#REFERENCE}
+ * and negative for {@link Source#TEST} records, so they are simply summed
+ * and any non-zero result is written out directly as missing or extra
+ * records.
+ * <p>
+ * By default, all of the values for a given key are assumed to be the same
+ * record.  In the collision-safe mode, enabled via
+ * {@link DistributedDiff#CONF_COLLISION_SAFE_KEY}, the counts are instead
+ * summed separately for each distinct record.  This guards against distinct
+ * records that hash to the same key, which is worth the additional cost
+ * with the non-cryptographic hash algorithms.  In either mode, no per-key
+ * map is allocated unless distinct records are found under the same key.
+ * <p>
+ * In the secondary sort mode, see
+ * {@link DistributedDiff#OPTION_KEY_SECONDARY_SORT_LONG}, the records are
+ * read from the {@link HashRecordKeyWritable} keys rather than the values,
+ * and as the values arrive sorted by record they are merged in a single
+ * streaming pass with constant memory, even for keys under which many
+ * distinct records share a hash.
+ * <p>
+ * When diffing against a reference index, see
+ * {@link DistributedDiff#OPTION_KEY_REFERENCE_INDEX_LONG}, only the test
+ * records are shuffled, and each reducer reads the partition of the
+ * {@link ReferenceIndex} with its own number, which holds the reference
+ * records of the same range of hashes in the same order as its keys.  The
+ * index is merged with the keys as they arrive: index entries that sort
+ * before a key have no test records and are written out as missing, and
+ * those with the same hash are counted along with its values.
+ * <p>
+ * In the batch mode, see {@link DistributedDiff#OPTION_KEY_MANIFEST_LONG},
+ * the keys are {@link PairHashKeyWritable} instances, grouped by hash and
+ * pair, and the missing and extra records of each pair are written to a
+ * directory named after the id of the pair in the {@link BatchManifest}.
+ * The missing and extra counts of each pair are added up as the records are
+ * written and, for each pair with any, written to the
+ * {@link DistributedDiff#SUMMARY_OUTPUT} when the task completes.  While
+ * the manifest holds no more than {@link DistributedDiff#MAX_PAIR_COUNTERS}
+ * pairs they are also counted in the
+ * {@link DistributedDiff#PAIR_COUNTER_GROUP} counters, which are otherwise
+ * left out so as not to exceed the job's counter limit.
+ * <p>
+ * When a reference is diffed against several test sets, see
+ * {@link DistributedDiff#CONF_TEST_SET_LABELS_KEY}, the counts of each key
+ * are summed separately for each source id, and each test set is diffed
+ * against the same reference counts.  The missing and extra records of each
+ * test set are written to a directory named after its label and counted in
+ * the {@link DistributedDiff#TEST_SET_COUNTER_GROUP} counters.
  * 
  * @since  1.0.0
  */
-public class DdiffReducer extends Reducer<Text, TaggedTextWithCountWritableComparable, Text, IntWritable> {
+public class DdiffReducer extends Reducer<HashKeyWritable, TaggedTextWithCountWritableComparable, Text, LongWritable> {
 
    private static final Logger LOGGER = LoggerFactory.getLogger(DdiffReducer.class);
    
-   private MultipleOutputs<Text, IntWritable> mos;
+   private MultipleOutputs<Text, LongWritable> mos;
+   
+   private boolean collisionSafe;
+   
+   /**
+    * Whether the keys are {@link HashRecordKeyWritable} instances which
+    * carry the record for each value.
+    */
+   private boolean secondarySort;
+   
+   private RecordDeltas deltas;
+   
+   /**
+    * Copy of the current record in the secondary sort mode.
+    */
+   private Text sortedRecord = new Text();
+   
+   private LongWritable outCount = new LongWritable();
+   
+   /**
+    * Reader of the partition of the reference index merged with the keys,
+    * or null if not diffing against a reference index.
+    */
+   private SequenceFile.Reader indexReader;
+   private HashKeyWritable indexKey = new HashKeyWritable();
+   private TaggedTextWithCountWritableComparable indexValue =
+         new TaggedTextWithCountWritableComparable();
+   private boolean hasIndexEntry;
+   
+   /**
+    * Manifest of the pairs in the batch mode, or null if not in the batch
+    * mode.
+    */
+   private BatchManifest manifest;
+   private int pair;
+   private long[] pairMissing;
+   private long[] pairExtra;
+   private boolean pairCounters;
+   
+   /**
+    * Labels of the test sets diffed against the reference, indexed by test
+    * set, or null if there is a single test input.
+    */
+   private String[] testSetLabels;
+   private int testSet;
    
    @Override
    public void setup(Context context) throws IOException, InterruptedException {
-      mos = new MultipleOutputs<Text, IntWritable>(context);
+      mos = new MultipleOutputs<Text, LongWritable>(context);
+      Configuration conf = context.getConfiguration();
+      collisionSafe = conf.getBoolean(DistributedDiff.CONF_COLLISION_SAFE_KEY, false);
+      secondarySort = conf.getBoolean(DistributedDiff.CONF_SECONDARY_SORT_KEY, false);
+      testSetLabels = conf.getStrings(DistributedDiff.CONF_TEST_SET_LABELS_KEY);
+      deltas = (null == testSetLabels) ?
+            new RecordDeltas() : new RecordDeltas(testSetLabels.length + 1);
+      
+      String index = conf.get(DistributedDiff.CONF_REFERENCE_INDEX_PATH_KEY);
+      if (null != index) {
+         Path partition = ReferenceIndex.getPartitionPath(new Path(index),
+               context.getTaskAttemptID().getTaskID().getId());
+         LOGGER.info("Merging reference index partition {}", partition);
+         indexReader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(partition));
+         hasIndexEntry = indexReader.next(indexKey, indexValue);
+      }
+      
+      String manifestPath = conf.get(DistributedDiff.CONF_MANIFEST_PATH_KEY);
+      if (null != manifestPath) {
+         Path path = new Path(manifestPath);
+         manifest = BatchManifest.read(path.getFileSystem(conf), path);
+         pairMissing = new long[manifest.size()];
+         pairExtra = new long[manifest.size()];
+         pairCounters = manifest.size() <= DistributedDiff.MAX_PAIR_COUNTERS;
+      }
       super.setup(context);
    }
    
    @Override
-   protected void reduce(Text key, Iterable<TaggedTextWithCountWritableComparable> values, Context context)
+   protected void reduce(HashKeyWritable key, Iterable<TaggedTextWithCountWritableComparable> values, Context context)
          throws IOException, InterruptedException
-   {   
-      // Separate out the values based on their source
-      Map<Text, Integer> referenceMap = new HashMap<Text, Integer>();
-      Map<Text, Integer> testMap      = new HashMap<Text, Integer>();
+   {
+      if (secondarySort) {
+         reduceSorted((HashRecordKeyWritable) key, values, context);
+         return;
+      }
       
-      Source source = null;
-      int count = 0;
-      TaggedTextWithCountWritableComparable value = null;
-      Iterator<TaggedTextWithCountWritableComparable> valuesItr = values.iterator();
-      while (valuesItr.hasNext()) {
-
-         value = valuesItr.next();
-         count = value.getCount().get();
-         
-         // Ensure that we don't have some invalid Text value for our
-         // Source enum.
-         try {
-            source = Source.valueOf(value.getSource().toString().toUpperCase());
-         } catch (IllegalArgumentException e) {
-            String errMsg = "Invalid source value found in reduce record";
-            LOGGER.error(errMsg + ", " + e.toString());
-            long invalidCount = (long) ((count < 1) ? 1 : count);
-            context.getCounter(DdiffReduceCounter.INVALID_SOURCE).increment(invalidCount);
+      if (null != manifest) {
+         pair = ((PairHashKeyWritable) key).getPair();
+      }
+      
+      deltas.reset();
+      if (null != indexReader) {
+         mergeIndex(key, context);
+      }
+      for (TaggedTextWithCountWritableComparable value : values) {
+         if (null == countSource(value, context)) {
             continue;
          }
-         
-         switch (source) {
-            case REFERENCE:
-               context.getCounter(DdiffReduceCounter.REFERENCE_SOURCE).increment(count);
-               upsertMapEntry(value, referenceMap);
-               break;     
-            case TEST:
-               context.getCounter(DdiffReduceCounter.TEST_SOURCE).increment(count);
-               upsertMapEntry(value, testMap);
-               break;
-            default:
-         }
+         int column = (null == testSetLabels) ? 0 : value.getSourceId();
+         deltas.add(value.getRecord(), column, value.getCount(), collisionSafe);
       }
       
-      // Now make sure that there is a match in the test set for every record
-      // in the reference set.  We will continue to decrement or remove
-      // items in the test set that we find in the reference set. 
-      Text refKey       = null;
-      Integer refCount  = null;
-      Integer testCount = null;
-      int diff          = 0;
+      if (deltas.isEmpty()) {
+         return;
+      }
+      writeDiffs(deltas.getRecord(), deltas.getDeltas(), context);
+      for (Map.Entry<Text, long[]> entry : deltas.getCollisions().entrySet()) {
+         writeDiffs(entry.getKey(), entry.getValue(), context);
+      }
+   }
+   
+   /**
+    * Writes the diff of the record from its net count or, when diffing
+    * several test sets, from the reference count and the count of each of
+    * the test sets in turn.
+    * 
+    * @param delta
+    *        the counts of the record, see {@link RecordDeltas#getDeltas()}
+    */
+   private void writeDiffs(Text record, long[] delta, Context context)
+         throws IOException, InterruptedException
+   {
+      if (null == testSetLabels) {
+         writeDiff(record, delta[0], context);
+         return;
+      }
+      long referenceCount = delta[Source.REFERENCE.getId()];
+      for (testSet = 0; testSet < testSetLabels.length; testSet++) {
+         writeDiff(record, referenceCount + delta[Source.getTestSetId(testSet)], context);
+      }
+   }
+   
+   /**
+    * Writes out the index entries that sort before the key, and adds those
+    * with the same hash as the key to the {@link #deltas}.  Passing a null
+    * key writes out all of the remaining entries.
+    */
+   private void mergeIndex(HashKeyWritable key, Context context)
+         throws IOException, InterruptedException
+   {
+      while (hasIndexEntry) {
+         int cmp = (null == key) ? -1 : indexKey.compareTo(key);
+         if (cmp > 0) {
+            break;
+         }
+         countSource(indexValue, context);
+         if (cmp < 0) {
+            writeDiff(indexValue.getRecord(), indexValue.getCount(), context);
+         } else {
+            deltas.add(indexValue.getRecord(), indexValue.getCount(), collisionSafe);
+         }
+         hasIndexEntry = indexReader.next(indexKey, indexValue);
+      }
+   }
+   
+   /**
+    * Merges the values for a key in the secondary sort mode, in which the
+    * values arrive ordered by record and the framework updates the key with
+    * the record of each value as the values are iterated.  As all of the
+    * values for a record are contiguous, the net count of each record is
+    * written out as soon as the next record is reached, so only the current
+    * record is held regardless of how many distinct records share the hash.
+    * Distinct records are always counted separately in this mode, as
+    * telling them apart costs no more than a comparison with the current
+    * record.
+    */
+   private void reduceSorted(HashRecordKeyWritable key, Iterable<TaggedTextWithCountWritableComparable> values, Context context)
+         throws IOException, InterruptedException
+   {
+      boolean haveRecord = false;
+      long delta = 0;
       
-      Iterator<Map.Entry<Text, Integer>> refMapItr = referenceMap.entrySet().iterator();
-      while (refMapItr.hasNext()) {
-         Map.Entry<Text, Integer> entry = refMapItr.next();
-         
-         // Is there a record in the testMap for this key
-         refKey = entry.getKey();
-         refCount  = referenceMap.get(refKey);
-         
-         if (testMap.containsKey(refKey)) {
-            testCount = testMap.get(refKey);
-            diff = refCount - testCount;
+      for (TaggedTextWithCountWritableComparable value : values) {
+         if (null == countSource(value, context)) {
+            continue;
+         }
          
-            if (diff > 0) {
-               // There were missing records in the test set
-               mos.write(DistributedDiff.MISSING_OUTPUT, refKey, new IntWritable(diff));
-               context.getCounter(DdiffReduceCounter.MISSING).increment(diff);
-            } else if (diff < 0) {
-               // There were additional records in the test set
-               int diffPositive = diff * -1;
-               mos.write(DistributedDiff.EXTRA_OUTPUT, refKey, new IntWritable(diffPositive));
-               context.getCounter(DdiffReduceCounter.EXTRA).increment(diffPositive);
-            }
-            
-            // Remove the record from the testMap so it will not be included in
-            // the set of additional records, since it has just been accounted
-            // for
-            testMap.remove(refKey);
-            
-         } else {
-            // Add the record and full count to the missing output.
-            mos.write(DistributedDiff.MISSING_OUTPUT, refKey, new IntWritable(refCount));
-            context.getCounter(DdiffReduceCounter.MISSING).increment(refCount);
-         }  
+         Text record = key.getRecord();
+         if (haveRecord && !sortedRecord.equals(record)) {
+            writeDiff(sortedRecord, delta, context);
+            haveRecord = false;
+         }
+         if (!haveRecord) {
+            sortedRecord.set(record);
+            delta = 0;
+            haveRecord = true;
+         }
+         delta += value.getCount();
       }
       
-      // Now write out the remaining items from the testMap to the extra output
-      for (Map.Entry<Text, Integer> entry : testMap.entrySet()) {
-         mos.write(DistributedDiff.EXTRA_OUTPUT, entry.getKey(), new IntWritable(entry.getValue()));
-         context.getCounter(DdiffReduceCounter.EXTRA).increment((long) entry.getValue());
+      if (haveRecord) {
+         writeDiff(sortedRecord, delta, context);
       }
    }
    
    /**
-    * Encapsulates the adding or updating of the count for a given record in
-    * the map parameter
+    * Writes the record to the missing output if diff is positive, or to the
+    * extra output if diff is negative.
     * 
-    * @param value
-    *        {@link TaggedTextWithCountWritableComparable} instance which
-    *        is to be either added the count updated in the map.
-    * @param map
-    *        Map in which the elements therein should have their values updated
-    *        or into which new elements should be added.
+    * @param record
+    *        the record to be written
+    * @param diff
+    *        the {@link Source#REFERENCE} count less the {@link Source#TEST}
+    *        count for the record
+    */
+   private void writeDiff(Text record, long diff, Context context)
+         throws IOException, InterruptedException
+   {
+      if (diff > 0) {
+         // There were missing records in the test set
+         outCount.set(diff);
+         if (null != manifest) {
+            writePairDiff(DistributedDiff.MISSING_OUTPUT, record, pairMissing, context);
+         } else if (null != testSetLabels) {
+            writeTestSetDiff(DistributedDiff.MISSING_OUTPUT, record, context);
+         } else {
+            mos.write(DistributedDiff.MISSING_OUTPUT, record, outCount);
+         }
+         context.getCounter(DdiffReduceCounter.MISSING).increment(diff);
+      } else if (diff < 0) {
+         // There were additional records in the test set
+         long diffPositive = diff * -1;
+         outCount.set(diffPositive);
+         if (null != manifest) {
+            writePairDiff(DistributedDiff.EXTRA_OUTPUT, record, pairExtra, context);
+         } else if (null != testSetLabels) {
+            writeTestSetDiff(DistributedDiff.EXTRA_OUTPUT, record, context);
+         } else {
+            mos.write(DistributedDiff.EXTRA_OUTPUT, record, outCount);
+         }
+         context.getCounter(DdiffReduceCounter.EXTRA).increment(diffPositive);
+      }
+   }
+   
+   /**
+    * Writes the record with the {@link #outCount} to the named output in the
+    * directory of the current {@link #pair}, and adds the count to the
+    * totals of the pair.
     */
-   private void upsertMapEntry(
-         TaggedTextWithCountWritableComparable value, Map<Text, Integer> map)
+   private void writePairDiff(String namedOutput, Text record, long[] pairTotals,
+         Context context) throws IOException, InterruptedException
    {
-      Text record   = value.getRecord();
-      Integer count = map.get(record);
-      if (null == count) {
-         // Insert a new record with the value from the
-         // TaggedTextWithCountWritableComparable indicating the number of
-         // records that were found.
-         map.put(record, new Integer(value.getCount().get()));
-      } else {
-         // Increment the count value by the number of records in the Writable
-        map.put(record, (count + value.getCount().get()));
+      String pairId = manifest.getPairId(pair);
+      mos.write(namedOutput, record, outCount, pairId + Path.SEPARATOR + namedOutput);
+      pairTotals[pair] += outCount.get();
+      if (pairCounters) {
+         context.getCounter(DistributedDiff.PAIR_COUNTER_GROUP, pairId + "." + namedOutput)
+            .increment(outCount.get());
       }
    }
    
+   /**
+    * Writes the record with the {@link #outCount} to the named output in the
+    * directory of the current {@link #testSet}, and counts it against the
+    * test set.
+    */
+   private void writeTestSetDiff(String namedOutput, Text record, Context context)
+         throws IOException, InterruptedException
+   {
+      String label = testSetLabels[testSet];
+      mos.write(namedOutput, record, outCount, label + Path.SEPARATOR + namedOutput);
+      context.getCounter(DistributedDiff.TEST_SET_COUNTER_GROUP, label + "." + namedOutput)
+         .increment(outCount.get());
+   }
+   
+   /**
+    * Returns the {@link Source} of the value after incrementing the counter
+    * for that source, or null after incrementing the
+    * {@link DdiffReduceCounter#INVALID_SOURCE} counter if the value does not
+    * contain a valid source.
+    */
+   private Source countSource(TaggedTextWithCountWritableComparable value, Context context) {
+      long count = value.getCount();
+      
+      // Ensure that we don't have some invalid id for our Source enum, or
+      // for the test sets being diffed.
+      Source source = value.getSource();
+      if (null != testSetLabels &&
+            value.getSourceId() > Source.getTestSetId(testSetLabels.length - 1))
+      {
+         source = null;
+      }
+      if (null == source) {
+         LOGGER.error("Invalid source id found in reduce record, sourceId = {}",
+               value.getSourceId());
+         count = Math.abs(count);
+         long invalidCount = (count < 1) ? 1 : count;
+         context.getCounter(DdiffReduceCounter.INVALID_SOURCE).increment(invalidCount);
+         return null;
+      }
+      
+      switch (source) {
+         case REFERENCE:
+            context.getCounter(DdiffReduceCounter.REFERENCE_SOURCE).increment(count);
+            break;
+         case TEST:
+            context.getCounter(DdiffReduceCounter.TEST_SOURCE).increment(-count);
+            break;
+         default:
+      }
+      return source;
+   }
+   
    @Override
    public void cleanup(Context context) throws IOException, InterruptedException {
+      if (null != indexReader) {
+         mergeIndex(null, context);
+         indexReader.close();
+      }
+      if (null != manifest) {
+         // Each line holds the id, missing count and extra count of a pair
+         for (int i = 0; i < manifest.size(); i++) {
+            if (pairMissing[i] != 0 || pairExtra[i] != 0) {
+               mos.write(DistributedDiff.SUMMARY_OUTPUT, new Text(manifest.getPairId(i)),
+                     new Text(pairMissing[i] + "\t" + pairExtra[i]));
+            }
+         }
+      }
       if (mos != null) {
       	mos.close();
       }
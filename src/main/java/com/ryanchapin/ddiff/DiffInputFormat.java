@@ -0,0 +1,49 @@
+package com.ryanchapin.ddiff;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+
+/**
+ * Input format of the records of the diff job, which splits its inputs as
+ * the {@code TextInputFormat} does and reads each split with a
+ * {@link DiffLineRecordReader}.
+ * <p>
+ * Compressed inputs are read whole, in a single split each.
+ *
+ * @since  1.3.0
+ */
+public class DiffInputFormat extends FileInputFormat<LongWritable, Text> {
+
+   /**
+    * Key of the number of bytes read from the input at a time.
+    */
+   public static final String CONF_BUFFER_BYTES_KEY = "ddiff.input.buffer.bytes";
+
+   public static final int DEFAULT_BUFFER_BYTES = 1024 * 1024;
+
+   /**
+    * Key of the delimiter of the records, as read by the
+    * {@code TextInputFormat}.  By default records are terminated by
+    * {@code \n}, {@code \r} or {@code \r\n}.
+    */
+   public static final String CONF_DELIMITER_KEY = "textinputformat.record.delimiter";
+
+   @Override
+   public RecordReader<LongWritable, Text> createRecordReader(InputSplit split,
+         TaskAttemptContext context)
+   {
+      return new DiffLineRecordReader();
+   }
+
+   @Override
+   protected boolean isSplitable(JobContext context, Path file) {
+      return null == new CompressionCodecFactory(context.getConfiguration()).getCodec(file);
+   }
+}
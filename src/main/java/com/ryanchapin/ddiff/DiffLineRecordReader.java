@@ -0,0 +1,282 @@
+package com.ryanchapin.ddiff;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/**
+ * Reads the lines of a {@link FileSplit} of the diff job, see
+ * {@link DiffInputFormat}, returning the offset of each line and its bytes.
+ * <p>
+ * The input is read in blocks of
+ * {@link DiffInputFormat#CONF_BUFFER_BYTES_KEY} into a single buffer that
+ * is reused for the whole split, and each line is found in place in the
+ * buffer and copied out of it into the reused value in a single bulk copy.
+ * Unlike the {@code LineRecordReader}, which appends each line to its value
+ * as each buffer is scanned, a line is only copied once it is complete,
+ * the buffer growing instead if a line is longer than it.  The bytes are
+ * never decoded or validated as UTF-8, so records are diffed byte for
+ * byte.
+ * <p>
+ * Lines are terminated by {@code \n}, {@code \r} or {@code \r\n}, as by the
+ * {@code LineRecordReader}, or by the delimiter given with
+ * {@link DiffInputFormat#CONF_DELIMITER_KEY}, which is not part of the
+ * line.  As with the {@code LineRecordReader}, each split holds the lines
+ * that start after its first byte and no later than its last byte, the
+ * first split of each file also holding its first line, so that the lines
+ * read are the same whatever the splits.
+ *
+ * @since  1.3.0
+ */
+public class DiffLineRecordReader extends RecordReader<LongWritable, Text> {
+
+   private long start;
+   private long end;
+
+   /**
+    * Offset in the input of the first byte of the buffer that has not yet
+    * been read.
+    */
+   private long pos;
+
+   private FSDataInputStream fileIn;
+   private long fileLength;
+   private InputStream in;
+   private Decompressor decompressor;
+
+   /**
+    * Delimiter of the lines, or null for {@code \n}, {@code \r} or
+    * {@code \r\n}.
+    */
+   private byte[] delimiter;
+
+   private byte[] buffer;
+   private int bufferPos;
+   private int bufferEnd;
+   private boolean eof;
+
+   private LongWritable key = new LongWritable();
+   private Text value = new Text();
+
+   // ------------------------------------------------------------------------
+   // Member Methods
+   //
+
+   @Override
+   public void initialize(InputSplit split, TaskAttemptContext context) throws IOException {
+      Configuration conf = context.getConfiguration();
+      FileSplit fileSplit = (FileSplit) split;
+      start = fileSplit.getStart();
+      end   = start + fileSplit.getLength();
+
+      buffer = new byte[Math.max(64, conf.getInt(DiffInputFormat.CONF_BUFFER_BYTES_KEY,
+            DiffInputFormat.DEFAULT_BUFFER_BYTES))];
+      String delimiterConf = conf.get(DiffInputFormat.CONF_DELIMITER_KEY);
+      if (null != delimiterConf && !delimiterConf.isEmpty()) {
+         delimiter = delimiterConf.getBytes(StandardCharsets.UTF_8);
+      }
+
+      Path file = fileSplit.getPath();
+      fileLength = fileSplit.getLength();
+      fileIn = file.getFileSystem(conf).open(file);
+      CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(file);
+      if (null != codec) {
+         // Compressed inputs are not split, see DiffInputFormat
+         decompressor = CodecPool.getDecompressor(codec);
+         in    = codec.createInputStream(fileIn, decompressor);
+         start = 0;
+         end   = Long.MAX_VALUE;
+      } else {
+         in = fileIn;
+      }
+
+      // Unless at the head of the file, the first line belongs to the
+      // previous split, which reads the line starting at its end.  The line
+      // is skipped from far enough back to find a delimiter that spans the
+      // start of the split.
+      pos = start;
+      if (start != 0) {
+         if (null != delimiter) {
+            pos = Math.max(0, start - delimiter.length + 1);
+         }
+         fileIn.seek(pos);
+         readLine(false);
+      }
+   }
+
+   @Override
+   public boolean nextKeyValue() throws IOException {
+      if (pos > end) {
+         return false;
+      }
+      long lineStart = pos;
+      if (!readLine(true)) {
+         return false;
+      }
+      key.set(lineStart);
+      return true;
+   }
+
+   /**
+    * Reads the next line, and its terminator, from the buffer, filling it
+    * from the input as needed.
+    *
+    * @param keep
+    *        whether the line is to be copied into the value, rather than
+    *        skipped
+    * @return false if there are no more lines in the input
+    */
+   private boolean readLine(boolean keep) throws IOException {
+      int scan = bufferPos;
+      while (true) {
+         int found = -1;
+         int terminatorLength = 0;
+         if (null == delimiter) {
+            for (int i = scan; i < bufferEnd; i++) {
+               byte b = buffer[i];
+               if (b == '\n' || b == '\r') {
+                  found = i;
+                  break;
+               }
+            }
+            if (found >= 0) {
+               if (buffer[found] == '\n') {
+                  terminatorLength = 1;
+               } else if (found + 1 < bufferEnd) {
+                  terminatorLength = buffer[found + 1] == '\n' ? 2 : 1;
+               } else if (eof) {
+                  terminatorLength = 1;
+               } else {
+                  // Whether the \r is followed by \n is in the next block
+                  scan = found;
+                  found = -1;
+               }
+            } else {
+               scan = bufferEnd;
+            }
+         } else {
+            int last = bufferEnd - delimiter.length;
+            for (int i = scan; i <= last && found < 0; i++) {
+               if (buffer[i] == delimiter[0] && matchesDelimiter(i)) {
+                  found = i;
+               }
+            }
+            if (found >= 0) {
+               terminatorLength = delimiter.length;
+            } else {
+               scan = Math.max(scan, last + 1);
+            }
+         }
+
+         if (found >= 0) {
+            int length = found - bufferPos;
+            if (keep) {
+               value.set(buffer, bufferPos, length);
+            }
+            bufferPos = found + terminatorLength;
+            pos += length + terminatorLength;
+            return true;
+         }
+
+         if (eof) {
+            // The last line of the input need not be terminated
+            int length = bufferEnd - bufferPos;
+            if (length == 0) {
+               return false;
+            }
+            if (keep) {
+               value.set(buffer, bufferPos, length);
+            }
+            bufferPos = bufferEnd;
+            pos += length;
+            return true;
+         }
+
+         int shift = bufferPos;
+         fill();
+         scan -= shift;
+      }
+   }
+
+   private boolean matchesDelimiter(int offset) {
+      for (int i = 1; i < delimiter.length; i++) {
+         if (buffer[offset + i] != delimiter[i]) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Moves the unread bytes to the head of the buffer, growing it if they
+    * fill it, and reads as many bytes as fit after them.
+    */
+   private void fill() throws IOException {
+      int unread = bufferEnd - bufferPos;
+      if (bufferPos > 0) {
+         System.arraycopy(buffer, bufferPos, buffer, 0, unread);
+         bufferPos = 0;
+         bufferEnd = unread;
+      }
+      if (bufferEnd == buffer.length) {
+         buffer = Arrays.copyOf(buffer, buffer.length * 2);
+      }
+      int read = in.read(buffer, bufferEnd, buffer.length - bufferEnd);
+      if (read < 0) {
+         eof = true;
+      } else {
+         bufferEnd += read;
+      }
+   }
+
+   @Override
+   public LongWritable getCurrentKey() {
+      return key;
+   }
+
+   @Override
+   public Text getCurrentValue() {
+      return value;
+   }
+
+   @Override
+   public float getProgress() throws IOException {
+      if (null != decompressor) {
+         // Only the number of compressed bytes read is known
+         return fileLength == 0 ? 0.0f : Math.min(1.0f, fileIn.getPos() / (float) fileLength);
+      }
+      if (start == end) {
+         return 0.0f;
+      }
+      return Math.min(1.0f, (pos - start) / (float) (end - start));
+   }
+
+   @Override
+   public void close() throws IOException {
+      try {
+         if (null != in) {
+            in.close();
+         }
+      } finally {
+         if (null != decompressor) {
+            CodecPool.returnDecompressor(decompressor);
+            decompressor = null;
+         }
+      }
+   }
+}
@@ -0,0 +1,74 @@
+package com.ryanchapin.ddiff;
+
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * {@link RecordHasher} backed by a reusable {@link MessageDigest}.
+ *
+ * @since  1.3.0
+ */
+public class DigestRecordHasher implements RecordHasher {
+
+   private final MessageDigest digest;
+   private final int hashLength;
+
+   // ------------------------------------------------------------------------
+   // Constructor
+   //
+
+   /**
+    * @param digestName
+    *        the standard {@link MessageDigest} algorithm name, ie SHA-256
+    * @throws IllegalStateException
+    *        if the JVM does not provide the requested algorithm
+    */
+   public DigestRecordHasher(String digestName) {
+      try {
+         digest = MessageDigest.getInstance(digestName);
+      } catch (NoSuchAlgorithmException e) {
+         throw new IllegalStateException("Unable to obtain a MessageDigest for " +
+               digestName + ", e = " + e.toString(), e);
+      }
+      hashLength = digest.getDigestLength();
+   }
+
+   // ------------------------------------------------------------------------
+   // Member Methods
+   //
+
+   @Override
+   public int getHashLength() {
+      return hashLength;
+   }
+
+   @Override
+   public int hash(byte[] bytes, int offset, int length, byte[] out) {
+      digest.update(bytes, offset, length);
+      return digest(out);
+   }
+
+   @Override
+   public int hash(ByteBuffer buffer, int offset, int length, byte[] out) {
+      int position = buffer.position();
+      int limit = buffer.limit();
+      buffer.limit(offset + length).position(offset);
+      try {
+         digest.update(buffer);
+      } finally {
+         buffer.limit(limit).position(position);
+      }
+      return digest(out);
+   }
+
+   private int digest(byte[] out) {
+      try {
+         return digest.digest(out, 0, hashLength);
+      } catch (DigestException e) {
+         throw new IllegalStateException("Exception thrown from MessageDigest " +
+               "when attempting to hash the input record, e = " + e.toString(), e);
+      }
+   }
+}
@@ -1,8 +1,22 @@
 package com.ryanchapin.ddiff;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.reflect.Field;
+import java.net.URI;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.commons.cli.BasicParser;
 import org.apache.commons.cli.CommandLine;
@@ -13,27 +27,39 @@ import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counters;
 import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputCommitter;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 import org.apache.hadoop.util.Tool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.ryanchapin.util.HashGenerator;
-import com.ryanchapin.util.HashGenerator.HashAlgorithm;
+import com.ryanchapin.ddiff.DdiffReducer.DdiffReduceCounter;
+import com.ryanchapin.ddiff.FingerprintMapper.FingerprintCounter;
+import com.ryanchapin.ddiff.ReferenceIndexReducer.ReferenceIndexCounter;
 
 /**
  * DistributedDiff is a <b>MRv2</b> utility for comparing large amounts of text
- * data.  As Java, and the [HashGenerator]() library that is used, supports
- * Unicode, DistributedDiff supports a wide range of source data character
+ * data.  As records are hashed as the raw bytes read from the input files,
+ * DistributedDiff supports a wide range of source data character
  * encodings.  This was developed to aid in the testing of systems where a
  * large volume of records can be generated and where records from a reference
  * set need to be diffed against the output of the system under test.
@@ -50,6 +76,67 @@ import com.ryanchapin.util.HashGenerator.HashAlgorithm;
  * <p>
  * It is assumed that each logical record will reside on a single line in both
  * sets of input files.
+ * <p>
+ * In the two-pass mode, see {@link #OPTION_KEY_TWO_PASS_LONG}, a first job
+ * shuffles only the hash, source and count of each record and writes out
+ * the hashes for which the counts differ.  A second job then re-reads both
+ * inputs, emitting only the records with one of those hashes, and writes
+ * out the missing and extra records as in the single job mode.  When few
+ * records differ this avoids shuffling the record text at all for all but
+ * a small fraction of the input.
+ * <p>
+ * When the reference input is smaller than a threshold, see
+ * {@link #OPTION_KEY_BROADCAST_THRESHOLD_MB_LONG}, the distinct reference
+ * records are written to a table in the driver and broadcast to the test
+ * mappers, which count the test records against it and emit only the net
+ * counts of the reference records matched and the test records not found
+ * in it, so that the test input is never shuffled in full.
+ * <p>
+ * When both inputs are already sorted, see
+ * {@link #OPTION_KEY_SORTED_INPUTS_LONG}, they are instead diffed by a
+ * single map-only job in which each mapper merges a range of lines of both
+ * inputs in the manner of {@code comm(1)}, so that no record is hashed or
+ * shuffled.
+ * <p>
+ * With the fingerprint pre-check, see
+ * {@link #OPTION_KEY_FINGERPRINT_CHECK_LONG}, a map-only job first sums
+ * order-independent fingerprints of the records of each input, see
+ * {@link FingerprintMapper}, and the diff is skipped, leaving an empty
+ * output directory, when they match.
+ * <p>
+ * With bucket digests, see {@link #OPTION_KEY_DIGEST_BUCKETS_LONG}, that
+ * map-only job instead sums the fingerprints of each of a fixed number of
+ * hash buckets, see {@link BucketDigests}, and the diff only hashes,
+ * shuffles and reduces the records in the buckets whose digests differ.
+ * <p>
+ * When many test inputs are diffed against the same reference, the
+ * reference can be hashed once into a {@link ReferenceIndex}, see
+ * {@link #OPTION_KEY_BUILD_INDEX_LONG}, and each diff run against it, see
+ * {@link #OPTION_KEY_REFERENCE_INDEX_LONG}, then reads, hashes and shuffles
+ * only the test input, which each reducer merges with its partition of the
+ * index.
+ * <p>
+ * When the same inputs are diffed again and again with only a few files
+ * changing between runs, see {@link #OPTION_KEY_SUMMARY_CACHE_LONG}, the
+ * records of each input file are counted once into a summary kept in a
+ * {@link SummaryCache} under a key derived from the checksum of the file.
+ * Each run only summarizes the files whose key is not cached, skips the
+ * files that have an identical file on the other side, and diffs the
+ * summaries of the rest, and when the same summaries were already diffed
+ * the cached result is copied to the output path without running a job.
+ * <p>
+ * Many small, independent diffs can be run in a single job from a
+ * {@link BatchManifest} of pairs of reference and test inputs, see
+ * {@link #OPTION_KEY_MANIFEST_LONG}, in which each record is tagged with
+ * its pair in a {@link PairHashKeyWritable} key and the output of each pair
+ * is written to its own directory, so that each diff does not pay the cost
+ * of submitting a job.
+ * <p>
+ * Before each job is configured, the {@link JobPlanner} chooses its number
+ * of reducers, input split size and sort settings from the size of the
+ * inputs and logs the plan.  Each can be overridden on the command line, or
+ * with the usual {@code -D} generic options, which the plan never
+ * overwrites.
  * 
  * @since   1.0.0
  *
@@ -74,6 +161,107 @@ public class DistributedDiff implements Tool {
     */
    public static final String EXTRA_OUTPUT   = "extra";
    
+   /**
+    * Suffix appended to the output path for the sibling directory to which
+    * the differing hashes are written in the two-pass mode.  The directory
+    * is removed once the second job completes.
+    */
+   public static final String HASH_OUTPUT_SUFFIX = "-hashes";
+   
+   /**
+    * Prefix of the names under which the differing hash files are linked
+    * into the working directory of each task in the two-pass mode.
+    */
+   public static final String HASH_CACHE_FILE_PREFIX = "ddiff-hashes-";
+   
+   /**
+    * Suffix appended to the job name for the fingerprint pre-check job.
+    */
+   public static final String FINGERPRINT_JOB_SUFFIX = "-fingerprint";
+   
+   /**
+    * Name of the empty file written, along with {@code _SUCCESS}, to the
+    * otherwise empty output path when the fingerprints of the inputs match
+    * and the diff is skipped, so that an identical result can be told apart
+    * from a diff that found nothing.  No job runs to report a counter for
+    * the skipped diff, so this file takes the place of one.  Like
+    * {@code _SUCCESS}, it is skipped by Hadoop input formats.
+    */
+   public static final String IDENTICAL_MARKER_FILE_NAME = "_IDENTICAL";
+   
+   /**
+    * Suffix appended to the output path for the sibling directory to which
+    * the bucket digests, and the dirty buckets read from them, are written.
+    * The directory is removed once the diff completes.
+    */
+   public static final String DIGEST_OUTPUT_SUFFIX = "-digests";
+   
+   /**
+    * Name under which the dirty buckets file is linked into the working
+    * directory of each task in the bucket digest mode.
+    */
+   public static final String DIRTY_BUCKETS_CACHE_FILE_NAME = "ddiff-dirty-buckets";
+   
+   /**
+    * Suffix appended to the output path for the sibling directory to which
+    * the reference table is written in the broadcast mode.  The directory is
+    * removed once the job completes.
+    */
+   public static final String REFERENCE_TABLE_SUFFIX = "-reference";
+   
+   /**
+    * Name under which the reference table is linked into the working
+    * directory of each task in the broadcast mode.
+    */
+   public static final String REFERENCE_CACHE_FILE_NAME = "ddiff-reference";
+   
+   /**
+    * Suffix appended to the output path for the sibling directory to which
+    * the summary job writes the summaries of the input files that are not
+    * cached, and to the job name for that job.  The directory is removed
+    * once the summaries are moved into the cache.
+    */
+   public static final String SUMMARY_OUTPUT_SUFFIX = "-summaries";
+   
+   /**
+    * Name of the output to which the reducers write the missing and extra
+    * counts of each pair in the batch mode.
+    */
+   public static final String SUMMARY_OUTPUT = "summary";
+   
+   /**
+    * Name of the file in the output path to which the missing and extra
+    * counts of every pair are written once the batch job completes.
+    */
+   public static final String BATCH_SUMMARY_FILE_NAME = "summary.tsv";
+   
+   /**
+    * Group of the per-pair missing and extra counters of the batch mode.
+    */
+   public static final String PAIR_COUNTER_GROUP = "ddiff.pairs";
+   
+   /**
+    * Largest number of pairs for which per-pair counters are kept, as each
+    * pair adds two counters towards the counter limit of the job.
+    */
+   public static final int MAX_PAIR_COUNTERS = 32;
+   
+   /**
+    * Group of the per-test set missing and extra counters when diffing
+    * several test sets.
+    */
+   public static final String TEST_SET_COUNTER_GROUP = "ddiff.test.sets";
+   
+   /**
+    * Pattern of a labeled test input, see
+    * {@link #OPTION_KEY_TEST_INPUT_PATH_LONG}.  The label names the
+    * directory of the output of the test set, so it starts with a letter or
+    * digit, and can name neither a directory outside of the output path nor
+    * one hidden from input formats.
+    */
+   private static final Pattern TEST_SET_PATTERN =
+         Pattern.compile("([A-Za-z0-9][A-Za-z0-9._-]*)=(.+)");
+   
    /**
     * Command line interface short option flag for the reference data input
     * path
@@ -125,25 +313,234 @@ public class DistributedDiff implements Tool {
    
    /**
     * Command line interface short option flag for the String encoding to be
-    * used by the {@link HashGenerator} class when hashing String input.
+    * used when hashing String input.
     */
    public static final String OPTION_KEY_HASH_STRING_ENCODING =
          "e";
    
    /**
     * Command line interface long option flag for the String encoding to be
-    * used by the {@link HashGenerator} class when hashing String input.
+    * used when hashing String input.
     */
    public static final String OPTION_KEY_HASH_STRING_ENCODING_LONG =
          "hash-string-encoding";
    
    /**
-    * Default String encoding to be used by the {@link HashGenerator} class
-    * when hashing String input.
+    * Default String encoding to be used when hashing String input.
     */
    public static final String OPTION_HASH_STRING_ENCODING_DEFAULT =
          "UTF-8";
    
+   /**
+    * Command line interface short option flag to enable the collision-safe
+    * reduce mode, in which records that share a hash are still compared
+    * byte for byte.
+    */
+   public static final String OPTION_KEY_COLLISION_SAFE      = "c";
+   
+   /**
+    * Command line interface long option flag to enable the collision-safe
+    * reduce mode.
+    */
+   public static final String OPTION_KEY_COLLISION_SAFE_LONG = "collision-safe";
+   
+   /**
+    * Command line interface short option flag to enable the two-pass mode,
+    * in which only hashes are shuffled in the first job.
+    */
+   public static final String OPTION_KEY_TWO_PASS      = "p";
+   
+   /**
+    * Command line interface long option flag to enable the two-pass mode.
+    */
+   public static final String OPTION_KEY_TWO_PASS_LONG = "two-pass";
+   
+   /**
+    * Command line interface short option flag to enable the secondary sort
+    * mode, in which the values for each hash reach the reducer ordered by
+    * record and source.
+    */
+   public static final String OPTION_KEY_SECONDARY_SORT      = "s";
+   
+   /**
+    * Command line interface long option flag to enable the secondary sort
+    * mode.
+    */
+   public static final String OPTION_KEY_SECONDARY_SORT_LONG = "secondary-sort";
+   
+   /**
+    * Command line interface short option flag to override the number of
+    * reducers chosen by the {@link JobPlanner}.
+    */
+   public static final String OPTION_KEY_NUM_REDUCERS      = "n";
+   
+   /**
+    * Command line interface long option flag to override the number of
+    * reducers chosen by the {@link JobPlanner}.
+    */
+   public static final String OPTION_KEY_NUM_REDUCERS_LONG = "num-reducers";
+   
+   /**
+    * Command line interface short option flag to override the input split
+    * size, in megabytes, chosen by the {@link JobPlanner}.
+    */
+   public static final String OPTION_KEY_SPLIT_SIZE_MB      = "z";
+   
+   /**
+    * Command line interface long option flag to override the input split
+    * size, in megabytes, chosen by the {@link JobPlanner}.
+    */
+   public static final String OPTION_KEY_SPLIT_SIZE_MB_LONG = "split-size-mb";
+   
+   /**
+    * Command line interface short option flag to override the map side sort
+    * buffer size, in megabytes, chosen by the {@link JobPlanner}.
+    */
+   public static final String OPTION_KEY_SORT_MB      = "b";
+   
+   /**
+    * Command line interface long option flag to override the map side sort
+    * buffer size, in megabytes, chosen by the {@link JobPlanner}.
+    */
+   public static final String OPTION_KEY_SORT_MB_LONG = "sort-buffer-mb";
+   
+   /**
+    * Command line interface short option flag to enable in-mapper
+    * aggregation with the given memory budget in megabytes.
+    */
+   public static final String OPTION_KEY_MAP_AGGREGATION_MB      = "m";
+   
+   /**
+    * Command line interface long option flag to enable in-mapper
+    * aggregation with the given memory budget in megabytes.
+    */
+   public static final String OPTION_KEY_MAP_AGGREGATION_MB_LONG = "map-aggregation-mb";
+   
+   /**
+    * Command line interface short option flag for the size of the reference
+    * input, in megabytes, below which the broadcast mode is used.
+    */
+   public static final String OPTION_KEY_BROADCAST_THRESHOLD_MB      = "B";
+   
+   /**
+    * Command line interface long option flag for the size of the reference
+    * input, in megabytes, below which the broadcast mode is used.
+    */
+   public static final String OPTION_KEY_BROADCAST_THRESHOLD_MB_LONG = "broadcast-threshold-mb";
+   
+   /**
+    * Default size of the reference input, in megabytes, below which the
+    * broadcast mode is used.
+    */
+   public static final int OPTION_BROADCAST_THRESHOLD_MB_DEFAULT = 32;
+   
+   /**
+    * Command line interface short option flag to indicate that both inputs
+    * are already sorted and are to be diffed by the map-only sorted merge.
+    */
+   public static final String OPTION_KEY_SORTED_INPUTS      = "S";
+   
+   /**
+    * Command line interface long option flag to indicate that both inputs
+    * are already sorted and are to be diffed by the map-only sorted merge.
+    */
+   public static final String OPTION_KEY_SORTED_INPUTS_LONG = "sorted-inputs";
+   
+   /**
+    * Command line interface short option flag to run the fingerprint
+    * pre-check before the diff.
+    */
+   public static final String OPTION_KEY_FINGERPRINT_CHECK      = "f";
+   
+   /**
+    * Command line interface long option flag to run the fingerprint
+    * pre-check before the diff.
+    */
+   public static final String OPTION_KEY_FINGERPRINT_CHECK_LONG = "fingerprint-check";
+   
+   /**
+    * Command line interface short option flag for the number of hash
+    * buckets digested before the diff.
+    */
+   public static final String OPTION_KEY_DIGEST_BUCKETS      = "k";
+   
+   /**
+    * Command line interface long option flag for the number of hash
+    * buckets digested before the diff.
+    */
+   public static final String OPTION_KEY_DIGEST_BUCKETS_LONG = "digest-buckets";
+   
+   /**
+    * Command line interface short option flag to write a reference index of
+    * the reference input to the output path instead of running a diff.
+    */
+   public static final String OPTION_KEY_BUILD_INDEX      = "I";
+   
+   /**
+    * Command line interface long option flag to write a reference index of
+    * the reference input to the output path instead of running a diff.
+    */
+   public static final String OPTION_KEY_BUILD_INDEX_LONG = "build-index";
+   
+   /**
+    * Command line interface short option flag for the path of a reference
+    * index to be diffed against in place of the reference input.
+    */
+   public static final String OPTION_KEY_REFERENCE_INDEX      = "i";
+   
+   /**
+    * Command line interface long option flag for the path of a reference
+    * index to be diffed against in place of the reference input.
+    */
+   public static final String OPTION_KEY_REFERENCE_INDEX_LONG = "reference-index";
+   
+   /**
+    * Command line interface short option flag for the path of the summary
+    * cache directory.
+    */
+   public static final String OPTION_KEY_SUMMARY_CACHE      = "C";
+   
+   /**
+    * Command line interface long option flag for the path of the summary
+    * cache directory.
+    */
+   public static final String OPTION_KEY_SUMMARY_CACHE_LONG = "summary-cache";
+   
+   /**
+    * Command line interface short option flag for the path of a manifest of
+    * pairs of inputs to be diffed in a single job.
+    */
+   public static final String OPTION_KEY_MANIFEST      = "M";
+   
+   /**
+    * Command line interface long option flag for the path of a manifest of
+    * pairs of inputs to be diffed in a single job.
+    */
+   public static final String OPTION_KEY_MANIFEST_LONG = "manifest";
+   
+   /**
+    * Command line interface short option flag for the engine with which
+    * the diff is run.
+    */
+   public static final String OPTION_KEY_ENGINE      = "E";
+   
+   /**
+    * Command line interface long option flag for the engine with which the
+    * diff is run.
+    */
+   public static final String OPTION_KEY_ENGINE_LONG = "engine";
+   
+   /**
+    * Engine that runs the diff as MapReduce jobs, the default.
+    */
+   public static final String OPTION_ENGINE_MAPREDUCE = "mapreduce";
+   
+   /**
+    * Engine that runs the diff of local inputs in a single process, see
+    * {@link LocalDiffEngine}.
+    */
+   public static final String OPTION_ENGINE_LOCAL     = "local";
+   
    /**
     * Command line interface short option flag to provide a user-defined job
     * name.
@@ -183,10 +580,106 @@ public class DistributedDiff implements Tool {
    public static final String CONF_HASH_ALGO_KEY = "hash.algorithm";
    
    /**
-    * Key to be used when passing a String encoding for the {@link HashGenerator}
-    * to the Mappers via the {@link org.apache.hadoop.conf.Configuration} instance.
+    * Key to be used when passing a String encoding to the Mappers via the
+    * {@link org.apache.hadoop.conf.Configuration} instance.
     */
    public static final String CONF_ENCODING_KEY  = "hash.string.encoding";
+   
+   /**
+    * Key to be used when passing the collision-safe flag to the Reducers via
+    * the {@link org.apache.hadoop.conf.Configuration} instance.
+    */
+   public static final String CONF_COLLISION_SAFE_KEY = "hash.collision.safe";
+   
+   /**
+    * Key to be used to indicate to the Mappers that only the hash, source
+    * and count of each record are to be emitted.
+    */
+   public static final String CONF_HASH_ONLY_KEY = "hash.only";
+   
+   /**
+    * Key to be used to indicate to the Mappers that only records whose hash
+    * is in the cached set of differing hashes are to be emitted.
+    */
+   public static final String CONF_HASH_FILTER_KEY = "hash.filter";
+   
+   /**
+    * Key to be used to indicate to the Mappers and Reducers that records are
+    * carried in {@link HashRecordKeyWritable} keys for the secondary sort.
+    */
+   public static final String CONF_SECONDARY_SORT_KEY = "reduce.secondary.sort";
+   
+   /**
+    * Key to be used when passing the memory budget, in megabytes, of the
+    * in-mapper aggregation table to the Mappers, where 0 disables in-mapper
+    * aggregation.
+    */
+   public static final String CONF_MAP_AGGREGATION_MB_KEY = "map.aggregation.mb";
+   
+   /**
+    * Key to be used to indicate to the Mappers that the reference table is
+    * in the distributed cache and that test records are to be counted
+    * against it.
+    */
+   public static final String CONF_BROADCAST_KEY = "map.broadcast.reference";
+   
+   /**
+    * Key under which the reference input path is passed to the
+    * {@link SortedMergeInputFormat}.
+    */
+   public static final String CONF_SORTED_REFERENCE_PATH_KEY = "sorted.reference.input.path";
+   
+   /**
+    * Key under which the test input path is passed to the
+    * {@link SortedMergeInputFormat}.
+    */
+   public static final String CONF_SORTED_TEST_PATH_KEY = "sorted.test.input.path";
+   
+   /**
+    * Key under which the number of hash buckets is passed to the
+    * {@link FingerprintMapper} and the {@link DdiffMapper}.
+    */
+   public static final String CONF_DIGEST_BUCKETS_KEY = "digest.buckets";
+   
+   /**
+    * Key to be used to indicate to the Mappers that the dirty buckets are in
+    * the distributed cache and that only the records in them are to be
+    * emitted.
+    */
+   public static final String CONF_BUCKET_FILTER_KEY = "map.bucket.filter";
+   
+   /**
+    * Key under which the path of the reference index to be merged with the
+    * test records is passed to the Reducers.
+    */
+   public static final String CONF_REFERENCE_INDEX_PATH_KEY = "reduce.reference.index.path";
+   
+   /**
+    * Key under which the keys of the {@link Source#TEST} summaries are
+    * passed to the {@link SummaryMapper}.
+    */
+   public static final String CONF_SUMMARY_TEST_KEYS_KEY = "map.summary.test.keys";
+   
+   /**
+    * Key under which the path of the {@link BatchManifest} is passed to the
+    * {@link ManifestInputFormat} and the Reducers.
+    */
+   public static final String CONF_MANIFEST_PATH_KEY = "batch.manifest.path";
+   
+   /**
+    * Key under which the labels of the test sets, when diffing several, are
+    * passed to the {@link TestSetInputFormat}, the Combiners and the
+    * Reducers.
+    */
+   public static final String CONF_TEST_SET_LABELS_KEY = "test.set.labels";
+   
+   /**
+    * Prefix of the keys, followed by the source id, see
+    * {@link Source#getTestSetId(int)}, under which the input of the
+    * reference and of each test set is passed to the
+    * {@link TestSetInputFormat}.
+    */
+   public static final String CONF_SOURCE_PATH_KEY_PREFIX = "test.set.input.path.";
 
    /**
     * String array passed in from the {@link com.ryanchapin.ddiff.Main} class.
@@ -203,6 +696,44 @@ public class DistributedDiff implements Tool {
     */
    private String testInputPath;
    
+   /**
+    * Labels and paths of the test sets diffed against the reference in
+    * place of the {@link #testInputPath}, or null if there is a single test
+    * input.
+    */
+   private List<String> testSetLabels;
+   private List<String> testSetPaths;
+   
+   /**
+    * Path of the reference index diffed against in place of the reference
+    * input, or null if the reference input is read.
+    */
+   private String referenceIndexPath;
+   
+   /**
+    * Whether to write a reference index to the output path instead of
+    * running a diff.
+    */
+   private boolean buildIndex;
+   
+   /**
+    * Path of the summary cache directory, or null if the inputs are read
+    * directly.
+    */
+   private String summaryCachePath;
+   
+   /**
+    * Path of the manifest of pairs diffed in the batch mode, or null if a
+    * single pair of inputs is diffed.
+    */
+   private String manifestPath;
+   
+   /**
+    * Whether the diff is run by the {@link LocalDiffEngine} rather than as
+    * MapReduce jobs.
+    */
+   private boolean localEngine;
+   
    /**
     * Path to which the output should be written.
     */
@@ -211,47 +742,201 @@ public class DistributedDiff implements Tool {
    /**
     * Hash algorithm to be used to hash record keys.
     */
-   private HashAlgorithm hashAlgorithm;
+   private RecordHashAlgorithm hashAlgorithm;
    
    /**
-    * String encoding to be used for the {@link HashGenerator}
+    * String encoding to be used when hashing records.
     */
    private String stringEncoding;
    
    /**
-    * String to be used for the MapReduce job-id.
+    * Whether the reducers should compare full record bytes for records that
+    * share a hash.
     */
-   private String jobId;
-
-   private Job job;
-   private Configuration conf;
+   private boolean collisionSafe;
    
-   // ------------------------------------------------------------------------
-   // Accessor/Mutators:
-   //
+   /**
+    * Whether to run the diff as a hash-only job followed by a job that
+    * materializes the differing records.
+    */
+   private boolean twoPass;
    
-   public String getReferenceInputPath() {
-      return referenceInputPath;
-   }
-
-   public void setReferenceInputPath(String referenceInputPath) {
-      this.referenceInputPath = referenceInputPath;
-   }
-
-   public String getTestInputPath() {
-      return testInputPath;
-   }
-
-   public void setTestInputPath(String testInputPath) {
-      this.testInputPath = testInputPath;
-   }
+   /**
+    * Whether the values for each hash are sorted by record and source.
+    */
+   private boolean secondarySort;
    
-   public String getOutputPath() {
-      return outputPath;
-   }
-
-   public void setOutputPath(String outputPath) {
-      this.outputPath = outputPath;
+   /**
+    * Whether both inputs are already sorted, in which case they are merged
+    * by a map-only job without hashing or shuffling any records.
+    */
+   private boolean sortedInputs;
+   
+   /**
+    * Whether to compare fingerprints of both inputs in a map-only job first,
+    * skipping the diff if they match.
+    */
+   private boolean fingerprintCheck;
+   
+   /**
+    * Number of hash buckets digested before the diff, or 0 if the records
+    * of all buckets are diffed.
+    */
+   private int digestBuckets;
+   
+   /**
+    * Number of reducers, or 0 to use the number chosen by the
+    * {@link JobPlanner}.
+    */
+   private int numReduceTasks;
+   
+   /**
+    * Input split size in megabytes, or 0 to use the size chosen by the
+    * {@link JobPlanner}.
+    */
+   private int splitSizeMb;
+   
+   /**
+    * Map side sort buffer size in megabytes, or 0 to use the size chosen by
+    * the {@link JobPlanner}.
+    */
+   private int sortMb;
+   
+   /**
+    * Memory budget of the in-mapper aggregation table in megabytes, or 0 if
+    * records are not aggregated in the mappers.
+    */
+   private int mapAggregationMb;
+   
+   /**
+    * Size of the reference input, in megabytes, below which the broadcast
+    * mode is used, or 0 if it is never used.
+    */
+   private int broadcastThresholdMb;
+   
+   /**
+    * Whether the reference records are broadcast to the test mappers, which
+    * is decided once the reference input has been measured.
+    */
+   private boolean broadcast;
+   
+   /**
+    * Number of reference records read into the reference table in the
+    * broadcast mode.
+    */
+   private long referenceRecords;
+   
+   /**
+    * Length of the reference input, measured to decide the broadcast mode.
+    */
+   private long referenceBytes;
+   
+   /**
+    * Number of buckets whose digests differ in the bucket digest mode.
+    */
+   private int dirtyBuckets;
+   
+   /**
+    * Reference index read before diffing against it.
+    */
+   private ReferenceIndex referenceIndex;
+   
+   /**
+    * Summary cache opened at the {@link #summaryCachePath}.
+    */
+   private SummaryCache summaryCache;
+   
+   /**
+    * Keys of the summaries of the reference and test files that are
+    * diffed, once those on both sides with the same key are cancelled out.
+    */
+   private List<String> referenceSummaries;
+   private List<String> testSummaries;
+   
+   /**
+    * Planner measured against the inputs before the jobs are configured.
+    */
+   private JobPlanner planner;
+   
+   /**
+    * Number of differing records found by the first job of the two-pass
+    * mode.
+    */
+   private long hashDiffCount;
+   
+   /**
+    * String to be used for the MapReduce job-id.
+    */
+   private String jobId;
+
+   private Job job;
+   private Job hashJob;
+   
+   /**
+    * Map-only job that computes the fingerprint of both inputs.
+    */
+   private Job fingerprintJob;
+   
+   /**
+    * Map-only job that summarizes the input files not in the summary cache.
+    */
+   private Job summaryJob;
+   private Configuration conf;
+   
+   // ------------------------------------------------------------------------
+   // Accessor/Mutators:
+   //
+   
+   public String getReferenceInputPath() {
+      return referenceInputPath;
+   }
+
+   public void setReferenceInputPath(String referenceInputPath) {
+      this.referenceInputPath = referenceInputPath;
+   }
+
+   public String getReferenceIndexPath() {
+      return referenceIndexPath;
+   }
+   
+   public boolean isBuildIndex() {
+      return buildIndex;
+   }
+   
+   public String getSummaryCachePath() {
+      return summaryCachePath;
+   }
+   
+   public String getManifestPath() {
+      return manifestPath;
+   }
+   
+   public boolean isLocalEngine() {
+      return localEngine;
+   }
+   
+   public String getTestInputPath() {
+      return testInputPath;
+   }
+
+   public void setTestInputPath(String testInputPath) {
+      this.testInputPath = testInputPath;
+   }
+   
+   public List<String> getTestSetLabels() {
+      return testSetLabels;
+   }
+   
+   public List<String> getTestSetPaths() {
+      return testSetPaths;
+   }
+   
+   public String getOutputPath() {
+      return outputPath;
+   }
+
+   public void setOutputPath(String outputPath) {
+      this.outputPath = outputPath;
    }
 
    public String getJobId() {
@@ -283,7 +968,11 @@ public class DistributedDiff implements Tool {
       this.job = job;
    }   
    
-   public HashAlgorithm getHashAlgorithm() {
+   public Job getFingerprintJob() {
+      return fingerprintJob;
+   }
+   
+   public RecordHashAlgorithm getHashAlgorithm() {
       return hashAlgorithm;
    }
 
@@ -291,6 +980,54 @@ public class DistributedDiff implements Tool {
       return stringEncoding;
    }
    
+   public boolean isCollisionSafe() {
+      return collisionSafe;
+   }
+   
+   public boolean isTwoPass() {
+      return twoPass;
+   }
+   
+   public boolean isSecondarySort() {
+      return secondarySort;
+   }
+   
+   public boolean isSortedInputs() {
+      return sortedInputs;
+   }
+   
+   public boolean isFingerprintCheck() {
+      return fingerprintCheck;
+   }
+   
+   public int getDigestBuckets() {
+      return digestBuckets;
+   }
+   
+   public int getNumReduceTasks() {
+      return numReduceTasks;
+   }
+   
+   public int getSplitSizeMb() {
+      return splitSizeMb;
+   }
+   
+   public int getSortMb() {
+      return sortMb;
+   }
+   
+   public int getMapAggregationMb() {
+      return mapAggregationMb;
+   }
+   
+   public int getBroadcastThresholdMb() {
+      return broadcastThresholdMb;
+   }
+   
+   public boolean isBroadcast() {
+      return broadcast;
+   }
+   
    // ------------------------------------------------------------------------
    // Constructor:
    //
@@ -320,15 +1057,181 @@ public class DistributedDiff implements Tool {
       LOGGER.info("Invoking DistributedDiff.run with args\n"
          + "referenceInputPath :{}\n"
          + "testInputPath      :{}\n"
+         + "testSetPaths       :{}\n"
+         + "referenceIndexPath :{}\n"
+         + "buildIndex         :{}\n"
+         + "summaryCachePath   :{}\n"
+         + "manifestPath       :{}\n"
+         + "localEngine        :{}\n"
          + "outputPath         :{}\n"
          + "jobId              :{}\n"
-         + "hashAlgorithm      :{}",
-         referenceInputPath, testInputPath, outputPath, jobId, hashAlgorithm);
+         + "hashAlgorithm      :{}\n"
+         + "collisionSafe      :{}\n"
+         + "twoPass            :{}\n"
+         + "secondarySort      :{}\n"
+         + "sortedInputs       :{}\n"
+         + "fingerprintCheck   :{}\n"
+         + "digestBuckets      :{}\n"
+         + "numReduceTasks     :{}\n"
+         + "splitSizeMb        :{}\n"
+         + "sortMb             :{}\n"
+         + "mapAggregationMb   :{}\n"
+         + "broadcastThreshold :{}",
+         referenceInputPath, testInputPath, testSetPaths, referenceIndexPath, buildIndex,
+         summaryCachePath, manifestPath, localEngine, outputPath, jobId, hashAlgorithm,
+         collisionSafe, twoPass, secondarySort, sortedInputs, fingerprintCheck,
+         digestBuckets, numReduceTasks, splitSizeMb, sortMb,
+         mapAggregationMb, broadcastThresholdMb);
       
       try {
+         if (localEngine) {
+            return runLocal();
+         }
+         if (null != manifestPath) {
+            return runBatch();
+         }
+         if (buildIndex) {
+            return buildReferenceIndex();
+         }
+         
+         if (fingerprintCheck || digestBuckets > 0) {
+            setupFingerprintJob();
+            fingerprintJob.submit();
+            if (!fingerprintJob.waitForCompletion(true)) {
+               LOGGER.error("Fingerprint job did not complete successfully");
+               return (1);
+            }
+            if (isFingerprintMatch(fingerprintJob.getCounters())) {
+               LOGGER.info("Fingerprints of the inputs match, skipping the diff");
+               FileSystem fs = FileSystem.get(getConf());
+               writeIdenticalOutput(fs, new Path(outputPath));
+               fs.delete(getDigestOutputPath(), true);
+               return (0);
+            }
+            LOGGER.info("Fingerprints of the inputs differ, running the diff");
+            if (digestBuckets > 0) {
+               writeDirtyBuckets();
+            }
+         }
+         
+         if (sortedInputs) {
+            setupSortedJob();
+            job.submit();
+            if (!job.waitForCompletion(true)) {
+               LOGGER.error("Sorted merge job did not complete successfully");
+               return (1);
+            }
+            return (0);
+         }
+         
+         FileSystem fs = FileSystem.get(getConf());
+         String resultKey = null;
+         if (null != summaryCachePath) {
+            summaryCache = new SummaryCache(getConf(), new Path(summaryCachePath),
+                  hashAlgorithm, stringEncoding);
+            Map<String, FileStatus> files = new HashMap<String, FileStatus>();
+            referenceSummaries = getFileKeys(referenceInputPath, files);
+            testSummaries      = getFileKeys(testInputPath, files);
+            SummaryCache.cancelMatching(referenceSummaries, testSummaries);
+            LOGGER.info("{} reference and {} test files differ from the other input",
+                  referenceSummaries.size(), testSummaries.size());
+            
+            resultKey = summaryCache.getResultKey(
+                  referenceSummaries, testSummaries, collisionSafe);
+            if (summaryCache.copyResult(resultKey, new Path(outputPath))) {
+               LOGGER.info("Copied cached result {} to the output path", resultKey);
+               return (0);
+            }
+            if (referenceSummaries.isEmpty() && testSummaries.isEmpty()) {
+               LOGGER.info("Every input file matches a file of the other input, " +
+                     "skipping the diff");
+               Path outPath = new Path(outputPath);
+               fs.delete(outPath, true);
+               fs.mkdirs(outPath);
+               return (0);
+            }
+            if (!summarizeInputs(files)) {
+               LOGGER.error("Summary job did not complete successfully");
+               return (1);
+            }
+         }
+         
+         if (null != referenceIndexPath) {
+            // The records of the test input must be hashed as they were in
+            // the index
+            referenceIndex = ReferenceIndex.read(fs, new Path(referenceIndexPath));
+            LOGGER.info("Diffing against reference index {}, {}",
+                  referenceIndexPath, referenceIndex);
+            hashAlgorithm  = referenceIndex.getHashAlgorithm();
+            stringEncoding = referenceIndex.getStringEncoding();
+         }
+         planner = new JobPlanner(getConf(), hashAlgorithm);
+         if (null != referenceIndexPath) {
+            planner.measure(fs, new Path(testInputPath));
+         } else if (null != testSetLabels) {
+            List<Path> inputs = new ArrayList<Path>();
+            inputs.add(new Path(referenceInputPath));
+            for (String testSetPath : testSetPaths) {
+               inputs.add(new Path(testSetPath));
+            }
+            planner.measure(fs, inputs.toArray(new Path[inputs.size()]));
+         } else {
+            planner.measure(fs, new Path(referenceInputPath), new Path(testInputPath));
+         }
+         
+         // The two-pass mode already avoids shuffling the test records, and
+         // there are no reference records to broadcast with an index, nor
+         // with summaries in which they are already counted.  The reference
+         // records are shuffled once for all of the test sets.
+         if (!twoPass && null == referenceIndexPath && null == summaryCache &&
+               null == testSetLabels && broadcastThresholdMb > 0)
+         {
+            referenceBytes = getReferenceBytes(fs);
+            broadcast = referenceBytes >= 0 &&
+                  referenceBytes < broadcastThresholdMb * 1024L * 1024L;
+            LOGGER.info("Reference input is {} bytes, broadcast = {}", referenceBytes, broadcast);
+         }
+         if (broadcast) {
+            ReferenceTableBuilder builder =
+                  new ReferenceTableBuilder(getConf(), hashAlgorithm);
+            builder.build(new Path(referenceInputPath), getReferenceTablePath());
+            referenceRecords = builder.getRecordsRead();
+         }
+         
+         if (twoPass) {
+            setupHashJob();
+            hashJob.submit();
+            if (!hashJob.waitForCompletion(true)) {
+               LOGGER.error("Hash job did not complete successfully");
+               return (1);
+            }
+            hashDiffCount = getDiffCount(hashJob);
+            if (0 == hashDiffCount) {
+               LOGGER.info("No differing records found, skipping the second job");
+               fs.delete(getHashOutputPath(), true);
+               fs.mkdirs(new Path(outputPath));
+               return (0);
+            }
+         }
          setupJob();
          job.submit();
-         job.waitForCompletion(true);
+         boolean succeeded = job.waitForCompletion(true);
+         if (succeeded && null != summaryCache) {
+            summaryCache.storeResult(resultKey, new Path(outputPath));
+         }
+         if (twoPass) {
+            fs.delete(getHashOutputPath(), true);
+         }
+         if (broadcast) {
+            fs.delete(getReferenceTablePath().getParent(), true);
+         }
+         if (digestBuckets > 0) {
+            fs.delete(getDigestOutputPath(), true);
+         }
+         if (!succeeded) {
+            LOGGER.error("Diff job did not complete successfully");
+            return (1);
+         }
       } catch (Exception e) {
          LOGGER.error("Unable to setup, submit or wait for job completion");
          e.printStackTrace();
@@ -343,18 +1246,56 @@ public class DistributedDiff implements Tool {
       // Build our command line options
       @SuppressWarnings("static-access")
       Option refDataPath = OptionBuilder.withLongOpt(OPTION_KEY_REF_INPUT_PATH_LONG)
-            .withDescription(REQUIRED + " Input path on HDFS for the reference data")
-            .isRequired(true)
+            .withDescription(REQUIRED + " Input path on HDFS for the reference data, " +
+                  "unless diffing against a reference index or diffing a manifest")
+            .isRequired(false)
             .hasArgs(1)
             .create(OPTION_KEY_REF_INPUT_PATH);
 
       @SuppressWarnings("static-access")
       Option testDataPath = OptionBuilder.withLongOpt(OPTION_KEY_TEST_INPUT_PATH_LONG)
-            .withDescription(REQUIRED + " Input path on HDFS for the test data")
-            .isRequired(true)
+            .withDescription(REQUIRED + " Input path on HDFS for the test data, " +
+                  "unless building a reference index or diffing a manifest.  Given more " +
+                  "than once, as label=path, diffs each test set against the reference")
+            .isRequired(false)
             .hasArgs(1)
             .create(OPTION_KEY_TEST_INPUT_PATH);
       
+      @SuppressWarnings("static-access")
+      Option referenceIndexOpt = OptionBuilder.withLongOpt(OPTION_KEY_REFERENCE_INDEX_LONG)
+            .withDescription(OPTIONAL + " Path on HDFS of a reference index, written with " +
+                  "--" + OPTION_KEY_BUILD_INDEX_LONG + ", to diff the test data against " +
+                  "in place of the reference data")
+            .isRequired(false)
+            .hasArgs(1)
+            .create(OPTION_KEY_REFERENCE_INDEX);
+      
+      @SuppressWarnings("static-access")
+      Option buildIndexOpt = OptionBuilder.withLongOpt(OPTION_KEY_BUILD_INDEX_LONG)
+            .withDescription(OPTIONAL + " Write a reference index of the reference data " +
+                  "to the output path instead of running a diff")
+            .isRequired(false)
+            .hasArg(false)
+            .create(OPTION_KEY_BUILD_INDEX);
+      
+      @SuppressWarnings("static-access")
+      Option summaryCacheOpt = OptionBuilder.withLongOpt(OPTION_KEY_SUMMARY_CACHE_LONG)
+            .withDescription(OPTIONAL + " Path on HDFS of a cache directory of per-file " +
+                  "summaries and diff results, so that only the input files that changed " +
+                  "since a previous run are read")
+            .isRequired(false)
+            .hasArgs(1)
+            .create(OPTION_KEY_SUMMARY_CACHE);
+      
+      @SuppressWarnings("static-access")
+      Option manifestOpt = OptionBuilder.withLongOpt(OPTION_KEY_MANIFEST_LONG)
+            .withDescription(OPTIONAL + " Path on HDFS of a manifest of tab separated pair " +
+                  "id, reference path and test path lines, to diff every pair in a single " +
+                  "job in place of the reference and test data")
+            .isRequired(false)
+            .hasArgs(1)
+            .create(OPTION_KEY_MANIFEST);
+      
       @SuppressWarnings("static-access")
       Option outPath = OptionBuilder.withLongOpt(OPTION_KEY_OUTPUT_PATH_LONG)
             .withDescription(REQUIRED + " Output path on HDFS to where results should be written")
@@ -364,7 +1305,8 @@ public class DistributedDiff implements Tool {
       
       @SuppressWarnings("static-access")
       Option hashAlgo = OptionBuilder.withLongOpt(OPTION_KEY_HASH_ALGO_LONG)
-            .withDescription(OPTIONAL + " Algorithm to be used to hash input records")
+            .withDescription(OPTIONAL + " Algorithm to be used to hash input records, one of " +
+                  Arrays.toString(RecordHashAlgorithm.values()))
             .isRequired(false)
             .hasArgs(1)
             .create(OPTION_KEY_HASH_ALGO);
@@ -376,6 +1318,108 @@ public class DistributedDiff implements Tool {
             .hasArgs(1)
             .create(OPTION_KEY_HASH_STRING_ENCODING);
       
+      @SuppressWarnings("static-access")
+      Option collisionSafeOpt = OptionBuilder.withLongOpt(OPTION_KEY_COLLISION_SAFE_LONG)
+            .withDescription(OPTIONAL + " Compare the full bytes of records that share a hash " +
+                  "in the reducer, recommended with the non-cryptographic hash algorithms")
+            .isRequired(false)
+            .hasArg(false)
+            .create(OPTION_KEY_COLLISION_SAFE);
+      
+      @SuppressWarnings("static-access")
+      Option twoPassOpt = OptionBuilder.withLongOpt(OPTION_KEY_TWO_PASS_LONG)
+            .withDescription(OPTIONAL + " Shuffle only record hashes in a first job and " +
+                  "write out the differing records in a second job")
+            .isRequired(false)
+            .hasArg(false)
+            .create(OPTION_KEY_TWO_PASS);
+      
+      @SuppressWarnings("static-access")
+      Option secondarySortOpt = OptionBuilder.withLongOpt(OPTION_KEY_SECONDARY_SORT_LONG)
+            .withDescription(OPTIONAL + " Sort the values for each hash by record and source " +
+                  "before they reach the reducer")
+            .isRequired(false)
+            .hasArg(false)
+            .create(OPTION_KEY_SECONDARY_SORT);
+      
+      @SuppressWarnings("static-access")
+      Option sortedInputsOpt = OptionBuilder.withLongOpt(OPTION_KEY_SORTED_INPUTS_LONG)
+            .withDescription(OPTIONAL + " Both inputs are already sorted by their bytes, " +
+                  "as by LC_ALL=C sort, and are merged by a map-only job without a shuffle")
+            .isRequired(false)
+            .hasArg(false)
+            .create(OPTION_KEY_SORTED_INPUTS);
+      
+      @SuppressWarnings("static-access")
+      Option fingerprintOpt = OptionBuilder.withLongOpt(OPTION_KEY_FINGERPRINT_CHECK_LONG)
+            .withDescription(OPTIONAL + " Compare order-independent fingerprints of both " +
+                  "inputs in a map-only job first, and skip the diff if they match, " +
+                  "writing only a " + IDENTICAL_MARKER_FILE_NAME + " and a _SUCCESS file " +
+                  "to the output path")
+            .isRequired(false)
+            .hasArg(false)
+            .create(OPTION_KEY_FINGERPRINT_CHECK);
+      
+      @SuppressWarnings("static-access")
+      Option digestBucketsOpt = OptionBuilder.withLongOpt(OPTION_KEY_DIGEST_BUCKETS_LONG)
+            .withDescription(OPTIONAL + " Compare the fingerprints of the given number of " +
+                  "hash buckets of both inputs in a map-only job first, and diff only the " +
+                  "records in the buckets that differ")
+            .isRequired(false)
+            .hasArgs(1)
+            .create(OPTION_KEY_DIGEST_BUCKETS);
+      
+      @SuppressWarnings("static-access")
+      Option numReducersOpt = OptionBuilder.withLongOpt(OPTION_KEY_NUM_REDUCERS_LONG)
+            .withDescription(OPTIONAL + " Number of reducers, by default chosen from the " +
+                  "size of the input")
+            .isRequired(false)
+            .hasArgs(1)
+            .create(OPTION_KEY_NUM_REDUCERS);
+      
+      @SuppressWarnings("static-access")
+      Option splitSizeOpt = OptionBuilder.withLongOpt(OPTION_KEY_SPLIT_SIZE_MB_LONG)
+            .withDescription(OPTIONAL + " Input split size in megabytes, by default chosen " +
+                  "from the size of the input")
+            .isRequired(false)
+            .hasArgs(1)
+            .create(OPTION_KEY_SPLIT_SIZE_MB);
+      
+      @SuppressWarnings("static-access")
+      Option sortMbOpt = OptionBuilder.withLongOpt(OPTION_KEY_SORT_MB_LONG)
+            .withDescription(OPTIONAL + " Map side sort buffer size in megabytes, by default " +
+                  "chosen from the size of the input")
+            .isRequired(false)
+            .hasArgs(1)
+            .create(OPTION_KEY_SORT_MB);
+      
+      @SuppressWarnings("static-access")
+      Option mapAggregationOpt = OptionBuilder.withLongOpt(OPTION_KEY_MAP_AGGREGATION_MB_LONG)
+            .withDescription(OPTIONAL + " Aggregate duplicate records in each mapper, " +
+                  "using at most the given number of megabytes of the map task memory")
+            .isRequired(false)
+            .hasArgs(1)
+            .create(OPTION_KEY_MAP_AGGREGATION_MB);
+      
+      @SuppressWarnings("static-access")
+      Option broadcastOpt = OptionBuilder.withLongOpt(OPTION_KEY_BROADCAST_THRESHOLD_MB_LONG)
+            .withDescription(OPTIONAL + " Broadcast the reference records to the test mappers " +
+                  "when the reference input is smaller than the given number of megabytes, " +
+                  "0 to disable, defaults to " + OPTION_BROADCAST_THRESHOLD_MB_DEFAULT)
+            .isRequired(false)
+            .hasArgs(1)
+            .create(OPTION_KEY_BROADCAST_THRESHOLD_MB);
+      
+      @SuppressWarnings("static-access")
+      Option engineOpt = OptionBuilder.withLongOpt(OPTION_KEY_ENGINE_LONG)
+            .withDescription(OPTIONAL + " Engine with which to run the diff, either " +
+                  OPTION_ENGINE_MAPREDUCE + ", the default, or " + OPTION_ENGINE_LOCAL +
+                  " to diff inputs on the local filesystem with every processor of this " +
+                  "machine in a single process, without submitting a job")
+            .isRequired(false)
+            .hasArgs(1)
+            .create(OPTION_KEY_ENGINE);
+      
       @SuppressWarnings("static-access")
       Option jobName = OptionBuilder.withLongOpt(OPTION_KEY_JOB_NAME_LONG)
             .withDescription(OPTIONAL + " User defined name for this M/R job")
@@ -393,9 +1437,25 @@ public class DistributedDiff implements Tool {
       options = new Options();
       options.addOption(refDataPath);
       options.addOption(testDataPath);
+      options.addOption(referenceIndexOpt);
+      options.addOption(buildIndexOpt);
+      options.addOption(summaryCacheOpt);
+      options.addOption(manifestOpt);
       options.addOption(outPath);
       options.addOption(hashAlgo);
       options.addOption(encoding);
+      options.addOption(collisionSafeOpt);
+      options.addOption(twoPassOpt);
+      options.addOption(secondarySortOpt);
+      options.addOption(sortedInputsOpt);
+      options.addOption(fingerprintOpt);
+      options.addOption(digestBucketsOpt);
+      options.addOption(numReducersOpt);
+      options.addOption(splitSizeOpt);
+      options.addOption(sortMbOpt);
+      options.addOption(mapAggregationOpt);
+      options.addOption(broadcastOpt);
+      options.addOption(engineOpt);
       options.addOption(jobName);
       options.addOption(help);
       
@@ -417,10 +1477,32 @@ public class DistributedDiff implements Tool {
          LOGGER.info("Cli arg: {} = {}",
                OPTION_KEY_REF_INPUT_PATH_LONG, referenceInputPath);
          
-         testInputPath =
-               commandLine.getOptionValue(OPTION_KEY_TEST_INPUT_PATH);
+         String[] testInputs = commandLine.getOptionValues(OPTION_KEY_TEST_INPUT_PATH);
+         if (null != testInputs && testInputs.length > 1) {
+            parseTestSets(testInputs);
+            LOGGER.info("Cli arg: {} = {}",
+                  OPTION_KEY_TEST_INPUT_PATH_LONG, Arrays.toString(testInputs));
+         } else {
+            testSetLabels = null;
+            testSetPaths  = null;
+            testInputPath =
+                  commandLine.getOptionValue(OPTION_KEY_TEST_INPUT_PATH);
+            LOGGER.info("Cli arg: {} = {}",
+                  OPTION_KEY_TEST_INPUT_PATH_LONG, testInputPath);
+         }
+         
+         referenceIndexPath = commandLine.getOptionValue(OPTION_KEY_REFERENCE_INDEX);
          LOGGER.info("Cli arg: {} = {}",
-               OPTION_KEY_TEST_INPUT_PATH_LONG, testInputPath);
+               OPTION_KEY_REFERENCE_INDEX_LONG, referenceIndexPath);
+         
+         buildIndex = commandLine.hasOption(OPTION_KEY_BUILD_INDEX);
+         LOGGER.info("Cli arg: {} = {}", OPTION_KEY_BUILD_INDEX_LONG, buildIndex);
+         
+         summaryCachePath = commandLine.getOptionValue(OPTION_KEY_SUMMARY_CACHE);
+         LOGGER.info("Cli arg: {} = {}", OPTION_KEY_SUMMARY_CACHE_LONG, summaryCachePath);
+         
+         manifestPath = commandLine.getOptionValue(OPTION_KEY_MANIFEST);
+         LOGGER.info("Cli arg: {} = {}", OPTION_KEY_MANIFEST_LONG, manifestPath);
          
          outputPath = commandLine.getOptionValue(OPTION_KEY_OUTPUT_PATH);
          LOGGER.info("Cli arg: {} = {}", 
@@ -429,7 +1511,7 @@ public class DistributedDiff implements Tool {
          String hashAlgoString = commandLine.getOptionValue(
                OPTION_KEY_HASH_ALGO, OPTION_HASH_ALGO_DEFAULT);
          try {
-            hashAlgorithm = HashAlgorithm.valueOf(hashAlgoString.toUpperCase());
+            hashAlgorithm = RecordHashAlgorithm.valueOf(hashAlgoString.toUpperCase());
             LOGGER.info("Cli arg: {} = {}",
                   OPTION_KEY_HASH_ALGO_LONG, hashAlgorithm.toString());
          } catch (IllegalArgumentException e) {
@@ -439,9 +1521,54 @@ public class DistributedDiff implements Tool {
                   OPTION_HASH_ALGO_DEFAULT;
             LOGGER.error(errMsg + ", e = {}", e.toString());
             
-            hashAlgorithm = HashAlgorithm.valueOf(OPTION_HASH_ALGO_DEFAULT);
+            hashAlgorithm = RecordHashAlgorithm.valueOf(OPTION_HASH_ALGO_DEFAULT);
          }
          
+         collisionSafe = commandLine.hasOption(OPTION_KEY_COLLISION_SAFE);
+         LOGGER.info("Cli arg: {} = {}",
+               OPTION_KEY_COLLISION_SAFE_LONG, collisionSafe);
+         
+         twoPass = commandLine.hasOption(OPTION_KEY_TWO_PASS);
+         LOGGER.info("Cli arg: {} = {}", OPTION_KEY_TWO_PASS_LONG, twoPass);
+         
+         secondarySort = commandLine.hasOption(OPTION_KEY_SECONDARY_SORT);
+         LOGGER.info("Cli arg: {} = {}", OPTION_KEY_SECONDARY_SORT_LONG, secondarySort);
+         
+         sortedInputs = commandLine.hasOption(OPTION_KEY_SORTED_INPUTS);
+         LOGGER.info("Cli arg: {} = {}", OPTION_KEY_SORTED_INPUTS_LONG, sortedInputs);
+         
+         fingerprintCheck = commandLine.hasOption(OPTION_KEY_FINGERPRINT_CHECK);
+         LOGGER.info("Cli arg: {} = {}", OPTION_KEY_FINGERPRINT_CHECK_LONG, fingerprintCheck);
+         
+         digestBuckets = parsePositiveInt(commandLine,
+               OPTION_KEY_DIGEST_BUCKETS, OPTION_KEY_DIGEST_BUCKETS_LONG);
+         numReduceTasks = parsePositiveInt(commandLine,
+               OPTION_KEY_NUM_REDUCERS, OPTION_KEY_NUM_REDUCERS_LONG);
+         splitSizeMb = parsePositiveInt(commandLine,
+               OPTION_KEY_SPLIT_SIZE_MB, OPTION_KEY_SPLIT_SIZE_MB_LONG);
+         sortMb = parsePositiveInt(commandLine,
+               OPTION_KEY_SORT_MB, OPTION_KEY_SORT_MB_LONG);
+         mapAggregationMb = parsePositiveInt(commandLine,
+               OPTION_KEY_MAP_AGGREGATION_MB, OPTION_KEY_MAP_AGGREGATION_MB_LONG);
+         broadcastThresholdMb = parseInt(commandLine,
+               OPTION_KEY_BROADCAST_THRESHOLD_MB, OPTION_KEY_BROADCAST_THRESHOLD_MB_LONG,
+               0, OPTION_BROADCAST_THRESHOLD_MB_DEFAULT);
+         
+         String engine = commandLine.getOptionValue(
+               OPTION_KEY_ENGINE, OPTION_ENGINE_MAPREDUCE);
+         if (OPTION_ENGINE_LOCAL.equals(engine)) {
+            localEngine = true;
+         } else if (OPTION_ENGINE_MAPREDUCE.equals(engine)) {
+            localEngine = false;
+         } else {
+            String errMsg = "Option " + OPTION_KEY_ENGINE_LONG + " must be either " +
+                  OPTION_ENGINE_MAPREDUCE + " or " + OPTION_ENGINE_LOCAL + ", '" +
+                  engine + "' was passed";
+            LOGGER.error(errMsg);
+            throw new IllegalArgumentException(errMsg);
+         }
+         LOGGER.info("Cli arg: {} = {}", OPTION_KEY_ENGINE_LONG, engine);
+         
          jobId = commandLine.getOptionValue(
                OPTION_KEY_JOB_NAME, OPTION_JOB_NAME_DEFAULT);
          LOGGER.info("{} is set to {}", OPTION_KEY_JOB_NAME_LONG, jobId);
@@ -461,16 +1588,122 @@ public class DistributedDiff implements Tool {
          throw new IllegalArgumentException(errMsg);
       }
 
-      validateArg(referenceInputPath, OPTION_KEY_REF_INPUT_PATH_LONG);
-      validateArg(testInputPath,      OPTION_KEY_TEST_INPUT_PATH_LONG);
+      // An index holds the reference records in place of the reference
+      // input, and is itself built from the reference input alone
+      validateNotCombined(null != referenceIndexPath && null != referenceInputPath,
+            OPTION_KEY_REFERENCE_INDEX_LONG, OPTION_KEY_REF_INPUT_PATH_LONG);
+      validateNotCombined(buildIndex && null != referenceIndexPath,
+            OPTION_KEY_BUILD_INDEX_LONG, OPTION_KEY_REFERENCE_INDEX_LONG);
+      // A manifest holds the reference and test inputs of every pair
+      boolean batch = null != manifestPath;
+      validateNotCombined(batch && null != referenceInputPath,
+            OPTION_KEY_MANIFEST_LONG, OPTION_KEY_REF_INPUT_PATH_LONG);
+      validateNotCombined(batch && null != testInputPath,
+            OPTION_KEY_MANIFEST_LONG, OPTION_KEY_TEST_INPUT_PATH_LONG);
+      if (null == referenceIndexPath && !batch) {
+         validateArg(referenceInputPath, OPTION_KEY_REF_INPUT_PATH_LONG);
+      }
+      boolean testSets = null != testSetLabels;
+      if (!buildIndex && !batch && !testSets) {
+         validateArg(testInputPath,   OPTION_KEY_TEST_INPUT_PATH_LONG);
+      }
       validateArg(outputPath,         OPTION_KEY_OUTPUT_PATH_LONG);
       validateArg(jobId,              OPTION_KEY_JOB_NAME_LONG);
       validateArg(stringEncoding,     OPTION_KEY_HASH_STRING_ENCODING_LONG);
       
-      // Check to make sure that this is a valid StandardCharsets constant
-      Field[] standardCharsetsFields = StandardCharsets.class.getFields();
-      boolean validCharSetArg = false;
-      for (Field field : standardCharsetsFields) {
+      // The hash-only first pass cannot tell apart distinct records that
+      // share a hash, so it cannot honor the collision-safe mode.
+      validateNotCombined(twoPass && collisionSafe,
+            OPTION_KEY_TWO_PASS_LONG, OPTION_KEY_COLLISION_SAFE_LONG);
+      
+      // The sorted merge runs in a single map-only job that compares the
+      // records themselves, without hashing, aggregating or sorting them
+      validateNotCombined(sortedInputs && twoPass,
+            OPTION_KEY_SORTED_INPUTS_LONG, OPTION_KEY_TWO_PASS_LONG);
+      validateNotCombined(sortedInputs && collisionSafe,
+            OPTION_KEY_SORTED_INPUTS_LONG, OPTION_KEY_COLLISION_SAFE_LONG);
+      validateNotCombined(sortedInputs && secondarySort,
+            OPTION_KEY_SORTED_INPUTS_LONG, OPTION_KEY_SECONDARY_SORT_LONG);
+      validateNotCombined(sortedInputs && mapAggregationMb > 0,
+            OPTION_KEY_SORTED_INPUTS_LONG, OPTION_KEY_MAP_AGGREGATION_MB_LONG);
+      
+      // The digests select the records to be hashed and shuffled by the
+      // diff, which neither the two-pass nor the sorted merge mode runs
+      validateNotCombined(digestBuckets > 0 && twoPass,
+            OPTION_KEY_DIGEST_BUCKETS_LONG, OPTION_KEY_TWO_PASS_LONG);
+      validateNotCombined(digestBuckets > 0 && sortedInputs,
+            OPTION_KEY_DIGEST_BUCKETS_LONG, OPTION_KEY_SORTED_INPUTS_LONG);
+      
+      // The index is built, and merged with the test records, by the
+      // reducers of a single job that reads the inputs once
+      boolean index = buildIndex || null != referenceIndexPath;
+      String indexArg = buildIndex ? OPTION_KEY_BUILD_INDEX_LONG : OPTION_KEY_REFERENCE_INDEX_LONG;
+      validateNotCombined(index && twoPass, indexArg, OPTION_KEY_TWO_PASS_LONG);
+      validateNotCombined(index && secondarySort, indexArg, OPTION_KEY_SECONDARY_SORT_LONG);
+      validateNotCombined(index && sortedInputs, indexArg, OPTION_KEY_SORTED_INPUTS_LONG);
+      validateNotCombined(index && fingerprintCheck, indexArg, OPTION_KEY_FINGERPRINT_CHECK_LONG);
+      validateNotCombined(index && digestBuckets > 0, indexArg, OPTION_KEY_DIGEST_BUCKETS_LONG);
+      
+      // The summaries replace the inputs of a single hashing diff job
+      boolean summaries = null != summaryCachePath;
+      String summaryArg = OPTION_KEY_SUMMARY_CACHE_LONG;
+      validateNotCombined(summaries && index, summaryArg, indexArg);
+      validateNotCombined(summaries && twoPass, summaryArg, OPTION_KEY_TWO_PASS_LONG);
+      validateNotCombined(summaries && sortedInputs, summaryArg, OPTION_KEY_SORTED_INPUTS_LONG);
+      validateNotCombined(summaries && fingerprintCheck,
+            summaryArg, OPTION_KEY_FINGERPRINT_CHECK_LONG);
+      validateNotCombined(summaries && digestBuckets > 0,
+            summaryArg, OPTION_KEY_DIGEST_BUCKETS_LONG);
+      
+      // The pairs are diffed by a single hashing job whose keys carry the
+      // pair in place of the record or source
+      String batchArg = OPTION_KEY_MANIFEST_LONG;
+      validateNotCombined(batch && index, batchArg, indexArg);
+      validateNotCombined(batch && summaries, batchArg, summaryArg);
+      validateNotCombined(batch && twoPass, batchArg, OPTION_KEY_TWO_PASS_LONG);
+      validateNotCombined(batch && secondarySort, batchArg, OPTION_KEY_SECONDARY_SORT_LONG);
+      validateNotCombined(batch && sortedInputs, batchArg, OPTION_KEY_SORTED_INPUTS_LONG);
+      validateNotCombined(batch && fingerprintCheck,
+            batchArg, OPTION_KEY_FINGERPRINT_CHECK_LONG);
+      validateNotCombined(batch && digestBuckets > 0, batchArg, OPTION_KEY_DIGEST_BUCKETS_LONG);
+      
+      // The test sets are diffed by a single hashing job whose reducers
+      // keep the counts of each source apart
+      String testSetsArg = OPTION_KEY_TEST_INPUT_PATH_LONG + " label=path";
+      validateNotCombined(testSets && index, testSetsArg, indexArg);
+      validateNotCombined(testSets && summaries, testSetsArg, summaryArg);
+      validateNotCombined(testSets && batch, testSetsArg, batchArg);
+      validateNotCombined(testSets && twoPass, testSetsArg, OPTION_KEY_TWO_PASS_LONG);
+      validateNotCombined(testSets && secondarySort,
+            testSetsArg, OPTION_KEY_SECONDARY_SORT_LONG);
+      validateNotCombined(testSets && sortedInputs,
+            testSetsArg, OPTION_KEY_SORTED_INPUTS_LONG);
+      validateNotCombined(testSets && fingerprintCheck,
+            testSetsArg, OPTION_KEY_FINGERPRINT_CHECK_LONG);
+      validateNotCombined(testSets && digestBuckets > 0,
+            testSetsArg, OPTION_KEY_DIGEST_BUCKETS_LONG);
+      
+      // The local engine diffs a single pair of inputs by hashing every
+      // record into in-memory tables
+      String localArg = OPTION_KEY_ENGINE_LONG + " " + OPTION_ENGINE_LOCAL;
+      validateNotCombined(localEngine && index, localArg, indexArg);
+      validateNotCombined(localEngine && summaries, localArg, summaryArg);
+      validateNotCombined(localEngine && batch, localArg, batchArg);
+      validateNotCombined(localEngine && testSets, localArg, testSetsArg);
+      validateNotCombined(localEngine && twoPass, localArg, OPTION_KEY_TWO_PASS_LONG);
+      validateNotCombined(localEngine && secondarySort,
+            localArg, OPTION_KEY_SECONDARY_SORT_LONG);
+      validateNotCombined(localEngine && sortedInputs,
+            localArg, OPTION_KEY_SORTED_INPUTS_LONG);
+      validateNotCombined(localEngine && fingerprintCheck,
+            localArg, OPTION_KEY_FINGERPRINT_CHECK_LONG);
+      validateNotCombined(localEngine && digestBuckets > 0,
+            localArg, OPTION_KEY_DIGEST_BUCKETS_LONG);
+      
+      // Check to make sure that this is a valid StandardCharsets constant
+      Field[] standardCharsetsFields = StandardCharsets.class.getFields();
+      boolean validCharSetArg = false;
+      for (Field field : standardCharsetsFields) {
          try {
             Charset charset = (Charset) field.get(null);
             if (stringEncoding.equals(charset.displayName())) {
@@ -495,6 +1728,50 @@ public class DistributedDiff implements Tool {
       }
    }
    
+   /**
+    * Returns the value of the option as a positive int, or 0 if the option
+    * was not passed.
+    * 
+    * @throws IllegalArgumentException
+    *        if the value is not a positive int
+    */
+   private int parsePositiveInt(CommandLine commandLine, String opt, String longOpt)
+      throws IllegalArgumentException
+   {
+      return parseInt(commandLine, opt, longOpt, 1, 0);
+   }
+   
+   /**
+    * Returns the value of the option as an int, or defaultValue if the
+    * option was not passed.
+    * 
+    * @throws IllegalArgumentException
+    *        if the value is not an int of at least minValue
+    */
+   private int parseInt(CommandLine commandLine, String opt, String longOpt,
+         int minValue, int defaultValue) throws IllegalArgumentException
+   {
+      String value = commandLine.getOptionValue(opt);
+      if (null == value) {
+         return defaultValue;
+      }
+      
+      int retVal = 0;
+      try {
+         retVal = Integer.parseInt(value.trim());
+      } catch (NumberFormatException e) {
+         retVal = minValue - 1;
+      }
+      if (retVal < minValue) {
+         String errMsg = "Option " + longOpt + " must be an integer of at least " +
+               minValue + ", '" + value + "' was passed";
+         LOGGER.error(errMsg);
+         throw new IllegalArgumentException(errMsg);
+      }
+      LOGGER.info("Cli arg: {} = {}", longOpt, retVal);
+      return retVal;
+   }
+   
    private void printUsage(boolean exit) {
       HelpFormatter helpFormatter = new HelpFormatter();
       helpFormatter.printHelp(APP_NAME, options);
@@ -504,7 +1781,10 @@ public class DistributedDiff implements Tool {
    }
    
    /**
-    * Configures the M/R job to be submitted.
+    * Configures the M/R job to be submitted.  In the two-pass mode this is
+    * the second job, and its mappers are configured to only emit the
+    * records whose hashes were written by the job configured in
+    * {@link #setupHashJob()}.
     * 
     * @throws Exception
     */
@@ -516,10 +1796,43 @@ public class DistributedDiff implements Tool {
       // Configuration BEFORE getting a job instance, as the
       // Job.getInstance(Configuration conf) method makes a COPY of the
       // Configuration instance and does not pass a reference.
-      conf.set(CONF_HASH_ALGO_KEY, hashAlgorithm.toString());
-      conf.set(CONF_ENCODING_KEY,  stringEncoding);
+      setHashConf(conf);
+      conf.setBoolean(CONF_HASH_ONLY_KEY, false);
+      conf.setBoolean(CONF_HASH_FILTER_KEY, twoPass);
+      conf.setBoolean(CONF_SECONDARY_SORT_KEY, secondarySort);
+      
+      conf.setBoolean(CONF_BROADCAST_KEY, broadcast);
+      conf.setBoolean(CONF_BUCKET_FILTER_KEY, digestBuckets > 0);
+      conf.setInt(CONF_DIGEST_BUCKETS_KEY, digestBuckets);
+      if (null != referenceIndex) {
+         Path indexPath = new Path(referenceIndexPath);
+         conf.set(CONF_REFERENCE_INDEX_PATH_KEY,
+               indexPath.getFileSystem(conf).makeQualified(indexPath).toString());
+      } else {
+         conf.unset(CONF_REFERENCE_INDEX_PATH_KEY);
+      }
       
-      job = Job.getInstance(conf);
+      // In the two-pass mode only the records with a differing hash are
+      // shuffled, and in the broadcast mode the reference records along with
+      // the net count of each matched reference record from every test map
+      // task and the unmatched test records.  With bucket digests only the
+      // share of those records in the dirty buckets is.
+      JobPlan plan = null;
+      if (twoPass) {
+         plan = planner.planFiltered(hashDiffCount);
+      } else if (broadcast || digestBuckets > 0) {
+         long records = broadcast ?
+               planner.estimateBroadcastRecords(referenceRecords, referenceBytes,
+                     splitSizeMb * 1024L * 1024L) :
+               planner.getEstimatedRecords();
+         if (digestBuckets > 0) {
+            records = (long) Math.ceil((double) records * dirtyBuckets / digestBuckets);
+         }
+         plan = planner.planFiltered(records);
+      } else {
+         plan = planner.plan(true);
+      }
+      job = Job.getInstance(applyPlan(conf, plan, jobId));
       job.setJarByClass(DistributedDiff.class);
 
       // Delete the output path if it already exists
@@ -531,33 +1844,774 @@ public class DistributedDiff implements Tool {
 
       job.setJobName(jobId);
    
-      job.setInputFormatClass(TextInputFormat.class);
-      job.setOutputFormatClass(TextOutputFormat.class);
+      setupMapPhase(job, null == referenceIndex, true);
+      
+      if (null != referenceIndex) {
+         // Each reducer merges the index partition of its range of hashes
+         if (job.getNumReduceTasks() != referenceIndex.getNumPartitions()) {
+            LOGGER.info("Using the {} partitions of the reference index as the number of " +
+                  "reducers", referenceIndex.getNumPartitions());
+         }
+         job.setNumReduceTasks(referenceIndex.getNumPartitions());
+      }
+      
+      if (secondarySort) {
+         // Sort by hash, record and source with the comparator registered
+         // by HashRecordKeyWritable, but group by, and partition on, the
+         // hash alone.  The combiner must only merge values for identical
+         // keys, as it writes the key it was given.
+         job.setMapOutputKeyClass(HashRecordKeyWritable.class);
+         job.setGroupingComparatorClass(HashKeyWritable.Comparator.class);
+         job.setCombinerKeyGroupingComparatorClass(HashRecordKeyWritable.Comparator.class);
+      }
+      
+      if (broadcast) {
+         URI uri = fs.makeQualified(getReferenceTablePath()).toUri();
+         job.addCacheFile(new URI(uri.getScheme(), uri.getAuthority(),
+               uri.getPath(), null, REFERENCE_CACHE_FILE_NAME));
+      }
+      
+      if (digestBuckets > 0) {
+         URI uri = fs.makeQualified(getDirtyBucketsPath()).toUri();
+         job.addCacheFile(new URI(uri.getScheme(), uri.getAuthority(),
+               uri.getPath(), null, DIRTY_BUCKETS_CACHE_FILE_NAME));
+      }
+      
+      if (twoPass) {
+         // Distribute the differing hashes to each of the mappers
+         FileStatus[] hashFiles = fs.globStatus(new Path(getHashOutputPath(), "part-*"));
+         if (null != hashFiles) {
+            for (int i = 0; i < hashFiles.length; i++) {
+               URI uri = hashFiles[i].getPath().toUri();
+               job.addCacheFile(new URI(uri.getScheme(), uri.getAuthority(),
+                     uri.getPath(), null, HASH_CACHE_FILE_PREFIX + i));
+            }
+         }
+      }
 
+      job.setReducerClass(DdiffReducer.class);
+      setupDiffOutput(job, outPath);
+   }
+   
+   /**
+    * Configures the map-only job of the sorted merge mode, in which each
+    * mapper merges a range of lines of both sorted inputs, see
+    * {@link SortedMergeInputFormat}, and writes out the missing and extra
+    * records directly.  Only whether it is run in-process and the split size
+    * apply to this job.
+    * 
+    * @throws Exception
+    */
+   private void setupSortedJob() throws Exception {
+      Configuration conf = getConf();
+      conf.set(CONF_SORTED_REFERENCE_PATH_KEY, referenceInputPath);
+      conf.set(CONF_SORTED_TEST_PATH_KEY, testInputPath);
+      job = Job.getInstance(applyMapOnlyPlan(conf, jobId,
+            new Path(referenceInputPath), new Path(testInputPath)));
+      job.setJarByClass(DistributedDiff.class);
+      
+      FileSystem fs = FileSystem.get(conf);
+      Path outPath = new Path(outputPath);
+      if (fs.exists(outPath)) {
+         fs.delete(outPath, true);
+      }
+      
+      job.setJobName(jobId);
+      job.setInputFormatClass(SortedMergeInputFormat.class);
+      job.setMapperClass(SortedMergeMapper.class);
+      job.setNumReduceTasks(0);
+      setupDiffOutput(job, outPath);
+   }
+   
+   /**
+    * Configures the map-only fingerprint pre-check job, whose
+    * {@link FingerprintMapper.FingerprintCounter} counters are compared in
+    * {@link #isFingerprintMatch(Job)}.  With bucket digests it also writes
+    * out the digest of each bucket of each map task, which are merged in
+    * {@link #writeDirtyBuckets()}.
+    * 
+    * @throws Exception
+    */
+   private void setupFingerprintJob() throws Exception {
+      Configuration conf = getConf();
+      conf.setInt(CONF_DIGEST_BUCKETS_KEY, digestBuckets);
+      if (digestBuckets > 0) {
+         // The buckets are read from the hashes of the diff
+         setHashConf(conf);
+      }
+      fingerprintJob = Job.getInstance(applyMapOnlyPlan(conf, jobId + FINGERPRINT_JOB_SUFFIX,
+            new Path(referenceInputPath), new Path(testInputPath)));
+      fingerprintJob.setJarByClass(DistributedDiff.class);
+      fingerprintJob.setJobName(jobId + FINGERPRINT_JOB_SUFFIX);
+      
+      fingerprintJob.setInputFormatClass(TextInputFormat.class);
       MultipleInputs.addInputPath(
-            job, new Path(referenceInputPath),
-            TextInputFormat.class, DdiffMapperReferenceInput.class);
+            fingerprintJob, new Path(referenceInputPath),
+            TextInputFormat.class, FingerprintMapperReferenceInput.class);
       MultipleInputs.addInputPath(
-            job, new Path(testInputPath),
-            TextInputFormat.class, DdiffMapperTestInput.class);
+            fingerprintJob, new Path(testInputPath),
+            TextInputFormat.class, FingerprintMapperTestInput.class);
       
+      fingerprintJob.setNumReduceTasks(0);
+      if (digestBuckets > 0) {
+         FileSystem fs = FileSystem.get(conf);
+         Path digestPath = getDigestOutputPath();
+         if (fs.exists(digestPath)) {
+            fs.delete(digestPath, true);
+         }
+         fingerprintJob.setOutputFormatClass(SequenceFileOutputFormat.class);
+         fingerprintJob.setOutputKeyClass(IntWritable.class);
+         fingerprintJob.setOutputValueClass(BucketDigestWritable.class);
+         FileOutputFormat.setOutputPath(fingerprintJob, digestPath);
+      } else {
+         fingerprintJob.setOutputFormatClass(NullOutputFormat.class);
+         fingerprintJob.setOutputKeyClass(NullWritable.class);
+         fingerprintJob.setOutputValueClass(NullWritable.class);
+      }
+   }
+   
+   /**
+    * Merges the bucket digests written by the fingerprint job and writes out
+    * the buckets whose digests differ, to be distributed to the mappers of
+    * the diff.
+    */
+   private void writeDirtyBuckets() throws IOException {
+      Configuration conf = getConf();
+      FileSystem fs = FileSystem.get(conf);
+      BucketDigests digests = new BucketDigests(digestBuckets);
+      digests.load(conf, fs, getDigestOutputPath());
+      BitSet dirty = digests.getDirtyBuckets();
+      dirtyBuckets = dirty.cardinality();
+      BucketDigests.writeBuckets(fs, getDirtyBucketsPath(), dirty);
+      LOGGER.info("{} of {} buckets differ", dirtyBuckets, digestBuckets);
+   }
+   
+   /**
+    * Runs the index build, writing each distinct reference record, keyed and
+    * partitioned by its hash, to the output path along with the
+    * {@link ReferenceIndex} metadata.
+    * 
+    * @return 0 if the index was written, otherwise 1
+    * @throws Exception
+    */
+   private int buildReferenceIndex() throws Exception {
+      Configuration conf = getConf();
+      FileSystem fs = FileSystem.get(conf);
+      planner = new JobPlanner(conf, hashAlgorithm);
+      planner.measure(fs, new Path(referenceInputPath));
+      
+      setHashConf(conf);
+      conf.setBoolean(CONF_HASH_ONLY_KEY, false);
+      conf.setBoolean(CONF_HASH_FILTER_KEY, false);
+      conf.setBoolean(CONF_SECONDARY_SORT_KEY, false);
+      conf.setBoolean(CONF_BROADCAST_KEY, false);
+      conf.setBoolean(CONF_BUCKET_FILTER_KEY, false);
+      job = Job.getInstance(applyPlan(conf, planner.plan(true), jobId));
+      job.setJarByClass(DistributedDiff.class);
+      job.setJobName(jobId);
+      
+      Path outPath = new Path(outputPath);
+      if (fs.exists(outPath)) {
+         fs.delete(outPath, true);
+      }
+      
+      setupMapPhase(job, true, false);
+      job.setReducerClass(ReferenceIndexReducer.class);
+      job.setOutputFormatClass(SequenceFileOutputFormat.class);
+      job.setOutputKeyClass(HashKeyWritable.class);
+      job.setOutputValueClass(TaggedTextWithCountWritableComparable.class);
+      FileOutputFormat.setOutputPath(job, outPath);
+      
+      job.submit();
+      if (!job.waitForCompletion(true)) {
+         LOGGER.error("Index job did not complete successfully");
+         return (1);
+      }
+      
+      Counters counters = job.getCounters();
+      ReferenceIndex index = new ReferenceIndex(hashAlgorithm, stringEncoding,
+            job.getNumReduceTasks(),
+            counters.findCounter(ReferenceIndexCounter.RECORDS).getValue(),
+            counters.findCounter(ReferenceIndexCounter.DISTINCT_RECORDS).getValue());
+      index.write(fs, outPath);
+      LOGGER.info("Wrote reference index {}, {}", outputPath, index);
+      return (0);
+   }
+   
+   /**
+    * Diffs the reference and test inputs with the {@link LocalDiffEngine},
+    * without submitting a job.
+    * 
+    * @return 0 if the diff completed, otherwise 1
+    */
+   private int runLocal() {
+      Configuration conf = getConf();
+      String delimiter = conf.get(DiffInputFormat.CONF_DELIMITER_KEY);
+      if (null != delimiter && !delimiter.isEmpty()) {
+         // The local engine only splits records on line terminators
+         LOGGER.error("The {} engine does not support {}", OPTION_ENGINE_LOCAL,
+               DiffInputFormat.CONF_DELIMITER_KEY);
+         return (1);
+      }
+      LocalDiffEngine engine = new LocalDiffEngine(hashAlgorithm,
+            conf.getInt(LocalDiffEngine.CONF_THREADS_KEY, 0),
+            conf.getInt(LocalDiffEngine.CONF_MEMORY_MB_KEY, 0));
+      String spillDir = conf.get(LocalDiffEngine.CONF_SPILL_DIR_KEY);
+      try {
+         if (null != spillDir) {
+            engine.setSpillDir(toLocalPath(spillDir));
+         }
+         engine.diff(toLocalPath(referenceInputPath), toLocalPath(testInputPath),
+               toLocalPath(outputPath));
+      } catch (IOException e) {
+         LOGGER.error("Unable to run the local diff, e = {}", e.toString());
+         return (1);
+      }
+      LOGGER.info("Local diff read {} reference and {} test records, " +
+            "{} missing and {} extra records, spilled {} bytes",
+            engine.getReferenceRecords(), engine.getTestRecords(),
+            engine.getMissingRecords(), engine.getExtraRecords(), engine.getSpilledBytes());
+      return (0);
+   }
+   
+   /**
+    * Returns the local filesystem path of a path given on the command line,
+    * either as a plain path or a {@code file:} URI.
+    * 
+    * @throws IOException
+    *        if the path is on another filesystem
+    */
+   private static java.nio.file.Path toLocalPath(String path) throws IOException {
+      URI uri = new Path(path).toUri();
+      if (null == uri.getScheme()) {
+         return java.nio.file.Paths.get(uri.getPath());
+      }
+      if (!"file".equals(uri.getScheme())) {
+         throw new IOException("The " + OPTION_ENGINE_LOCAL + " engine only reads and " +
+               "writes the local filesystem, " + path + " was passed");
+      }
+      return java.nio.file.Paths.get(uri);
+   }
+   
+   /**
+    * Runs the batch mode, diffing every pair of the manifest in a single
+    * job and then writing the {@link #BATCH_SUMMARY_FILE_NAME} file.
+    * 
+    * @return 0 if the job completed successfully, otherwise 1
+    * @throws Exception
+    */
+   private int runBatch() throws Exception {
+      Configuration conf = getConf();
+      FileSystem fs = FileSystem.get(conf);
+      Path manifestFile = fs.makeQualified(new Path(manifestPath));
+      BatchManifest manifest = BatchManifest.read(fs, manifestFile);
+      LOGGER.info("Diffing the {} pairs of manifest {}", manifest.size(), manifestFile);
+      
+      // Inputs are measured once for each pair that they are read for
+      List<Path> inputs = new ArrayList<Path>();
+      for (int i = 0; i < manifest.size(); i++) {
+         inputs.add(new Path(manifest.getReferencePath(i)));
+         inputs.add(new Path(manifest.getTestPath(i)));
+      }
+      planner = new JobPlanner(conf, hashAlgorithm);
+      planner.measure(fs, inputs.toArray(new Path[inputs.size()]));
+      
+      setupBatchJob(manifestFile);
+      job.submit();
+      if (!job.waitForCompletion(true)) {
+         LOGGER.error("Batch job did not complete successfully");
+         return (1);
+      }
+      writeBatchSummary(fs, manifest);
+      return (0);
+   }
+   
+   /**
+    * Configures the job of the batch mode, in which the
+    * {@link ManifestInputFormat} reads the inputs of every pair and the keys
+    * are {@link PairHashKeyWritable} instances.
+    * 
+    * @throws Exception
+    */
+   private void setupBatchJob(Path manifestFile) throws Exception {
+      Configuration conf = getConf();
+      setHashConf(conf);
+      conf.setBoolean(CONF_HASH_ONLY_KEY, false);
+      conf.setBoolean(CONF_HASH_FILTER_KEY, false);
+      conf.setBoolean(CONF_SECONDARY_SORT_KEY, false);
+      conf.setBoolean(CONF_BROADCAST_KEY, false);
+      conf.setBoolean(CONF_BUCKET_FILTER_KEY, false);
+      conf.set(CONF_MANIFEST_PATH_KEY, manifestFile.toString());
+      job = Job.getInstance(applyPlan(conf, planner.plan(true), jobId));
+      job.setJarByClass(DistributedDiff.class);
+      job.setJobName(jobId);
+      
+      FileSystem fs = FileSystem.get(conf);
+      Path outPath = new Path(outputPath);
+      if (fs.exists(outPath)) {
+         fs.delete(outPath, true);
+      }
+      
+      // The source of each mapper is that of its split
+      job.setInputFormatClass(ManifestInputFormat.class);
+      job.setMapperClass(DdiffMapper.class);
+      job.setMapOutputKeyClass(PairHashKeyWritable.class);
+      job.setMapOutputValueClass(TaggedTextWithCountWritableComparable.class);
+      job.setPartitionerClass(HashKeyPartitioner.class);
       job.setCombinerClass(DdiffCombiner.class);
+      
       job.setReducerClass(DdiffReducer.class);
+      setupDiffOutput(job, outPath);
+      MultipleOutputs.addNamedOutput(
+            job, SUMMARY_OUTPUT, TextOutputFormat.class, Text.class, Text.class);
+   }
+   
+   /**
+    * Merges the per-pair counts written by each reducer into a single
+    * {@link #BATCH_SUMMARY_FILE_NAME} file in the output path, holding the
+    * id, missing count and extra count of every pair in manifest order,
+    * and removes the files of the reducers.
+    */
+   private void writeBatchSummary(FileSystem fs, BatchManifest manifest) throws IOException {
+      Path outPath = new Path(outputPath);
+      Map<String, long[]> counts = new HashMap<String, long[]>();
+      FileStatus[] summaries = fs.globStatus(new Path(outPath, SUMMARY_OUTPUT + "-r-*"));
+      for (FileStatus summary : (null == summaries) ? new FileStatus[0] : summaries) {
+         BufferedReader reader = new BufferedReader(new InputStreamReader(
+               fs.open(summary.getPath()), StandardCharsets.UTF_8));
+         try {
+            String line = null;
+            while (null != (line = reader.readLine())) {
+               String[] fields = line.split("\t");
+               long[] pairCounts = counts.get(fields[0]);
+               if (null == pairCounts) {
+                  pairCounts = new long[2];
+                  counts.put(fields[0], pairCounts);
+               }
+               pairCounts[0] += Long.parseLong(fields[1]);
+               pairCounts[1] += Long.parseLong(fields[2]);
+            }
+         } finally {
+            reader.close();
+         }
+         fs.delete(summary.getPath(), false);
+      }
+      
+      Writer writer = new OutputStreamWriter(
+            fs.create(new Path(outPath, BATCH_SUMMARY_FILE_NAME), true), StandardCharsets.UTF_8);
+      try {
+         for (int i = 0; i < manifest.size(); i++) {
+            long[] pairCounts = counts.get(manifest.getPairId(i));
+            writer.write(manifest.getPairId(i) + "\t" +
+                  ((null == pairCounts) ? "0\t0" : pairCounts[0] + "\t" + pairCounts[1]) + "\n");
+         }
+      } finally {
+         writer.close();
+      }
+      LOGGER.info("{} of {} pairs differ, see {}", counts.size(), manifest.size(),
+            new Path(outPath, BATCH_SUMMARY_FILE_NAME));
+   }
+   
+   /**
+    * Returns the keys of the summaries of each of the files of the input,
+    * see {@link SummaryCache#getFileKey(FileStatus)}, adding each file to
+    * the map of files by key.
+    */
+   private List<String> getFileKeys(String input, Map<String, FileStatus> files)
+         throws IOException
+   {
+      List<String> retVal = new ArrayList<String>();
+      for (FileStatus file : SortedMergeInputFormat.listFiles(getConf(), input)) {
+         String key = summaryCache.getFileKey(file);
+         files.put(key, file);
+         retVal.add(key);
+      }
+      return retVal;
+   }
+   
+   /**
+    * Runs the summary job over the files to be diffed whose summaries are
+    * not cached, and moves the summaries that it writes into the cache.
+    * 
+    * @return false if the job did not complete successfully
+    * @throws Exception
+    */
+   private boolean summarizeInputs(Map<String, FileStatus> files) throws Exception {
+      Map<String, String> uncached = new HashMap<String, String>();
+      List<String> keys = new ArrayList<String>(referenceSummaries);
+      keys.addAll(testSummaries);
+      for (String key : keys) {
+         if (!uncached.containsKey(key) && !summaryCache.isSummaryCached(key)) {
+            Path file = files.get(key).getPath();
+            uncached.put(key, file.getFileSystem(getConf()).makeQualified(file).toString());
+         }
+      }
+      LOGGER.info("Summarizing {} of {} input files, the rest are cached",
+            uncached.size(), keys.size());
+      if (uncached.isEmpty()) {
+         return true;
+      }
+      
+      setupSummaryJob(uncached.values());
+      summaryJob.submit();
+      if (!summaryJob.waitForCompletion(true)) {
+         return false;
+      }
+      
+      // Each file is written under a name derived from its path, or not at
+      // all if it held no records
+      FileSystem fs = FileSystem.get(getConf());
+      for (Map.Entry<String, String> entry : uncached.entrySet()) {
+         FileStatus[] written = fs.globStatus(new Path(getSummaryOutputPath(),
+               SummaryCache.getOutputName(new Path(entry.getValue())) + "-m-*"));
+         summaryCache.storeSummary(entry.getKey(),
+               (null == written || written.length == 0) ? null : written[0].getPath());
+      }
+      fs.delete(getSummaryOutputPath(), true);
+      return true;
+   }
+   
+   /**
+    * Configures the map-only summary job, in which each mapper reads one of
+    * the given files whole and writes its summary, see
+    * {@link FileSummaryMapper}.
+    * 
+    * @throws Exception
+    */
+   private void setupSummaryJob(Iterable<String> files) throws Exception {
+      Configuration conf = getConf();
+      setHashConf(conf);
+      List<Path> inputs = new ArrayList<Path>();
+      for (String file : files) {
+         inputs.add(new Path(file));
+      }
+      summaryJob = Job.getInstance(applyMapOnlyPlan(conf, jobId + SUMMARY_OUTPUT_SUFFIX,
+            inputs.toArray(new Path[inputs.size()])));
+      summaryJob.setJarByClass(DistributedDiff.class);
+      summaryJob.setJobName(jobId + SUMMARY_OUTPUT_SUFFIX);
+      
+      for (String file : files) {
+         FileInputFormat.addInputPath(summaryJob, new Path(file));
+      }
+      summaryJob.setInputFormatClass(UnsplittableTextInputFormat.class);
+      summaryJob.setMapperClass(FileSummaryMapper.class);
+      summaryJob.setNumReduceTasks(0);
+      
+      FileSystem fs = FileSystem.get(conf);
+      Path summaryPath = getSummaryOutputPath();
+      if (fs.exists(summaryPath)) {
+         fs.delete(summaryPath, true);
+      }
+      LazyOutputFormat.setOutputFormatClass(summaryJob, SequenceFileOutputFormat.class);
+      summaryJob.setOutputKeyClass(HashKeyWritable.class);
+      summaryJob.setOutputValueClass(TaggedTextWithCountWritableComparable.class);
+      FileOutputFormat.setOutputPath(summaryJob, summaryPath);
+   }
+   
+   /**
+    * Plans a map-only job over the given inputs, which is only run
+    * in-process if they are small enough, and applies the split size
+    * passed on the command line, the only other setting of the plan that
+    * applies to such a job.
+    * 
+    * @return a copy of the conf with the plan set on it, from which the job
+    *         is to be created
+    */
+   private Configuration applyMapOnlyPlan(Configuration conf, String jobName, Path... inputs)
+         throws IOException
+   {
+      JobPlanner mapOnlyPlanner = new JobPlanner(conf, hashAlgorithm);
+      mapOnlyPlanner.measure(FileSystem.get(conf), inputs);
+      JobPlan plan = mapOnlyPlanner.planMapOnly();
+      if (splitSizeMb > 0) {
+         plan.setSplitSize(splitSizeMb * 1024L * 1024L);
+      }
+      LOGGER.info("Plan for job {}, inputBytes = {}: {}",
+            jobName, mapOnlyPlanner.getInputBytes(), plan);
+      Configuration jobConf = new Configuration(conf);
+      plan.apply(jobConf);
+      return jobConf;
+   }
+   
+   /**
+    * Configures the missing and extra outputs of the job.
+    */
+   private static void setupDiffOutput(Job job, Path outPath) {
+      job.setOutputFormatClass(TextOutputFormat.class);
 
       // The only output will be the count of the records that are missing in
       // the reference data, or the count of the additional records in the test
       // data.
       job.setOutputKeyClass(Text.class);
-      job.setOutputValueClass(TaggedTextWithCountWritableComparable.class);
+      job.setOutputValueClass(LongWritable.class);
       
       FileOutputFormat.setOutputPath(job, outPath);
       
       MultipleOutputs.addNamedOutput(
             job, MISSING_OUTPUT, TextOutputFormat.class,
-            Text.class, IntWritable.class);
+            Text.class, LongWritable.class);
       MultipleOutputs.addNamedOutput(
             job, EXTRA_OUTPUT, TextOutputFormat.class,
-            Text.class, IntWritable.class); 
+            Text.class, LongWritable.class); 
+   }
+   
+   /**
+    * Configures the first job of the two-pass mode, which shuffles only the
+    * hash, source and count of each record and writes the differing hashes
+    * as a SequenceFile to {@link #getHashOutputPath()}.
+    * 
+    * @throws Exception
+    */
+   private void setupHashJob() throws Exception {
+      Configuration conf = getConf();
+      setHashConf(conf);
+      conf.setBoolean(CONF_HASH_ONLY_KEY, true);
+      conf.setBoolean(CONF_HASH_FILTER_KEY, false);
+      conf.setBoolean(CONF_SECONDARY_SORT_KEY, false);
+      conf.setBoolean(CONF_BROADCAST_KEY, false);
+      conf.setBoolean(CONF_BUCKET_FILTER_KEY, false);
+      hashJob = Job.getInstance(applyPlan(conf, planner.plan(false),
+            jobId + HASH_OUTPUT_SUFFIX));
+      hashJob.setJarByClass(DistributedDiff.class);
+      
+      FileSystem fs = FileSystem.get(conf);
+      Path hashPath = getHashOutputPath();
+      if (fs.exists(hashPath)) {
+         fs.delete(hashPath, true);
+      }
+      
+      hashJob.setJobName(jobId + HASH_OUTPUT_SUFFIX);
+      
+      setupMapPhase(hashJob, true, true);
+      
+      hashJob.setReducerClass(DdiffHashReducer.class);
+      hashJob.setOutputFormatClass(SequenceFileOutputFormat.class);
+      hashJob.setOutputKeyClass(HashKeyWritable.class);
+      hashJob.setOutputValueClass(LongWritable.class);
+      
+      FileOutputFormat.setOutputPath(hashJob, hashPath);
+   }
+   
+   /**
+    * Applies the settings passed on the command line over those of the
+    * plan, logs the plan and sets it on a copy of the conf, so that it
+    * does not carry over to the later jobs.
+    * 
+    * @return the copy of the conf, from which the job is to be created
+    */
+   private Configuration applyPlan(Configuration conf, JobPlan plan, String jobName) {
+      if (numReduceTasks > 0) {
+         plan.setNumReduceTasks(numReduceTasks);
+      }
+      if (splitSizeMb > 0) {
+         plan.setSplitSize(splitSizeMb * 1024L * 1024L);
+      }
+      if (sortMb > 0) {
+         plan.setSortMb(sortMb);
+      }
+      LOGGER.info("Plan for job {}, inputBytes = {}, averageRecordLength = {}: {}",
+            jobName, planner.getInputBytes(), planner.getAverageRecordLength(), plan);
+      Configuration jobConf = new Configuration(conf);
+      plan.apply(jobConf);
+      return jobConf;
+   }
+   
+   private void setHashConf(Configuration conf) {
+      conf.set(CONF_HASH_ALGO_KEY, hashAlgorithm.toString());
+      conf.set(CONF_ENCODING_KEY,  stringEncoding);
+      conf.setBoolean(CONF_COLLISION_SAFE_KEY, collisionSafe);
+      conf.setInt(CONF_MAP_AGGREGATION_MB_KEY, mapAggregationMb);
+   }
+   
+   /**
+    * Configures the inputs, mappers, combiner and shuffle, which are the
+    * same for every job that reads either input.
+    */
+   private void setupMapPhase(Job job, boolean readReference, boolean readTest)
+         throws IOException
+   {
+      if (null != summaryCache) {
+         // Summaries are read in place of the inputs, once for each time
+         // that their key appears on either side
+         job.setInputFormatClass(SequenceFileInputFormat.class);
+         job.setMapperClass(SummaryMapper.class);
+         List<String> keys = new ArrayList<String>();
+         if (readReference) {
+            keys.addAll(referenceSummaries);
+         }
+         if (readTest) {
+            keys.addAll(testSummaries);
+         }
+         for (String key : keys) {
+            FileInputFormat.addInputPath(job, summaryCache.getSummaryPath(key));
+         }
+         job.getConfiguration().setStrings(CONF_SUMMARY_TEST_KEYS_KEY,
+               testSummaries.toArray(new String[testSummaries.size()]));
+      } else if (null != testSetLabels) {
+         // Each split is tagged with the source id of the reference or of
+         // the test set whose input it is
+         Configuration conf = job.getConfiguration();
+         job.setInputFormatClass(TestSetInputFormat.class);
+         job.setMapperClass(DdiffMapper.class);
+         conf.setStrings(CONF_TEST_SET_LABELS_KEY,
+               testSetLabels.toArray(new String[testSetLabels.size()]));
+         conf.set(CONF_SOURCE_PATH_KEY_PREFIX + Source.REFERENCE.getId(), referenceInputPath);
+         for (int i = 0; i < testSetPaths.size(); i++) {
+            conf.set(CONF_SOURCE_PATH_KEY_PREFIX + Source.getTestSetId(i), testSetPaths.get(i));
+         }
+      } else {
+         job.setInputFormatClass(DiffInputFormat.class);
+         
+         if (readReference) {
+            MultipleInputs.addInputPath(
+                  job, new Path(referenceInputPath),
+                  DiffInputFormat.class, DdiffMapperReferenceInput.class);
+         }
+         if (readTest) {
+            MultipleInputs.addInputPath(
+                  job, new Path(testInputPath),
+                  DiffInputFormat.class, DdiffMapperTestInput.class);
+         }
+      }
+      
+      // Map output keys are the raw binary hashes of each record, which are
+      // sorted with the raw comparator registered by HashKeyWritable and
+      // partitioned into contiguous ranges on their leading bytes, so that
+      // each reducer writes out the records of a known range of hashes.
+      job.setMapOutputKeyClass(HashKeyWritable.class);
+      job.setMapOutputValueClass(TaggedTextWithCountWritableComparable.class);
+      job.setPartitionerClass(HashKeyPartitioner.class);
+
+      job.setCombinerClass(DdiffCombiner.class);
+   }
+   
+   /**
+    * Returns true if the signed fingerprint sums of the two inputs cancel
+    * out, ie if both inputs hold the same multiset of records.
+    */
+   static boolean isFingerprintMatch(Counters counters) {
+      long refCount  = counters.findCounter(FingerprintCounter.REFERENCE_COUNT).getValue();
+      long testCount = counters.findCounter(FingerprintCounter.TEST_COUNT).getValue();
+      LOGGER.info("Fingerprinted {} reference and {} test records", refCount, testCount);
+      return refCount == testCount &&
+            counters.findCounter(FingerprintCounter.RECORDS).getValue() == 0 &&
+            counters.findCounter(FingerprintCounter.SUM_HIGH).getValue() == 0 &&
+            counters.findCounter(FingerprintCounter.SUM_LOW).getValue() == 0;
+   }
+   
+   /**
+    * Replaces the output path with an empty directory holding only the
+    * {@link #IDENTICAL_MARKER_FILE_NAME} file and the {@code _SUCCESS} file
+    * that a diff job would have written.
+    */
+   static void writeIdenticalOutput(FileSystem fs, Path outPath) throws IOException {
+      fs.delete(outPath, true);
+      fs.mkdirs(outPath);
+      for (String name : new String[] {
+            IDENTICAL_MARKER_FILE_NAME, FileOutputCommitter.SUCCEEDED_FILE_NAME })
+      {
+         if (!fs.createNewFile(new Path(outPath, name))) {
+            throw new IOException("Unable to create " + name + " in " + outPath);
+         }
+      }
+   }
+   
+   private static long getDiffCount(Job job) throws Exception {
+      Counters counters = job.getCounters();
+      return counters.findCounter(DdiffReduceCounter.MISSING).getValue() +
+            counters.findCounter(DdiffReduceCounter.EXTRA).getValue();
+   }
+   
+   /**
+    * Returns the total length of the files matched by the reference input
+    * path, or -1 if it cannot be determined.
+    */
+   private long getReferenceBytes(FileSystem fs) throws IOException {
+      FileStatus[] matches = fs.globStatus(new Path(referenceInputPath));
+      if (null == matches || matches.length == 0) {
+         return -1;
+      }
+      long retVal = 0;
+      for (FileStatus match : matches) {
+         ContentSummary summary = fs.getContentSummary(match.getPath());
+         if (null == summary) {
+            return -1;
+         }
+         retVal += summary.getLength();
+      }
+      return retVal;
+   }
+   
+   private Path getReferenceTablePath() {
+      return new Path(outputPath + REFERENCE_TABLE_SUFFIX, "part-r-00000");
+   }
+   
+   private Path getDigestOutputPath() {
+      return new Path(outputPath + DIGEST_OUTPUT_SUFFIX);
+   }
+   
+   private Path getDirtyBucketsPath() {
+      return new Path(getDigestOutputPath(), "dirty-buckets");
+   }
+   
+   private Path getSummaryOutputPath() {
+      return new Path(outputPath + SUMMARY_OUTPUT_SUFFIX);
+   }
+   
+   private Path getHashOutputPath() {
+      return new Path(outputPath + HASH_OUTPUT_SUFFIX);
+   }
+   
+   /**
+    * Parses the label and path of each of the test sets from the values of
+    * the repeated {@link #OPTION_KEY_TEST_INPUT_PATH_LONG} option.
+    * 
+    * @throws IllegalArgumentException
+    *        if a value is not a label and a path, a label is repeated, or
+    *        there are more than {@link Source#MAX_TEST_SETS} test sets
+    */
+   private void parseTestSets(String[] testInputs) throws IllegalArgumentException {
+      if (testInputs.length > Source.MAX_TEST_SETS) {
+         String errMsg = "At most " + Source.MAX_TEST_SETS + " " +
+               OPTION_KEY_TEST_INPUT_PATH_LONG + " arguments can be given";
+         LOGGER.error(errMsg);
+         throw new IllegalArgumentException(errMsg);
+      }
+      testSetLabels = new ArrayList<String>();
+      testSetPaths  = new ArrayList<String>();
+      for (String testInput : testInputs) {
+         Matcher matcher = TEST_SET_PATTERN.matcher(testInput);
+         if (!matcher.matches()) {
+            String errMsg = OPTION_KEY_TEST_INPUT_PATH_LONG + " argument '" + testInput +
+                  "' is not a label of letters, digits, '.', '_' and '-', starting with a " +
+                  "letter or digit, followed by " +
+                  "'=' and a path, as required when it is given more than once";
+            LOGGER.error(errMsg);
+            throw new IllegalArgumentException(errMsg);
+         }
+         if (testSetLabels.contains(matcher.group(1))) {
+            String errMsg = "Duplicate " + OPTION_KEY_TEST_INPUT_PATH_LONG + " label '" +
+                  matcher.group(1) + "'";
+            LOGGER.error(errMsg);
+            throw new IllegalArgumentException(errMsg);
+         }
+         testSetLabels.add(matcher.group(1));
+         testSetPaths.add(matcher.group(2));
+      }
+   }
+   
+   /**
+    * @throws IllegalArgumentException
+    *        if the two options have been combined
+    */
+   private void validateNotCombined(boolean combined, String argName, String otherArgName)
+      throws IllegalArgumentException
+   {
+      if (combined) {
+         String errMsg = argName + " cannot be combined with " + otherArgName;
+         LOGGER.error(errMsg);
+         throw new IllegalArgumentException(errMsg);
+      }
    }
    
    private void validateArg(String arg, String argName)
@@ -0,0 +1,129 @@
+package com.ryanchapin.ddiff;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+
+/**
+ * Mapper for the map-only summary job of the summary cache, see
+ * {@link DistributedDiff#OPTION_KEY_SUMMARY_CACHE_LONG}, which reads each
+ * input file whose summary is not cached, whole, with the
+ * {@link UnsplittableTextInputFormat}.
+ * <p>
+ * Records are hashed as in the {@link DdiffMapper} and counted in a
+ * {@link OffHeapCountTable}, and whenever the table reaches its memory
+ * budget, and when the task completes, each distinct record is written
+ * with its count to the summary of the file, named after its path with
+ * {@link SummaryCache#getOutputName(Path)}, for the driver to move into the
+ * {@link SummaryCache}.  Summaries carry no {@link Source}, which is set
+ * when they are diffed by the {@link SummaryMapper}.
+ *
+ * @since  1.3.0
+ */
+public class FileSummaryMapper extends Mapper<LongWritable, Text, HashKeyWritable, TaggedTextWithCountWritableComparable> {
+
+   /**
+    * Memory budget of the table in megabytes if no in-mapper aggregation
+    * budget is configured.
+    */
+   public static final int TABLE_MB_DEFAULT = 64;
+
+   private RecordHasher hasher;
+   private byte[] hashBuffer;
+
+   private OffHeapCountTable countTable;
+   private byte[] flushHash;
+   private byte[] flushBytes = new byte[1024];
+   private HashKeyWritable outKey = new HashKeyWritable();
+   private TaggedTextWithCountWritableComparable outVal =
+         new TaggedTextWithCountWritableComparable(new Text(), Source.REFERENCE, 0L);
+   private Text record = new Text();
+
+   private MultipleOutputs<HashKeyWritable, TaggedTextWithCountWritableComparable> mos;
+   private String outputName;
+
+   @Override
+   protected void setup(Context context) throws IOException, InterruptedException {
+      super.setup(context);
+      Configuration conf = context.getConfiguration();
+      hasher = Enum.valueOf(RecordHashAlgorithm.class, conf.get(
+            DistributedDiff.CONF_HASH_ALGO_KEY, DdiffMapper.HASH_ALGO_DEFAULT.name())).newHasher();
+      hashBuffer = new byte[hasher.getHashLength()];
+
+      int tableMb = conf.getInt(DistributedDiff.CONF_MAP_AGGREGATION_MB_KEY, 0);
+      if (tableMb <= 0) {
+         tableMb = TABLE_MB_DEFAULT;
+      }
+      int keyWidth = HashKeyWritable.keyWidth(hasher.getHashLength());
+      countTable = new OffHeapCountTable(keyWidth, true, tableMb * 1024L * 1024L);
+      flushHash = new byte[keyWidth];
+
+      Path file = ((FileSplit) context.getInputSplit()).getPath();
+      outputName = SummaryCache.getOutputName(file.getFileSystem(conf).makeQualified(file));
+      mos = new MultipleOutputs<HashKeyWritable, TaggedTextWithCountWritableComparable>(context);
+   }
+
+   @Override
+   public void map(LongWritable key, Text value, Context context)
+         throws IOException, InterruptedException
+   {
+      int hashLength = hasher.hash(value.getBytes(), 0, value.getLength(), hashBuffer);
+      outKey.set(hashBuffer, 0, hashLength);
+      if (!countTable.add(outKey.getBytes(), 0, value.getBytes(), 0, value.getLength(), 1L)) {
+         // The flush reuses the key, so restore the hash of the record
+         flush(context);
+         outKey.set(hashBuffer, 0, hashLength);
+         if (!countTable.add(outKey.getBytes(), 0, value.getBytes(), 0, value.getLength(), 1L)) {
+            // The record alone exceeds the budget
+            write(value, 1L, context);
+         }
+      }
+      context.getCounter(FileSummaryCounter.RECORDS).increment(1L);
+   }
+
+   @Override
+   protected void cleanup(Context context) throws IOException, InterruptedException {
+      flush(context);
+      mos.close();
+      super.cleanup(context);
+   }
+
+   private void write(Text record, long count, Context context)
+         throws IOException, InterruptedException
+   {
+      outVal.setRecord(record);
+      outVal.setCount(count);
+      mos.write(outKey, outVal, outputName);
+      context.getCounter(FileSummaryCounter.SUMMARY_RECORDS).increment(1L);
+   }
+
+   /**
+    * Writes each of the records in the {@link #countTable} with its count
+    * and clears the table.
+    */
+   private void flush(Context context) throws IOException, InterruptedException {
+      for (long slot = countTable.nextEntry(0); slot >= 0; slot = countTable.nextEntry(slot + 1)) {
+         countTable.copyHash(slot, flushHash, 0);
+         outKey.set(flushHash, 0, flushHash.length);
+         int length = countTable.getRecordLength(slot);
+         if (flushBytes.length < length) {
+            flushBytes = new byte[Math.max(flushBytes.length * 2, length)];
+         }
+         countTable.copyRecord(slot, flushBytes, 0);
+         record.set(flushBytes, 0, length);
+         write(record, countTable.getCount(slot), context);
+      }
+      countTable.clear();
+   }
+
+   public static enum FileSummaryCounter {
+      RECORDS,
+      SUMMARY_RECORDS;
+   }
+}
@@ -0,0 +1,122 @@
+package com.ryanchapin.ddiff;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.Mapper;
+
+/**
+ * Mapper for the map-only fingerprint pre-check, see
+ * {@link DistributedDiff#OPTION_KEY_FINGERPRINT_CHECK_LONG}.
+ * <p>
+ * Each record is hashed with the 128 bit {@link RecordHashAlgorithm#MURMUR3_128}
+ * hash, regardless of the algorithm chosen for the diff, and the two 64 bit
+ * halves of each hash, along with a count of one, are summed with the sign
+ * of the {@link Source} of the mapper.  The sums are order-independent and
+ * count every copy of a record, so they form a fingerprint of the multiset
+ * of records of each input, and as the signs of the two inputs are opposite
+ * the job-wide totals of the {@link FingerprintCounter} counters are all
+ * zero when the inputs hold the same records, and otherwise are almost
+ * certainly not.
+ * <p>
+ * The sums are accumulated in the mapper and added to the counters when the
+ * task completes, so nothing is written to the map output.
+ * <p>
+ * In the bucket digest mode, see
+ * {@link DistributedDiff#OPTION_KEY_DIGEST_BUCKETS_LONG}, records are
+ * instead hashed with the algorithm configured for the diff, and the mapper
+ * also sums the digest of each hash bucket, see {@link BucketDigests}, and
+ * writes the partial digest of every bucket that it read records for when
+ * the task completes.
+ *
+ * @since  1.3.0
+ */
+public class FingerprintMapper extends Mapper<LongWritable, Text, IntWritable, BucketDigestWritable> {
+
+   /**
+    * Source of the records read by this mapper, set by the subclass
+    * for each input.
+    */
+   protected Source source;
+
+   private RecordHasher hasher;
+   private byte[] hashBuffer;
+
+   private long records;
+   private long sumHigh;
+   private long sumLow;
+   
+   /**
+    * Digests of each hash bucket, or null if not in the bucket digest mode.
+    */
+   private BucketDigests digests;
+
+   @Override
+   protected void setup(Context context) throws IOException, InterruptedException {
+      super.setup(context);
+      Configuration conf = context.getConfiguration();
+      int numBuckets = conf.getInt(DistributedDiff.CONF_DIGEST_BUCKETS_KEY, 0);
+      if (numBuckets > 0) {
+         digests = new BucketDigests(numBuckets);
+         hasher = Enum.valueOf(RecordHashAlgorithm.class, conf.get(
+               DistributedDiff.CONF_HASH_ALGO_KEY, DdiffMapper.HASH_ALGO_DEFAULT.name())).newHasher();
+      } else {
+         hasher = RecordHashAlgorithm.MURMUR3_128.newHasher();
+      }
+      hashBuffer = new byte[hasher.getHashLength()];
+   }
+
+   @Override
+   public void map(LongWritable key, Text value, Context context)
+         throws IOException, InterruptedException
+   {
+      int hashLength = hasher.hash(value.getBytes(), 0, value.getLength(), hashBuffer);
+      records++;
+      sumHigh += WritableComparator.readLong(hashBuffer, 0);
+      if (hashLength >= 16) {
+         sumLow += WritableComparator.readLong(hashBuffer, 8);
+      }
+      if (null != digests) {
+         digests.add(hashBuffer, hashLength, source.getSign());
+      }
+   }
+
+   @Override
+   protected void cleanup(Context context) throws IOException, InterruptedException {
+      long sign = source.getSign();
+      context.getCounter(FingerprintCounter.RECORDS).increment(sign * records);
+      context.getCounter(FingerprintCounter.SUM_HIGH).increment(sign * sumHigh);
+      context.getCounter(FingerprintCounter.SUM_LOW).increment(sign * sumLow);
+      context.getCounter((Source.REFERENCE == source) ?
+            FingerprintCounter.REFERENCE_COUNT : FingerprintCounter.TEST_COUNT).increment(records);
+      
+      if (null != digests) {
+         IntWritable bucket = new IntWritable();
+         BucketDigestWritable digest = new BucketDigestWritable();
+         for (int i = 0; i < digests.getNumBuckets(); i++) {
+            if (digests.copyDigest(i, digest)) {
+               bucket.set(i);
+               context.write(bucket, digest);
+            }
+         }
+      }
+      super.cleanup(context);
+   }
+
+   /**
+    * RECORDS, SUM_HIGH and SUM_LOW are the signed job-wide fingerprint, and
+    * REFERENCE_COUNT and TEST_COUNT the number of records read from each
+    * input.
+    */
+   public static enum FingerprintCounter {
+      RECORDS,
+      REFERENCE_COUNT,
+      SUM_HIGH,
+      SUM_LOW,
+      TEST_COUNT;
+   }
+}
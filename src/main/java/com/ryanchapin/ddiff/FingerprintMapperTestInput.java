@@ -0,0 +1,16 @@
+package com.ryanchapin.ddiff;
+
+/**
+ * Sums the fingerprint of each record read with the sign of the
+ * {@link Source#TEST} value.  There are no methods implemented except the
+ * constructor.
+ * 
+ * @since  1.3.0
+ */
+public class FingerprintMapperTestInput extends FingerprintMapper {
+
+   public FingerprintMapperTestInput() {
+      super();
+      this.source = Source.TEST;
+   }
+}
@@ -0,0 +1,80 @@
+package com.ryanchapin.ddiff;
+
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+/**
+ * Partitions {@link HashKeyWritable} keys into equal, contiguous ranges of
+ * hash values by reading the leading bytes of the digest directly instead of
+ * computing a hash over the whole key.  As the key is itself a digest its
+ * leading bytes are already uniformly distributed.
+ * <p>
+ * The leading four bytes of the key, read as an unsigned int, are scaled
+ * into the number of partitions with a multiply and a shift, so partition
+ * {@code p} of {@code n} holds every key whose leading int lies in
+ * [{@link #getRangeStart(int, int) getRangeStart(p, n)},
+ * {@code getRangeStart(p + 1, n)}).  As keys are sorted by their unsigned
+ * bytes, the output of each reducer therefore covers a known, contiguous
+ * range of hashes, and the outputs of all of the reducers, taken in order,
+ * are sorted by hash.
+ *
+ * @param <V> the map output value type
+ * @since  1.3.0
+ */
+public class HashKeyPartitioner<V> extends Partitioner<HashKeyWritable, V> {
+
+   /**
+    * Number of distinct leading int values, 2^32.
+    */
+   private static final long RANGE = 1L << 32;
+
+   @Override
+   public int getPartition(HashKeyWritable key, V value, int numPartitions) {
+      return getPartition(leadingInt(key), numPartitions);
+   }
+
+   /**
+    * Returns the partition of the given leading int of a key.
+    */
+   public static int getPartition(int leadingInt, int numPartitions) {
+      return (int) (((leadingInt & 0xFFFFFFFFL) * numPartitions) >>> 32);
+   }
+
+   /**
+    * Returns the smallest unsigned leading int of the keys in the given
+    * partition, or 2^32 for a partition of numPartitions, which is the
+    * exclusive end of the last partition.
+    *
+    * @throws IllegalArgumentException
+    *        if partition is not within [0, numPartitions]
+    */
+   public static long getRangeStart(int partition, int numPartitions) {
+      if (numPartitions < 1 || partition < 0 || partition > numPartitions) {
+         throw new IllegalArgumentException("Invalid partition " + partition +
+               " of " + numPartitions + " partitions");
+      }
+      // The smallest x for which x * numPartitions >= partition * 2^32
+      return (partition * RANGE + numPartitions - 1) / numPartitions;
+   }
+
+   /**
+    * Returns the first four bytes of the key as a big-endian int, padding
+    * with zeros if the key is shorter than four bytes.
+    */
+   static int leadingInt(HashKeyWritable key) {
+      byte[] bytes = key.getBytes();
+      int length = key.getLength();
+      if (length >= 4) {
+         return WritableComparator.readInt(bytes, 0);
+      }
+
+      int retVal = 0;
+      for (int i = 0; i < 4; i++) {
+         retVal <<= 8;
+         if (i < length) {
+            retVal |= (bytes[i] & 0xFF);
+         }
+      }
+      return retVal;
+   }
+}
@@ -0,0 +1,176 @@
+package com.ryanchapin.ddiff;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.hadoop.io.BinaryComparable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * Fixed-width binary key holding the raw digest bytes of a record hash.
+ * <p>
+ * Replaces the hex encoded {@link org.apache.hadoop.io.Text} key that was
+ * previously emitted from the {@link DdiffMapper}.  Digests are truncated to
+ * either {@link #WIDTH_128} or {@link #WIDTH_256} bytes, which halves the key
+ * bytes that are spilled and shuffled compared to the hex representation.
+ * <p>
+ * The serialized form is a single unsigned length byte followed by the
+ * digest bytes.  The registered {@link Comparator} compares the serialized
+ * digest bytes directly without deserializing the keys.
+ *
+ * @since  1.3.0
+ */
+public class HashKeyWritable extends BinaryComparable
+   implements WritableComparable<BinaryComparable> {
+
+   /**
+    * Key width, in bytes, for digests shorter than 32 bytes.
+    */
+   public static final int WIDTH_128 = RecordHashAlgorithm.KEY_WIDTH_128;
+
+   /**
+    * Key width, in bytes, for digests of 32 bytes or longer.
+    */
+   public static final int WIDTH_256 = RecordHashAlgorithm.KEY_WIDTH_256;
+
+   private static final byte[] EMPTY_BYTES = new byte[0];
+
+   private byte[] bytes;
+   private int length;
+
+   static {
+      WritableComparator.define(HashKeyWritable.class, new Comparator());
+   }
+
+   // ------------------------------------------------------------------------
+   // Accessor/Mutators
+   //
+
+   @Override
+   public byte[] getBytes() {
+      return bytes;
+   }
+
+   @Override
+   public int getLength() {
+      return length;
+   }
+
+   /**
+    * Copies the digest into this key, truncating it to the key width
+    * returned by {@link #keyWidth(int)}.
+    *
+    * @param digest
+    *        byte array containing the digest
+    * @param offset
+    *        offset into digest of the first byte
+    * @param digestLength
+    *        number of digest bytes available
+    */
+   public void set(byte[] digest, int offset, int digestLength) {
+      int width = keyWidth(digestLength);
+      ensureCapacity(width);
+      System.arraycopy(digest, offset, bytes, 0, width);
+      length = width;
+   }
+
+   public void set(HashKeyWritable other) {
+      ensureCapacity(other.getLength());
+      System.arraycopy(other.getBytes(), 0, bytes, 0, other.getLength());
+      length = other.getLength();
+   }
+
+   // ------------------------------------------------------------------------
+   // Constructor
+   //
+
+   public HashKeyWritable() {
+      this.bytes  = EMPTY_BYTES;
+      this.length = 0;
+   }
+
+   public HashKeyWritable(byte[] digest) {
+      this();
+      set(digest, 0, digest.length);
+   }
+
+   // ------------------------------------------------------------------------
+   // Member Methods
+   //
+
+   /**
+    * Returns the width of the key that will be generated from a digest of
+    * the given length.
+    *
+    * @param digestLength
+    *        the number of bytes in the raw digest
+    * @return {@link #WIDTH_256} for digests of 32 bytes or longer, else
+    *         {@link #WIDTH_128}, or the digest length itself if it is shorter
+    *         than {@link #WIDTH_128}, see
+    *         {@link RecordHashAlgorithm#keyWidth(int)}.
+    */
+   public static int keyWidth(int digestLength) {
+      return RecordHashAlgorithm.keyWidth(digestLength);
+   }
+
+   private void ensureCapacity(int capacity) {
+      if (bytes.length < capacity) {
+         bytes = new byte[capacity];
+      }
+   }
+
+   @Override
+   public void write(DataOutput out) throws IOException {
+      out.writeByte(length);
+      out.write(bytes, 0, length);
+   }
+
+   @Override
+   public void readFields(DataInput in) throws IOException {
+      int newLength = in.readUnsignedByte();
+      ensureCapacity(newLength);
+      in.readFully(bytes, 0, newLength);
+      length = newLength;
+   }
+
+   @Override
+   public boolean equals(Object o) {
+      if (o instanceof HashKeyWritable) {
+         return super.equals(o);
+      }
+      return false;
+   }
+
+   @Override
+   public int hashCode() {
+      return super.hashCode();
+   }
+
+   @Override
+   public String toString() {
+      return Hex.encodeHexString(Arrays.copyOf(bytes, length));
+   }
+
+   /**
+    * Compares the serialized digest bytes of two {@link HashKeyWritable}
+    * instances, skipping the leading length byte.  Only the number of bytes
+    * given by the length byte are compared, so this also serves as the
+    * grouping comparator for subclasses that serialize additional fields
+    * after the digest, see {@link HashRecordKeyWritable}.
+    */
+   public static class Comparator extends WritableComparator {
+
+      public Comparator() {
+         super(HashKeyWritable.class);
+      }
+
+      @Override
+      public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+         return compareBytes(b1, s1 + 1, b1[s1] & 0xFF, b2, s2 + 1, b2[s2] & 0xFF);
+      }
+   }
+}
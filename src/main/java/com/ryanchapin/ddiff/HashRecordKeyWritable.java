@@ -0,0 +1,132 @@
+package com.ryanchapin.ddiff;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.BinaryComparable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * Composite map output key used for the secondary sort mode, see
+ * {@link DistributedDiff#OPTION_KEY_SECONDARY_SORT_LONG}, holding the hash of
+ * a record along with the record itself and its {@link Source} id.
+ * <p>
+ * The serialized form is that of {@link HashKeyWritable}, followed by the
+ * record and then the source id, in the same form as they are serialized by
+ * {@link TaggedTextWithCountWritableComparable}.  The registered
+ * {@link Comparator} sorts keys by hash, record and source, while
+ * {@link HashKeyWritable.Comparator} groups them by hash alone, so that the
+ * values for each hash reach the reducer ordered by record, with the
+ * {@link Source#REFERENCE} values for each record before the
+ * {@link Source#TEST} values.  {@link #getBytes()} returns only the hash, so
+ * keys are partitioned by {@link HashKeyPartitioner} on the hash alone.
+ *
+ * @since  1.3.0
+ */
+public class HashRecordKeyWritable extends HashKeyWritable {
+
+   private Text record = new Text();
+   private byte sourceId;
+
+   static {
+      WritableComparator.define(HashRecordKeyWritable.class, new Comparator());
+   }
+
+   // ------------------------------------------------------------------------
+   // Accessor/Mutators
+   //
+
+   public Text getRecord() {
+      return record;
+   }
+
+   public void setRecord(Text record) {
+      this.record = record;
+   }
+
+   public byte getSourceId() {
+      return sourceId;
+   }
+
+   public void setSourceId(byte sourceId) {
+      this.sourceId = sourceId;
+   }
+
+   // ------------------------------------------------------------------------
+   // Member Methods
+   //
+
+   @Override
+   public void write(DataOutput out) throws IOException {
+      super.write(out);
+      record.write(out);
+      out.writeByte(sourceId);
+   }
+
+   @Override
+   public void readFields(DataInput in) throws IOException {
+      super.readFields(in);
+      record.readFields(in);
+      sourceId = in.readByte();
+   }
+
+   @Override
+   public int compareTo(BinaryComparable other) {
+      int retVal = super.compareTo(other);
+      if (retVal != 0 || !(other instanceof HashRecordKeyWritable)) {
+         return retVal;
+      }
+
+      HashRecordKeyWritable otherKey = (HashRecordKeyWritable) other;
+      retVal = record.compareTo(otherKey.getRecord());
+      if (retVal != 0) { return retVal; }
+
+      return Byte.compare(sourceId, otherKey.getSourceId());
+   }
+
+   @Override
+   public boolean equals(Object o) {
+      if (!super.equals(o)) {
+         return false;
+      }
+      if (o instanceof HashRecordKeyWritable) {
+         HashRecordKeyWritable other = (HashRecordKeyWritable) o;
+         return sourceId == other.getSourceId() && record.equals(other.getRecord());
+      }
+      return true;
+   }
+
+   @Override
+   public int hashCode() {
+      return super.hashCode();
+   }
+
+   @Override
+   public String toString() {
+      return super.toString() + ":" + record.toString() + ":" + sourceId;
+   }
+
+   /**
+    * Compares serialized {@link HashRecordKeyWritable} instances by hash,
+    * record and source id.
+    */
+   public static class Comparator extends WritableComparator {
+
+      public Comparator() {
+         super(HashRecordKeyWritable.class);
+      }
+
+      @Override
+      public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+         int h1 = b1[s1] & 0xFF;
+         int h2 = b2[s2] & 0xFF;
+         int retVal = compareBytes(b1, s1 + 1, h1, b2, s2 + 1, h2);
+         if (retVal != 0) { return retVal; }
+
+         return TaggedTextWithCountWritableComparable.compareRecordAndSource(
+               b1, s1 + 1 + h1, b2, s2 + 1 + h2);
+      }
+   }
+}
@@ -0,0 +1,193 @@
+package com.ryanchapin.ddiff;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.LocalJobRunner;
+import org.apache.hadoop.mapreduce.MRConfig;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The reducer count, split size and sort settings chosen for a job by
+ * {@link JobPlanner}, and whether the job is small enough to be run
+ * in-process by the {@link LocalJobRunner} rather than submitted to the
+ * cluster.
+ * <p>
+ * Each setting is only applied to the job {@link Configuration} if it has
+ * been set, so that a plan for which the input size could not be determined
+ * leaves the cluster defaults in place.  Settings passed as
+ * {@code -D key=value} generic options are never overwritten.
+ *
+ * @since  1.3.0
+ */
+public class JobPlan {
+
+   private static final Logger LOGGER = LoggerFactory.getLogger(JobPlan.class);
+
+   /**
+    * Value of a setting that has not been chosen.
+    */
+   public static final int UNSET = -1;
+
+   /**
+    * Source under which {@link org.apache.hadoop.util.GenericOptionsParser}
+    * records the properties passed with {@code -D}.
+    */
+   private static final String COMMAND_LINE_SOURCE = "from command line";
+
+   private static final long MB = 1024L * 1024L;
+
+   private int numReduceTasks = UNSET;
+   private long splitSize     = UNSET;
+   private int sortMb         = UNSET;
+   private int sortFactor     = UNSET;
+   private float spillPercent = UNSET;
+   private boolean local;
+   private int localMaxMaps   = UNSET;
+
+   // ------------------------------------------------------------------------
+   // Accessor/Mutators
+   //
+
+   public int getNumReduceTasks() {
+      return numReduceTasks;
+   }
+
+   public void setNumReduceTasks(int numReduceTasks) {
+      this.numReduceTasks = numReduceTasks;
+   }
+
+   /**
+    * @return the minimum and maximum input split size in bytes.
+    */
+   public long getSplitSize() {
+      return splitSize;
+   }
+
+   public void setSplitSize(long splitSize) {
+      this.splitSize = splitSize;
+   }
+
+   /**
+    * @return the size of the map side sort buffer in megabytes.
+    */
+   public int getSortMb() {
+      return sortMb;
+   }
+
+   public void setSortMb(int sortMb) {
+      this.sortMb = sortMb;
+   }
+
+   public int getSortFactor() {
+      return sortFactor;
+   }
+
+   public void setSortFactor(int sortFactor) {
+      this.sortFactor = sortFactor;
+   }
+
+   public float getSpillPercent() {
+      return spillPercent;
+   }
+
+   public void setSpillPercent(float spillPercent) {
+      this.spillPercent = spillPercent;
+   }
+
+   /**
+    * @return whether the job is to be run in-process.
+    */
+   public boolean isLocal() {
+      return local;
+   }
+
+   public void setLocal(boolean local) {
+      this.local = local;
+   }
+
+   /**
+    * @return the number of map tasks that the {@link LocalJobRunner} runs
+    *         at once for a local plan.
+    */
+   public int getLocalMaxMaps() {
+      return localMaxMaps;
+   }
+
+   public void setLocalMaxMaps(int localMaxMaps) {
+      this.localMaxMaps = localMaxMaps;
+   }
+
+   // ------------------------------------------------------------------------
+   // Member Methods
+   //
+
+   /**
+    * Sets each of the chosen settings on the conf, which must be done
+    * before the {@link org.apache.hadoop.mapreduce.Job} is created from it.
+    * As the settings are those of a single job, the conf should be a copy
+    * made for that job.
+    * <p>
+    * A local plan sets the framework of the conf to the
+    * {@link LocalJobRunner}, and the number of map tasks that it runs at
+    * once.
+    */
+   public void apply(Configuration conf) {
+      if (local && !isCommandLineSet(conf, MRConfig.FRAMEWORK_NAME)) {
+         conf.set(MRConfig.FRAMEWORK_NAME, MRConfig.LOCAL_FRAMEWORK_NAME);
+         if (localMaxMaps > 0 && !isCommandLineSet(conf, LocalJobRunner.LOCAL_MAX_MAPS)) {
+            conf.setInt(LocalJobRunner.LOCAL_MAX_MAPS, localMaxMaps);
+         }
+      }
+      if (numReduceTasks > 0 && !isCommandLineSet(conf, MRJobConfig.NUM_REDUCES)) {
+         conf.setInt(MRJobConfig.NUM_REDUCES, numReduceTasks);
+      }
+      if (splitSize > 0) {
+         if (!isCommandLineSet(conf, FileInputFormat.SPLIT_MINSIZE)) {
+            conf.setLong(FileInputFormat.SPLIT_MINSIZE, splitSize);
+         }
+         if (!isCommandLineSet(conf, FileInputFormat.SPLIT_MAXSIZE)) {
+            conf.setLong(FileInputFormat.SPLIT_MAXSIZE, splitSize);
+         }
+      }
+      if (sortMb > 0 && !isCommandLineSet(conf, MRJobConfig.IO_SORT_MB)) {
+         conf.setInt(MRJobConfig.IO_SORT_MB, sortMb);
+      }
+      if (sortFactor > 0 && !isCommandLineSet(conf, MRJobConfig.IO_SORT_FACTOR)) {
+         conf.setInt(MRJobConfig.IO_SORT_FACTOR, sortFactor);
+      }
+      if (spillPercent > 0 && !isCommandLineSet(conf, MRJobConfig.MAP_SORT_SPILL_PERCENT)) {
+         conf.setFloat(MRJobConfig.MAP_SORT_SPILL_PERCENT, spillPercent);
+      }
+   }
+
+   private static boolean isCommandLineSet(Configuration conf, String key) {
+      String[] sources = conf.getPropertySources(key);
+      if (null == sources) {
+         return false;
+      }
+      for (String source : sources) {
+         if (COMMAND_LINE_SOURCE.equals(source)) {
+            LOGGER.info("Keeping {} = {} passed on the command line", key, conf.get(key));
+            return true;
+         }
+      }
+      return false;
+   }
+
+   @Override
+   public String toString() {
+      return "numReduceTasks=" + format(numReduceTasks) +
+            ", splitSizeMb=" + (splitSize > 0 ? Long.toString(splitSize / MB) : "default") +
+            ", sortMb=" + format(sortMb) +
+            ", sortFactor=" + format(sortFactor) +
+            ", spillPercent=" + (spillPercent > 0 ? Float.toString(spillPercent) : "default") +
+            ", local=" + local +
+            (local ? ", localMaxMaps=" + format(localMaxMaps) : "");
+   }
+
+   private static String format(int setting) {
+      return setting > 0 ? Integer.toString(setting) : "default";
+   }
+}
@@ -0,0 +1,455 @@
+package com.ryanchapin.ddiff;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Chooses the reducer count, input split size and map side sort settings
+ * for a job, see {@link JobPlan}, from the size of the inputs.
+ * <p>
+ * The inputs are first measured with {@link #measure(FileSystem, Path...)},
+ * which sums their lengths and samples the head of one file of each input
+ * to estimate the average record length, and so the number of records.  The
+ * number of bytes that will be shuffled is then estimated from the number
+ * of records and the width of the hash, with or without the record itself,
+ * and is used to size the job:
+ * <ul>
+ * <li>one reducer per {@link #CONF_REDUCER_BYTES_KEY} bytes shuffled,</li>
+ * <li>splits of at least {@link #MIN_SPLIT_SIZE} bytes, growing so as to
+ * create at most {@link #MAX_MAP_TASKS} map tasks,</li>
+ * <li>a sort buffer large enough to hold the output of a whole split so
+ * that each map spills once, up to {@link #CONF_MAX_SORT_MB_KEY}, and</li>
+ * <li>a merge factor that merges the segments from every map in one
+ * pass where possible.</li>
+ * </ul>
+ * Jobs over at most {@link #CONF_LOCAL_BYTES_KEY} bytes of input are
+ * planned to run in-process, see {@link JobPlan#isLocal()}, as scheduling
+ * their tasks on the cluster would take longer than the diff itself.  As
+ * the map tasks of such a job all share the heap of the driver, their sort
+ * buffer is only as large as the output of a split, and as many of them run
+ * at once as there are processors and as fit in half of the heap.
+ * <p>
+ * If the size of the inputs cannot be determined the plan is left empty and
+ * the cluster defaults apply.  Combining is not accounted for, so the
+ * estimates are an upper bound.
+ *
+ * @since  1.3.0
+ */
+public class JobPlanner {
+
+   private static final Logger LOGGER = LoggerFactory.getLogger(JobPlanner.class);
+
+   /**
+    * Key of the number of shuffled bytes to plan for each reducer.
+    */
+   public static final String CONF_REDUCER_BYTES_KEY = "ddiff.plan.reducer.bytes";
+
+   /**
+    * Key of the maximum number of reducers to plan for.
+    */
+   public static final String CONF_MAX_REDUCERS_KEY = "ddiff.plan.max.reducers";
+
+   /**
+    * Key of the largest sort buffer, in megabytes, to plan for, which must
+    * fit comfortably in the heap of each map task.
+    */
+   public static final String CONF_MAX_SORT_MB_KEY = "ddiff.plan.max.sort.mb";
+
+   /**
+    * Key of the number of bytes read from the head of each input to sample
+    * the record length; 0 disables sampling.
+    */
+   public static final String CONF_SAMPLE_BYTES_KEY = "ddiff.plan.sample.bytes";
+
+   /**
+    * Key of the largest number of input bytes for which a job is run
+    * in-process rather than submitted to the cluster; 0 disables running
+    * jobs in-process.
+    */
+   public static final String CONF_LOCAL_BYTES_KEY = "ddiff.plan.local.bytes";
+
+   public static final long DEFAULT_REDUCER_BYTES = 1024L * 1024L * 1024L;
+   public static final int DEFAULT_MAX_REDUCERS   = 1000;
+   public static final int DEFAULT_MAX_SORT_MB    = 512;
+   public static final int DEFAULT_SAMPLE_BYTES   = 64 * 1024;
+   public static final long DEFAULT_LOCAL_BYTES   = 64L * 1024L * 1024L;
+
+   /**
+    * Record length assumed when the inputs cannot be sampled.
+    */
+   public static final int DEFAULT_RECORD_LENGTH = 100;
+
+   public static final long MIN_SPLIT_SIZE = 128L * 1024L * 1024L;
+   public static final int MAX_MAP_TASKS   = 10000;
+
+   /**
+    * Sort buffer size and merge factor defaults of Hadoop, below which the
+    * plan does not go.
+    */
+   public static final int MIN_SORT_MB     = 100;
+   public static final int MIN_SORT_FACTOR = 10;
+   public static final int MAX_SORT_FACTOR = 100;
+
+   /**
+    * Largest sort buffer that Hadoop accepts.
+    */
+   public static final int MAX_SORT_MB = 2047;
+
+   /**
+    * Bytes of accounting metadata held in the sort buffer for each record.
+    */
+   private static final int SORT_METADATA_BYTES = 16;
+
+   /**
+    * Bytes shuffled for each record in addition to the hash and the record:
+    * the hash length byte, the source id, the count and the key and value
+    * lengths.
+    */
+   private static final int RECORD_OVERHEAD_BYTES = 6;
+
+   private static final float SPILL_PERCENT = 0.8f;
+   private static final float SPILL_PERCENT_OVERFLOW = 0.9f;
+
+   private static final long MB = 1024L * 1024L;
+
+   private static final PathFilter HIDDEN_FILE_FILTER = new PathFilter() {
+      @Override
+      public boolean accept(Path path) {
+         String name = path.getName();
+         return !name.startsWith("_") && !name.startsWith(".");
+      }
+   };
+
+   private final long reducerBytes;
+   private final int maxReducers;
+   private final int maxSortMb;
+   private final int sampleBytes;
+   private final int hashLength;
+   private final long localBytes;
+   private int processors;
+   private long maxMemory;
+
+   private long inputBytes;
+   private long sampledBytes;
+   private long sampledRecords;
+   private boolean measured;
+
+   // ------------------------------------------------------------------------
+   // Accessor/Mutators
+   //
+
+   public long getInputBytes() {
+      return inputBytes;
+   }
+
+   /**
+    * @return the sampled average record length, including the line
+    *         terminator, or {@link #DEFAULT_RECORD_LENGTH} if nothing could
+    *         be sampled.
+    */
+   public double getAverageRecordLength() {
+      if (sampledRecords == 0) {
+         return DEFAULT_RECORD_LENGTH;
+      }
+      return (double) sampledBytes / sampledRecords;
+   }
+
+   public long getEstimatedRecords() {
+      return (long) Math.ceil(inputBytes / getAverageRecordLength());
+   }
+
+   // ------------------------------------------------------------------------
+   // Constructor
+   //
+
+   /**
+    * @param conf
+    *        Configuration from which the planning thresholds are read
+    * @param hashAlgorithm
+    *        algorithm with which the records are hashed, which determines
+    *        the width of each shuffled key
+    */
+   public JobPlanner(Configuration conf, RecordHashAlgorithm hashAlgorithm) {
+      reducerBytes = positive(conf.getLong(CONF_REDUCER_BYTES_KEY, DEFAULT_REDUCER_BYTES),
+            DEFAULT_REDUCER_BYTES);
+      maxReducers  = (int) positive(conf.getInt(CONF_MAX_REDUCERS_KEY, DEFAULT_MAX_REDUCERS),
+            DEFAULT_MAX_REDUCERS);
+      maxSortMb    = (int) Math.min(MAX_SORT_MB, positive(
+            conf.getInt(CONF_MAX_SORT_MB_KEY, DEFAULT_MAX_SORT_MB), DEFAULT_MAX_SORT_MB));
+      sampleBytes  = Math.max(0, conf.getInt(CONF_SAMPLE_BYTES_KEY, DEFAULT_SAMPLE_BYTES));
+      hashLength   = hashAlgorithm.newHasher().getHashLength();
+      localBytes   = Math.max(0L, conf.getLong(CONF_LOCAL_BYTES_KEY, DEFAULT_LOCAL_BYTES));
+      processors   = Runtime.getRuntime().availableProcessors();
+      maxMemory    = Runtime.getRuntime().maxMemory();
+   }
+
+   // ------------------------------------------------------------------------
+   // Member Methods
+   //
+
+   /**
+    * Adds the length of each input, and a sample of its records, to the
+    * measurements from which the job is planned.  Inputs whose length
+    * cannot be determined leave the planner unmeasured, such that
+    * {@link #plan(boolean)} returns an empty plan.
+    */
+   public void measure(FileSystem fs, Path... inputs) {
+      measured = true;
+      for (Path input : inputs) {
+         try {
+            FileStatus[] matches = fs.globStatus(input);
+            if (null == matches) {
+               measured = false;
+               continue;
+            }
+            for (FileStatus match : matches) {
+               ContentSummary summary = fs.getContentSummary(match.getPath());
+               if (null == summary) {
+                  measured = false;
+                  continue;
+               }
+               inputBytes += summary.getLength();
+            }
+            if (matches.length > 0) {
+               sample(fs, matches[0]);
+            }
+         } catch (IOException e) {
+            LOGGER.warn("Unable to measure input {}, e = {}", input, e.toString());
+            measured = false;
+         }
+      }
+   }
+
+   /**
+    * Reads up to the configured number of sample bytes from the head of the
+    * first uncompressed file of the input and counts the records in it.
+    */
+   private void sample(FileSystem fs, FileStatus status) throws IOException {
+      if (sampleBytes == 0) {
+         return;
+      }
+      if (status.isDirectory()) {
+         FileStatus[] children = fs.listStatus(status.getPath(), HIDDEN_FILE_FILTER);
+         status = null;
+         for (FileStatus child : children) {
+            if (child.isFile() && child.getLen() > 0) {
+               status = child;
+               break;
+            }
+         }
+         if (null == status) {
+            return;
+         }
+      }
+      if (null != new CompressionCodecFactory(fs.getConf()).getCodec(status.getPath())) {
+         return;
+      }
+
+      byte[] buffer = new byte[(int) Math.min(sampleBytes, status.getLen())];
+      int length = 0;
+      try (FSDataInputStream in = fs.open(status.getPath())) {
+         length = readFully(in, buffer);
+      }
+
+      // Only count whole records, unless the sample is the whole file
+      int records = 0;
+      int end = 0;
+      for (int i = 0; i < length; i++) {
+         if (buffer[i] == '\n') {
+            records++;
+            end = i + 1;
+         }
+      }
+      if (length == status.getLen() && end < length) {
+         records++;
+         end = length;
+      }
+      sampledBytes   += end;
+      sampledRecords += records;
+   }
+
+   private static int readFully(InputStream in, byte[] buffer) throws IOException {
+      int length = 0;
+      while (length < buffer.length) {
+         int read = in.read(buffer, length, buffer.length - length);
+         if (read < 0) {
+            break;
+         }
+         length += read;
+      }
+      return length;
+   }
+
+   /**
+    * Plans a job over the measured inputs.
+    *
+    * @param shuffleRecords
+    *        whether the record is shuffled along with its hash
+    * @return the plan, which is empty if the inputs were not measured
+    */
+   public JobPlan plan(boolean shuffleRecords) {
+      if (!measured || inputBytes == 0) {
+         return new JobPlan();
+      }
+      return plan(inputBytes, getAverageRecordLength(), 1.0, shuffleRecords);
+   }
+
+   /**
+    * Plans a map-only job over the measured inputs, for which only whether
+    * it is run in-process applies: such a job does not sort its output, so
+    * every processor can run one of its map tasks.
+    *
+    * @return the plan, which is empty if the inputs were not measured
+    */
+   public JobPlan planMapOnly() {
+      JobPlan plan = new JobPlan();
+      if (!measured || inputBytes == 0) {
+         return plan;
+      }
+      if (isLocal(inputBytes)) {
+         plan.setLocal(true);
+         plan.setLocalMaxMaps(processors);
+      }
+      return plan;
+   }
+
+   /**
+    * Plans a job over the measured inputs in which only shuffledRecords of
+    * the records, along with their hashes, are shuffled, as in the second
+    * job of the two-pass mode.
+    *
+    * @return the plan, which is empty if the inputs were not measured
+    */
+   public JobPlan planFiltered(long shuffledRecords) {
+      if (!measured || inputBytes == 0) {
+         return new JobPlan();
+      }
+      double shuffledFraction = Math.min(1.0,
+            (double) shuffledRecords / Math.max(1, getEstimatedRecords()));
+      return plan(inputBytes, getAverageRecordLength(), shuffledFraction, true);
+   }
+
+   /**
+    * Estimates the records shuffled in the broadcast mode, in which the
+    * mapper of each split of the test input emits a net count for every
+    * reference record that it matched, along with each test record that
+    * matched none, and each reference record is emitted once.
+    *
+    * @param referenceRecords
+    *        number of records in the broadcast reference input
+    * @param referenceBytes
+    *        length of the reference input, which is one of the measured
+    *        inputs
+    * @param splitSize
+    *        size of the splits of the test input, or 0 for the size that
+    *        would be planned for the measured inputs
+    */
+   public long estimateBroadcastRecords(long referenceRecords, long referenceBytes,
+         long splitSize)
+   {
+      long testBytes = Math.max(0L, inputBytes - referenceBytes);
+      long testRecords = (long) Math.ceil(testBytes / getAverageRecordLength());
+      if (splitSize <= 0) {
+         splitSize = getSplitSize(inputBytes);
+      }
+      long testMapTasks = Math.max(1L, (testBytes + splitSize - 1) / splitSize);
+      return referenceRecords + Math.min(testRecords, testMapTasks * referenceRecords);
+   }
+
+   /**
+    * Plans a job over inputBytes of records of the given average length, of
+    * which the given fraction are shuffled.
+    */
+   JobPlan plan(long inputBytes, double recordLength, double shuffledFraction,
+         boolean shuffleRecords)
+   {
+      JobPlan plan = new JobPlan();
+
+      double recordBytes = hashLength + RECORD_OVERHEAD_BYTES +
+            (shuffleRecords ? recordLength : 0);
+      double records = inputBytes / recordLength * shuffledFraction;
+      double shuffleBytes = records * recordBytes;
+
+      plan.setNumReduceTasks((int) clamp(
+            (long) Math.ceil(shuffleBytes / reducerBytes), 1, maxReducers));
+
+      long splitSize = getSplitSize(inputBytes);
+      plan.setSplitSize(splitSize);
+      long mapTasks = (inputBytes + splitSize - 1) / splitSize;
+
+      // Size the sort buffer to hold the output of an entire split, so that
+      // each map spills only once.
+      double splitRecords = Math.min(inputBytes, splitSize) / recordLength * shuffledFraction;
+      double bufferBytes = splitRecords * (recordBytes + SORT_METADATA_BYTES) / SPILL_PERCENT;
+      long sortMb = (long) Math.ceil(bufferBytes / MB);
+      boolean local = isLocal(inputBytes);
+      // The map tasks of a local job share half of the heap of the driver,
+      // so their buffers are not grown to the Hadoop default.
+      long heapMb = Math.max(1L, maxMemory / 2 / MB);
+      long maxMb = local ? Math.min(maxSortMb, heapMb) : maxSortMb;
+      if (sortMb > maxMb) {
+         // Spill later, and so less often, if the output will not fit.
+         plan.setSortMb((int) maxMb);
+         plan.setSpillPercent(SPILL_PERCENT_OVERFLOW);
+      } else {
+         plan.setSortMb((int) Math.max(local ? 1 : MIN_SORT_MB, sortMb));
+         plan.setSpillPercent(SPILL_PERCENT);
+      }
+
+      // Each reducer merges one segment from every map.
+      plan.setSortFactor((int) clamp(mapTasks, MIN_SORT_FACTOR, MAX_SORT_FACTOR));
+
+      if (local) {
+         plan.setLocal(true);
+         plan.setLocalMaxMaps((int) clamp(heapMb / plan.getSortMb(), 1, processors));
+      }
+
+      return plan;
+   }
+
+   /**
+    * Sets the number of processors and the heap size, in bytes, for which
+    * in-process jobs are planned, in place of those of the running JVM.
+    */
+   void setRuntime(int processors, long maxMemory) {
+      this.processors = processors;
+      this.maxMemory  = maxMemory;
+   }
+
+   private boolean isLocal(long inputBytes) {
+      return localBytes > 0 && inputBytes <= localBytes;
+   }
+
+   /**
+    * @return the size of the splits of inputBytes, which is grown from
+    *         {@link #MIN_SPLIT_SIZE} to bound the number of map tasks by
+    *         {@link #MAX_MAP_TASKS}
+    */
+   private static long getSplitSize(long inputBytes) {
+      return Math.max(MIN_SPLIT_SIZE,
+            roundUp((inputBytes + MAX_MAP_TASKS - 1) / MAX_MAP_TASKS, MB));
+   }
+
+   private static long roundUp(long value, long multiple) {
+      return ((value + multiple - 1) / multiple) * multiple;
+   }
+
+   private static long clamp(long value, long min, long max) {
+      return Math.max(min, Math.min(max, value));
+   }
+
+   private static long positive(long value, long defaultValue) {
+      return value > 0 ? value : defaultValue;
+   }
+}
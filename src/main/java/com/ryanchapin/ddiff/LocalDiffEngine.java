@@ -0,0 +1,814 @@
+package com.ryanchapin.ddiff;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Diffs a reference and a test input on the local filesystem in a single
+ * process, without submitting a job, staging the inputs or starting any
+ * Hadoop services, see {@link DistributedDiff#OPTION_KEY_ENGINE_LONG}.
+ * <p>
+ * Each input file is cut into chunks of about {@link #CHUNK_BYTES}, each
+ * ending just after a line terminator, and every chunk is memory mapped and its
+ * records scanned and hashed in place by a {@link MappedLineScanner}, in a
+ * task of a {@link ForkJoinPool} with one thread per processor by default.
+ * Records are terminated by {@code \n}, {@code \r} or {@code \r\n}, as
+ * by the {@link DiffLineRecordReader} of the MapReduce engine; a configured
+ * record delimiter is not supported.
+ * <p>
+ * The signed counts of the records, positive for {@link Source#REFERENCE}
+ * and negative for {@link Source#TEST}, are aggregated into a power of two
+ * number of shards, each an {@link OffHeapCountTable} that keeps the
+ * records, guarded by its own lock and selected by the last byte of the
+ * hash, which leaves the leading bits that the table probes with uniformly
+ * distributed within each shard.  The
+ * tasks collect the records of each shard into a small batch of their own
+ * and add it to the shard under its lock only when it fills, so that the
+ * locks are taken once per batch rather than once per record.  The tables
+ * are keyed by both hash and record, so distinct records that share a hash
+ * are never merged.
+ * <p>
+ * Once both inputs are read the shards are written out in parallel, each
+ * to its own {@code missing-r-NNNNN} and {@code extra-r-NNNNN} file holding
+ * the record and its count separated by a tab, as written by the
+ * {@link DdiffReducer}.  A file is only created if it has records, and a
+ * {@code _SUCCESS} file is written once every shard is.
+ * <p>
+ * The tables are held in direct memory within the memory budget, split
+ * evenly between the shards.  When the table of a shard is full, its
+ * entries whose counts are not zero are appended to a spill file of the
+ * shard on local disk, as the hash, record and count of each, and the
+ * table is cleared, so that the diff is not bounded by memory but by the
+ * disk.  Once both inputs are read, the remaining entries of a spilled
+ * shard are appended to its spill file, which is then read back into the
+ * emptied table and aggregated as a partition.  A partition whose distinct
+ * records do not fit in the table is instead split by the next bits of the
+ * hash into as many partitions as needed for each to fit, up to
+ * {@link #MAX_FANOUT}, each diffed in turn in the same way, as in the
+ * grace hash join.  The spill files are written to a temporary directory,
+ * see {@link #CONF_SPILL_DIR_KEY}, which is removed once the diff completes.
+ *
+ * @since  1.3.0
+ */
+public class LocalDiffEngine {
+
+   private static final Logger LOGGER = LoggerFactory.getLogger(LocalDiffEngine.class);
+
+   /**
+    * Key of the number of threads with which the inputs are read and the
+    * outputs written, by default the number of processors.
+    */
+   public static final String CONF_THREADS_KEY = "ddiff.local.threads";
+
+   /**
+    * Key of the memory budget, in megabytes, of the tables, by default half
+    * of the maximum heap, which is also the default limit of direct memory.
+    */
+   public static final String CONF_MEMORY_MB_KEY = "ddiff.local.memory.mb";
+
+   /**
+    * Key of the directory in which the temporary directory of the spill
+    * files is created, by default the parent of the output directory.
+    */
+   public static final String CONF_SPILL_DIR_KEY = "ddiff.local.spill.dir";
+
+   /**
+    * Number of bytes of input read by each task.
+    */
+   public static final long CHUNK_BYTES = 64L * 1024L * 1024L;
+
+   public static final String SUCCESS_FILE = "_SUCCESS";
+
+   private static final int MAX_SHARDS = 256;
+
+   /**
+    * Maximum number of partitions into which a partition is split at a
+    * time, which bounds the spill files open by each thread.
+    */
+   public static final int MAX_FANOUT = 64;
+
+   /**
+    * Number of bytes buffered for each output file.
+    */
+   private static final int BLOCK_BYTES = 1024 * 1024;
+
+   /**
+    * Number of bytes of records and hashes collected for each shard before
+    * they are added to its table.
+    */
+   private static final int BATCH_BYTES = 64 * 1024;
+
+   /**
+    * Number of bytes buffered for each spill file.
+    */
+   private static final int SPILL_BUFFER_BYTES = 64 * 1024;
+
+   private static final long MB = 1024L * 1024L;
+
+   private final RecordHashAlgorithm hashAlgorithm;
+   private final int threads;
+   private final long budgetBytes;
+   private final long chunkBytes;
+   private final int maxFanout;
+
+   private final int keyWidth;
+   private OffHeapCountTable[] shards;
+   private final int shardBits;
+   private final long shardBudgetBytes;
+
+   /**
+    * Spill file of each shard, open once the shard first spills, and the
+    * temporary directory holding them, created along with the first.
+    */
+   private final DataOutputStream[] spills;
+   private Path spillDir;
+   private Path spillParent;
+   private Path spillPath;
+
+   private final AtomicLong referenceRecords = new AtomicLong();
+   private final AtomicLong testRecords      = new AtomicLong();
+   private final AtomicLong missingRecords   = new AtomicLong();
+   private final AtomicLong extraRecords     = new AtomicLong();
+   private final AtomicLong spilledBytes     = new AtomicLong();
+
+   // ------------------------------------------------------------------------
+   // Accessor/Mutators
+   //
+
+   public long getReferenceRecords() {
+      return referenceRecords.get();
+   }
+
+   public long getTestRecords() {
+      return testRecords.get();
+   }
+
+   /**
+    * @return the sum of the counts of the records written to the missing
+    *         output.
+    */
+   public long getMissingRecords() {
+      return missingRecords.get();
+   }
+
+   /**
+    * @return the sum of the counts of the records written to the extra
+    *         output.
+    */
+   public long getExtraRecords() {
+      return extraRecords.get();
+   }
+
+   /**
+    * @return the number of bytes written to spill files, including those
+    *         written when partitions are split.
+    */
+   public long getSpilledBytes() {
+      return spilledBytes.get();
+   }
+
+   public int getShardCount() {
+      return shards.length;
+   }
+
+   public Path getSpillDir() {
+      return spillDir;
+   }
+
+   /**
+    * @param spillDir
+    *        directory in which the temporary directory of the spill files is
+    *        created, or null for the parent of the output directory
+    */
+   public void setSpillDir(Path spillDir) {
+      this.spillDir = spillDir;
+   }
+
+   // ------------------------------------------------------------------------
+   // Constructor
+   //
+
+   /**
+    * @param hashAlgorithm
+    *        algorithm with which the records are hashed
+    * @param threads
+    *        number of threads with which to read and write, or 0 for one
+    *        per processor
+    * @param budgetMb
+    *        memory budget, in megabytes, of the tables, or 0 for half of
+    *        the maximum heap
+    */
+   public LocalDiffEngine(RecordHashAlgorithm hashAlgorithm, int threads, int budgetMb) {
+      this(hashAlgorithm, threads, budgetMb, CHUNK_BYTES, MAX_FANOUT);
+   }
+
+   LocalDiffEngine(RecordHashAlgorithm hashAlgorithm, int threads, int budgetMb,
+         long chunkBytes, int maxFanout)
+   {
+      this.hashAlgorithm = hashAlgorithm;
+      this.threads       = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+      this.budgetBytes   = budgetMb > 0 ? budgetMb * MB : Runtime.getRuntime().maxMemory() / 2;
+      this.chunkBytes    = chunkBytes;
+      this.maxFanout     = maxFanout;
+      this.keyWidth      = RecordHashAlgorithm.keyWidth(hashAlgorithm.newHasher().getHashLength());
+
+      // Several shards per thread keep the threads from waiting on each
+      // other's locks
+      int shardCount = 1;
+      while (shardCount < this.threads * 4 && shardCount < MAX_SHARDS) {
+         shardCount *= 2;
+      }
+      shards           = new OffHeapCountTable[shardCount];
+      shardBits        = Integer.numberOfTrailingZeros(shardCount);
+      shardBudgetBytes = budgetBytes / shardCount;
+      spills           = new DataOutputStream[shardCount];
+      for (int i = 0; i < shardCount; i++) {
+         shards[i] = new OffHeapCountTable(keyWidth, true, shardBudgetBytes);
+      }
+   }
+
+   // ------------------------------------------------------------------------
+   // Member Methods
+   //
+
+   /**
+    * Diffs the test input against the reference input and writes the
+    * missing and extra records to the output directory, which is replaced
+    * if it exists.
+    *
+    * @param reference
+    *        reference input file, or directory of files
+    * @param test
+    *        test input file, or directory of files
+    * @param output
+    *        output directory
+    * @throws IOException
+    *        if an input cannot be read, the output or spill files cannot be
+    *        written or a record does not fit in the memory budget on its own
+    */
+   public void diff(Path reference, Path test, Path output) throws IOException {
+      List<Chunk> chunks = new ArrayList<Chunk>();
+      addChunks(reference, Source.REFERENCE, chunks);
+      addChunks(test, Source.TEST, chunks);
+      spillParent = null != spillDir ? spillDir : output.toAbsolutePath().getParent();
+      LOGGER.info("Diffing {} chunks with {} threads into {} shards, budgetMb = {}",
+            chunks.size(), threads, shards.length, budgetBytes / MB);
+
+      ForkJoinPool pool = new ForkJoinPool(threads);
+      try {
+         List<Future<?>> futures = new ArrayList<Future<?>>();
+         for (final Chunk chunk : chunks) {
+            futures.add(pool.submit(new Callable<Void>() {
+               @Override
+               public Void call() throws IOException {
+                  new ChunkReader(chunk).read();
+                  return null;
+               }
+            }));
+         }
+         await(futures);
+
+         deleteRecursively(output);
+         Files.createDirectories(output);
+         futures.clear();
+         for (int i = 0; i < shards.length; i++) {
+            final int shard = i;
+            final Path dir = output;
+            futures.add(pool.submit(new Callable<Void>() {
+               @Override
+               public Void call() throws IOException {
+                  writeShard(shard, dir);
+                  return null;
+               }
+            }));
+         }
+         await(futures);
+         Files.createFile(output.resolve(SUCCESS_FILE));
+      } finally {
+         pool.shutdownNow();
+         for (int i = 0; i < spills.length; i++) {
+            if (null != spills[i]) {
+               spills[i].close();
+               spills[i] = null;
+            }
+         }
+         if (null != spillPath) {
+            deleteRecursively(spillPath);
+            spillPath = null;
+         }
+      }
+      if (spilledBytes.get() > 0) {
+         LOGGER.info("Spilled {} MB to disk", spilledBytes.get() / MB);
+      }
+   }
+
+   private static void await(List<Future<?>> futures) throws IOException {
+      try {
+         for (Future<?> future : futures) {
+            future.get();
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted while diffing", e);
+      } catch (ExecutionException e) {
+         for (Future<?> future : futures) {
+            future.cancel(true);
+         }
+         if (e.getCause() instanceof IOException) {
+            throw (IOException) e.getCause();
+         }
+         throw new IOException(e.getCause());
+      }
+   }
+
+   /**
+    * Adds the chunks of each file of the input, which is either a file or a
+    * directory whose files, other than those starting with {@code _} or
+    * {@code .}, are read.
+    */
+   private void addChunks(Path input, Source source, List<Chunk> chunks) throws IOException {
+      if (!Files.exists(input)) {
+         throw new IOException("Input path does not exist: " + input);
+      }
+      List<Path> files = new ArrayList<Path>();
+      if (Files.isDirectory(input)) {
+         try (DirectoryStream<Path> stream = Files.newDirectoryStream(input)) {
+            for (Path file : stream) {
+               String name = file.getFileName().toString();
+               if (Files.isRegularFile(file) && !name.startsWith("_") && !name.startsWith(".")) {
+                  files.add(file);
+               }
+            }
+         }
+         Collections.sort(files);
+      } else {
+         files.add(input);
+      }
+
+      for (Path file : files) {
+         long[] boundaries;
+         try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            boundaries = MappedLineScanner.alignedSplits(channel, chunkBytes);
+         }
+         for (int i = 0; i + 1 < boundaries.length; i++) {
+            if (boundaries[i] < boundaries[i + 1]) {
+               chunks.add(new Chunk(file, boundaries[i], boundaries[i + 1], source));
+            }
+         }
+      }
+   }
+
+   /**
+    * Writes the records of the shard whose counts are not zero, diffing its
+    * spill file if it has one.
+    */
+   private void writeShard(int shard, Path output) throws IOException {
+      OffHeapCountTable table = shards[shard];
+      ShardOutput out = new ShardOutput(output, shard);
+      try {
+         if (null == spills[shard]) {
+            out.write(table);
+         } else {
+            spill(shard);
+            spills[shard].close();
+            spills[shard] = null;
+            diffPartition(spillFile(shard), shardBits, table, out);
+         }
+      } finally {
+         out.close();
+      }
+      missingRecords.addAndGet(out.missingCount);
+      extraRecords.addAndGet(out.extraCount);
+   }
+
+   /**
+    * Appends the entries of the table of the shard whose counts are not
+    * zero to its spill file and clears the table, the caller holding the
+    * lock of the table.
+    */
+   private void spill(int shard) throws IOException {
+      OffHeapCountTable table = shards[shard];
+      if (null == spills[shard]) {
+         spills[shard] = openSpill(spillFile(shard));
+      }
+      DataOutputStream out = spills[shard];
+      byte[] hash = new byte[keyWidth];
+      long bytes = 0;
+      for (long slot = table.nextEntry(0); slot >= 0; slot = table.nextEntry(slot + 1)) {
+         long count = table.getCount(slot);
+         if (count == 0) {
+            continue;
+         }
+         table.copyHash(slot, hash, 0);
+         out.write(hash, 0, keyWidth);
+         out.writeInt(table.getRecordLength(slot));
+         table.writeRecord(slot, out);
+         out.writeLong(count);
+         bytes += keyWidth + 4 + table.getRecordLength(slot) + 8;
+      }
+      table.clear();
+      spilledBytes.addAndGet(bytes);
+   }
+
+   private Path spillFile(int shard) throws IOException {
+      return spillPath().resolve(String.format("shard-%05d", shard));
+   }
+
+   private synchronized Path spillPath() throws IOException {
+      if (null == spillPath) {
+         Files.createDirectories(spillParent);
+         spillPath = Files.createTempDirectory(spillParent, "ddiff-spill-");
+         LOGGER.info("Records exceed the memory budget, spilling to {}", spillPath);
+      }
+      return spillPath;
+   }
+
+   /**
+    * Aggregates the entries of the spill file in the emptied table and
+    * writes its records whose counts are not zero, or, if they do not fit
+    * in the table, splits the file by the hash bits from fromBit and diffs
+    * each part in turn.  The file is deleted once diffed.
+    */
+   private void diffPartition(Path file, int fromBit, OffHeapCountTable table,
+         ShardOutput out) throws IOException
+   {
+      boolean fits = true;
+      try (SpillReader in = new SpillReader(file)) {
+         while (fits && in.next()) {
+            fits = table.add(in.hash, 0, in.record, 0, in.recordLength, in.count);
+         }
+      }
+      if (fits) {
+         out.write(table);
+         table.clear();
+         Files.delete(file);
+         return;
+      }
+      if (table.isEmpty()) {
+         throw new IOException("A record does not fit in the memory budget of " +
+               budgetBytes / MB + " MB, raise " + CONF_MEMORY_MB_KEY +
+               " and -XX:MaxDirectMemorySize");
+      }
+      table.clear();
+
+      // Split into enough parts for each to fill at most half of the table
+      long bytes = Files.size(file);
+      int fanoutBits = 1;
+      while ((1 << fanoutBits) < maxFanout && (bytes >> fanoutBits) > shardBudgetBytes / 2) {
+         fanoutBits++;
+      }
+      if (fromBit + fanoutBits > keyWidth * 8) {
+         throw new IOException("The records of " + file + " cannot be split any further " +
+               "to fit in the memory budget of " + budgetBytes / MB + " MB, raise " +
+               CONF_MEMORY_MB_KEY + " and -XX:MaxDirectMemorySize");
+      }
+      List<Path> parts = splitPartition(file, fromBit, fanoutBits);
+      Files.delete(file);
+      for (Path part : parts) {
+         diffPartition(part, fromBit + fanoutBits, table, out);
+      }
+   }
+
+   /**
+    * Splits the entries of the spill file into parts by the given number of
+    * hash bits from fromBit.
+    *
+    * @return the parts holding at least one entry
+    */
+   private List<Path> splitPartition(Path file, int fromBit, int fanoutBits)
+         throws IOException
+   {
+      Path[] parts = new Path[1 << fanoutBits];
+      DataOutputStream[] outs = new DataOutputStream[parts.length];
+      long bytes = 0;
+      try (SpillReader in = new SpillReader(file)) {
+         while (in.next()) {
+            int part = hashBits(in.hash, fromBit, fanoutBits);
+            if (null == outs[part]) {
+               parts[part] = file.resolveSibling(file.getFileName() + "-" + part);
+               outs[part] = openSpill(parts[part]);
+            }
+            DataOutputStream out = outs[part];
+            out.write(in.hash, 0, keyWidth);
+            out.writeInt(in.recordLength);
+            out.write(in.record, 0, in.recordLength);
+            out.writeLong(in.count);
+            bytes += keyWidth + 4 + in.recordLength + 8;
+         }
+      } finally {
+         for (DataOutputStream out : outs) {
+            if (null != out) {
+               out.close();
+            }
+         }
+      }
+      spilledBytes.addAndGet(bytes);
+
+      List<Path> retVal = new ArrayList<Path>();
+      for (Path part : parts) {
+         if (null != part) {
+            retVal.add(part);
+         }
+      }
+      return retVal;
+   }
+
+   /**
+    * Returns the given number of bits of the hash from fromBit, counting
+    * from the last bit of the hash, the first bits of which select the
+    * shard.
+    */
+   private int hashBits(byte[] hash, int fromBit, int bits) {
+      int retVal = 0;
+      for (int i = 0; i < bits; i++) {
+         int bit = fromBit + i;
+         retVal |= ((hash[keyWidth - 1 - (bit >>> 3)] >>> (bit & 7)) & 1) << i;
+      }
+      return retVal;
+   }
+
+   private static DataOutputStream openSpill(Path file) throws IOException {
+      return new DataOutputStream(
+            new BufferedOutputStream(Files.newOutputStream(file), SPILL_BUFFER_BYTES));
+   }
+   private static OutputStream open(Path file) throws IOException {
+      return new BufferedOutputStream(Files.newOutputStream(file), BLOCK_BYTES);
+   }
+
+   private static void writeRecord(OffHeapCountTable table, long slot, long count,
+         OutputStream out) throws IOException
+   {
+      table.writeRecord(slot, out);
+      out.write('\t');
+      out.write(Long.toString(count).getBytes(StandardCharsets.UTF_8));
+      out.write('\n');
+   }
+
+   private static void deleteRecursively(Path path) throws IOException {
+      if (Files.isDirectory(path)) {
+         try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+            for (Path child : stream) {
+               deleteRecursively(child);
+            }
+         }
+      }
+      Files.deleteIfExists(path);
+   }
+
+   /**
+    * Byte range of an input file read by a single task.
+    */
+   private static class Chunk {
+      private final Path file;
+      private final long start;
+      private final long end;
+      private final Source source;
+
+      private Chunk(Path file, long start, long end, Source source) {
+         this.file   = file;
+         this.start  = start;
+         this.end    = end;
+         this.source = source;
+      }
+   }
+
+   /**
+    * Missing and extra files of a shard, each created once it has a record.
+    */
+   private static class ShardOutput {
+      private final Path output;
+      private final String suffix;
+      private OutputStream missing;
+      private OutputStream extra;
+      private long missingCount;
+      private long extraCount;
+
+      private ShardOutput(Path output, int shard) {
+         this.output = output;
+         this.suffix = String.format("-r-%05d", shard);
+      }
+
+      /**
+       * Writes the records of the table whose counts are not zero.
+       */
+      private void write(OffHeapCountTable table) throws IOException {
+         for (long slot = table.nextEntry(0); slot >= 0; slot = table.nextEntry(slot + 1)) {
+            long count = table.getCount(slot);
+            if (count > 0) {
+               if (null == missing) {
+                  missing = open(output.resolve(DistributedDiff.MISSING_OUTPUT + suffix));
+               }
+               writeRecord(table, slot, count, missing);
+               missingCount += count;
+            } else if (count < 0) {
+               if (null == extra) {
+                  extra = open(output.resolve(DistributedDiff.EXTRA_OUTPUT + suffix));
+               }
+               writeRecord(table, slot, -count, extra);
+               extraCount -= count;
+            }
+         }
+      }
+
+      private void close() throws IOException {
+         try {
+            if (null != missing) {
+               missing.close();
+            }
+         } finally {
+            if (null != extra) {
+               extra.close();
+            }
+         }
+      }
+   }
+
+   /**
+    * Reads the hash, record and count of each entry of a spill file.
+    */
+   private class SpillReader implements AutoCloseable {
+      private final DataInputStream in;
+      private final byte[] hash = new byte[keyWidth];
+      private byte[] record = new byte[1024];
+      private int recordLength;
+      private long count;
+
+      private SpillReader(Path file) throws IOException {
+         in = new DataInputStream(
+               new BufferedInputStream(Files.newInputStream(file), SPILL_BUFFER_BYTES));
+      }
+
+      /**
+       * @return false once every entry is read
+       */
+      private boolean next() throws IOException {
+         int first = in.read();
+         if (first < 0) {
+            return false;
+         }
+         hash[0] = (byte) first;
+         in.readFully(hash, 1, keyWidth - 1);
+         recordLength = in.readInt();
+         if (recordLength > record.length) {
+            record = new byte[Math.max(recordLength, record.length * 2)];
+         }
+         in.readFully(record, 0, recordLength);
+         count = in.readLong();
+         return true;
+      }
+
+      @Override
+      public void close() throws IOException {
+         in.close();
+      }
+   }
+
+   /**
+    * Scans the records of a chunk, hashes them in place in the mapped file
+    * and adds them to the batch of their shard.
+    */
+   private class ChunkReader implements MappedLineScanner.LineHandler {
+
+      private final Chunk chunk;
+      private final RecordHasher hasher = hashAlgorithm.newHasher();
+      private final byte[] hashBuffer = new byte[Math.max(keyWidth, hasher.getHashLength())];
+      private final long sign;
+
+      /**
+       * View of the mapped window of the last record, through which
+       * records are copied into the batches, and the window itself.
+       */
+      private ByteBuffer window;
+      private ByteBuffer view;
+
+      /**
+       * Copy of a record too large to be batched.
+       */
+      private byte[] large = new byte[0];
+
+      /**
+       * Hashes and records of each shard, held as the hash, the record
+       * length and the record, not yet added to its table.
+       */
+      private final byte[][] batches = new byte[shards.length][];
+      private final int[] batchLengths = new int[shards.length];
+
+      private ChunkReader(Chunk chunk) {
+         this.chunk = chunk;
+         this.sign  = chunk.source.getSign();
+      }
+
+      private void read() throws IOException {
+         long records;
+         try (FileChannel channel = FileChannel.open(chunk.file, StandardOpenOption.READ)) {
+            records = new MappedLineScanner(channel, chunk.start, chunk.end).scan(this);
+         }
+         for (int shard = 0; shard < shards.length; shard++) {
+            flush(shard);
+         }
+         (Source.REFERENCE == chunk.source ? referenceRecords : testRecords).addAndGet(records);
+      }
+
+      @Override
+      public void line(ByteBuffer buffer, int offset, int length) throws IOException {
+         if (buffer != window) {
+            window = buffer;
+            view   = buffer.duplicate();
+         }
+         hasher.hash(buffer, offset, length, hashBuffer);
+         int shard = (hashBuffer[keyWidth - 1] & 0xff) & (shards.length - 1);
+
+         int entryLength = keyWidth + 4 + length;
+         if (batchLengths[shard] + entryLength > BATCH_BYTES) {
+            flush(shard);
+         }
+         view.position(offset);
+         if (entryLength > BATCH_BYTES) {
+            // Too large to batch, so add it directly
+            if (large.length < length) {
+               large = new byte[length];
+            }
+            view.get(large, 0, length);
+            synchronized (shards[shard]) {
+               add(shard, hashBuffer, 0, large, 0, length);
+            }
+            return;
+         }
+         if (null == batches[shard]) {
+            batches[shard] = new byte[BATCH_BYTES];
+         }
+         byte[] batch = batches[shard];
+         int pos = batchLengths[shard];
+         System.arraycopy(hashBuffer, 0, batch, pos, keyWidth);
+         pos += keyWidth;
+         batch[pos++] = (byte) (length >>> 24);
+         batch[pos++] = (byte) (length >>> 16);
+         batch[pos++] = (byte) (length >>> 8);
+         batch[pos++] = (byte) length;
+         view.get(batch, pos, length);
+         batchLengths[shard] = pos + length;
+      }
+
+      private void flush(int shard) throws IOException {
+         if (batchLengths[shard] == 0) {
+            return;
+         }
+         byte[] batch = batches[shard];
+         OffHeapCountTable table = shards[shard];
+         synchronized (table) {
+            int pos = 0;
+            while (pos < batchLengths[shard]) {
+               int hashOffset = pos;
+               pos += keyWidth;
+               int length = ((batch[pos] & 0xff) << 24) | ((batch[pos + 1] & 0xff) << 16) |
+                     ((batch[pos + 2] & 0xff) << 8) | (batch[pos + 3] & 0xff);
+               pos += 4;
+               add(shard, batch, hashOffset, batch, pos, length);
+               pos += length;
+            }
+         }
+         batchLengths[shard] = 0;
+      }
+
+      /**
+       * Adds the record to the table of the shard, which the caller must
+       * hold the lock of, spilling the table if it is full.
+       */
+      private void add(int shard, byte[] hash, int hashOffset, byte[] bytes,
+            int offset, int length) throws IOException
+      {
+         OffHeapCountTable table = shards[shard];
+         if (table.add(hash, hashOffset, bytes, offset, length, sign)) {
+            return;
+         }
+         spill(shard);
+         if (!table.add(hash, hashOffset, bytes, offset, length, sign)) {
+            throw new IOException("A record of " + length + " bytes does not fit in the " +
+                  "memory budget of " + budgetBytes / MB + " MB, raise " +
+                  CONF_MEMORY_MB_KEY + " and -XX:MaxDirectMemorySize");
+         }
+      }
+   }
+}
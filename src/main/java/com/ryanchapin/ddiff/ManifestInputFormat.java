@@ -0,0 +1,69 @@
+package com.ryanchapin.ddiff;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/**
+ * Input format of the batch mode, see
+ * {@link DistributedDiff#OPTION_KEY_MANIFEST_LONG}, which reads the
+ * {@link BatchManifest} at {@link DistributedDiff#CONF_MANIFEST_PATH_KEY}
+ * and splits the reference and test inputs of every pair as the
+ * {@link DiffInputFormat} would, wrapping each split in a {@link PairSplit}
+ * that carries the pair and {@link Source} of its input.
+ * <p>
+ * Unlike with MultipleInputs, an input path can appear in any number of
+ * pairs, and on either side, and is read once for each.
+ *
+ * @since  1.3.0
+ */
+public class ManifestInputFormat extends InputFormat<LongWritable, Text> {
+
+   private DiffInputFormat diffInputFormat = new DiffInputFormat();
+
+   @Override
+   public List<InputSplit> getSplits(JobContext context) throws IOException {
+      Configuration conf = context.getConfiguration();
+      Path manifestPath = new Path(conf.get(DistributedDiff.CONF_MANIFEST_PATH_KEY));
+      BatchManifest manifest = BatchManifest.read(manifestPath.getFileSystem(conf), manifestPath);
+
+      // The input paths of a single copy of the conf are reset for each
+      // input
+      Job inputJob = Job.getInstance(conf);
+      List<InputSplit> retVal = new ArrayList<InputSplit>();
+      for (int pair = 0; pair < manifest.size(); pair++) {
+         addSplits(inputJob, manifest.getReferencePath(pair), pair, Source.REFERENCE, retVal);
+         addSplits(inputJob, manifest.getTestPath(pair), pair, Source.TEST, retVal);
+      }
+      return retVal;
+   }
+
+   private void addSplits(Job inputJob, String input, int pair, Source source,
+         List<InputSplit> splits) throws IOException
+   {
+      FileInputFormat.setInputPaths(inputJob, new Path(input));
+      for (InputSplit split : diffInputFormat.getSplits(inputJob)) {
+         splits.add(new PairSplit((FileSplit) split, pair, source));
+      }
+   }
+
+   @Override
+   public RecordReader<LongWritable, Text> createRecordReader(InputSplit split,
+         TaskAttemptContext context)
+   {
+      return diffInputFormat.createRecordReader(split, context);
+   }
+}
@@ -0,0 +1,248 @@
+package com.ryanchapin.ddiff;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scans the lines of a byte range of a file by memory mapping it in
+ * windows of up to {@link #DEFAULT_WINDOW_BYTES}, and hands each line to a
+ * {@link LineHandler} as a slice of the mapped buffer, so that no line is
+ * copied or decoded before it is hashed.
+ * <p>
+ * Line terminators are found eight bytes at a time: each word of the
+ * buffer is XORed with eight {@code \n} bytes and with eight {@code \r}
+ * bytes, and the lowest byte of either result that is zero, if any, is
+ * found with the usual SWAR test for a zero byte, leaving a byte at a time
+ * scan for the last few bytes of each window only.
+ * <p>
+ * The ranges to be scanned are expected to start and end on line
+ * boundaries, as given by {@link #alignedSplits(FileChannel, long)}, so
+ * that several threads can scan one file without any line being read
+ * twice or split between them.  Lines are terminated by {@code \n},
+ * {@code \r} or {@code \r\n}, as by the {@link DiffLineRecordReader},
+ * which are not part of the line, and the last line of the file need not
+ * be terminated.
+ *
+ * @since  1.3.0
+ */
+public class MappedLineScanner {
+
+   /**
+    * Maximum number of bytes mapped at a time, which is also the limit on
+    * the length of a line.
+    */
+   public static final int DEFAULT_WINDOW_BYTES = 256 * 1024 * 1024;
+
+   private static final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+   private static final long RETURNS  = 0x0D0D0D0D0D0D0D0DL;
+   private static final long LOW_BITS = 0x0101010101010101L;
+   private static final long HIGH_BITS = 0x8080808080808080L;
+
+   /**
+    * Number of bytes read at a time when looking for the boundaries of the
+    * splits.
+    */
+   private static final int PROBE_BYTES = 64 * 1024;
+
+   private final FileChannel channel;
+   private final long start;
+   private final long end;
+   private final int windowBytes;
+
+   /**
+    * Receives each line scanned.
+    */
+   public interface LineHandler {
+
+      /**
+       * @param buffer
+       *        mapped buffer holding the line, in little-endian byte order,
+       *        which is only valid until the method returns
+       * @param offset
+       *        index of the first byte of the line in the buffer
+       * @param length
+       *        number of bytes of the line, without its terminator
+       */
+      public void line(ByteBuffer buffer, int offset, int length) throws IOException;
+   }
+
+   // ------------------------------------------------------------------------
+   // Constructor
+   //
+
+   /**
+    * @param channel
+    *        channel of the file to be scanned
+    * @param start
+    *        offset of the first byte of the range, at the start of a line
+    * @param end
+    *        offset following the last byte of the range, following a line
+    *        terminator or at the end of the file
+    */
+   public MappedLineScanner(FileChannel channel, long start, long end) {
+      this(channel, start, end, DEFAULT_WINDOW_BYTES);
+   }
+
+   MappedLineScanner(FileChannel channel, long start, long end, int windowBytes) {
+      this.channel     = channel;
+      this.start       = start;
+      this.end         = end;
+      this.windowBytes = windowBytes;
+   }
+
+   // ------------------------------------------------------------------------
+   // Member Methods
+   //
+
+   /**
+    * Returns the boundaries of splits of roughly splitBytes each of the
+    * file, each following a line terminator, beginning with 0 and ending
+    * with the size of the file, so that split i spans offsets
+    * {@code [boundaries[i], boundaries[i + 1])}.  No boundary falls between
+    * the {@code \r} and {@code \n} of a {@code \r\n}.
+    */
+   public static long[] alignedSplits(FileChannel channel, long splitBytes) throws IOException {
+      long size = channel.size();
+      List<Long> boundaries = new ArrayList<Long>();
+      boundaries.add(0L);
+      ByteBuffer probe = ByteBuffer.allocate(PROBE_BYTES);
+      long next = splitBytes;
+      while (next < size) {
+         long boundary = -1L;
+         long position = next;
+         while (boundary < 0 && position < size) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read <= 0) {
+               break;
+            }
+            int terminator = indexOfTerminator(probe, 0, read);
+            if (terminator >= 0) {
+               boundary = position + terminator + 1;
+               if (probe.get(terminator) == '\r' && boundary < size &&
+                     followedByNewline(channel, probe, terminator, read, boundary))
+               {
+                  boundary++;
+               }
+            }
+            position += read;
+         }
+         if (boundary < 0 || boundary >= size) {
+            break;
+         }
+         boundaries.add(boundary);
+         next = boundary + splitBytes;
+      }
+      boundaries.add(size);
+
+      long[] retVal = new long[boundaries.size()];
+      for (int i = 0; i < retVal.length; i++) {
+         retVal[i] = boundaries.get(i);
+      }
+      return retVal;
+   }
+
+   /**
+    * Hands each line of the range to the handler.
+    *
+    * @return the number of lines scanned
+    * @throws IOException
+    *        if the file cannot be mapped or a line is longer than a window
+    */
+   public long scan(LineHandler handler) throws IOException {
+      long lines = 0;
+      long windowStart = start;
+      while (windowStart < end) {
+         long windowEnd = Math.min(end, windowStart + windowBytes);
+         MappedByteBuffer window =
+               channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart);
+         window.order(ByteOrder.LITTLE_ENDIAN);
+         int limit = window.limit();
+
+         int lineStart = 0;
+         int terminator;
+         while ((terminator = indexOfTerminator(window, lineStart, limit)) >= 0) {
+            int next = terminator + 1;
+            if (window.get(terminator) == '\r') {
+               if (next < limit) {
+                  if (window.get(next) == '\n') {
+                     next++;
+                  }
+               } else if (windowEnd != end) {
+                  // Whether the \r is followed by \n is in the next window
+                  break;
+               }
+            }
+            handler.line(window, lineStart, terminator - lineStart);
+            lines++;
+            lineStart = next;
+         }
+
+         if (windowEnd == end) {
+            // The last line of the file need not be terminated
+            if (lineStart < limit) {
+               handler.line(window, lineStart, limit - lineStart);
+               lines++;
+            }
+            break;
+         }
+         if (lineStart == 0) {
+            throw new IOException("A line at offset " + windowStart + " is longer than " +
+                  windowBytes + " bytes");
+         }
+         // Map the next window from the start of the unterminated line
+         windowStart += lineStart;
+      }
+      return lines;
+   }
+
+   /**
+    * @return whether the {@code \r} at index terminator of the probe, which
+    *         holds read bytes, is followed by a {@code \n} at offset next of
+    *         the file.
+    */
+   private static boolean followedByNewline(FileChannel channel, ByteBuffer probe,
+         int terminator, int read, long next) throws IOException
+   {
+      if (terminator + 1 < read) {
+         return probe.get(terminator + 1) == '\n';
+      }
+      ByteBuffer b = ByteBuffer.allocate(1);
+      return channel.read(b, next) == 1 && b.get(0) == '\n';
+   }
+
+   /**
+    * @return the index of the first {@code \n} or {@code \r} of the buffer
+    *         at or after from and before to, or -1 if there is none.
+    */
+   static int indexOfTerminator(ByteBuffer buffer, int from, int to) {
+      boolean littleEndian = buffer.order() == ByteOrder.LITTLE_ENDIAN;
+      int i = from;
+      for (; i + 8 <= to; i += 8) {
+         long word = buffer.getLong(i);
+         if (!littleEndian) {
+            word = Long.reverseBytes(word);
+         }
+         // Bytes equal to \n, or to \r, become zero, and the lowest zero
+         // byte has its high bit set, false positives only arising above it
+         long n = word ^ NEWLINES;
+         long r = word ^ RETURNS;
+         long found = ((n - LOW_BITS) & ~n | (r - LOW_BITS) & ~r) & HIGH_BITS;
+         if (found != 0) {
+            return i + (Long.numberOfTrailingZeros(found) >>> 3);
+         }
+      }
+      for (; i < to; i++) {
+         byte b = buffer.get(i);
+         if (b == '\n' || b == '\r') {
+            return i;
+         }
+      }
+      return -1;
+   }
+}
@@ -0,0 +1,185 @@
+package com.ryanchapin.ddiff;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 128-bit MurmurHash3 (the x64_128 variant) {@link RecordHasher}.
+ * <p>
+ * This is a non-cryptographic hash; it is not resistant to deliberately
+ * constructed collisions, but is many times faster than the digest
+ * algorithms.  The two 64-bit halves of the hash are written big-endian,
+ * h1 followed by h2.
+ *
+ * @since  1.3.0
+ */
+public class Murmur3RecordHasher implements RecordHasher {
+
+   public static final int HASH_LENGTH = 16;
+
+   private static final long C1 = 0x87c37b91114253d5L;
+   private static final long C2 = 0x4cf5ad432745937fL;
+
+   private final long seed;
+
+   // ------------------------------------------------------------------------
+   // Constructor
+   //
+
+   public Murmur3RecordHasher() {
+      this(0L);
+   }
+
+   public Murmur3RecordHasher(long seed) {
+      this.seed = seed & 0xFFFFFFFFL;
+   }
+
+   // ------------------------------------------------------------------------
+   // Member Methods
+   //
+
+   @Override
+   public int getHashLength() {
+      return HASH_LENGTH;
+   }
+
+   @Override
+   public int hash(byte[] bytes, int offset, int length, byte[] out) {
+      long h1 = seed;
+      long h2 = seed;
+
+      int end = offset + (length & ~15);
+      for (int i = offset; i < end; i += 16) {
+         long k1 = XxHash64RecordHasher.getLongLE(bytes, i);
+         long k2 = XxHash64RecordHasher.getLongLE(bytes, i + 8);
+
+         h1 ^= mixK1(k1);
+         h1 = Long.rotateLeft(h1, 27);
+         h1 += h2;
+         h1 = h1 * 5 + 0x52dce729;
+
+         h2 ^= mixK2(k2);
+         h2 = Long.rotateLeft(h2, 31);
+         h2 += h1;
+         h2 = h2 * 5 + 0x38495ab5;
+      }
+
+      long k1 = 0;
+      long k2 = 0;
+      switch (length & 15) {
+         case 15: k2 ^= (long) (bytes[end + 14] & 0xFF) << 48;
+         case 14: k2 ^= (long) (bytes[end + 13] & 0xFF) << 40;
+         case 13: k2 ^= (long) (bytes[end + 12] & 0xFF) << 32;
+         case 12: k2 ^= (long) (bytes[end + 11] & 0xFF) << 24;
+         case 11: k2 ^= (long) (bytes[end + 10] & 0xFF) << 16;
+         case 10: k2 ^= (long) (bytes[end + 9]  & 0xFF) << 8;
+         case 9:  k2 ^= (long) (bytes[end + 8]  & 0xFF);
+                  h2 ^= mixK2(k2);
+         case 8:  k1 ^= (long) (bytes[end + 7]  & 0xFF) << 56;
+         case 7:  k1 ^= (long) (bytes[end + 6]  & 0xFF) << 48;
+         case 6:  k1 ^= (long) (bytes[end + 5]  & 0xFF) << 40;
+         case 5:  k1 ^= (long) (bytes[end + 4]  & 0xFF) << 32;
+         case 4:  k1 ^= (long) (bytes[end + 3]  & 0xFF) << 24;
+         case 3:  k1 ^= (long) (bytes[end + 2]  & 0xFF) << 16;
+         case 2:  k1 ^= (long) (bytes[end + 1]  & 0xFF) << 8;
+         case 1:  k1 ^= (long) (bytes[end]      & 0xFF);
+                  h1 ^= mixK1(k1);
+         default:
+      }
+
+      h1 ^= length;
+      h2 ^= length;
+      h1 += h2;
+      h2 += h1;
+      h1 = fmix64(h1);
+      h2 = fmix64(h2);
+      h1 += h2;
+      h2 += h1;
+
+      XxHash64RecordHasher.putLong(out, 0, h1);
+      XxHash64RecordHasher.putLong(out, 8, h2);
+      return HASH_LENGTH;
+   }
+
+   @Override
+   public int hash(ByteBuffer buffer, int offset, int length, byte[] out) {
+      boolean littleEndian = buffer.order() == ByteOrder.LITTLE_ENDIAN;
+      long h1 = seed;
+      long h2 = seed;
+
+      int end = offset + (length & ~15);
+      for (int i = offset; i < end; i += 16) {
+         long k1 = XxHash64RecordHasher.getLongLE(buffer, i, littleEndian);
+         long k2 = XxHash64RecordHasher.getLongLE(buffer, i + 8, littleEndian);
+
+         h1 ^= mixK1(k1);
+         h1 = Long.rotateLeft(h1, 27);
+         h1 += h2;
+         h1 = h1 * 5 + 0x52dce729;
+
+         h2 ^= mixK2(k2);
+         h2 = Long.rotateLeft(h2, 31);
+         h2 += h1;
+         h2 = h2 * 5 + 0x38495ab5;
+      }
+
+      long k1 = 0;
+      long k2 = 0;
+      switch (length & 15) {
+         case 15: k2 ^= (long) (buffer.get(end + 14) & 0xFF) << 48;
+         case 14: k2 ^= (long) (buffer.get(end + 13) & 0xFF) << 40;
+         case 13: k2 ^= (long) (buffer.get(end + 12) & 0xFF) << 32;
+         case 12: k2 ^= (long) (buffer.get(end + 11) & 0xFF) << 24;
+         case 11: k2 ^= (long) (buffer.get(end + 10) & 0xFF) << 16;
+         case 10: k2 ^= (long) (buffer.get(end + 9)  & 0xFF) << 8;
+         case 9:  k2 ^= (long) (buffer.get(end + 8)  & 0xFF);
+                  h2 ^= mixK2(k2);
+         case 8:  k1 ^= (long) (buffer.get(end + 7)  & 0xFF) << 56;
+         case 7:  k1 ^= (long) (buffer.get(end + 6)  & 0xFF) << 48;
+         case 6:  k1 ^= (long) (buffer.get(end + 5)  & 0xFF) << 40;
+         case 5:  k1 ^= (long) (buffer.get(end + 4)  & 0xFF) << 32;
+         case 4:  k1 ^= (long) (buffer.get(end + 3)  & 0xFF) << 24;
+         case 3:  k1 ^= (long) (buffer.get(end + 2)  & 0xFF) << 16;
+         case 2:  k1 ^= (long) (buffer.get(end + 1)  & 0xFF) << 8;
+         case 1:  k1 ^= (long) (buffer.get(end)      & 0xFF);
+                  h1 ^= mixK1(k1);
+         default:
+      }
+
+      h1 ^= length;
+      h2 ^= length;
+      h1 += h2;
+      h2 += h1;
+      h1 = fmix64(h1);
+      h2 = fmix64(h2);
+      h1 += h2;
+      h2 += h1;
+
+      XxHash64RecordHasher.putLong(out, 0, h1);
+      XxHash64RecordHasher.putLong(out, 8, h2);
+      return HASH_LENGTH;
+   }
+
+   private static long mixK1(long k1) {
+      k1 *= C1;
+      k1 = Long.rotateLeft(k1, 31);
+      k1 *= C2;
+      return k1;
+   }
+
+   private static long mixK2(long k2) {
+      k2 *= C2;
+      k2 = Long.rotateLeft(k2, 33);
+      k2 *= C1;
+      return k2;
+   }
+
+   private static long fmix64(long k) {
+      k ^= k >>> 33;
+      k *= 0xff51afd7ed558ccdL;
+      k ^= k >>> 33;
+      k *= 0xc4ceb9fe1a85ec53L;
+      k ^= k >>> 33;
+      return k;
+   }
+}
@@ -0,0 +1,556 @@
+package com.ryanchapin.ddiff;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash table of the signed count of each distinct record
+ * hash, held in direct memory outside of the Java heap, used by the
+ * {@link LocalDiffEngine} and to aggregate records in the
+ * {@link DdiffMapper} and {@link FileSummaryMapper}.
+ * <p>
+ * Each slot of the table holds the hash, the count and, if the table keeps
+ * records, the offset of the record in an arena of its own, for 24 to 48
+ * bytes per slot with hashes of 8 to 32 bytes.  The slots are held in
+ * direct buffers of up to {@link #DEFAULT_SEGMENT_SLOTS} slots, so a table
+ * is not limited to the 2 GB of a single buffer, and the records in
+ * direct buffers of up to {@link #DEFAULT_ARENA_SEGMENT_BYTES}, each
+ * record prefixed with its length.  Which slots are in use is tracked in a
+ * bitmap of one bit per slot.  No objects are allocated per entry, so the
+ * table adds nothing for the garbage collector to trace however many
+ * entries it holds.
+ * <p>
+ * As the hashes are uniformly distributed, the leading bits of each hash
+ * are used directly as its slot, and collisions are resolved by linear
+ * probing.  The table doubles once three quarters of its slots are in use.
+ * If the table keeps records, entries are keyed by both hash and record,
+ * so distinct records that share a hash are never merged; otherwise they
+ * are keyed by hash alone.
+ * <p>
+ * The table grows as needed until growing it would exceed the memory
+ * budget, at which point {@link #add(byte[], int, byte[], int, int, long)}
+ * returns false and the caller is expected to emit the entries and
+ * {@link #clear()} the table, which retains the memory already allocated.
+ * The memory of the buffers replaced when the table grows is released once
+ * they are garbage collected.  Entries are iterated over with
+ * {@link #nextEntry(long)}.
+ * <p>
+ * The table is not thread safe.  Tables shared between threads are to be
+ * split into shards, each guarded by its own lock, as by the
+ * {@link LocalDiffEngine}.
+ *
+ * @since  1.3.0
+ */
+public class OffHeapCountTable {
+
+   /**
+    * Maximum number of slots held in each direct buffer.
+    */
+   public static final int DEFAULT_SEGMENT_SLOTS = 1 << 22;
+
+   /**
+    * Maximum number of record bytes held in each direct buffer, which is
+    * also the limit on the length of a record.
+    */
+   public static final int DEFAULT_ARENA_SEGMENT_BYTES = 1 << 26;
+
+   private static final int INITIAL_CAPACITY = 1024;
+
+   private static final int INITIAL_ARENA_BYTES = 64 * 1024;
+
+   private static final int COUNT_BYTES = 8;
+   private static final int RECORD_OFFSET_BYTES = 8;
+   private static final int RECORD_LENGTH_BYTES = 4;
+
+   private final int hashWidth;
+   private final boolean keepRecords;
+   private final long budgetBytes;
+   private final int slotBytes;
+
+   private final int segmentShift;
+   private final int arenaShift;
+
+   /**
+    * Slots of the table, each holding segment slots except when the table
+    * is smaller than a single segment.
+    */
+   private ByteBuffer[] segments;
+   private int bits;
+   private long capacity;
+   private long size;
+
+   /**
+    * Bit per slot, set if the slot holds an entry.
+    */
+   private long[] used;
+
+   /**
+    * Buffers holding the records, of which only the first grows, and the
+    * views through which they are read and written in bulk.
+    */
+   private ByteBuffer[] arena = new ByteBuffer[0];
+   private ByteBuffer[] arenaViews = new ByteBuffer[0];
+   private int arenaSegment;
+   private int arenaPosition;
+
+   private long allocatedBytes;
+
+   private byte[] writeBuffer;
+
+   // ------------------------------------------------------------------------
+   // Accessor/Mutators
+   //
+
+   /**
+    * @return the number of distinct entries in the table.
+    */
+   public long size() {
+      return size;
+   }
+
+   public boolean isEmpty() {
+      return size == 0;
+   }
+
+   /**
+    * @return the number of slots in the table.
+    */
+   public long getCapacity() {
+      return capacity;
+   }
+
+   /**
+    * @return the number of bytes allocated for the slots, the bitmap and
+    *         the records of the table.
+    */
+   public long getAllocatedBytes() {
+      return allocatedBytes;
+   }
+
+   public boolean isKeepRecords() {
+      return keepRecords;
+   }
+
+   public long getCount(long slot) {
+      return segment(slot).getLong(position(slot) + hashWidth);
+   }
+
+   /**
+    * @return the offset of the record of the entry in the slot, or -1 if
+    *         the table does not keep records.
+    */
+   public long getRecordOffset(long slot) {
+      if (!keepRecords) {
+         return -1L;
+      }
+      return segment(slot).getLong(position(slot) + hashWidth + COUNT_BYTES);
+   }
+
+   /**
+    * @return the length of the record of the entry in the slot.
+    */
+   public int getRecordLength(long slot) {
+      long offset = getRecordOffset(slot);
+      return arena[(int) (offset >>> arenaShift)].getInt(arenaPosition(offset));
+   }
+
+   /**
+    * Copies the hash of the entry in the slot into dest, starting at
+    * destOffset.
+    */
+   public void copyHash(long slot, byte[] dest, int destOffset) {
+      ByteBuffer segment = segment(slot);
+      int position = position(slot);
+      for (int i = 0; i < hashWidth; i++) {
+         dest[destOffset + i] = segment.get(position + i);
+      }
+   }
+
+   /**
+    * Copies the record of the entry in the slot into dest, starting at
+    * destOffset, which must have room for {@link #getRecordLength(long)}
+    * bytes.
+    *
+    * @return the length of the record
+    */
+   public int copyRecord(long slot, byte[] dest, int destOffset) {
+      long offset = getRecordOffset(slot);
+      int segment = (int) (offset >>> arenaShift);
+      int position = arenaPosition(offset);
+      int length = arena[segment].getInt(position);
+      ByteBuffer view = arenaViews[segment];
+      view.position(position + RECORD_LENGTH_BYTES);
+      view.get(dest, destOffset, length);
+      return length;
+   }
+
+   /**
+    * Writes the record of the entry in the slot to the stream.
+    */
+   public void writeRecord(long slot, OutputStream out) throws IOException {
+      int length = getRecordLength(slot);
+      if (null == writeBuffer || writeBuffer.length < length) {
+         writeBuffer = new byte[Math.max(length, 1024)];
+      }
+      copyRecord(slot, writeBuffer, 0);
+      out.write(writeBuffer, 0, length);
+   }
+
+   // ------------------------------------------------------------------------
+   // Constructor
+   //
+
+   /**
+    * @param hashWidth
+    *        number of bytes in each hash, which must be a positive multiple
+    *        of 8
+    * @param keepRecords
+    *        whether the record of each entry is kept along with its hash
+    * @param budgetBytes
+    *        maximum number of bytes to be allocated by the table
+    * @throws IllegalArgumentException
+    *        if the hash width is not a positive multiple of 8 or the budget
+    *        cannot hold the initial allocation of the table
+    */
+   public OffHeapCountTable(int hashWidth, boolean keepRecords, long budgetBytes) {
+      this(hashWidth, keepRecords, budgetBytes,
+            DEFAULT_SEGMENT_SLOTS, DEFAULT_ARENA_SEGMENT_BYTES);
+   }
+
+   OffHeapCountTable(int hashWidth, boolean keepRecords, long budgetBytes,
+         int segmentSlots, int arenaSegmentBytes)
+   {
+      if (hashWidth <= 0 || hashWidth % 8 != 0) {
+         throw new IllegalArgumentException("Hash width must be a positive multiple of 8 " +
+               "bytes, hashWidth = " + hashWidth);
+      }
+      this.hashWidth    = hashWidth;
+      this.keepRecords  = keepRecords;
+      this.budgetBytes  = budgetBytes;
+      this.slotBytes    = hashWidth + COUNT_BYTES + (keepRecords ? RECORD_OFFSET_BYTES : 0);
+      this.segmentShift = Integer.numberOfTrailingZeros(segmentSlots);
+      this.arenaShift   = Integer.numberOfTrailingZeros(arenaSegmentBytes);
+
+      long required = getSlotBytes(INITIAL_CAPACITY) + (keepRecords ? INITIAL_ARENA_BYTES : 0);
+      if (required > budgetBytes) {
+         throw new IllegalArgumentException("Memory budget of " + budgetBytes +
+               " bytes is smaller than the initial table of " + required + " bytes");
+      }
+      allocateSlots(INITIAL_CAPACITY);
+      if (keepRecords) {
+         addArenaSegment(Math.min(INITIAL_ARENA_BYTES, arenaSegmentBytes));
+      }
+   }
+
+   // ------------------------------------------------------------------------
+   // Member Methods
+   //
+
+   /**
+    * Adds the count to the entry for the hash, creating the entry if it
+    * does not exist, in a table that does not keep records.
+    *
+    * @return false if a new entry could not be created without exceeding
+    *         the memory budget, in which case no entry is added
+    */
+   public boolean add(byte[] hash, int hashOffset, long count) {
+      return add(hash, hashOffset, null, 0, 0, count);
+   }
+
+   /**
+    * Adds the count to the entry for the hash and record, creating the
+    * entry if it does not exist.
+    *
+    * @param hash
+    *        array holding the hash, of which hash width bytes are used
+    * @param hashOffset
+    *        offset of the first byte of the hash
+    * @param record
+    *        array holding the record, which is ignored if the table does not
+    *        keep records
+    * @param recordOffset
+    *        offset of the first byte of the record
+    * @param recordLength
+    *        number of bytes of record
+    * @param count
+    *        the signed count to be added
+    * @return false if a new entry could not be created without exceeding
+    *         the memory budget, in which case no entry is added
+    */
+   public boolean add(byte[] hash, int hashOffset, byte[] record, int recordOffset,
+         int recordLength, long count)
+   {
+      long slot = find(hash, hashOffset, record, recordOffset, recordLength);
+      if (isUsed(slot)) {
+         ByteBuffer segment = segment(slot);
+         int position = position(slot) + hashWidth;
+         segment.putLong(position, segment.getLong(position) + count);
+         return true;
+      }
+
+      if ((size + 1) * 4 > capacity * 3) {
+         if (!grow()) {
+            return false;
+         }
+         slot = find(hash, hashOffset, record, recordOffset, recordLength);
+      }
+      long offset = 0L;
+      if (keepRecords) {
+         offset = appendRecord(record, recordOffset, recordLength);
+         if (offset < 0) {
+            return false;
+         }
+      }
+
+      ByteBuffer segment = segment(slot);
+      int position = position(slot);
+      for (int i = 0; i < hashWidth; i += 8) {
+         segment.putLong(position + i, readLong(hash, hashOffset + i));
+      }
+      segment.putLong(position + hashWidth, count);
+      if (keepRecords) {
+         segment.putLong(position + hashWidth + COUNT_BYTES, offset);
+      }
+      used[(int) (slot >>> 6)] |= 1L << slot;
+      size++;
+      return true;
+   }
+
+   /**
+    * Returns the first slot at or after the given slot that holds an entry,
+    * or -1 if there is none, such that the entries are iterated over with
+    * {@code for (long slot = table.nextEntry(0); slot >= 0;
+    * slot = table.nextEntry(slot + 1))}.
+    */
+   public long nextEntry(long slot) {
+      if (slot >= capacity) {
+         return -1L;
+      }
+      int word = (int) (slot >>> 6);
+      long bits = used[word] & (-1L << slot);
+      while (bits == 0) {
+         if (++word == used.length) {
+            return -1L;
+         }
+         bits = used[word];
+      }
+      return ((long) word << 6) + Long.numberOfTrailingZeros(bits);
+   }
+
+   /**
+    * Removes every entry, retaining the memory allocated so far.
+    */
+   public void clear() {
+      Arrays.fill(used, 0L);
+      size = 0;
+      arenaSegment = 0;
+      arenaPosition = 0;
+   }
+
+   /**
+    * Returns the slot holding the entry for the hash and record, or the
+    * empty slot at which it would be inserted.
+    */
+   private long find(byte[] hash, int hashOffset, byte[] record, int recordOffset,
+         int recordLength)
+   {
+      long mask = capacity - 1;
+      long slot = readLong(hash, hashOffset) >>> (64 - bits);
+      while (isUsed(slot) && !matches(slot, hash, hashOffset, record, recordOffset, recordLength)) {
+         slot = (slot + 1) & mask;
+      }
+      return slot;
+   }
+
+   private boolean matches(long slot, byte[] hash, int hashOffset, byte[] record,
+         int recordOffset, int recordLength)
+   {
+      ByteBuffer segment = segment(slot);
+      int position = position(slot);
+      for (int i = 0; i < hashWidth; i += 8) {
+         if (segment.getLong(position + i) != readLong(hash, hashOffset + i)) {
+            return false;
+         }
+      }
+      if (!keepRecords) {
+         return true;
+      }
+
+      long offset = segment.getLong(position + hashWidth + COUNT_BYTES);
+      ByteBuffer recordSegment = arena[(int) (offset >>> arenaShift)];
+      int recordPosition = arenaPosition(offset);
+      if (recordSegment.getInt(recordPosition) != recordLength) {
+         return false;
+      }
+      recordPosition += RECORD_LENGTH_BYTES;
+      int i = 0;
+      for (; i + 8 <= recordLength; i += 8) {
+         if (recordSegment.getLong(recordPosition + i) != readLong(record, recordOffset + i)) {
+            return false;
+         }
+      }
+      for (; i < recordLength; i++) {
+         if (recordSegment.get(recordPosition + i) != record[recordOffset + i]) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Doubles the number of slots and rehashes the entries into them.
+    *
+    * @return false if doing so would exceed the memory budget
+    */
+   private boolean grow() {
+      long newCapacity = capacity * 2;
+      long required = allocatedBytes - getSlotBytes(capacity) + getSlotBytes(newCapacity);
+      if (required > budgetBytes) {
+         return false;
+      }
+
+      ByteBuffer[] oldSegments = segments;
+      long[] oldUsed = used;
+      long oldCapacity = capacity;
+      allocatedBytes -= getSlotBytes(oldCapacity);
+      allocateSlots(newCapacity);
+
+      long mask = capacity - 1;
+      for (long oldSlot = 0; oldSlot < oldCapacity; oldSlot++) {
+         if ((oldUsed[(int) (oldSlot >>> 6)] & (1L << oldSlot)) == 0) {
+            continue;
+         }
+         ByteBuffer oldSegment = oldSegments[(int) (oldSlot >>> segmentShift)];
+         int oldPosition = position(oldSlot);
+         long slot = oldSegment.getLong(oldPosition) >>> (64 - bits);
+         while (isUsed(slot)) {
+            slot = (slot + 1) & mask;
+         }
+         ByteBuffer segment = segment(slot);
+         int position = position(slot);
+         for (int i = 0; i < slotBytes; i += 8) {
+            segment.putLong(position + i, oldSegment.getLong(oldPosition + i));
+         }
+         used[(int) (slot >>> 6)] |= 1L << slot;
+      }
+      return true;
+   }
+
+   private void allocateSlots(long newCapacity) {
+      long segmentSlots = 1L << segmentShift;
+      int segmentCount = (int) Math.max(1L, newCapacity >>> segmentShift);
+      segments = new ByteBuffer[segmentCount];
+      for (int i = 0; i < segmentCount; i++) {
+         segments[i] = ByteBuffer.allocateDirect(
+               (int) (Math.min(segmentSlots, newCapacity) * slotBytes));
+      }
+      used = new long[(int) (newCapacity >>> 6)];
+      capacity = newCapacity;
+      bits = 63 - Long.numberOfLeadingZeros(newCapacity);
+      allocatedBytes += getSlotBytes(newCapacity);
+   }
+
+   private long getSlotBytes(long slots) {
+      return slots * slotBytes + slots / 8;
+   }
+
+   /**
+    * Appends the record, prefixed with its length, to the arena.
+    *
+    * @return the offset of the record, or -1 if it could not be appended
+    *         without exceeding the memory budget or the length of a segment
+    */
+   private long appendRecord(byte[] record, int recordOffset, int recordLength) {
+      int required = RECORD_LENGTH_BYTES + recordLength;
+      int maxSegmentBytes = 1 << arenaShift;
+      if (required > maxSegmentBytes) {
+         return -1L;
+      }
+      ByteBuffer segment = arena[arenaSegment];
+      if (arenaPosition + required > segment.capacity()) {
+         if (arena.length == 1 && segment.capacity() < maxSegmentBytes) {
+            // The first segment grows until it reaches the segment length
+            long newLength = segment.capacity();
+            while (newLength < arenaPosition + required) {
+               newLength *= 2;
+            }
+            newLength = Math.min(newLength, maxSegmentBytes);
+            if (newLength >= arenaPosition + required) {
+               if (allocatedBytes + newLength - segment.capacity() > budgetBytes) {
+                  return -1L;
+               }
+               ByteBuffer grown = ByteBuffer.allocateDirect((int) newLength);
+               ByteBuffer source = segment.duplicate();
+               source.position(0);
+               source.limit(arenaPosition);
+               grown.put(source);
+               allocatedBytes += newLength - segment.capacity();
+               arena[0] = grown;
+               arenaViews[0] = grown.duplicate();
+               segment = grown;
+            }
+         }
+         if (arenaPosition + required > segment.capacity()) {
+            if (arenaSegment + 1 == arena.length) {
+               if (allocatedBytes + maxSegmentBytes > budgetBytes) {
+                  return -1L;
+               }
+               addArenaSegment(maxSegmentBytes);
+            }
+            arenaSegment++;
+            arenaPosition = 0;
+            segment = arena[arenaSegment];
+         }
+      }
+
+      long offset = ((long) arenaSegment << arenaShift) | arenaPosition;
+      segment.putInt(arenaPosition, recordLength);
+      ByteBuffer view = arenaViews[arenaSegment];
+      view.position(arenaPosition + RECORD_LENGTH_BYTES);
+      view.put(record, recordOffset, recordLength);
+      arenaPosition += required;
+      return offset;
+   }
+
+   private void addArenaSegment(int length) {
+      ByteBuffer segment = ByteBuffer.allocateDirect(length);
+      arena = Arrays.copyOf(arena, arena.length + 1);
+      arenaViews = Arrays.copyOf(arenaViews, arenaViews.length + 1);
+      arena[arena.length - 1] = segment;
+      arenaViews[arenaViews.length - 1] = segment.duplicate();
+      allocatedBytes += length;
+   }
+
+   private boolean isUsed(long slot) {
+      return (used[(int) (slot >>> 6)] & (1L << slot)) != 0;
+   }
+
+   private ByteBuffer segment(long slot) {
+      return segments[(int) (slot >>> segmentShift)];
+   }
+
+   private int position(long slot) {
+      return (int) (slot & ((1L << segmentShift) - 1)) * slotBytes;
+   }
+
+   private int arenaPosition(long offset) {
+      return (int) (offset & ((1L << arenaShift) - 1));
+   }
+
+   /**
+    * Reads 8 bytes from the array as a big-endian long, as
+    * {@link ByteBuffer#getLong(int)} does from the buffers.
+    */
+   private static long readLong(byte[] bytes, int offset) {
+      return ((long) bytes[offset]            << 56) |
+             ((long) (bytes[offset + 1] & 0xff) << 48) |
+             ((long) (bytes[offset + 2] & 0xff) << 40) |
+             ((long) (bytes[offset + 3] & 0xff) << 32) |
+             ((long) (bytes[offset + 4] & 0xff) << 24) |
+             ((long) (bytes[offset + 5] & 0xff) << 16) |
+             ((long) (bytes[offset + 6] & 0xff) << 8)  |
+             ((long) (bytes[offset + 7] & 0xff));
+   }
+}
@@ -0,0 +1,112 @@
+package com.ryanchapin.ddiff;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.BinaryComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * Map output key used for the batch mode, see
+ * {@link DistributedDiff#OPTION_KEY_MANIFEST_LONG}, holding the hash of a
+ * record along with the index of the pair of the {@link BatchManifest} that
+ * the record was read for.
+ * <p>
+ * The serialized form is that of {@link HashKeyWritable}, followed by the
+ * pair index as a fixed four byte int.  The registered {@link Comparator}
+ * sorts, and so groups, keys by hash and then pair, so that the records of
+ * different pairs are never counted against each other.
+ * {@link #getBytes()} returns only the hash, so keys are partitioned by
+ * {@link HashKeyPartitioner} on the hash alone and the records of every
+ * pair are spread across all of the reducers.
+ *
+ * @since  1.3.0
+ */
+public class PairHashKeyWritable extends HashKeyWritable {
+
+   private int pair;
+
+   static {
+      WritableComparator.define(PairHashKeyWritable.class, new Comparator());
+   }
+
+   // ------------------------------------------------------------------------
+   // Accessor/Mutators
+   //
+
+   public int getPair() {
+      return pair;
+   }
+
+   public void setPair(int pair) {
+      this.pair = pair;
+   }
+
+   // ------------------------------------------------------------------------
+   // Member Methods
+   //
+
+   @Override
+   public void write(DataOutput out) throws IOException {
+      super.write(out);
+      out.writeInt(pair);
+   }
+
+   @Override
+   public void readFields(DataInput in) throws IOException {
+      super.readFields(in);
+      pair = in.readInt();
+   }
+
+   @Override
+   public int compareTo(BinaryComparable other) {
+      int retVal = super.compareTo(other);
+      if (retVal != 0 || !(other instanceof PairHashKeyWritable)) {
+         return retVal;
+      }
+      return Integer.compare(pair, ((PairHashKeyWritable) other).getPair());
+   }
+
+   @Override
+   public boolean equals(Object o) {
+      if (!super.equals(o)) {
+         return false;
+      }
+      if (o instanceof PairHashKeyWritable) {
+         return pair == ((PairHashKeyWritable) o).getPair();
+      }
+      return true;
+   }
+
+   @Override
+   public int hashCode() {
+      return super.hashCode();
+   }
+
+   @Override
+   public String toString() {
+      return super.toString() + ":" + pair;
+   }
+
+   /**
+    * Compares serialized {@link PairHashKeyWritable} instances by hash and
+    * pair index.
+    */
+   public static class Comparator extends WritableComparator {
+
+      public Comparator() {
+         super(PairHashKeyWritable.class);
+      }
+
+      @Override
+      public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+         int h1 = b1[s1] & 0xFF;
+         int h2 = b2[s2] & 0xFF;
+         int retVal = compareBytes(b1, s1 + 1, h1, b2, s2 + 1, h2);
+         if (retVal != 0) { return retVal; }
+
+         return Integer.compare(readInt(b1, s1 + 1 + h1), readInt(b2, s2 + 1 + h2));
+      }
+   }
+}
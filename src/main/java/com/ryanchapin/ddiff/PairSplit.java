@@ -0,0 +1,61 @@
+package com.ryanchapin.ddiff;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/**
+ * {@link SourceSplit} of one of the inputs of a pair of the
+ * {@link BatchManifest}, also carrying the index of the pair, so that the
+ * {@link DdiffMapper} reading it can tag its records with both.
+ *
+ * @since  1.3.0
+ */
+public class PairSplit extends SourceSplit {
+
+   private int pair;
+
+   // ------------------------------------------------------------------------
+   // Accessor/Mutators
+   //
+
+   public int getPair() {
+      return pair;
+   }
+
+   // ------------------------------------------------------------------------
+   // Constructor
+   //
+
+   public PairSplit() {
+      super();
+   }
+
+   public PairSplit(FileSplit split, int pair, Source source) throws IOException {
+      super(split, source.getId());
+      this.pair = pair;
+   }
+
+   // ------------------------------------------------------------------------
+   // Member Methods
+   //
+
+   @Override
+   public void write(DataOutput out) throws IOException {
+      super.write(out);
+      out.writeInt(pair);
+   }
+
+   @Override
+   public void readFields(DataInput in) throws IOException {
+      super.readFields(in);
+      pair = in.readInt();
+   }
+
+   @Override
+   public String toString() {
+      return super.toString() + ", pair = " + pair;
+   }
+}
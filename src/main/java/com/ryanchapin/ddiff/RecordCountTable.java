@@ -0,0 +1,290 @@
+package com.ryanchapin.ddiff;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * Memory-bounded table of the signed count of each distinct record hash and
+ * record, used by the {@link DdiffMapper} to aggregate duplicate records
+ * before they are written to the sort buffer.
+ * <p>
+ * The table is an open-addressing hash table with linear probing, built
+ * entirely from primitive arrays.  The slot array holds indexes into
+ * parallel arrays of entries, which hold the count of each entry along with
+ * the offset and length of its record in a shared byte arena, and the hash
+ * bytes of every entry are held in a single array.  No objects are
+ * allocated per record, and as the hashes are already uniformly distributed
+ * their leading bytes are used directly as the slot index.
+ * <p>
+ * Entries are keyed by both hash and record, so distinct records that share
+ * a hash are never merged.  The arrays grow as needed until growing them
+ * would exceed the memory budget, at which point
+ * {@link #add(byte[], byte[], int, long)} returns false and the caller
+ * is expected to emit the entries, see {@link #size()}, and {@link #clear()}
+ * the table, which retains the arrays already allocated.
+ *
+ * @since  1.3.0
+ */
+public class RecordCountTable {
+
+   private static final int INITIAL_CAPACITY = 1024;
+
+   /**
+    * Bytes allocated for each entry in addition to its hash: the count, the
+    * record offset and length, and two slots at the maximum load factor.
+    */
+   private static final int ENTRY_BYTES = 8 + 4 + 4 + 2 * 4;
+
+   private static final int INITIAL_ARENA_BYTES = 64 * 1024;
+
+   private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+   private final int hashWidth;
+   private final long budgetBytes;
+
+   /**
+    * Index plus one of the entry in each slot, or 0 for an empty slot.
+    */
+   private int[] slots;
+
+   private byte[] hashes;
+   private long[] counts;
+   private int[] offsets;
+   private int[] lengths;
+   private int size;
+
+   private byte[] arena;
+   private int arenaLength;
+
+   // ------------------------------------------------------------------------
+   // Accessor/Mutators
+   //
+
+   /**
+    * @return the number of distinct entries in the table.
+    */
+   public int size() {
+      return size;
+   }
+
+   public boolean isEmpty() {
+      return size == 0;
+   }
+
+   /**
+    * @return the number of bytes allocated by the arrays of the table.
+    */
+   public long getAllocatedBytes() {
+      return (long) counts.length * (ENTRY_BYTES + hashWidth) + arena.length;
+   }
+
+   public long getCount(int entry) {
+      return counts[entry];
+   }
+
+   /**
+    * Sets the key to the hash of the given entry.
+    */
+   public void copyHash(int entry, HashKeyWritable key) {
+      key.set(hashes, entry * hashWidth, hashWidth);
+   }
+
+   /**
+    * Sets the Text to the record of the given entry.
+    */
+   public void copyRecord(int entry, Text record) {
+      record.set(arena, offsets[entry], lengths[entry]);
+   }
+
+   /**
+    * Writes the record of the given entry to the stream.
+    */
+   public void writeRecord(int entry, OutputStream out) throws IOException {
+      out.write(arena, offsets[entry], lengths[entry]);
+   }
+
+   // ------------------------------------------------------------------------
+   // Constructor
+   //
+
+   /**
+    * @param hashWidth
+    *        number of bytes in each hash, which must be at least 4
+    * @param budgetBytes
+    *        maximum number of bytes to be allocated by the table
+    * @throws IllegalArgumentException
+    *        if the hash width is less than 4 bytes or the budget cannot hold
+    *        the initial allocation of the table
+    */
+   public RecordCountTable(int hashWidth, long budgetBytes) {
+      if (hashWidth < 4) {
+         throw new IllegalArgumentException("Hash width must be at least 4 bytes, hashWidth = " +
+               hashWidth);
+      }
+      this.hashWidth   = hashWidth;
+      this.budgetBytes = budgetBytes;
+
+      slots   = new int[INITIAL_CAPACITY * 2];
+      hashes  = new byte[INITIAL_CAPACITY * hashWidth];
+      counts  = new long[INITIAL_CAPACITY];
+      offsets = new int[INITIAL_CAPACITY];
+      lengths = new int[INITIAL_CAPACITY];
+      arena   = new byte[INITIAL_ARENA_BYTES];
+
+      if (getAllocatedBytes() > budgetBytes) {
+         throw new IllegalArgumentException("Memory budget of " + budgetBytes +
+               " bytes is smaller than the initial table of " + getAllocatedBytes() + " bytes");
+      }
+   }
+
+   // ------------------------------------------------------------------------
+   // Member Methods
+   //
+
+   /**
+    * Adds the count to the entry for the hash and record, creating the entry
+    * if it does not exist.
+    *
+    * @param hash
+    *        array holding the hash, starting at index 0, of which only the
+    *        first hash width bytes are used
+    * @param record
+    *        array holding the record
+    * @param recordLength
+    *        number of bytes of record, starting at index 0
+    * @param count
+    *        the signed count to be added
+    * @return false if a new entry could not be created without exceeding
+    *         the memory budget, in which case the table is unchanged
+    */
+   public boolean add(byte[] hash, byte[] record, int recordLength, long count) {
+      int slot = find(hash, record, recordLength);
+      if (slots[slot] != 0) {
+         counts[slots[slot] - 1] += count;
+         return true;
+      }
+
+      int slotCount = slots.length;
+      if (!ensureCapacity(recordLength)) {
+         return false;
+      }
+      if (slotCount != slots.length) {
+         // The slots were rehashed, so probe for the new empty slot
+         slot = find(hash, record, recordLength);
+      }
+
+      System.arraycopy(hash, 0, hashes, size * hashWidth, hashWidth);
+      System.arraycopy(record, 0, arena, arenaLength, recordLength);
+      counts[size]  = count;
+      offsets[size] = arenaLength;
+      lengths[size] = recordLength;
+      arenaLength  += recordLength;
+      slots[slot]   = ++size;
+      return true;
+   }
+
+   /**
+    * Adds the count to the entry for the hash and record only if the entry
+    * exists.
+    *
+    * @return true if the entry exists
+    */
+   public boolean addIfPresent(byte[] hash, byte[] record, int recordLength, long count) {
+      int slot = find(hash, record, recordLength);
+      if (slots[slot] == 0) {
+         return false;
+      }
+      counts[slots[slot] - 1] += count;
+      return true;
+   }
+
+   /**
+    * Returns the slot holding the entry for the hash and record, or the
+    * empty slot at which it would be inserted.
+    */
+   private int find(byte[] hash, byte[] record, int recordLength) {
+      int mask = slots.length - 1;
+      int slot = WritableComparator.readInt(hash, 0) & mask;
+      while (slots[slot] != 0 && !matches(slots[slot] - 1, hash, record, recordLength)) {
+         slot = (slot + 1) & mask;
+      }
+      return slot;
+   }
+
+   private boolean matches(int entry, byte[] hash, byte[] record, int recordLength) {
+      if (lengths[entry] != recordLength) {
+         return false;
+      }
+      int hashOffset = entry * hashWidth;
+      for (int i = 0; i < hashWidth; i++) {
+         if (hashes[hashOffset + i] != hash[i]) {
+            return false;
+         }
+      }
+      return WritableComparator.compareBytes(
+            arena, offsets[entry], recordLength, record, 0, recordLength) == 0;
+   }
+
+   /**
+    * Grows the entry arrays and the arena, if required, to hold one more
+    * entry with a record of the given length.
+    *
+    * @return false if doing so would exceed the memory budget
+    */
+   private boolean ensureCapacity(int recordLength) {
+      long arenaRequired = (long) arenaLength + recordLength;
+      long newArenaLength = arena.length;
+      while (newArenaLength < arenaRequired) {
+         newArenaLength *= 2;
+      }
+      if (newArenaLength > MAX_ARRAY_LENGTH) {
+         if (arenaRequired > MAX_ARRAY_LENGTH) {
+            return false;
+         }
+         newArenaLength = MAX_ARRAY_LENGTH;
+      }
+      int newCapacity = (size < counts.length) ? counts.length : counts.length * 2;
+
+      long required = (long) newCapacity * (ENTRY_BYTES + hashWidth) + newArenaLength;
+      if (required > budgetBytes) {
+         return false;
+      }
+
+      if (newArenaLength != arena.length) {
+         arena = Arrays.copyOf(arena, (int) newArenaLength);
+      }
+      if (newCapacity != counts.length) {
+         hashes  = Arrays.copyOf(hashes, newCapacity * hashWidth);
+         counts  = Arrays.copyOf(counts, newCapacity);
+         offsets = Arrays.copyOf(offsets, newCapacity);
+         lengths = Arrays.copyOf(lengths, newCapacity);
+         rehash(newCapacity * 2);
+      }
+      return true;
+   }
+
+   private void rehash(int slotCount) {
+      slots = new int[slotCount];
+      int mask = slotCount - 1;
+      for (int entry = 0; entry < size; entry++) {
+         int slot = WritableComparator.readInt(hashes, entry * hashWidth) & mask;
+         while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+         }
+         slots[slot] = entry + 1;
+      }
+   }
+
+   /**
+    * Removes every entry, retaining the arrays allocated so far.
+    */
+   public void clear() {
+      Arrays.fill(slots, 0);
+      size = 0;
+      arenaLength = 0;
+   }
+}
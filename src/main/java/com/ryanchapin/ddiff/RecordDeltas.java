@@ -0,0 +1,154 @@
+package com.ryanchapin.ddiff;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * Accumulates the net signed count, see
+ * {@link TaggedTextWithCountWritableComparable#getCount()}, of each distinct
+ * record seen for a single key.
+ * <p>
+ * The first record for a key is copied into a reused Text and its count
+ * summed into a primitive, so that the common case of a single distinct
+ * record per key requires no per-key allocation.  A map is only allocated
+ * when records are being compared and a second, distinct, record is seen
+ * for the same key; that is, on a hash collision.
+ * <p>
+ * When a reference is diffed against several test sets, the counts are
+ * kept in one column per source id, see {@link Source#getTestSetId(int)},
+ * so that each test set can be compared with the same reference counts.
+ * Otherwise there is a single column holding the net count.
+ *
+ * @since  1.3.0
+ */
+public class RecordDeltas {
+
+   private final Text record = new Text();
+   private final long[] delta;
+   private boolean empty = true;
+
+   /**
+    * Net counts of any records, other than {@link #record}, seen for the
+    * key, or null if none have been seen since this instance was created.
+    */
+   private Map<Text, long[]> collisions;
+
+   // ------------------------------------------------------------------------
+   // Constructor
+   //
+
+   public RecordDeltas() {
+      this(1);
+   }
+
+   /**
+    * @param columns
+    *        the number of columns in which counts are kept separately
+    */
+   public RecordDeltas(int columns) {
+      delta = new long[columns];
+   }
+
+   // ------------------------------------------------------------------------
+   // Accessor/Mutators
+   //
+
+   public boolean isEmpty() {
+      return empty;
+   }
+
+   /**
+    * @return the first record added since the last {@link #reset()}
+    */
+   public Text getRecord() {
+      return record;
+   }
+
+   /**
+    * @return the net count of {@link #getRecord()}, or of all of the records
+    *         added, if the records were not compared.
+    */
+   public long getDelta() {
+      return delta[0];
+   }
+
+   /**
+    * @return the net counts of {@link #getRecord()} in each column.
+    */
+   public long[] getDeltas() {
+      return delta;
+   }
+
+   /**
+    * @return the net counts in each column of each of the records that
+    *         differ from {@link #getRecord()}, which is empty unless records
+    *         were compared.
+    */
+   public Map<Text, long[]> getCollisions() {
+      if (null == collisions) {
+         return Collections.emptyMap();
+      }
+      return collisions;
+   }
+
+   // ------------------------------------------------------------------------
+   // Member Methods
+   //
+
+   public void reset() {
+      empty = true;
+      Arrays.fill(delta, 0L);
+      if (null != collisions) {
+         collisions.clear();
+      }
+   }
+
+   /**
+    * Adds the count for the record.
+    *
+    * @param value
+    *        the record, which is copied if it is retained, as the framework
+    *        reuses the instance
+    * @param count
+    *        the signed count of the record
+    * @param compareRecords
+    *        true if distinct records are to be accumulated separately, false
+    *        if every record for the key is assumed to be the same
+    */
+   public void add(Text value, long count, boolean compareRecords) {
+      add(value, 0, count, compareRecords);
+   }
+
+   /**
+    * Adds the count for the record to the given column.
+    *
+    * @see #add(Text, long, boolean)
+    */
+   public void add(Text value, int column, long count, boolean compareRecords) {
+      if (empty) {
+         record.set(value);
+         delta[column] = count;
+         empty = false;
+         return;
+      }
+
+      if (!compareRecords || record.equals(value)) {
+         delta[column] += count;
+         return;
+      }
+
+      if (null == collisions) {
+         collisions = new HashMap<Text, long[]>();
+      }
+      long[] collisionDelta = collisions.get(value);
+      if (null == collisionDelta) {
+         collisionDelta = new long[delta.length];
+         collisions.put(new Text(value), collisionDelta);
+      }
+      collisionDelta[column] += count;
+   }
+}
@@ -0,0 +1,87 @@
+package com.ryanchapin.ddiff;
+
+/**
+ * Algorithms that can be used to hash input records, selected with the
+ * {@link DistributedDiff#OPTION_KEY_HASH_ALGO_LONG} command line option.
+ * <p>
+ * The digest algorithms retain the names used by earlier versions of the
+ * command line interface.  The non-cryptographic algorithms are much
+ * cheaper to compute and are appropriate when the input is not adversarial,
+ * optionally combined with the collision-safe reduce mode; see
+ * {@link DistributedDiff#OPTION_KEY_COLLISION_SAFE_LONG}.
+ *
+ * @since  1.3.0
+ */
+public enum RecordHashAlgorithm {
+   MD5SUM("MD5"),
+   SHA1SUM("SHA-1"),
+   SHA256SUM("SHA-256"),
+   SHA384SUM("SHA-384"),
+   SHA512SUM("SHA-512"),
+   MURMUR3_128(null),
+   XXHASH64(null),
+   XXHASH128(null);
+
+   /**
+    * Key width, in bytes, for hashes shorter than 32 bytes.
+    */
+   public static final int KEY_WIDTH_128 = 16;
+
+   /**
+    * Key width, in bytes, for hashes of 32 bytes or longer.
+    */
+   public static final int KEY_WIDTH_256 = 32;
+
+   private final String digestName;
+
+   private RecordHashAlgorithm(String digestName) {
+      this.digestName = digestName;
+   }
+
+   /**
+    * @return the standard {@link java.security.MessageDigest} algorithm
+    *         name, or null for the non-cryptographic algorithms.
+    */
+   public String getDigestName() {
+      return digestName;
+   }
+
+   public boolean isCryptographic() {
+      return digestName != null;
+   }
+
+   /**
+    * Returns the number of leading bytes of a hash of the given length by
+    * which records are keyed, both in the shuffle, see
+    * {@link HashKeyWritable}, and in the in-memory count tables.
+    *
+    * @param hashLength
+    *        the number of bytes in the hash
+    * @return {@link #KEY_WIDTH_256} for hashes of 32 bytes or longer, else
+    *         {@link #KEY_WIDTH_128}, or the hash length itself if it is
+    *         shorter than {@link #KEY_WIDTH_128}.
+    */
+   public static int keyWidth(int hashLength) {
+      if (hashLength >= KEY_WIDTH_256) {
+         return KEY_WIDTH_256;
+      }
+      return Math.min(hashLength, KEY_WIDTH_128);
+   }
+
+   /**
+    * @return a new {@link RecordHasher} instance for this algorithm, which
+    *         is to be reused for every record hashed by the caller.
+    */
+   public RecordHasher newHasher() {
+      switch (this) {
+         case MURMUR3_128:
+            return new Murmur3RecordHasher();
+         case XXHASH64:
+            return new XxHash64RecordHasher();
+         case XXHASH128:
+            return new XxHash128RecordHasher();
+         default:
+            return new DigestRecordHasher(digestName);
+      }
+   }
+}
@@ -0,0 +1,62 @@
+package com.ryanchapin.ddiff;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Hashes raw record bytes into a caller supplied output buffer.
+ * <p>
+ * Implementations are stateful and are not thread safe; each map task, or
+ * each thread, should obtain its own instance from
+ * {@link RecordHashAlgorithm#newHasher()} and reuse it for every record.
+ * Implementations must not allocate per invocation of
+ * {@link #hash(byte[], int, int, byte[])} or
+ * {@link #hash(ByteBuffer, int, int, byte[])}, and must produce the same
+ * hash from either.
+ *
+ * @since  1.3.0
+ */
+public interface RecordHasher {
+
+   /**
+    * @return the number of bytes written to the output buffer by each call
+    *         to {@link #hash(byte[], int, int, byte[])}
+    */
+   public int getHashLength();
+
+   /**
+    * Hashes length bytes of the input starting at offset and writes
+    * {@link #getHashLength()} bytes into out, starting at index 0.
+    *
+    * @param bytes
+    *        array containing the record bytes
+    * @param offset
+    *        offset of the first record byte
+    * @param length
+    *        number of record bytes
+    * @param out
+    *        buffer of at least {@link #getHashLength()} bytes into which the
+    *        hash is written
+    * @return the number of bytes written to out
+    */
+   public int hash(byte[] bytes, int offset, int length, byte[] out);
+
+   /**
+    * Hashes length bytes of the buffer starting at the absolute index
+    * offset, such as a record of a memory mapped file, without copying
+    * them, and writes {@link #getHashLength()} bytes into out, starting at
+    * index 0.  The position, limit and byte order of the buffer are left
+    * as they were.
+    *
+    * @param buffer
+    *        buffer containing the record bytes
+    * @param offset
+    *        index of the first record byte
+    * @param length
+    *        number of record bytes
+    * @param out
+    *        buffer of at least {@link #getHashLength()} bytes into which the
+    *        hash is written
+    * @return the number of bytes written to out
+    */
+   public int hash(ByteBuffer buffer, int offset, int length, byte[] out);
+}
@@ -0,0 +1,164 @@
+package com.ryanchapin.ddiff;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Description of a reference index written by the index build, see
+ * {@link DistributedDiff#OPTION_KEY_BUILD_INDEX_LONG}, and read back by a
+ * diff run against it, see
+ * {@link DistributedDiff#OPTION_KEY_REFERENCE_INDEX_LONG}.
+ * <p>
+ * An index is a directory holding one SequenceFile per partition, named as
+ * the reducer output files, of {@link HashKeyWritable} hashes and
+ * {@link TaggedTextWithCountWritableComparable} values carrying each
+ * distinct reference record and its count.  Partition {@code p} of
+ * {@code n} holds the hashes of range {@code p} of the
+ * {@link HashKeyPartitioner}, sorted as in the shuffle, so that reducer
+ * {@code p} of a diff with {@code n} reducers can merge it with the test
+ * records that it is sent.  The hash algorithm, string encoding and number
+ * of partitions needed to do so are written to a metadata file in the same
+ * directory.
+ *
+ * @since  1.3.0
+ */
+public class ReferenceIndex {
+
+   /**
+    * Name of the metadata file in the index directory, which is hidden
+    * from the usual input globs.
+    */
+   public static final String METADATA_FILE_NAME = "_ddiff-index";
+
+   private static final String HASH_ALGO_PROPERTY        = "hash.algorithm";
+   private static final String ENCODING_PROPERTY         = "hash.string.encoding";
+   private static final String PARTITIONS_PROPERTY       = "partitions";
+   private static final String RECORDS_PROPERTY          = "records";
+   private static final String DISTINCT_RECORDS_PROPERTY = "distinct.records";
+
+   private RecordHashAlgorithm hashAlgorithm;
+   private String stringEncoding;
+   private int numPartitions;
+   private long records;
+   private long distinctRecords;
+
+   // ------------------------------------------------------------------------
+   // Accessor/Mutators
+   //
+
+   public RecordHashAlgorithm getHashAlgorithm() {
+      return hashAlgorithm;
+   }
+
+   public String getStringEncoding() {
+      return stringEncoding;
+   }
+
+   public int getNumPartitions() {
+      return numPartitions;
+   }
+
+   /**
+    * @return the number of reference records read into the index.
+    */
+   public long getRecords() {
+      return records;
+   }
+
+   public long getDistinctRecords() {
+      return distinctRecords;
+   }
+
+   // ------------------------------------------------------------------------
+   // Constructor
+   //
+
+   public ReferenceIndex(RecordHashAlgorithm hashAlgorithm, String stringEncoding,
+         int numPartitions, long records, long distinctRecords)
+   {
+      this.hashAlgorithm   = hashAlgorithm;
+      this.stringEncoding  = stringEncoding;
+      this.numPartitions   = numPartitions;
+      this.records         = records;
+      this.distinctRecords = distinctRecords;
+   }
+
+   // ------------------------------------------------------------------------
+   // Member Methods
+   //
+
+   /**
+    * @return the path of the given partition of the index.
+    */
+   public static Path getPartitionPath(Path index, int partition) {
+      return new Path(index, String.format("part-r-%05d", partition));
+   }
+
+   /**
+    * Writes the metadata file to the index directory.
+    */
+   public void write(FileSystem fs, Path index) throws IOException {
+      Properties properties = new Properties();
+      properties.setProperty(HASH_ALGO_PROPERTY, hashAlgorithm.name());
+      properties.setProperty(ENCODING_PROPERTY, stringEncoding);
+      properties.setProperty(PARTITIONS_PROPERTY, Integer.toString(numPartitions));
+      properties.setProperty(RECORDS_PROPERTY, Long.toString(records));
+      properties.setProperty(DISTINCT_RECORDS_PROPERTY, Long.toString(distinctRecords));
+
+      OutputStream out = fs.create(new Path(index, METADATA_FILE_NAME), true);
+      try {
+         properties.store(new OutputStreamWriter(out, StandardCharsets.UTF_8),
+               "ddiff reference index");
+      } finally {
+         out.close();
+      }
+   }
+
+   /**
+    * Reads the metadata file of the index directory.
+    *
+    * @throws IOException
+    *        if the directory does not hold an index
+    */
+   public static ReferenceIndex read(FileSystem fs, Path index) throws IOException {
+      Path metadata = new Path(index, METADATA_FILE_NAME);
+      if (!fs.exists(metadata)) {
+         throw new IOException(index + " is not a reference index, " + metadata +
+               " does not exist");
+      }
+
+      Properties properties = new Properties();
+      InputStream in = fs.open(metadata);
+      try {
+         properties.load(new InputStreamReader(in, StandardCharsets.UTF_8));
+      } finally {
+         in.close();
+      }
+
+      try {
+         return new ReferenceIndex(
+               RecordHashAlgorithm.valueOf(properties.getProperty(HASH_ALGO_PROPERTY)),
+               properties.getProperty(ENCODING_PROPERTY),
+               Integer.parseInt(properties.getProperty(PARTITIONS_PROPERTY)),
+               Long.parseLong(properties.getProperty(RECORDS_PROPERTY)),
+               Long.parseLong(properties.getProperty(DISTINCT_RECORDS_PROPERTY)));
+      } catch (IllegalArgumentException | NullPointerException e) {
+         throw new IOException("Invalid reference index metadata in " + metadata, e);
+      }
+   }
+
+   @Override
+   public String toString() {
+      return "hashAlgorithm = " + hashAlgorithm + ", stringEncoding = " + stringEncoding +
+            ", numPartitions = " + numPartitions + ", records = " + records +
+            ", distinctRecords = " + distinctRecords;
+   }
+}
@@ -0,0 +1,59 @@
+package com.ryanchapin.ddiff;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * Reducer for the index build, see
+ * {@link DistributedDiff#OPTION_KEY_BUILD_INDEX_LONG}, which reads only the
+ * {@link Source#REFERENCE} input.
+ * <p>
+ * The counts of each distinct record under a hash are summed, always
+ * comparing the records so that records which share a hash are kept
+ * apart, and each record is written along with its hash and count.  As the
+ * keys arrive sorted and are partitioned by the {@link HashKeyPartitioner},
+ * the output of reducer {@code p} is partition {@code p} of the
+ * {@link ReferenceIndex}.
+ *
+ * @since  1.3.0
+ */
+public class ReferenceIndexReducer extends Reducer<HashKeyWritable, TaggedTextWithCountWritableComparable, HashKeyWritable, TaggedTextWithCountWritableComparable> {
+
+   private RecordDeltas deltas = new RecordDeltas();
+
+   private TaggedTextWithCountWritableComparable outVal =
+         new TaggedTextWithCountWritableComparable(new Text(), Source.REFERENCE, 0L);
+
+   @Override
+   protected void reduce(HashKeyWritable key, Iterable<TaggedTextWithCountWritableComparable> values, Context context)
+         throws IOException, InterruptedException
+   {
+      deltas.reset();
+      for (TaggedTextWithCountWritableComparable value : values) {
+         deltas.add(value.getRecord(), value.getCount(), true);
+         context.getCounter(ReferenceIndexCounter.RECORDS).increment(value.getCount());
+      }
+
+      write(key, deltas.getRecord(), deltas.getDelta(), context);
+      for (Map.Entry<Text, long[]> entry : deltas.getCollisions().entrySet()) {
+         write(key, entry.getKey(), entry.getValue()[0], context);
+      }
+   }
+
+   private void write(HashKeyWritable key, Text record, long count, Context context)
+         throws IOException, InterruptedException
+   {
+      outVal.setRecord(record);
+      outVal.setCount(count);
+      context.write(key, outVal);
+      context.getCounter(ReferenceIndexCounter.DISTINCT_RECORDS).increment(1L);
+   }
+
+   public static enum ReferenceIndexCounter {
+      DISTINCT_RECORDS,
+      RECORDS;
+   }
+}
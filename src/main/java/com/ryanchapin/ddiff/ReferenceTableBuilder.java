@@ -0,0 +1,160 @@
+package com.ryanchapin.ddiff;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.util.LineReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds the table of distinct reference records that is broadcast to the
+ * test mappers in the broadcast mode, see
+ * {@link DistributedDiff#OPTION_KEY_BROADCAST_THRESHOLD_MB_LONG}.
+ * <p>
+ * The reference input is read in the driver, line by line as it is read by
+ * the {@link DiffInputFormat} of the mappers, and each
+ * distinct record is written, along with its {@link HashKeyWritable} hash,
+ * to a SequenceFile that is then shipped to the mappers via the distributed
+ * cache.
+ *
+ * @since  1.3.0
+ */
+public class ReferenceTableBuilder {
+
+   private static final Logger LOGGER = LoggerFactory.getLogger(ReferenceTableBuilder.class);
+
+   private final Configuration conf;
+   private final RecordHasher hasher;
+
+   /**
+    * Delimiter of the records, or null for {@code \n}, {@code \r} or
+    * {@code \r\n}, as read by the {@link DiffInputFormat}.
+    */
+   private final byte[] delimiter;
+
+   private long recordsRead;
+   private int distinctRecords;
+
+   // ------------------------------------------------------------------------
+   // Accessor/Mutators
+   //
+
+   /**
+    * @return the number of reference records read by {@link #build(Path, Path)}.
+    */
+   public long getRecordsRead() {
+      return recordsRead;
+   }
+
+   public int getDistinctRecords() {
+      return distinctRecords;
+   }
+
+   // ------------------------------------------------------------------------
+   // Constructor
+   //
+
+   public ReferenceTableBuilder(Configuration conf, RecordHashAlgorithm hashAlgorithm) {
+      this.conf   = conf;
+      this.hasher = hashAlgorithm.newHasher();
+      String delimiterConf = conf.get(DiffInputFormat.CONF_DELIMITER_KEY);
+      this.delimiter = null == delimiterConf || delimiterConf.isEmpty() ?
+            null : delimiterConf.getBytes(StandardCharsets.UTF_8);
+   }
+
+   // ------------------------------------------------------------------------
+   // Member Methods
+   //
+
+   /**
+    * Reads every record of the input and writes each distinct record, keyed
+    * by its hash, to the output SequenceFile.
+    *
+    * @param input
+    *        path, or glob, of the reference input files or directories
+    * @param output
+    *        path of the SequenceFile to be written
+    * @throws IOException
+    */
+   public void build(Path input, Path output) throws IOException {
+      byte[] hash = new byte[hasher.getHashLength()];
+      HashKeyWritable key = new HashKeyWritable();
+      RecordCountTable table = new RecordCountTable(
+            HashKeyWritable.keyWidth(hasher.getHashLength()), Long.MAX_VALUE);
+      CompressionCodecFactory codecs = new CompressionCodecFactory(conf);
+      Text line = new Text();
+
+      FileSystem inputFs = input.getFileSystem(conf);
+      for (Path file : listFiles(inputFs, input)) {
+         CompressionCodec codec = codecs.getCodec(file);
+         InputStream in = inputFs.open(file);
+         if (null != codec) {
+            in = codec.createInputStream(in);
+         }
+         LineReader reader = null == delimiter ?
+               new LineReader(in, conf) : new LineReader(in, conf, delimiter);
+         try {
+            while (reader.readLine(line) > 0) {
+               int hashLength = hasher.hash(line.getBytes(), 0, line.getLength(), hash);
+               key.set(hash, 0, hashLength);
+               table.add(key.getBytes(), line.getBytes(), line.getLength(), 1L);
+               recordsRead++;
+            }
+         } finally {
+            reader.close();
+         }
+      }
+
+      SequenceFile.Writer writer = SequenceFile.createWriter(conf,
+            SequenceFile.Writer.file(output.getFileSystem(conf).makeQualified(output)),
+            SequenceFile.Writer.keyClass(HashKeyWritable.class),
+            SequenceFile.Writer.valueClass(Text.class));
+      try {
+         for (int i = 0; i < table.size(); i++) {
+            table.copyHash(i, key);
+            table.copyRecord(i, line);
+            writer.append(key, line);
+         }
+      } finally {
+         writer.close();
+      }
+      distinctRecords = table.size();
+      LOGGER.info("Wrote {} distinct of {} reference records to {}",
+            distinctRecords, recordsRead, output);
+   }
+
+   /**
+    * Returns the files matched by the input, and the files directly within
+    * any directories that it matches, skipping hidden files.
+    */
+   private static List<Path> listFiles(FileSystem fs, Path input) throws IOException {
+      List<Path> retVal = new ArrayList<Path>();
+      FileStatus[] matches = fs.globStatus(input);
+      if (null == matches) {
+         throw new IOException("Reference input " + input + " does not exist");
+      }
+      for (FileStatus match : matches) {
+         FileStatus[] statuses = match.isDirectory() ?
+               fs.listStatus(match.getPath()) : new FileStatus[] { match };
+         for (FileStatus status : statuses) {
+            String name = status.getPath().getName();
+            if (status.isFile() && !name.startsWith("_") && !name.startsWith(".")) {
+               retVal.add(status.getPath());
+            }
+         }
+      }
+      return retVal;
+   }
+}
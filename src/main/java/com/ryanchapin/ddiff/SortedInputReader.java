@@ -0,0 +1,196 @@
+package com.ryanchapin.ddiff;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.util.LineReader;
+
+/**
+ * Reads the lines of a sorted input, which is the concatenation of its
+ * files in the order given, from the first line that is greater than or
+ * equal to a given key.
+ * <p>
+ * Lines are ordered by their unsigned bytes, as sorted by
+ * {@code LC_ALL=C sort}.  Uncompressed files are positioned with a binary
+ * search on the byte offsets of the file, so that only a handful of reads
+ * are required to find the first line of a range, and compressed files are
+ * scanned from their start.  As each line is read it is checked against the
+ * previous line, and an IOException is thrown if the input turns out not to
+ * be sorted.
+ *
+ * @since  1.3.0
+ */
+public class SortedInputReader implements Closeable {
+
+   /**
+    * Remaining number of bytes of a file below which the binary search
+    * gives way to scanning the lines in order.
+    */
+   private static final long SCAN_BYTES = 64 * 1024;
+
+   private final Configuration conf;
+   private final FileSystem fs;
+   private final List<FileStatus> files;
+   private final CompressionCodecFactory codecs;
+
+   /**
+    * Index of the next file to be opened.
+    */
+   private int fileIndex;
+   private LineReader reader;
+
+   private Text pending = new Text();
+   private boolean hasPending;
+
+   private Text previous = new Text();
+   private boolean hasPrevious;
+
+   // ------------------------------------------------------------------------
+   // Constructor
+   //
+
+   /**
+    * @param files
+    *        the files of the input in sorted order
+    */
+   public SortedInputReader(Configuration conf, FileSystem fs, List<FileStatus> files) {
+      this.conf   = conf;
+      this.fs     = fs;
+      this.files  = files;
+      this.codecs = new CompressionCodecFactory(conf);
+   }
+
+   // ------------------------------------------------------------------------
+   // Member Methods
+   //
+
+   /**
+    * Positions the reader such that the next line read is the first line
+    * greater than or equal to the key.
+    *
+    * @param key
+    *        the lower bound of the lines to be read, or null to read from the
+    *        first line of the input
+    * @throws IOException
+    */
+   public void seek(Text key) throws IOException {
+      closeReader();
+      hasPending  = false;
+      hasPrevious = false;
+      if (null == key) {
+         fileIndex = 0;
+         return;
+      }
+
+      fileIndex = files.size();
+      for (int i = 0; i < files.size(); i++) {
+         FileStatus file = files.get(i);
+         long start = (null == codecs.getCodec(file.getPath())) ? search(file, key) : 0;
+         open(file, start);
+         fileIndex = i + 1;
+         while (reader.readLine(pending) > 0) {
+            if (pending.compareTo(key) >= 0) {
+               hasPending = true;
+               return;
+            }
+         }
+         closeReader();
+      }
+   }
+
+   /**
+    * Reads the next line of the input.
+    *
+    * @return false if there are no more lines
+    * @throws IOException
+    *        if the line is less than the line before it
+    */
+   public boolean next(Text line) throws IOException {
+      if (hasPending) {
+         line.set(pending);
+         hasPending = false;
+      } else {
+         while (null == reader || reader.readLine(line) == 0) {
+            closeReader();
+            if (fileIndex >= files.size()) {
+               return false;
+            }
+            open(files.get(fileIndex), 0);
+            fileIndex++;
+         }
+      }
+
+      if (hasPrevious && line.compareTo(previous) < 0) {
+         throw new IOException("Input is not sorted, '" + line + "' follows '" + previous +
+               "' in or before " + files.get(Math.max(fileIndex - 1, 0)).getPath());
+      }
+      previous.set(line);
+      hasPrevious = true;
+      return true;
+   }
+
+   /**
+    * Returns the offset of a line in the file, such that every line before
+    * it is less than the key.
+    */
+   private long search(FileStatus file, Text key) throws IOException {
+      FSDataInputStream in = fs.open(file.getPath());
+      try {
+         Text line = new Text();
+         long lo = 0;
+         long hi = file.getLen();
+         while (hi - lo > SCAN_BYTES) {
+            long mid = lo + (hi - lo) / 2;
+
+            // Read from the byte before mid, so that a line starting at mid
+            // is not skipped
+            in.seek(mid - 1);
+            LineReader probe = new LineReader(in, conf);
+            long start = mid - 1 + probe.readLine(line);
+            if (start >= hi || probe.readLine(line) == 0) {
+               hi = mid;
+            } else if (line.compareTo(key) < 0) {
+               lo = start;
+            } else {
+               hi = mid;
+            }
+         }
+         return lo;
+      } finally {
+         in.close();
+      }
+   }
+
+   private void open(FileStatus file, long start) throws IOException {
+      FSDataInputStream in = fs.open(file.getPath());
+      InputStream stream = in;
+      CompressionCodec codec = codecs.getCodec(file.getPath());
+      if (null != codec) {
+         stream = codec.createInputStream(in);
+      } else if (start > 0) {
+         in.seek(start);
+      }
+      reader = new LineReader(stream, conf);
+   }
+
+   private void closeReader() throws IOException {
+      if (null != reader) {
+         reader.close();
+         reader = null;
+      }
+   }
+
+   @Override
+   public void close() throws IOException {
+      closeReader();
+   }
+}
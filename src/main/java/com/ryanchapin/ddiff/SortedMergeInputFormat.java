@@ -0,0 +1,196 @@
+package com.ryanchapin.ddiff;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.util.LineReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Input format for the sorted merge mode, see
+ * {@link DistributedDiff#OPTION_KEY_SORTED_INPUTS_LONG}, in which both the
+ * reference and the test inputs are already sorted and are diffed without
+ * a shuffle.
+ * <p>
+ * Each input is read as the concatenation of its files in path order.  The
+ * inputs are co-partitioned into ranges of lines by reading boundary lines
+ * at evenly spaced offsets of the larger input, such that every range
+ * covers roughly {@link FileInputFormat#SPLIT_MAXSIZE} bytes of the two
+ * inputs combined, and all of the copies of a line in either input fall in
+ * the same range.  The {@link SortedMergeRecordReader} then merges the
+ * lines of both inputs within its range.  Compressed inputs cannot be
+ * positioned, so they are read as a single range.
+ *
+ * @since  1.3.0
+ */
+public class SortedMergeInputFormat extends InputFormat<Text, LongWritable> {
+
+   private static final Logger LOGGER = LoggerFactory.getLogger(SortedMergeInputFormat.class);
+
+   // ------------------------------------------------------------------------
+   // Member Methods
+   //
+
+   @Override
+   public List<InputSplit> getSplits(JobContext context) throws IOException {
+      Configuration conf = context.getConfiguration();
+      List<FileStatus> refFiles  = listFiles(conf,
+            conf.get(DistributedDiff.CONF_SORTED_REFERENCE_PATH_KEY));
+      List<FileStatus> testFiles = listFiles(conf,
+            conf.get(DistributedDiff.CONF_SORTED_TEST_PATH_KEY));
+      long refBytes  = getLength(refFiles);
+      long testBytes = getLength(testFiles);
+      long totalBytes = refBytes + testBytes;
+
+      long rangeBytes = conf.getLong(FileInputFormat.SPLIT_MAXSIZE, JobPlanner.MIN_SPLIT_SIZE);
+      long numRanges = Math.max(1L, (totalBytes + rangeBytes - 1) / rangeBytes);
+      numRanges = Math.min(numRanges, JobPlanner.MAX_MAP_TASKS);
+      if (isCompressed(conf, refFiles) || isCompressed(conf, testFiles)) {
+         LOGGER.info("Inputs are compressed and will be merged in a single range");
+         numRanges = 1;
+      }
+
+      // Boundaries are read from the larger input, and any that repeat the
+      // previous boundary are dropped, so that they are strictly increasing
+      List<FileStatus> sampled = (refBytes >= testBytes) ? refFiles : testFiles;
+      long sampledBytes = Math.max(refBytes, testBytes);
+      List<Text> bounds = new ArrayList<Text>();
+      for (long i = 1; i < numRanges; i++) {
+         Text bound = readLineAfter(conf, sampled, i * sampledBytes / numRanges);
+         if (null != bound &&
+               (bounds.isEmpty() || bound.compareTo(bounds.get(bounds.size() - 1)) > 0))
+         {
+            bounds.add(bound);
+         }
+      }
+
+      List<InputSplit> retVal = new ArrayList<InputSplit>();
+      long splitBytes = totalBytes / (bounds.size() + 1);
+      for (int i = 0; i <= bounds.size(); i++) {
+         retVal.add(new SortedRangeSplit(
+               (i == 0) ? null : bounds.get(i - 1),
+               (i == bounds.size()) ? null : bounds.get(i),
+               splitBytes));
+      }
+      LOGGER.info("Merging {} reference and {} test bytes in {} ranges",
+            refBytes, testBytes, retVal.size());
+      return retVal;
+   }
+
+   @Override
+   public RecordReader<Text, LongWritable> createRecordReader(InputSplit split,
+         TaskAttemptContext context)
+   {
+      return new SortedMergeRecordReader();
+   }
+
+   /**
+    * Returns the files matched by the input, and the files directly within
+    * any directories that it matches, in path order, skipping hidden files.
+    *
+    * @throws IOException
+    *        if the input does not exist
+    */
+   public static List<FileStatus> listFiles(Configuration conf, String input)
+         throws IOException
+   {
+      Path path = new Path(input);
+      FileSystem fs = path.getFileSystem(conf);
+      FileStatus[] matches = fs.globStatus(path);
+      if (null == matches || matches.length == 0) {
+         throw new IOException("Input " + input + " does not exist");
+      }
+
+      List<FileStatus> retVal = new ArrayList<FileStatus>();
+      for (FileStatus match : matches) {
+         FileStatus[] statuses = match.isDirectory() ?
+               fs.listStatus(match.getPath()) : new FileStatus[] { match };
+         for (FileStatus status : statuses) {
+            String name = status.getPath().getName();
+            if (status.isFile() && !name.startsWith("_") && !name.startsWith(".")) {
+               retVal.add(status);
+            }
+         }
+      }
+      Collections.sort(retVal, new Comparator<FileStatus>() {
+         @Override
+         public int compare(FileStatus a, FileStatus b) {
+            return a.getPath().compareTo(b.getPath());
+         }
+      });
+      return retVal;
+   }
+
+   private static long getLength(List<FileStatus> files) {
+      long retVal = 0;
+      for (FileStatus file : files) {
+         retVal += file.getLen();
+      }
+      return retVal;
+   }
+
+   private static boolean isCompressed(Configuration conf, List<FileStatus> files) {
+      CompressionCodecFactory codecs = new CompressionCodecFactory(conf);
+      for (FileStatus file : files) {
+         if (null != codecs.getCodec(file.getPath())) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Returns the first line that starts at or after the offset into the
+    * concatenation of the files, or null if there is no such line in the
+    * file in which the offset falls.
+    */
+   private static Text readLineAfter(Configuration conf, List<FileStatus> files, long offset)
+         throws IOException
+   {
+      for (FileStatus file : files) {
+         if (offset >= file.getLen()) {
+            offset -= file.getLen();
+            continue;
+         }
+
+         FileSystem fs = file.getPath().getFileSystem(conf);
+         FSDataInputStream in = fs.open(file.getPath());
+         try {
+            Text line = new Text();
+            LineReader reader = null;
+            if (offset > 0) {
+               // Skip the remainder of the line in which the offset falls,
+               // reading from the byte before it so that a line starting at
+               // the offset is not skipped
+               in.seek(offset - 1);
+               reader = new LineReader(in, conf);
+               reader.readLine(line);
+            } else {
+               reader = new LineReader(in, conf);
+            }
+            return (reader.readLine(line) > 0) ? line : null;
+         } finally {
+            in.close();
+         }
+      }
+      return null;
+   }
+}
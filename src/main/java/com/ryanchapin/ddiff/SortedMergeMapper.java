@@ -0,0 +1,61 @@
+package com.ryanchapin.ddiff;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+
+import com.ryanchapin.ddiff.DdiffReducer.DdiffReduceCounter;
+
+/**
+ * Mapper for the map-only sorted merge mode, see
+ * {@link DistributedDiff#OPTION_KEY_SORTED_INPUTS_LONG}.
+ * <p>
+ * The {@link SortedMergeRecordReader} has already merged the reference and
+ * test lines of the range, so each input record is a differing line along
+ * with the {@link Source#REFERENCE} count less the {@link Source#TEST}
+ * count, which is written out as missing or extra records exactly as by the
+ * {@link DdiffReducer}.
+ *
+ * @since  1.3.0
+ */
+public class SortedMergeMapper extends Mapper<Text, LongWritable, Text, LongWritable> {
+
+   private MultipleOutputs<Text, LongWritable> mos;
+
+   private LongWritable outCount = new LongWritable();
+
+   @Override
+   public void setup(Context context) throws IOException, InterruptedException {
+      mos = new MultipleOutputs<Text, LongWritable>(context);
+      super.setup(context);
+   }
+
+   @Override
+   protected void map(Text key, LongWritable value, Context context)
+         throws IOException, InterruptedException
+   {
+      long diff = value.get();
+      if (diff > 0) {
+         // There were missing records in the test set
+         outCount.set(diff);
+         mos.write(DistributedDiff.MISSING_OUTPUT, key, outCount);
+         context.getCounter(DdiffReduceCounter.MISSING).increment(diff);
+      } else if (diff < 0) {
+         // There were additional records in the test set
+         outCount.set(-diff);
+         mos.write(DistributedDiff.EXTRA_OUTPUT, key, outCount);
+         context.getCounter(DdiffReduceCounter.EXTRA).increment(-diff);
+      }
+   }
+
+   @Override
+   public void cleanup(Context context) throws IOException, InterruptedException {
+      if (mos != null) {
+         mos.close();
+      }
+      super.cleanup(context);
+   }
+}
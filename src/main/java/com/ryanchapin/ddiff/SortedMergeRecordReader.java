@@ -0,0 +1,138 @@
+package com.ryanchapin.ddiff;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+import com.ryanchapin.ddiff.DdiffReducer.DdiffReduceCounter;
+
+/**
+ * Merges the sorted reference and test lines of a {@link SortedRangeSplit}
+ * in a single streaming pass, in the manner of {@code comm(1)}.
+ * <p>
+ * Each key is a distinct line that is not present the same number of times
+ * in both inputs, and its value is the {@link Source#REFERENCE} count less
+ * the {@link Source#TEST} count for the line.  Lines present the same
+ * number of times in both inputs are consumed without being returned.
+ *
+ * @since  1.3.0
+ */
+public class SortedMergeRecordReader extends RecordReader<Text, LongWritable> {
+
+   private TaskAttemptContext context;
+
+   private SortedInputReader refReader;
+   private SortedInputReader testReader;
+
+   /**
+    * First line after the range, or null if the range extends to the end of
+    * the inputs.
+    */
+   private Text upper;
+
+   private Text refLine = new Text();
+   private boolean hasRefLine;
+
+   private Text testLine = new Text();
+   private boolean hasTestLine;
+
+   private Text key = new Text();
+   private LongWritable value = new LongWritable();
+
+   // ------------------------------------------------------------------------
+   // Member Methods
+   //
+
+   @Override
+   public void initialize(InputSplit split, TaskAttemptContext context) throws IOException {
+      this.context = context;
+      Configuration conf = context.getConfiguration();
+      SortedRangeSplit range = (SortedRangeSplit) split;
+      upper = range.getUpper();
+
+      String refInput  = conf.get(DistributedDiff.CONF_SORTED_REFERENCE_PATH_KEY);
+      String testInput = conf.get(DistributedDiff.CONF_SORTED_TEST_PATH_KEY);
+      refReader  = new SortedInputReader(conf, new Path(refInput).getFileSystem(conf),
+            SortedMergeInputFormat.listFiles(conf, refInput));
+      testReader = new SortedInputReader(conf, new Path(testInput).getFileSystem(conf),
+            SortedMergeInputFormat.listFiles(conf, testInput));
+      refReader.seek(range.getLower());
+      testReader.seek(range.getLower());
+
+      hasRefLine  = advance(refReader, refLine, DdiffReduceCounter.REFERENCE_SOURCE);
+      hasTestLine = advance(testReader, testLine, DdiffReduceCounter.TEST_SOURCE);
+   }
+
+   @Override
+   public boolean nextKeyValue() throws IOException {
+      while (hasRefLine || hasTestLine) {
+         if (!hasTestLine || (hasRefLine && refLine.compareTo(testLine) <= 0)) {
+            key.set(refLine);
+         } else {
+            key.set(testLine);
+         }
+
+         long delta = 0;
+         while (hasRefLine && refLine.equals(key)) {
+            delta++;
+            hasRefLine = advance(refReader, refLine, DdiffReduceCounter.REFERENCE_SOURCE);
+         }
+         while (hasTestLine && testLine.equals(key)) {
+            delta--;
+            hasTestLine = advance(testReader, testLine, DdiffReduceCounter.TEST_SOURCE);
+         }
+
+         if (delta != 0) {
+            value.set(delta);
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Reads the next line of the input into line.
+    *
+    * @return false if there are no more lines in the range
+    */
+   private boolean advance(SortedInputReader reader, Text line, DdiffReduceCounter counter)
+         throws IOException
+   {
+      if (!reader.next(line) || (null != upper && line.compareTo(upper) >= 0)) {
+         return false;
+      }
+      context.getCounter(counter).increment(1L);
+      return true;
+   }
+
+   @Override
+   public Text getCurrentKey() {
+      return key;
+   }
+
+   @Override
+   public LongWritable getCurrentValue() {
+      return value;
+   }
+
+   @Override
+   public float getProgress() {
+      return (hasRefLine || hasTestLine) ? 0.0f : 1.0f;
+   }
+
+   @Override
+   public void close() throws IOException {
+      if (null != refReader) {
+         refReader.close();
+      }
+      if (null != testReader) {
+         testReader.close();
+      }
+   }
+}
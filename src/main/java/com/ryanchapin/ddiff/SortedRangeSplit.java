@@ -0,0 +1,116 @@
+package com.ryanchapin.ddiff;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.InputSplit;
+
+/**
+ * A range of lines, from a lower key inclusive to an upper key exclusive,
+ * to be read from both the reference and the test inputs by a single map
+ * task in the sorted merge mode, see {@link SortedMergeInputFormat}.
+ *
+ * @since  1.3.0
+ */
+public class SortedRangeSplit extends InputSplit implements Writable {
+
+   private static final String[] NO_LOCATIONS = new String[0];
+
+   private Text lower = new Text();
+   private boolean hasLower;
+
+   private Text upper = new Text();
+   private boolean hasUpper;
+
+   private long length;
+
+   // ------------------------------------------------------------------------
+   // Accessor/Mutators
+   //
+
+   /**
+    * @return the first line of the range, or null if the range starts at
+    *         the start of the inputs.
+    */
+   public Text getLower() {
+      return hasLower ? lower : null;
+   }
+
+   /**
+    * @return the first line after the range, or null if the range extends
+    *         to the end of the inputs.
+    */
+   public Text getUpper() {
+      return hasUpper ? upper : null;
+   }
+
+   /**
+    * @return the estimated number of bytes of the inputs in the range.
+    */
+   @Override
+   public long getLength() {
+      return length;
+   }
+
+   @Override
+   public String[] getLocations() {
+      return NO_LOCATIONS;
+   }
+
+   // ------------------------------------------------------------------------
+   // Constructor
+   //
+
+   public SortedRangeSplit() {}
+
+   public SortedRangeSplit(Text lower, Text upper, long length) {
+      hasLower = (null != lower);
+      if (hasLower) {
+         this.lower.set(lower);
+      }
+      hasUpper = (null != upper);
+      if (hasUpper) {
+         this.upper.set(upper);
+      }
+      this.length = length;
+   }
+
+   // ------------------------------------------------------------------------
+   // Member Methods
+   //
+
+   @Override
+   public void write(DataOutput out) throws IOException {
+      out.writeBoolean(hasLower);
+      if (hasLower) {
+         lower.write(out);
+      }
+      out.writeBoolean(hasUpper);
+      if (hasUpper) {
+         upper.write(out);
+      }
+      out.writeLong(length);
+   }
+
+   @Override
+   public void readFields(DataInput in) throws IOException {
+      hasLower = in.readBoolean();
+      if (hasLower) {
+         lower.readFields(in);
+      }
+      hasUpper = in.readBoolean();
+      if (hasUpper) {
+         upper.readFields(in);
+      }
+      length = in.readLong();
+   }
+
+   @Override
+   public String toString() {
+      return "[" + (hasLower ? lower.toString() : "") + ", " +
+            (hasUpper ? upper.toString() : "") + ")";
+   }
+}
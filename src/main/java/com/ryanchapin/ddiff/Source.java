@@ -3,11 +3,102 @@ package com.ryanchapin.ddiff;
 /**
  * Enum to indicate from which set of input files, the reference data or the
  * test data, that the record belongs.
- * 
+ * <p>
+ * Each Source has a single byte id which is used as the tag for the
+ * serialized form of {@link TaggedTextWithCountWritableComparable}, and a
+ * sign which is applied to the count of each of its records so that
+ * matching records from each Source net to zero.
+ * <p>
+ * When a reference is diffed against several test sets at once, see
+ * {@link DistributedDiff#OPTION_KEY_TEST_INPUT_PATH_LONG}, each test set is
+ * tagged with its own id, {@link #getTestSetId(int)}, counting from the id
+ * of {@link #TEST}, and every one of those ids maps to {@link #TEST}.
+ *
  * @since  1.0.0
  *
  */
 public enum Source {
-   REFERENCE,
-   TEST;
+   REFERENCE((byte) 0, 1L),
+   TEST((byte) 1, -1L);
+
+   /**
+    * Maximum number of test sets that can be diffed against a reference at
+    * once.
+    * @since  1.3.0
+    */
+   public static final int MAX_TEST_SETS = 16;
+
+   private final byte id;
+   private final long sign;
+
+   private Source(byte id, long sign) {
+      this.id   = id;
+      this.sign = sign;
+   }
+
+   /**
+    * @return the single byte id used to tag serialized records.
+    * @since  1.3.0
+    */
+   public byte getId() {
+      return id;
+   }
+
+   /**
+    * @return 1 for {@link #REFERENCE} and -1 for {@link #TEST}, the sign of
+    *         the counts of records from this Source.
+    * @since  1.3.0
+    */
+   public long getSign() {
+      return sign;
+   }
+
+   /**
+    * @param delta
+    *        a non-zero net count of a record
+    * @return the Source whose records are in excess given the sign of the
+    *         net count.
+    * @since  1.3.0
+    */
+   public static Source forDelta(long delta) {
+      return (delta > 0) ? REFERENCE : TEST;
+   }
+
+   /**
+    * @param id
+    *        the single byte id of a Source
+    * @return the Source with the given id, or null if there is no Source
+    *         with that id.  The id of any of the test sets maps to
+    *         {@link #TEST}.
+    * @since  1.3.0
+    */
+   public static Source fromId(byte id) {
+      if (id == REFERENCE.id) {
+         return REFERENCE;
+      }
+      if (id >= TEST.id && id < TEST.id + MAX_TEST_SETS) {
+         return TEST;
+      }
+      return null;
+   }
+
+   /**
+    * @param testSet
+    *        the zero-based index of a test set
+    * @return the id with which the records of the test set are tagged.
+    * @since  1.3.0
+    */
+   public static byte getTestSetId(int testSet) {
+      return (byte) (TEST.id + testSet);
+   }
+
+   /**
+    * @param id
+    *        the id of a {@link #TEST} source, see {@link #getTestSetId(int)}
+    * @return the zero-based index of the test set with the given id.
+    * @since  1.3.0
+    */
+   public static int getTestSet(byte id) {
+      return id - TEST.id;
+   }
 }
@@ -0,0 +1,66 @@
+package com.ryanchapin.ddiff;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/**
+ * {@link FileSplit} carrying the id of the {@link Source} of its input, see
+ * {@link Source#getId()} and {@link Source#getTestSetId(int)}, so that the
+ * {@link DdiffMapper} reading it can tag its records without a mapper class
+ * per input.
+ *
+ * @since  1.3.0
+ */
+public class SourceSplit extends FileSplit {
+
+   private byte sourceId;
+
+   // ------------------------------------------------------------------------
+   // Accessor/Mutators
+   //
+
+   public byte getSourceId() {
+      return sourceId;
+   }
+
+   public Source getSource() {
+      return Source.fromId(sourceId);
+   }
+
+   // ------------------------------------------------------------------------
+   // Constructor
+   //
+
+   public SourceSplit() {
+      super();
+   }
+
+   public SourceSplit(FileSplit split, byte sourceId) throws IOException {
+      super(split.getPath(), split.getStart(), split.getLength(), split.getLocations());
+      this.sourceId = sourceId;
+   }
+
+   // ------------------------------------------------------------------------
+   // Member Methods
+   //
+
+   @Override
+   public void write(DataOutput out) throws IOException {
+      super.write(out);
+      out.writeByte(sourceId);
+   }
+
+   @Override
+   public void readFields(DataInput in) throws IOException {
+      super.readFields(in);
+      sourceId = in.readByte();
+   }
+
+   @Override
+   public String toString() {
+      return super.toString() + ", sourceId = " + sourceId;
+   }
+}
@@ -0,0 +1,246 @@
+package com.ryanchapin.ddiff;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+
+/**
+ * Cache directory of per-file summaries and diff results, see
+ * {@link DistributedDiff#OPTION_KEY_SUMMARY_CACHE_LONG}.
+ * <p>
+ * A summary is a SequenceFile of the {@link HashKeyWritable} hash and
+ * {@link TaggedTextWithCountWritableComparable} record and count of the
+ * records of one input file, written by the {@link FileSummaryMapper} in
+ * runs of net counts, and is stored under the key of the file.  The key
+ * is a digest of the checksum reported by the filesystem for the file and
+ * its length, or of its path, length and modification time if the
+ * filesystem reports no checksum, along with the record delimiter that the
+ * file was split into records on and the hash algorithm and string encoding
+ * that the records were hashed with.  As the checksum covers the
+ * contents of the file, identical files share a summary wherever they
+ * are.
+ * <p>
+ * A result is a copy of the output directory of a diff, stored under a
+ * digest of the keys of the summaries that were diffed and the options
+ * that change the output, including the record delimiter.
+ * <p>
+ * Entries are never removed by the cache, and a stale cache directory can
+ * simply be deleted.
+ *
+ * @since  1.3.0
+ */
+public class SummaryCache {
+
+   /**
+    * Name of the directory of the cache holding the per-file summaries.
+    */
+   public static final String SUMMARIES_DIR = "summaries";
+
+   /**
+    * Name of the directory of the cache holding the diff results.
+    */
+   public static final String RESULTS_DIR = "results";
+
+   private FileSystem fs;
+   private Path cacheDir;
+   private Configuration conf;
+   private RecordHashAlgorithm hashAlgorithm;
+   private String stringEncoding;
+
+   /**
+    * The {@link DiffInputFormat#CONF_DELIMITER_KEY} delimiter of the
+    * records, or the empty string for the default line terminators.
+    */
+   private String delimiter;
+
+   // ------------------------------------------------------------------------
+   // Accessor/Mutators
+   //
+
+   public Path getCacheDir() {
+      return cacheDir;
+   }
+
+   // ------------------------------------------------------------------------
+   // Constructor
+   //
+
+   public SummaryCache(Configuration conf, Path cacheDir, RecordHashAlgorithm hashAlgorithm,
+         String stringEncoding) throws IOException
+   {
+      this.conf           = conf;
+      this.fs             = cacheDir.getFileSystem(conf);
+      this.cacheDir       = fs.makeQualified(cacheDir);
+      this.hashAlgorithm  = hashAlgorithm;
+      this.stringEncoding = stringEncoding;
+      this.delimiter      = conf.get(DiffInputFormat.CONF_DELIMITER_KEY, "");
+   }
+
+   // ------------------------------------------------------------------------
+   // Member Methods
+   //
+
+   /**
+    * Returns the key of the summary of the given file.
+    */
+   public String getFileKey(FileStatus file) throws IOException {
+      FileSystem fileFs = file.getPath().getFileSystem(conf);
+      FileChecksum checksum = fileFs.getFileChecksum(file.getPath());
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeUTF(hashAlgorithm.name());
+      out.writeUTF(stringEncoding);
+      out.writeUTF(delimiter);
+      out.writeLong(file.getLen());
+      if (null != checksum) {
+         out.writeUTF(checksum.getAlgorithmName());
+         out.write(checksum.getBytes());
+      } else {
+         out.writeUTF(fileFs.makeQualified(file.getPath()).toString());
+         out.writeLong(file.getModificationTime());
+      }
+      out.close();
+      return DigestUtils.md5Hex(bytes.toByteArray());
+   }
+
+   public Path getSummaryPath(String fileKey) {
+      return new Path(new Path(cacheDir, SUMMARIES_DIR), fileKey);
+   }
+
+   public boolean isSummaryCached(String fileKey) throws IOException {
+      return fs.exists(getSummaryPath(fileKey));
+   }
+
+   /**
+    * Moves a summary written by the {@link FileSummaryMapper} into the
+    * cache, or writes an empty summary if the file held no records and so
+    * none was written.  A summary already cached under the same key, by a
+    * concurrent run, is kept.
+    */
+   public void storeSummary(String fileKey, Path written) throws IOException {
+      Path summary = getSummaryPath(fileKey);
+      fs.mkdirs(summary.getParent());
+      if (null == written) {
+         Path tmp = new Path(summary.getParent(), "_" + fileKey);
+         SequenceFile.createWriter(conf,
+               SequenceFile.Writer.file(tmp),
+               SequenceFile.Writer.keyClass(HashKeyWritable.class),
+               SequenceFile.Writer.valueClass(TaggedTextWithCountWritableComparable.class))
+            .close();
+         written = tmp;
+      }
+      if (!fs.rename(written, summary)) {
+         fs.delete(written, false);
+      }
+   }
+
+   /**
+    * Returns the key of the result of diffing the given summaries.
+    */
+   public String getResultKey(List<String> referenceKeys, List<String> testKeys,
+         boolean collisionSafe)
+   {
+      List<String> sortedRef  = new ArrayList<String>(referenceKeys);
+      List<String> sortedTest = new ArrayList<String>(testKeys);
+      Collections.sort(sortedRef);
+      Collections.sort(sortedTest);
+      StringBuilder sb = new StringBuilder();
+      sb.append("reference=").append(sortedRef)
+        .append(",test=").append(sortedTest)
+        .append(",collisionSafe=").append(collisionSafe)
+        .append(",delimiter=").append(delimiter);
+      return DigestUtils.md5Hex(sb.toString().getBytes(StandardCharsets.UTF_8));
+   }
+
+   public Path getResultPath(String resultKey) {
+      return new Path(new Path(cacheDir, RESULTS_DIR), resultKey);
+   }
+
+   /**
+    * Copies the cached result to the output path, replacing anything
+    * already there.
+    *
+    * @return false if there is no result cached under the key
+    */
+   public boolean copyResult(String resultKey, Path outPath) throws IOException {
+      Path result = getResultPath(resultKey);
+      if (!fs.exists(result)) {
+         return false;
+      }
+      FileSystem outFs = outPath.getFileSystem(conf);
+      outFs.delete(outPath, true);
+      return FileUtil.copy(fs, result, outFs, outPath, false, conf);
+   }
+
+   /**
+    * Copies the output of a diff into the cache under the key.
+    */
+   public void storeResult(String resultKey, Path outPath) throws IOException {
+      Path result = getResultPath(resultKey);
+      Path tmp = new Path(result.getParent(), "_" + resultKey);
+      fs.mkdirs(result.getParent());
+      fs.delete(tmp, true);
+      FileUtil.copy(outPath.getFileSystem(conf), outPath, fs, tmp, false, conf);
+      if (!fs.rename(tmp, result)) {
+         fs.delete(tmp, true);
+      }
+   }
+
+   /**
+    * Removes the keys that appear in both lists, once for each time that
+    * they appear in both, as the summaries of identical files cancel out
+    * in the diff.
+    */
+   public static void cancelMatching(List<String> referenceKeys, List<String> testKeys) {
+      Map<String, Integer> testCounts = new HashMap<String, Integer>();
+      for (String key : testKeys) {
+         Integer count = testCounts.get(key);
+         testCounts.put(key, (null == count) ? 1 : count + 1);
+      }
+
+      Map<String, Integer> matched = new HashMap<String, Integer>();
+      for (Iterator<String> it = referenceKeys.iterator(); it.hasNext(); ) {
+         String key = it.next();
+         Integer count = testCounts.get(key);
+         if (null != count && count > 0) {
+            testCounts.put(key, count - 1);
+            Integer matches = matched.get(key);
+            matched.put(key, (null == matches) ? 1 : matches + 1);
+            it.remove();
+         }
+      }
+      for (Iterator<String> it = testKeys.iterator(); it.hasNext(); ) {
+         String key = it.next();
+         Integer matches = matched.get(key);
+         if (null != matches && matches > 0) {
+            matched.put(key, matches - 1);
+            it.remove();
+         }
+      }
+   }
+
+   /**
+    * Returns the base name under which the {@link FileSummaryMapper} writes
+    * the summary of the file at the given path.
+    */
+   public static String getOutputName(Path file) {
+      return DigestUtils.md5Hex(file.toString().getBytes(StandardCharsets.UTF_8));
+   }
+}
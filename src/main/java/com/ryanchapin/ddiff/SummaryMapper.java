@@ -0,0 +1,81 @@
+package com.ryanchapin.ddiff;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+import com.ryanchapin.ddiff.DdiffMapper.DdiffMapperCounter;
+
+/**
+ * Mapper of the diff in the summary cache mode, see
+ * {@link DistributedDiff#OPTION_KEY_SUMMARY_CACHE_LONG}, which reads the
+ * per-file summaries of the {@link SummaryCache} in place of the inputs.
+ * <p>
+ * Each summary is named after its key, and the keys of the
+ * {@link Source#TEST} summaries are passed in
+ * {@link DistributedDiff#CONF_SUMMARY_TEST_KEYS_KEY}.  As the driver has
+ * already cancelled out the summaries on both sides with the same key, the
+ * source of a summary is {@link Source#TEST} if its key is one of those and
+ * otherwise {@link Source#REFERENCE}.  The hash and record of each summary
+ * record are emitted as by the {@link DdiffMapper}, with the count signed
+ * for that source.
+ *
+ * @since  1.3.0
+ */
+public class SummaryMapper extends Mapper<HashKeyWritable, TaggedTextWithCountWritableComparable, HashKeyWritable, TaggedTextWithCountWritableComparable> {
+
+   private Source source;
+   private HashKeyWritable outKey;
+   private TaggedTextWithCountWritableComparable outVal;
+
+   /**
+    * The {@link #outKey}, if the record is to be emitted in the key for the
+    * secondary sort, else null.
+    */
+   private HashRecordKeyWritable recordKey;
+   private Text emptyRecord = new Text();
+
+   @Override
+   protected void setup(Context context) throws IOException, InterruptedException {
+      super.setup(context);
+      Configuration conf = context.getConfiguration();
+      Set<String> testKeys = new HashSet<String>(Arrays.asList(
+            conf.getTrimmedStrings(DistributedDiff.CONF_SUMMARY_TEST_KEYS_KEY)));
+      String fileKey = ((FileSplit) context.getInputSplit()).getPath().getName();
+      source = testKeys.contains(fileKey) ? Source.TEST : Source.REFERENCE;
+
+      if (conf.getBoolean(DistributedDiff.CONF_SECONDARY_SORT_KEY, false)) {
+         recordKey = new HashRecordKeyWritable();
+         recordKey.setSourceId(source.getId());
+         outKey = recordKey;
+      } else {
+         outKey = new HashKeyWritable();
+      }
+      outVal = new TaggedTextWithCountWritableComparable(null, source, 0L);
+   }
+
+   @Override
+   public void map(HashKeyWritable key, TaggedTextWithCountWritableComparable value,
+         Context context) throws IOException, InterruptedException
+   {
+      outKey.set(key);
+      if (null != recordKey) {
+         recordKey.setRecord(value.getRecord());
+         outVal.setRecord(emptyRecord);
+      } else {
+         outVal.setRecord(value.getRecord());
+      }
+      outVal.setCount(value.getCount() * source.getSign());
+      context.write(outKey, outVal);
+
+      context.getCounter((Source.TEST == source) ?
+            DdiffMapperCounter.TEST_COUNT : DdiffMapperCounter.REFERENCE_COUNT)
+         .increment(value.getCount());
+   }
+}
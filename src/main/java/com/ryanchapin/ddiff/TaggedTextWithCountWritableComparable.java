@@ -4,16 +4,32 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 
-import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * WritableComparable to store the record (Text), the source (Text), and the
- * count (IntWritable) of the number of unique records seen.
- * 
+ * WritableComparable to store the record (Text), the {@link Source} of the
+ * record, and the count of the number of unique records seen.
+ * <p>
+ * The count is signed, see {@link Source#getSign()}: occurrences of a record
+ * in the {@link Source#REFERENCE} input count +n and in the
+ * {@link Source#TEST} input count -n, so that values for the same record can
+ * simply be summed and any non-zero result is either missing from, or extra
+ * in, the test input.  Once values from both sources have been summed, the
+ * source is that of the sign of the net count, see
+ * {@link Source#forDelta(long)}.
+ * <p>
+ * The serialized form is the record, followed by the single byte id of the
+ * source, see {@link Source#getId()}, followed by the count as a
+ * variable-length long.  The record Text is reused by
+ * {@link #readFields(DataInput)} so that deserializing a value does not
+ * allocate.  The registered {@link Comparator} orders serialized values by
+ * record, source and count without deserializing them.
+ *
  * @since  1.0.0
  *
  */
@@ -22,19 +38,27 @@ public class TaggedTextWithCountWritableComparable
 
    protected static final Logger LOGGER =
          LoggerFactory.getLogger(TaggedTextWithCountWritableComparable.class);
-   
-   private IntWritable count;
-   private Text source;
+
+   private long count;
+   private byte sourceId;
    private Text record;
-   
+
+   static {
+      WritableComparator.define(TaggedTextWithCountWritableComparable.class, new Comparator());
+   }
+
    // ------------------------------------------------------------------------
    // Accessor/Mutators
-   //   
-   public IntWritable getCount() {
+   //
+   /**
+    * @return the signed count of the record, positive for
+    *         {@link Source#REFERENCE} and negative for {@link Source#TEST}.
+    */
+   public long getCount() {
       return count;
    }
 
-   public void setCount(IntWritable count) {
+   public void setCount(long count) {
       this.count = count;
    }
 
@@ -46,96 +70,154 @@ public class TaggedTextWithCountWritableComparable
       this.record = value;
    }
 
-   public Text getSource() {
-      return source;
+   /**
+    * @return the Source of the record, or null if the source id does not
+    *         map to a valid {@link Source}.
+    */
+   public Source getSource() {
+      return Source.fromId(sourceId);
+   }
+
+   public void setSource(Source source) {
+      this.sourceId = source.getId();
+   }
+
+   public byte getSourceId() {
+      return sourceId;
    }
 
-   public void setSource(Text source) {
-      this.source = source;
+   public void setSourceId(byte sourceId) {
+      this.sourceId = sourceId;
    }
-   
+
    // ------------------------------------------------------------------------
    // Constructor
    //
 
-   public TaggedTextWithCountWritableComparable(Text record, Text source, IntWritable count) {
-      this.record  = record;
-      this.source = source;
-      this.count  = count;
+   public TaggedTextWithCountWritableComparable(Text record, Source source, long count) {
+      this.record   = record;
+      this.sourceId = source.getId();
+      this.count    = count;
    }
-   
+
    public TaggedTextWithCountWritableComparable() {
-      this.record  = new Text();
-      this.source = new Text();
-      this.count  = new IntWritable();
+      this.record = new Text();
    }
-   
+
    // ------------------------------------------------------------------------
    // Member Methods
    //
 
    @Override
    public void write(DataOutput out) throws IOException {
-      count.write(out);
       record.write(out);
-      source.write(out);
+      out.writeByte(sourceId);
+      WritableUtils.writeVLong(out, count);
    }
 
    @Override
    public void readFields(DataInput in) throws IOException {
-      count.readFields(in);
       record.readFields(in);
-      source.readFields(in);
+      sourceId = in.readByte();
+      count    = WritableUtils.readVLong(in);
    }
 
    @Override
    public int compareTo(TaggedTextWithCountWritableComparable o) {
       int retVal = 0;
-    
+
       retVal = this.record.compareTo(o.getRecord());
       if (retVal != 0) { return retVal; }
-      
-      retVal = this.source.compareTo(o.getSource());
-      if (retVal != 0) { return retVal; }
-      
-      retVal = this.count.compareTo(o.getCount());
+
+      retVal = Byte.compare(this.sourceId, o.getSourceId());
       if (retVal != 0) { return retVal; }
-      
-      return retVal;
+
+      return Long.compare(this.count, o.getCount());
    }
 
    @Override
    public boolean equals(Object o) {
-      TaggedTextWithCountWritableComparable other = null;
-      try {
-         other = (TaggedTextWithCountWritableComparable) o;
-      } catch (ClassCastException e) {
-         String errMsg = "Object o, passed to equals method was not of type TaggedRecordWithCountWritableComparable<T>";
-         LOGGER.error(errMsg);
+      if (!(o instanceof TaggedTextWithCountWritableComparable)) {
          return false;
       }
-      
-      if (this.getRecord().equals(other.getRecord()) &&
-          this.getSource().equals(other.getSource()) &&
-          this.getCount().equals(other.getCount()))
-      {
-         return true;
-      }
-      
-      return false;
+      TaggedTextWithCountWritableComparable other =
+            (TaggedTextWithCountWritableComparable) o;
+
+      return this.sourceId == other.getSourceId() &&
+             this.count == other.getCount() &&
+             this.record.equals(other.getRecord());
    }
-   
+
    @Override
    public int hashCode() {
-      String compositVal = 
-            getRecord().toString() + getSource().toString() + getCount().toString();
-      return (compositVal.hashCode());
+      int retVal = record.hashCode();
+      retVal = 31 * retVal + sourceId;
+      retVal = 31 * retVal + (int) (count ^ (count >>> 32));
+      return retVal;
    }
-   
+
    @Override
    public String toString() {
-      return getRecord().toString() + ":" + 
-            getSource().toString() + ":" + 
-            getCount().toString();
+      Source source = getSource();
+      return getRecord().toString() + ":" +
+            (null == source ? Byte.toString(sourceId) : source.toString()) + ":" +
+            count;
+   }
+
+   /**
+    * Compares the serialized record and the source id that follows it, at
+    * the given offsets of each buffer.
+    *
+    * @throws IllegalArgumentException
+    *        if the record length cannot be decoded
+    */
+   public static int compareRecordAndSource(byte[] b1, int s1, byte[] b2, int s2) {
+      int n1 = WritableUtils.decodeVIntSize(b1[s1]);
+      int n2 = WritableUtils.decodeVIntSize(b2[s2]);
+      int len1 = readRecordLength(b1, s1);
+      int len2 = readRecordLength(b2, s2);
+
+      int retVal = WritableComparator.compareBytes(
+            b1, s1 + n1, len1, b2, s2 + n2, len2);
+      if (retVal != 0) { return retVal; }
+
+      return Byte.compare(b1[s1 + n1 + len1], b2[s2 + n2 + len2]);
+   }
+
+   private static int readRecordLength(byte[] bytes, int start) {
+      try {
+         return WritableComparator.readVInt(bytes, start);
+      } catch (IOException e) {
+         throw new IllegalArgumentException("Unable to decode the record length, e = " +
+               e.toString(), e);
+      }
+   }
+
+   /**
+    * Compares serialized {@link TaggedTextWithCountWritableComparable}
+    * instances by record, source and count, consistent with
+    * {@link TaggedTextWithCountWritableComparable#compareTo(TaggedTextWithCountWritableComparable)}.
+    */
+   public static class Comparator extends WritableComparator {
+
+      public Comparator() {
+         super(TaggedTextWithCountWritableComparable.class);
+      }
+
+      @Override
+      public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+         int retVal = compareRecordAndSource(b1, s1, b2, s2);
+         if (retVal != 0) { return retVal; }
+
+         // Skip past the record and the source id to the count
+         int c1 = s1 + WritableUtils.decodeVIntSize(b1[s1]) + readRecordLength(b1, s1) + 1;
+         int c2 = s2 + WritableUtils.decodeVIntSize(b2[s2]) + readRecordLength(b2, s2) + 1;
+         try {
+            return Long.compare(readVLong(b1, c1), readVLong(b2, c2));
+         } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to decode the count, e = " +
+                  e.toString(), e);
+         }
+      }
    }
 }
@@ -0,0 +1,78 @@
+package com.ryanchapin.ddiff;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/**
+ * Input format used when diffing a reference against several test sets,
+ * see {@link DistributedDiff#OPTION_KEY_TEST_INPUT_PATH_LONG}, which splits
+ * the reference input and the input of each of the test sets named in
+ * {@link DistributedDiff#CONF_TEST_SET_LABELS_KEY} as the
+ * {@link DiffInputFormat} would, wrapping each split in a
+ * {@link SourceSplit} tagged with the id of its source.
+ * <p>
+ * The input of each source is read from
+ * {@link DistributedDiff#CONF_SOURCE_PATH_KEY_PREFIX} followed by its id.
+ * An input path can be given for more than one test set, and is read once
+ * for each.
+ *
+ * @since  1.3.0
+ */
+public class TestSetInputFormat extends InputFormat<LongWritable, Text> {
+
+   private DiffInputFormat diffInputFormat = new DiffInputFormat();
+
+   @Override
+   public List<InputSplit> getSplits(JobContext context) throws IOException {
+      Configuration conf = context.getConfiguration();
+      String[] labels = conf.getStrings(DistributedDiff.CONF_TEST_SET_LABELS_KEY);
+      if (null == labels) {
+         throw new IOException(DistributedDiff.CONF_TEST_SET_LABELS_KEY + " is not set");
+      }
+
+      // The input paths of a single copy of the conf are reset for each
+      // input
+      Job inputJob = Job.getInstance(conf);
+      List<InputSplit> retVal = new ArrayList<InputSplit>();
+      addSplits(inputJob, Source.REFERENCE.getId(), retVal);
+      for (int testSet = 0; testSet < labels.length; testSet++) {
+         addSplits(inputJob, Source.getTestSetId(testSet), retVal);
+      }
+      return retVal;
+   }
+
+   private void addSplits(Job inputJob, byte sourceId, List<InputSplit> splits)
+         throws IOException
+   {
+      String key = DistributedDiff.CONF_SOURCE_PATH_KEY_PREFIX + sourceId;
+      String input = inputJob.getConfiguration().get(key);
+      if (null == input) {
+         throw new IOException(key + " is not set");
+      }
+      FileInputFormat.setInputPaths(inputJob, new Path(input));
+      for (InputSplit split : diffInputFormat.getSplits(inputJob)) {
+         splits.add(new SourceSplit((FileSplit) split, sourceId));
+      }
+   }
+
+   @Override
+   public RecordReader<LongWritable, Text> createRecordReader(InputSplit split,
+         TaskAttemptContext context)
+   {
+      return diffInputFormat.createRecordReader(split, context);
+   }
+}
@@ -0,0 +1,20 @@
+package com.ryanchapin.ddiff;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+
+/**
+ * {@link TextInputFormat} that reads each input file in a single split, so
+ * that each mapper reads exactly one whole file, as the
+ * {@link FileSummaryMapper} requires.
+ *
+ * @since  1.3.0
+ */
+public class UnsplittableTextInputFormat extends TextInputFormat {
+
+   @Override
+   protected boolean isSplitable(JobContext context, Path file) {
+      return false;
+   }
+}
@@ -0,0 +1,64 @@
+package com.ryanchapin.ddiff;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 128-bit xxHash-style {@link RecordHasher} built from two independently
+ * seeded XXH64 hashes of the record.
+ * <p>
+ * This is not the XXH3 128-bit algorithm; it exists to provide a 128-bit
+ * key, making accidental collisions negligible at billions of records, while
+ * keeping the XXH64 implementation as the only hashing primitive.
+ *
+ * @since  1.3.0
+ */
+public class XxHash128RecordHasher implements RecordHasher {
+
+   public static final int HASH_LENGTH = 16;
+
+   /**
+    * Seed for the second, low order, 64 bits of the hash.
+    */
+   private static final long SEED_LOW = 0x9E3779B97F4A7C15L;
+
+   private final long seed;
+
+   // ------------------------------------------------------------------------
+   // Constructor
+   //
+
+   public XxHash128RecordHasher() {
+      this(0L);
+   }
+
+   public XxHash128RecordHasher(long seed) {
+      this.seed = seed;
+   }
+
+   // ------------------------------------------------------------------------
+   // Member Methods
+   //
+
+   @Override
+   public int getHashLength() {
+      return HASH_LENGTH;
+   }
+
+   @Override
+   public int hash(byte[] bytes, int offset, int length, byte[] out) {
+      XxHash64RecordHasher.putLong(out, 0,
+            XxHash64RecordHasher.xxh64(bytes, offset, length, seed));
+      XxHash64RecordHasher.putLong(out, 8,
+            XxHash64RecordHasher.xxh64(bytes, offset, length, seed ^ SEED_LOW));
+      return HASH_LENGTH;
+   }
+
+   @Override
+   public int hash(ByteBuffer buffer, int offset, int length, byte[] out) {
+      XxHash64RecordHasher.putLong(out, 0,
+            XxHash64RecordHasher.xxh64(buffer, offset, length, seed));
+      XxHash64RecordHasher.putLong(out, 8,
+            XxHash64RecordHasher.xxh64(buffer, offset, length, seed ^ SEED_LOW));
+      return HASH_LENGTH;
+   }
+}
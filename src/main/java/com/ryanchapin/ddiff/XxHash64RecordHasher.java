@@ -0,0 +1,237 @@
+package com.ryanchapin.ddiff;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 64-bit xxHash (XXH64) {@link RecordHasher}.
+ * <p>
+ * This is a non-cryptographic hash intended for use where the input is not
+ * adversarial.  The hash is written big-endian.
+ *
+ * @since  1.3.0
+ */
+public class XxHash64RecordHasher implements RecordHasher {
+
+   public static final int HASH_LENGTH = 8;
+
+   private static final long P1 = 0x9E3779B185EBCA87L;
+   private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+   private static final long P3 = 0x165667B19E3779F9L;
+   private static final long P4 = 0x85EBCA77C2B2AE63L;
+   private static final long P5 = 0x27D4EB2F165667C5L;
+
+   private final long seed;
+
+   // ------------------------------------------------------------------------
+   // Constructor
+   //
+
+   public XxHash64RecordHasher() {
+      this(0L);
+   }
+
+   public XxHash64RecordHasher(long seed) {
+      this.seed = seed;
+   }
+
+   // ------------------------------------------------------------------------
+   // Member Methods
+   //
+
+   @Override
+   public int getHashLength() {
+      return HASH_LENGTH;
+   }
+
+   @Override
+   public int hash(byte[] bytes, int offset, int length, byte[] out) {
+      putLong(out, 0, xxh64(bytes, offset, length, seed));
+      return HASH_LENGTH;
+   }
+
+   @Override
+   public int hash(ByteBuffer buffer, int offset, int length, byte[] out) {
+      putLong(out, 0, xxh64(buffer, offset, length, seed));
+      return HASH_LENGTH;
+   }
+
+   /**
+    * Computes the XXH64 hash of length bytes starting at offset.
+    */
+   public static long xxh64(byte[] bytes, int offset, int length, long seed) {
+      int end = offset + length;
+      int p = offset;
+      long h;
+
+      if (length >= 32) {
+         long v1 = seed + P1 + P2;
+         long v2 = seed + P2;
+         long v3 = seed;
+         long v4 = seed - P1;
+         int limit = end - 32;
+         do {
+            v1 = round(v1, getLongLE(bytes, p));
+            v2 = round(v2, getLongLE(bytes, p + 8));
+            v3 = round(v3, getLongLE(bytes, p + 16));
+            v4 = round(v4, getLongLE(bytes, p + 24));
+            p += 32;
+         } while (p <= limit);
+
+         h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7)
+               + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+         h = mergeRound(h, v1);
+         h = mergeRound(h, v2);
+         h = mergeRound(h, v3);
+         h = mergeRound(h, v4);
+      } else {
+         h = seed + P5;
+      }
+
+      h += length;
+
+      while (p + 8 <= end) {
+         h ^= round(0, getLongLE(bytes, p));
+         h = Long.rotateLeft(h, 27) * P1 + P4;
+         p += 8;
+      }
+
+      if (p + 4 <= end) {
+         h ^= (getIntLE(bytes, p) & 0xFFFFFFFFL) * P1;
+         h = Long.rotateLeft(h, 23) * P2 + P3;
+         p += 4;
+      }
+
+      while (p < end) {
+         h ^= (bytes[p] & 0xFF) * P5;
+         h = Long.rotateLeft(h, 11) * P1;
+         p++;
+      }
+
+      h ^= h >>> 33;
+      h *= P2;
+      h ^= h >>> 29;
+      h *= P3;
+      h ^= h >>> 32;
+      return h;
+   }
+
+   /**
+    * Computes the XXH64 hash of length bytes of the buffer starting at the
+    * absolute index offset.
+    */
+   public static long xxh64(ByteBuffer buffer, int offset, int length, long seed) {
+      boolean littleEndian = buffer.order() == ByteOrder.LITTLE_ENDIAN;
+      int end = offset + length;
+      int p = offset;
+      long h;
+
+      if (length >= 32) {
+         long v1 = seed + P1 + P2;
+         long v2 = seed + P2;
+         long v3 = seed;
+         long v4 = seed - P1;
+         int limit = end - 32;
+         do {
+            v1 = round(v1, getLongLE(buffer, p, littleEndian));
+            v2 = round(v2, getLongLE(buffer, p + 8, littleEndian));
+            v3 = round(v3, getLongLE(buffer, p + 16, littleEndian));
+            v4 = round(v4, getLongLE(buffer, p + 24, littleEndian));
+            p += 32;
+         } while (p <= limit);
+
+         h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7)
+               + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+         h = mergeRound(h, v1);
+         h = mergeRound(h, v2);
+         h = mergeRound(h, v3);
+         h = mergeRound(h, v4);
+      } else {
+         h = seed + P5;
+      }
+
+      h += length;
+
+      while (p + 8 <= end) {
+         h ^= round(0, getLongLE(buffer, p, littleEndian));
+         h = Long.rotateLeft(h, 27) * P1 + P4;
+         p += 8;
+      }
+
+      if (p + 4 <= end) {
+         int k = buffer.getInt(p);
+         h ^= ((littleEndian ? k : Integer.reverseBytes(k)) & 0xFFFFFFFFL) * P1;
+         h = Long.rotateLeft(h, 23) * P2 + P3;
+         p += 4;
+      }
+
+      while (p < end) {
+         h ^= (buffer.get(p) & 0xFF) * P5;
+         h = Long.rotateLeft(h, 11) * P1;
+         p++;
+      }
+
+      h ^= h >>> 33;
+      h *= P2;
+      h ^= h >>> 29;
+      h *= P3;
+      h ^= h >>> 32;
+      return h;
+   }
+
+   private static long round(long acc, long input) {
+      acc += input * P2;
+      acc = Long.rotateLeft(acc, 31);
+      acc *= P1;
+      return acc;
+   }
+
+   private static long mergeRound(long acc, long val) {
+      acc ^= round(0, val);
+      acc = acc * P1 + P4;
+      return acc;
+   }
+
+   /**
+    * Reads eight bytes as a little-endian long.
+    */
+   static long getLongLE(byte[] bytes, int offset) {
+      return (bytes[offset]             & 0xFFL)
+         | ((bytes[offset + 1] & 0xFFL) << 8)
+         | ((bytes[offset + 2] & 0xFFL) << 16)
+         | ((bytes[offset + 3] & 0xFFL) << 24)
+         | ((bytes[offset + 4] & 0xFFL) << 32)
+         | ((bytes[offset + 5] & 0xFFL) << 40)
+         | ((bytes[offset + 6] & 0xFFL) << 48)
+         | ((bytes[offset + 7] & 0xFFL) << 56);
+   }
+
+   /**
+    * Reads eight bytes of the buffer, in the given byte order of the buffer,
+    * as a little-endian long.
+    */
+   static long getLongLE(ByteBuffer buffer, int offset, boolean littleEndian) {
+      long value = buffer.getLong(offset);
+      return littleEndian ? value : Long.reverseBytes(value);
+   }
+
+   /**
+    * Reads four bytes as a little-endian int.
+    */
+   static int getIntLE(byte[] bytes, int offset) {
+      return (bytes[offset]            & 0xFF)
+         | ((bytes[offset + 1] & 0xFF) << 8)
+         | ((bytes[offset + 2] & 0xFF) << 16)
+         | ((bytes[offset + 3] & 0xFF) << 24);
+   }
+
+   /**
+    * Writes the long, big-endian, into eight bytes starting at offset.
+    */
+   static void putLong(byte[] out, int offset, long value) {
+      for (int i = 7; i >= 0; i--) {
+         out[offset + i] = (byte) value;
+         value >>>= 8;
+      }
+   }
+}
@@ -6,6 +6,8 @@ public class BaseTest {
    public static final String INPUT_PATH_REF_VALID    = "/user/ddiff/reference_input/";
    public static final String INPUT_PATH_TEST_VALID   = "/user/ddiff/test_input/";
    public static final String OUTPUT_PATH_VALID       = "/user/ddiff/output/";
+   public static final String CACHE_PATH_VALID        = "/user/ddiff/summary_cache/";
+   public static final String MANIFEST_PATH_VALID     = "/user/ddiff/manifest.tsv";
    public static final String JOB_ID                  = "test_job";
    public static final String HASH_ALGO_VALID         = "SHA256SUM";
    public static final String HASH_ALGO_INVALID       = "SHASOMETHINGSUM";
@@ -179,6 +181,229 @@ public class BaseTest {
       "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID,
       "-" + DistributedDiff.OPTION_KEY_HASH_STRING_ENCODING, STRING_ENCODING_INVALID};
    
+   /** -- Two Pass Args ---------------------------------------------------- */
+   public static final String[] ARGS_VALID_TWO_PASS = {
+      "-" + DistributedDiff.OPTION_KEY_REF_INPUT_PATH, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID,
+      "--" + DistributedDiff.OPTION_KEY_TWO_PASS_LONG};
+   
+   public static final String[] ARGS_TWO_PASS_COLLISION_SAFE = {
+      "-" + DistributedDiff.OPTION_KEY_REF_INPUT_PATH, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TWO_PASS,
+      "-" + DistributedDiff.OPTION_KEY_COLLISION_SAFE};
+   
+   /** -- Secondary Sort Args ---------------------------------------------- */
+   public static final String[] ARGS_VALID_SECONDARY_SORT = {
+      "-" + DistributedDiff.OPTION_KEY_REF_INPUT_PATH, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID,
+      "-" + DistributedDiff.OPTION_KEY_SECONDARY_SORT};
+   
+   /** -- Plan Override Args ------------------------------------------------ */
+   public static final String[] ARGS_VALID_PLAN_OVERRIDES = {
+      "-" + DistributedDiff.OPTION_KEY_REF_INPUT_PATH, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID,
+      "-" + DistributedDiff.OPTION_KEY_NUM_REDUCERS, "12",
+      "--" + DistributedDiff.OPTION_KEY_SPLIT_SIZE_MB_LONG, "256",
+      "-" + DistributedDiff.OPTION_KEY_SORT_MB, "300"};
+   
+   public static final String[] ARGS_VALID_MAP_AGGREGATION = {
+      "-" + DistributedDiff.OPTION_KEY_REF_INPUT_PATH, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID,
+      "--" + DistributedDiff.OPTION_KEY_MAP_AGGREGATION_MB_LONG, "64"};
+   
+   public static final String[] ARGS_VALID_BROADCAST_DISABLED = {
+      "-" + DistributedDiff.OPTION_KEY_REF_INPUT_PATH, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID,
+      "--" + DistributedDiff.OPTION_KEY_BROADCAST_THRESHOLD_MB_LONG, "0"};
+   
+   public static final String[] ARGS_INVALID_BROADCAST_THRESHOLD = {
+      "-" + DistributedDiff.OPTION_KEY_REF_INPUT_PATH, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID,
+      "-" + DistributedDiff.OPTION_KEY_BROADCAST_THRESHOLD_MB, "-1"};
+   
+   public static final String[] ARGS_VALID_SORTED_INPUTS = {
+      "-" + DistributedDiff.OPTION_KEY_REF_INPUT_PATH, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID,
+      "--" + DistributedDiff.OPTION_KEY_SORTED_INPUTS_LONG};
+   
+   public static final String[] ARGS_VALID_FINGERPRINT_CHECK = {
+      "-" + DistributedDiff.OPTION_KEY_REF_INPUT_PATH, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID,
+      "-" + DistributedDiff.OPTION_KEY_FINGERPRINT_CHECK};
+   
+   public static final String[] ARGS_VALID_DIGEST_BUCKETS = {
+      "-" + DistributedDiff.OPTION_KEY_REF_INPUT_PATH, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID,
+      "-" + DistributedDiff.OPTION_KEY_DIGEST_BUCKETS, "65536"};
+   
+   public static final String[] ARGS_INVALID_DIGEST_BUCKETS_TWO_PASS = {
+      "-" + DistributedDiff.OPTION_KEY_REF_INPUT_PATH, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID,
+      "-" + DistributedDiff.OPTION_KEY_DIGEST_BUCKETS, "65536",
+      "-" + DistributedDiff.OPTION_KEY_TWO_PASS};
+   
+   public static final String[] ARGS_VALID_BUILD_INDEX = {
+      "-" + DistributedDiff.OPTION_KEY_REF_INPUT_PATH, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID,
+      "-" + DistributedDiff.OPTION_KEY_BUILD_INDEX};
+   
+   public static final String[] ARGS_VALID_REFERENCE_INDEX = {
+      "-" + DistributedDiff.OPTION_KEY_REFERENCE_INDEX, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID};
+   
+   public static final String[] ARGS_INVALID_REFERENCE_INDEX_AND_INPUT = {
+      "-" + DistributedDiff.OPTION_KEY_REF_INPUT_PATH, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_REFERENCE_INDEX, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID};
+   
+   public static final String[] ARGS_INVALID_REFERENCE_INDEX_TWO_PASS = {
+      "-" + DistributedDiff.OPTION_KEY_REFERENCE_INDEX, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TWO_PASS};
+   
+   public static final String[] ARGS_VALID_SUMMARY_CACHE = {
+      "-" + DistributedDiff.OPTION_KEY_REF_INPUT_PATH, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID,
+      "-" + DistributedDiff.OPTION_KEY_SUMMARY_CACHE, CACHE_PATH_VALID};
+   
+   public static final String[] ARGS_INVALID_SUMMARY_CACHE_TWO_PASS = {
+      "-" + DistributedDiff.OPTION_KEY_REF_INPUT_PATH, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID,
+      "-" + DistributedDiff.OPTION_KEY_SUMMARY_CACHE, CACHE_PATH_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TWO_PASS};
+   
+   public static final String[] ARGS_INVALID_SUMMARY_CACHE_REFERENCE_INDEX = {
+      "-" + DistributedDiff.OPTION_KEY_REFERENCE_INDEX, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID,
+      "-" + DistributedDiff.OPTION_KEY_SUMMARY_CACHE, CACHE_PATH_VALID};
+   
+   public static final String[] ARGS_VALID_MANIFEST = {
+      "-" + DistributedDiff.OPTION_KEY_MANIFEST, MANIFEST_PATH_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID};
+   
+   public static final String[] ARGS_INVALID_MANIFEST_AND_REF_INPUT = {
+      "-" + DistributedDiff.OPTION_KEY_MANIFEST, MANIFEST_PATH_VALID,
+      "-" + DistributedDiff.OPTION_KEY_REF_INPUT_PATH, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID};
+   
+   public static final String[] ARGS_INVALID_MANIFEST_TWO_PASS = {
+      "-" + DistributedDiff.OPTION_KEY_MANIFEST, MANIFEST_PATH_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TWO_PASS};
+   
+   public static final String[] ARGS_VALID_TEST_SETS = {
+      "-" + DistributedDiff.OPTION_KEY_REF_INPUT_PATH, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, "first=" + INPUT_PATH_TEST_VALID,
+      "--" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH_LONG, "second=" + INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID};
+   
+   public static final String[] ARGS_INVALID_TEST_SETS_UNLABELED = {
+      "-" + DistributedDiff.OPTION_KEY_REF_INPUT_PATH, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, "first=" + INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID};
+   
+   public static final String[] ARGS_INVALID_TEST_SETS_PARENT_LABEL = {
+      "-" + DistributedDiff.OPTION_KEY_REF_INPUT_PATH, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, "first=" + INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, "..=" + INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID};
+   
+   public static final String[] ARGS_INVALID_TEST_SETS_HIDDEN_LABEL = {
+      "-" + DistributedDiff.OPTION_KEY_REF_INPUT_PATH, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, "first=" + INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, "_second=" + INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID};
+   
+   public static final String[] ARGS_INVALID_TEST_SETS_DUPLICATE_LABEL = {
+      "-" + DistributedDiff.OPTION_KEY_REF_INPUT_PATH, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, "first=" + INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, "first=" + INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID};
+   
+   public static final String[] ARGS_INVALID_TEST_SETS_TWO_PASS = {
+      "-" + DistributedDiff.OPTION_KEY_REF_INPUT_PATH, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, "first=" + INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, "second=" + INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TWO_PASS};
+   
+   public static final String[] ARGS_VALID_LOCAL_ENGINE = {
+      "-" + DistributedDiff.OPTION_KEY_REF_INPUT_PATH, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID,
+      "--" + DistributedDiff.OPTION_KEY_ENGINE_LONG, DistributedDiff.OPTION_ENGINE_LOCAL};
+   
+   public static final String[] ARGS_INVALID_ENGINE = {
+      "-" + DistributedDiff.OPTION_KEY_REF_INPUT_PATH, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID,
+      "-" + DistributedDiff.OPTION_KEY_ENGINE, "spark"};
+   
+   public static final String[] ARGS_INVALID_LOCAL_ENGINE_TWO_PASS = {
+      "-" + DistributedDiff.OPTION_KEY_REF_INPUT_PATH, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID,
+      "-" + DistributedDiff.OPTION_KEY_ENGINE, DistributedDiff.OPTION_ENGINE_LOCAL,
+      "-" + DistributedDiff.OPTION_KEY_TWO_PASS};
+   
+   public static final String[] ARGS_INVALID_SORTED_INPUTS_TWO_PASS = {
+      "-" + DistributedDiff.OPTION_KEY_REF_INPUT_PATH, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID,
+      "-" + DistributedDiff.OPTION_KEY_SORTED_INPUTS,
+      "-" + DistributedDiff.OPTION_KEY_TWO_PASS};
+   
+   public static final String[] ARGS_INVALID_SORTED_INPUTS_COLLISION_SAFE = {
+      "-" + DistributedDiff.OPTION_KEY_REF_INPUT_PATH, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID,
+      "-" + DistributedDiff.OPTION_KEY_SORTED_INPUTS,
+      "-" + DistributedDiff.OPTION_KEY_COLLISION_SAFE};
+   
+   public static final String[] ARGS_INVALID_SORTED_INPUTS_SECONDARY_SORT = {
+      "-" + DistributedDiff.OPTION_KEY_REF_INPUT_PATH, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID,
+      "-" + DistributedDiff.OPTION_KEY_SORTED_INPUTS,
+      "-" + DistributedDiff.OPTION_KEY_SECONDARY_SORT};
+   
+   public static final String[] ARGS_INVALID_SORTED_INPUTS_MAP_AGGREGATION = {
+      "-" + DistributedDiff.OPTION_KEY_REF_INPUT_PATH, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID,
+      "-" + DistributedDiff.OPTION_KEY_SORTED_INPUTS,
+      "-" + DistributedDiff.OPTION_KEY_MAP_AGGREGATION_MB, "64"};
+   
+   public static final String[] ARGS_INVALID_NUM_REDUCERS = {
+      "-" + DistributedDiff.OPTION_KEY_REF_INPUT_PATH, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID,
+      "-" + DistributedDiff.OPTION_KEY_NUM_REDUCERS, "0"};
+   
+   public static final String[] ARGS_INVALID_SORT_MB = {
+      "-" + DistributedDiff.OPTION_KEY_REF_INPUT_PATH, INPUT_PATH_REF_VALID,
+      "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, INPUT_PATH_TEST_VALID,
+      "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, OUTPUT_PATH_VALID,
+      "-" + DistributedDiff.OPTION_KEY_SORT_MB, "lots"};
+   
    public static final String INPUT_RECORD_PREFIX = "This is a record";
-   public static final String HASH_PREFIX         = "HASH";
 }
@@ -0,0 +1,201 @@
+package com.ryanchapin.ddiff;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobID;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.mapreduce.task.JobContextImpl;
+import org.apache.hadoop.mrunit.mapreduce.ReduceDriver;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+import com.ryanchapin.ddiff.DdiffReducer.DdiffReduceCounter;
+
+/**
+ * Tests for the {@link BatchManifest}, the {@link ManifestInputFormat} that
+ * splits its inputs and the {@link DdiffReducer} in the batch mode.  These
+ * are not run with the PowerMockRunner, as reading the manifest requires a
+ * Hadoop login.
+ */
+public class BatchManifestTest extends BaseTest {
+
+   @Rule
+   public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+   private Configuration conf;
+   private FileSystem fs;
+
+   @Before
+   public void setUp() throws IOException {
+      conf = new Configuration();
+      fs   = FileSystem.getLocal(conf);
+   }
+
+   // ------------------------------------------------------------------------
+   // Test Methods:
+   //
+
+   @Test
+   public void shouldReadPairsSkippingCommentsAndBlankLines() throws IOException {
+      BatchManifest manifest = BatchManifest.read(fs, writeManifest(
+            "# id\treference\ttest", "case-1\t/ref/1\t/test/1", "", "case_2.b\t/ref/2\t/test/2"));
+      assertEquals(2, manifest.size());
+      assertEquals("case-1", manifest.getPairId(0));
+      assertEquals("/ref/1", manifest.getReferencePath(0));
+      assertEquals("/test/1", manifest.getTestPath(0));
+      assertEquals("case_2.b", manifest.getPairId(1));
+   }
+
+   @Test(expected = IOException.class)
+   public void shouldThrowIOExcpOnInvalidPairId() throws IOException {
+      BatchManifest.read(fs, writeManifest("case/1\t/ref/1\t/test/1"));
+   }
+
+   @Test
+   public void shouldThrowIOExcpOnPairIdNotStartingWithLetterOrDigit() throws IOException {
+      for (String pairId : new String[] { ".", "..", "_case", ".case", "-case" }) {
+         Path manifest = writeManifest(pairId + "\t/ref/1\t/test/1");
+         try {
+            BatchManifest.read(fs, manifest);
+            fail("Accepted pair id '" + pairId + "'");
+         } catch (IOException e) {
+            // Expected
+         }
+      }
+   }
+
+   @Test(expected = IOException.class)
+   public void shouldThrowIOExcpOnDuplicatePairId() throws IOException {
+      BatchManifest.read(fs, writeManifest("case\t/ref/1\t/test/1", "case\t/ref/2\t/test/2"));
+   }
+
+   @Test(expected = IOException.class)
+   public void shouldThrowIOExcpOnMissingTestPath() throws IOException {
+      BatchManifest.read(fs, writeManifest("case\t/ref/1"));
+   }
+
+   @Test(expected = IOException.class)
+   public void shouldThrowIOExcpOnEmptyManifest() throws IOException {
+      BatchManifest.read(fs, writeManifest("# no pairs"));
+   }
+
+   @Test
+   public void shouldSplitInputsOfEveryPairWithPairAndSource() throws Exception {
+      // The same reference file is shared by both pairs
+      File ref   = tmpFolder.newFile();
+      File test1 = tmpFolder.newFile();
+      File test2 = tmpFolder.newFile();
+      for (File file : new File[] { ref, test1, test2 }) {
+         Files.write(file.toPath(), (INPUT_RECORD_PREFIX + "\n").getBytes(StandardCharsets.UTF_8));
+      }
+      Path manifest = writeManifest(
+            "one\t" + ref.toURI() + "\t" + test1.toURI(),
+            "two\t" + ref.toURI() + "\t" + test2.toURI());
+      conf.set(DistributedDiff.CONF_MANIFEST_PATH_KEY, manifest.toString());
+
+      List<InputSplit> splits = new ManifestInputFormat().getSplits(
+            new JobContextImpl(conf, new JobID()));
+      assertEquals(4, splits.size());
+      int[] pairs = { 0, 0, 1, 1 };
+      Source[] sources = { Source.REFERENCE, Source.TEST, Source.REFERENCE, Source.TEST };
+      String[] names = { ref.getName(), test1.getName(), ref.getName(), test2.getName() };
+      for (int i = 0; i < splits.size(); i++) {
+         PairSplit split = (PairSplit) splits.get(i);
+         assertEquals(pairs[i], split.getPair());
+         assertEquals(sources[i], split.getSource());
+         assertEquals(names[i], split.getPath().getName());
+      }
+   }
+
+   @Test
+   public void shouldKeepPairsApartInReducer() throws IOException {
+      List<InputRecord> inputRecords = DdiffTestUtils.createInputRecords(1, true);
+      HashKeyWritable hash = DdiffTestUtils.createMapOutputRecords(
+            inputRecords, Source.REFERENCE, 1).get(0).getKey();
+      Text record = new Text(inputRecords.get(0).getRecord());
+      PairHashKeyWritable first = new PairHashKeyWritable();
+      first.set(hash);
+      first.setPair(0);
+      PairHashKeyWritable second = new PairHashKeyWritable();
+      second.set(hash);
+      second.setPair(1);
+
+      // The record is missing from the first pair and extra in the second,
+      // and the reducer writes both to real files, so the named outputs are
+      // defined as for the batch job
+      Job job = Job.getInstance(conf);
+      job.getConfiguration().set(DistributedDiff.CONF_MANIFEST_PATH_KEY,
+            writeManifest("one\t/ref/1\t/test/1", "two\t/ref/2\t/test/2").toString());
+      File outDir = new File(tmpFolder.getRoot(), "out");
+      FileOutputFormat.setOutputPath(job, new Path(outDir.toURI().toString()));
+      for (String namedOutput : new String[] {
+            DistributedDiff.MISSING_OUTPUT, DistributedDiff.EXTRA_OUTPUT })
+      {
+         MultipleOutputs.addNamedOutput(job, namedOutput,
+               TextOutputFormat.class, Text.class, LongWritable.class);
+      }
+      MultipleOutputs.addNamedOutput(job, DistributedDiff.SUMMARY_OUTPUT,
+            TextOutputFormat.class, Text.class, Text.class);
+
+      ReduceDriver<HashKeyWritable, TaggedTextWithCountWritableComparable,
+                   Text, LongWritable> reduceDriver =
+            ReduceDriver.newReduceDriver(new DdiffReducer());
+      DdiffTestUtils.copyConfiguration(job.getConfiguration(), reduceDriver.getConfiguration());
+      reduceDriver.withInput(first, ImmutableList.of(
+            new TaggedTextWithCountWritableComparable(record, Source.REFERENCE, 2L)));
+      reduceDriver.withInput(second, ImmutableList.of(
+            new TaggedTextWithCountWritableComparable(record, Source.REFERENCE, 1L),
+            new TaggedTextWithCountWritableComparable(record, Source.TEST, -3L)));
+      reduceDriver.run();
+
+      Map<DdiffReduceCounter, Long> expectedCounts = new HashMap<DdiffReduceCounter, Long>();
+      expectedCounts.put(DdiffReduceCounter.MISSING, 2L);
+      expectedCounts.put(DdiffReduceCounter.EXTRA, 2L);
+      expectedCounts.put(DdiffReduceCounter.REFERENCE_SOURCE, 3L);
+      expectedCounts.put(DdiffReduceCounter.TEST_SOURCE, 3L);
+      expectedCounts.put(DdiffReduceCounter.INVALID_SOURCE, 0L);
+      DdiffTestUtils.validateCounters(reduceDriver.getCounters(), expectedCounts,
+            DdiffReduceCounter.class);
+      assertEquals(2L, reduceDriver.getCounters().findCounter(
+            DistributedDiff.PAIR_COUNTER_GROUP, "one." + DistributedDiff.MISSING_OUTPUT).getValue());
+      assertEquals(2L, reduceDriver.getCounters().findCounter(
+            DistributedDiff.PAIR_COUNTER_GROUP, "two." + DistributedDiff.EXTRA_OUTPUT).getValue());
+      assertEquals(0L, reduceDriver.getCounters().findCounter(
+            DistributedDiff.PAIR_COUNTER_GROUP, "two." + DistributedDiff.MISSING_OUTPUT).getValue());
+   }
+
+   // ------------------------------------------------------------------------
+   // Utility Methods:
+   //
+
+   private Path writeManifest(String... lines) throws IOException {
+      StringBuilder sb = new StringBuilder();
+      for (String line : lines) {
+         sb.append(line).append('\n');
+      }
+      File file = tmpFolder.newFile();
+      Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+      return new Path(file.toURI().toString());
+   }
+}
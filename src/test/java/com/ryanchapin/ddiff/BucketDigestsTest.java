@@ -0,0 +1,94 @@
+package com.ryanchapin.ddiff;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the {@link BucketDigests}.  These are not run with the
+ * PowerMockRunner, as writing the dirty buckets requires a Hadoop login.
+ */
+public class BucketDigestsTest extends BaseTest {
+
+   @Rule
+   public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+   // ------------------------------------------------------------------------
+   // Utility Methods:
+   //
+
+   private static void add(BucketDigests digests, String record, long sign) {
+      byte[] hash = DigestUtils.md5(record.getBytes(StandardCharsets.UTF_8));
+      digests.add(hash, hash.length, sign);
+   }
+
+   private static int getBucket(String record, int numBuckets) {
+      return BucketDigests.getBucket(
+            DigestUtils.md5(record.getBytes(StandardCharsets.UTF_8)), numBuckets);
+   }
+
+   // ------------------------------------------------------------------------
+   // Test Methods:
+   //
+
+   @Test
+   public void shouldOnlyDirtyBucketsWithUnmatchedRecords() {
+      int numBuckets = 1 << 16;
+      BucketDigests digests = new BucketDigests(numBuckets);
+      for (int i = 0; i < 5000; i++) {
+         add(digests, INPUT_RECORD_PREFIX + i, Source.REFERENCE.getSign());
+      }
+      for (int i = 4999; i > 0; i--) {
+         add(digests, INPUT_RECORD_PREFIX + i, Source.TEST.getSign());
+      }
+      add(digests, INPUT_RECORD_PREFIX + 1, Source.TEST.getSign());
+
+      BitSet expected = new BitSet();
+      expected.set(getBucket(INPUT_RECORD_PREFIX + 0, numBuckets));
+      expected.set(getBucket(INPUT_RECORD_PREFIX + 1, numBuckets));
+      assertEquals(expected, digests.getDirtyBuckets());
+   }
+
+   @Test
+   public void shouldAssignBucketsInHashOrder() {
+      byte[] hash = new byte[16];
+      assertEquals(0, BucketDigests.getBucket(hash, 1024));
+      hash[0] = (byte) 0x80;
+      assertEquals(512, BucketDigests.getBucket(hash, 1024));
+      hash[0] = (byte) 0xFF;
+      hash[1] = (byte) 0xFF;
+      assertEquals(1023, BucketDigests.getBucket(hash, 1024));
+   }
+
+   @Test
+   public void shouldReadBackWrittenBuckets() throws IOException {
+      BitSet buckets = new BitSet();
+      buckets.set(3);
+      buckets.set(64);
+      buckets.set(65535);
+
+      FileSystem fs = FileSystem.getLocal(new Configuration());
+      Path file = new Path(tmpFolder.newFolder().toURI().toString(), "dirty-buckets");
+      BucketDigests.writeBuckets(fs, file, buckets);
+      assertEquals(buckets, BucketDigests.readBuckets(fs, file));
+
+      BucketDigests.writeBuckets(fs, file, new BitSet());
+      assertTrue(BucketDigests.readBuckets(fs, file).isEmpty());
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void shouldThrowIllegalArgExcpOnNonPositiveNumBuckets() {
+      new BucketDigests(0);
+   }
+}
@@ -6,7 +6,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Counters;
 import org.apache.hadoop.mrunit.mapreduce.ReduceDriver;
@@ -17,6 +16,7 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.ImmutableList;
 import com.ryanchapin.ddiff.DdiffCombiner.DdiffCombinerCounter;
 
 public class DdiffCombinerTest extends BaseTest {
@@ -24,9 +24,9 @@ public class DdiffCombinerTest extends BaseTest {
    @SuppressWarnings("unused")
    private static final Logger LOGGER = LoggerFactory.getLogger(DdiffCombinerTest.class);
    
-   private ReduceDriver<Text,
+   private ReduceDriver<HashKeyWritable,
                         TaggedTextWithCountWritableComparable,
-                        Text,
+                        HashKeyWritable,
                         TaggedTextWithCountWritableComparable> reduceDriver;
    
    // ------------------------------------------------------------------------
@@ -35,9 +35,9 @@ public class DdiffCombinerTest extends BaseTest {
    
    @Before
    public void setUp() throws Exception {
-      reduceDriver = new ReduceDriver<Text,
+      reduceDriver = new ReduceDriver<HashKeyWritable,
                                       TaggedTextWithCountWritableComparable,
-                                      Text,
+                                      HashKeyWritable,
                                       TaggedTextWithCountWritableComparable>();
       DdiffCombiner ddiffCombiner = new DdiffCombiner();
       reduceDriver.setReducer(ddiffCombiner);
@@ -61,7 +61,7 @@ public class DdiffCombinerTest extends BaseTest {
       
       // Set up the expected output
       InputRecord inputRecord = inputRecords.get(0);
-      final Text inputKey = new Text(inputRecord.getHash().toString());
+      final HashKeyWritable inputKey = DdiffTestUtils.createHashKey(inputRecord.getHash());
       
       List<TaggedTextWithCountWritableComparable> inputValues =
             new ArrayList<TaggedTextWithCountWritableComparable>(mapOutputRecords.size());
@@ -74,17 +74,17 @@ public class DdiffCombinerTest extends BaseTest {
       // We should have one TaggedTextWithCountWritableComparable with a count
       // of numDuplicates
       MapOutputRecord mor = mapOutputRecords.get(0);
-      final Text outputKey = new Text(
+      final HashKeyWritable outputKey = DdiffTestUtils.createHashKey(
             mapOutputRecords.get(0).getKey().toString());
       final TaggedTextWithCountWritableComparable outputVal =
             new TaggedTextWithCountWritableComparable(
                   new Text(mor.getValue().getRecord().toString()),
-                  new Text(mor.getValue().getSource().toString()),
-                  new IntWritable(numDuplicates)
+                  mor.getValue().getSource(),
+                  mor.getValue().getSource().getSign() * numDuplicates
                   );
       
-      final Pair<Text, TaggedTextWithCountWritableComparable> output =
-            new Pair<Text, TaggedTextWithCountWritableComparable>(outputKey, outputVal);
+      final Pair<HashKeyWritable, TaggedTextWithCountWritableComparable> output =
+            new Pair<HashKeyWritable, TaggedTextWithCountWritableComparable>(outputKey, outputVal);
       
       reduceDriver.addOutput(output);
       reduceDriver.runTest();
@@ -114,4 +114,35 @@ public class DdiffCombinerTest extends BaseTest {
       
       runCombinerTest(Source.TEST, numDups, expectedCounts);
    }
+   
+   @Test
+   public void shouldCancelMatchedRecordsFromBothSources() throws IOException {
+      List<InputRecord> inputRecords = DdiffTestUtils.createInputRecords(1, true);
+      List<MapOutputRecord> refRecords =
+            DdiffTestUtils.createMapOutputRecords(inputRecords, Source.REFERENCE, 2);
+      List<MapOutputRecord> testRecords =
+            DdiffTestUtils.createMapOutputRecords(inputRecords, Source.TEST, 2);
+      
+      reduceDriver.withInput(refRecords.get(0).getKey(), ImmutableList.of(
+            refRecords.get(0).getValue(), testRecords.get(0).getValue()));
+      
+      // Matched records net to zero, so nothing should be emitted
+      reduceDriver.runTest();
+   }
+   
+   @Test
+   public void shouldEmitNetCountTaggedWithExcessSource() throws IOException {
+      List<InputRecord> inputRecords = DdiffTestUtils.createInputRecords(1, true);
+      List<MapOutputRecord> refRecords =
+            DdiffTestUtils.createMapOutputRecords(inputRecords, Source.REFERENCE, 1);
+      List<MapOutputRecord> testRecords =
+            DdiffTestUtils.createMapOutputRecords(inputRecords, Source.TEST, 3);
+      
+      HashKeyWritable key = refRecords.get(0).getKey();
+      reduceDriver.withInput(key, ImmutableList.of(
+            refRecords.get(0).getValue(), testRecords.get(0).getValue()));
+      reduceDriver.withOutput(key, new TaggedTextWithCountWritableComparable(
+            new Text(inputRecords.get(0).getRecord()), Source.TEST, -2L));
+      reduceDriver.runTest();
+   }
 }
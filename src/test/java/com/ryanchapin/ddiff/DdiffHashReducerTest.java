@@ -0,0 +1,91 @@
+package com.ryanchapin.ddiff;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mrunit.mapreduce.ReduceDriver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.ryanchapin.ddiff.DdiffReducer.DdiffReduceCounter;
+
+public class DdiffHashReducerTest extends BaseTest {
+
+   private ReduceDriver<HashKeyWritable,
+                        TaggedTextWithCountWritableComparable,
+                        HashKeyWritable,
+                        LongWritable> reduceDriver;
+
+   // ------------------------------------------------------------------------
+   // Utility Methods:
+   //
+
+   @Before
+   public void setUp() throws Exception {
+      reduceDriver = new ReduceDriver<HashKeyWritable,
+                                      TaggedTextWithCountWritableComparable,
+                                      HashKeyWritable,
+                                      LongWritable>();
+      reduceDriver.setReducer(new DdiffHashReducer());
+   }
+
+   @After
+   public void tearDown() {
+      reduceDriver = null;
+   }
+
+   private void runHashReducerTest(int refCount, int testCount, Long expectedDiff)
+         throws IOException
+   {
+      List<InputRecord> inputRecords = DdiffTestUtils.createInputRecords(1, true);
+      List<MapOutputRecord> refRecords =
+            DdiffTestUtils.createMapOutputRecords(inputRecords, Source.REFERENCE, refCount);
+      List<MapOutputRecord> testRecords =
+            DdiffTestUtils.createMapOutputRecords(inputRecords, Source.TEST, testCount);
+
+      HashKeyWritable key = refRecords.get(0).getKey();
+      reduceDriver.withInput(key, ImmutableList.of(
+            refRecords.get(0).getValue(), testRecords.get(0).getValue()));
+      if (null != expectedDiff) {
+         reduceDriver.withOutput(key, new LongWritable(expectedDiff));
+      }
+      reduceDriver.runTest();
+
+      Map<DdiffReduceCounter, Long> expectedCounts =
+            new HashMap<DdiffReduceCounter, Long>();
+      long diff = refCount - testCount;
+      expectedCounts.put(DdiffReduceCounter.MISSING, diff > 0 ? diff : 0L);
+      expectedCounts.put(DdiffReduceCounter.EXTRA, diff < 0 ? -diff : 0L);
+      expectedCounts.put(DdiffReduceCounter.REFERENCE_SOURCE, (long) refCount);
+      expectedCounts.put(DdiffReduceCounter.TEST_SOURCE, (long) testCount);
+      expectedCounts.put(DdiffReduceCounter.INVALID_SOURCE, 0L);
+
+      Counters counters = reduceDriver.getCounters();
+      DdiffTestUtils.validateCounters(counters, expectedCounts, DdiffReduceCounter.class);
+   }
+
+   // ------------------------------------------------------------------------
+   // Test Methods:
+   //
+
+   @Test
+   public void shouldWriteNothingForMatchedHash() throws IOException {
+      runHashReducerTest(3, 3, null);
+   }
+
+   @Test
+   public void shouldWritePositiveDiffForMissingRecords() throws IOException {
+      runHashReducerTest(4, 1, 3L);
+   }
+
+   @Test
+   public void shouldWriteNegativeDiffForExtraRecords() throws IOException {
+      runHashReducerTest(1, 5, -4L);
+   }
+}
@@ -1,15 +1,12 @@
 package com.ryanchapin.ddiff;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Counters;
@@ -18,11 +15,8 @@ import org.apache.hadoop.mrunit.mapreduce.MapReduceDriver;
 import org.apache.hadoop.mrunit.mapreduce.ReduceDriver;
 import org.apache.hadoop.mrunit.types.Pair;
 import org.junit.After;
-import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.mockito.Mockito;
-import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 import org.slf4j.Logger;
@@ -31,7 +25,6 @@ import org.slf4j.LoggerFactory;
 import com.google.common.collect.ImmutableList;
 import com.ryanchapin.ddiff.DdiffMapper.DdiffMapperCounter;
 import com.ryanchapin.ddiff.DdiffReducer.DdiffReduceCounter;
-import com.ryanchapin.util.HashGenerator;
 
 /**
  * Test cases for the MapReduce classes.
@@ -44,41 +37,34 @@ import com.ryanchapin.util.HashGenerator;
  */
 @RunWith(PowerMockRunner.class)
 @PrepareForTest({
-   DdiffReducer.class, HashGenerator.class
+   DdiffReducer.class
 })
 public class DdiffMapperReducerTest extends BaseTest{
 
    private static final Logger LOGGER = LoggerFactory.getLogger(DdiffMapperReducerTest.class);
    
    private MapDriver<LongWritable,
-                     Text, Text,
+                     Text, HashKeyWritable,
                      TaggedTextWithCountWritableComparable> mapDriverRef;
 
    private MapDriver<LongWritable,
-                     Text, Text,
+                     Text, HashKeyWritable,
                      TaggedTextWithCountWritableComparable> mapDriverTest;
    
-   private ReduceDriver<Text,
+   private ReduceDriver<HashKeyWritable,
                         TaggedTextWithCountWritableComparable,
                         Text,
-                        IntWritable> reduceDriver;
+                        LongWritable> reduceDriver;
    
    private MapReduceDriver<LongWritable,
-                           Text, Text,
+                           Text, HashKeyWritable,
                            TaggedTextWithCountWritableComparable,
-                           Text, IntWritable> mapReduceDriver;
+                           Text, LongWritable> mapReduceDriver;
    
    // ------------------------------------------------------------------------
    // Utility Methods:
    //
    
-   @Before
-   public void setUp() throws Exception {
-      // Call the mock set-up for this class to reset all of the expectations
-      // before each run.
-      PowerMockito.mockStatic(HashGenerator.class);
-   }
-   
    @After
    public void tearDown() {
       mapDriverRef      = null;
@@ -86,7 +72,7 @@ public class DdiffMapperReducerTest extends BaseTest{
       reduceDriver      = null;
    }
    
-   private MapDriver<LongWritable, Text, Text, TaggedTextWithCountWritableComparable>
+   private MapDriver<LongWritable, Text, HashKeyWritable, TaggedTextWithCountWritableComparable>
       setupMapper(Source source, int numRows)
    {
       if (null == source) {
@@ -117,9 +103,9 @@ public class DdiffMapperReducerTest extends BaseTest{
             break;
       }
 
-      MapDriver<LongWritable, Text, Text, TaggedTextWithCountWritableComparable> mapDriver =
+      MapDriver<LongWritable, Text, HashKeyWritable, TaggedTextWithCountWritableComparable> mapDriver =
             new MapDriver<LongWritable,
-                          Text, Text,
+                          Text, HashKeyWritable,
                           TaggedTextWithCountWritableComparable>();
       
       mapDriver.setMapper(ddiffMapper);
@@ -127,26 +113,12 @@ public class DdiffMapperReducerTest extends BaseTest{
       conf.set(DistributedDiff.CONF_HASH_ALGO_KEY, DdiffMapper.HASH_ALGO_DEFAULT.toString());
 
       
-      // Based on the contents of inputRecords and outputRecords set up
-      // all of the mock expectations for the hash generator and add the
-      // input and expected output to the mapDriver.
+      // Based on the contents of inputRecords and outputRecords add the
+      // input and expected output to the mapDriver.  The expected keys are
+      // the actual digests of each input record.
       
       for (int i = 0; i < numRows; i++) {
          
-         try {
-            Mockito.when(HashGenerator.createHash(
-                  inputRecords.get(i).getRecord(), DdiffMapper.ENCODING_DEFAULT, DdiffMapper.HASH_ALGO_DEFAULT))
-                  .thenReturn(inputRecords.get(i).getHash()
-            );
-         } catch (UnsupportedEncodingException |
-               IllegalArgumentException |
-               NoSuchAlgorithmException e) {
-            LOGGER.error("Setting and/or invoking the mock of the static " +
-                  " HashGenerator methods threw an exception, " +
-                  " e = {}", e.toString());
-            e.printStackTrace();
-         }
-         
          mapDriver.addInput(new LongWritable(i + 1),
                new Text(inputRecords.get(i).getRecord()));
          mapDriver.addOutput(outputRecords.get(i).getKey(),
@@ -156,10 +128,10 @@ public class DdiffMapperReducerTest extends BaseTest{
    }
    
    private void setUpReducer() {
-      reduceDriver = new ReduceDriver<Text,
+      reduceDriver = new ReduceDriver<HashKeyWritable,
                                     TaggedTextWithCountWritableComparable,
                                     Text,
-                                    IntWritable>();
+                                    LongWritable>();
       DdiffReducer ddiffReducer = new DdiffReducer();
       reduceDriver.setReducer(ddiffReducer);
    }
@@ -167,9 +139,9 @@ public class DdiffMapperReducerTest extends BaseTest{
    private void setUpMapReducer(Source source) {
       mapReduceDriver = new MapReduceDriver<
             LongWritable,
-            Text, Text,
+            Text, HashKeyWritable,
             TaggedTextWithCountWritableComparable,
-            Text, IntWritable>();
+            Text, LongWritable>();
       
       DdiffMapper dDiffMapper = null;
       switch (source) {
@@ -210,23 +182,10 @@ public class DdiffMapperReducerTest extends BaseTest{
       }
       mapReduceDriver.addAll(inputList);
 
-      // Set up the mockHashGenerator to return the expected hash
-      try {
-         Mockito.when(
-               HashGenerator.createHash(inputRecord.getRecord(),
-                     DdiffMapper.ENCODING_DEFAULT, DdiffMapper.HASH_ALGO_DEFAULT))
-                     .thenReturn(inputRecord.getHash());
-      } catch (IllegalArgumentException | NoSuchAlgorithmException e) {
-         LOGGER.error("Setting and/or invoking the mock of the static " +
-               " HashGenerator methods threw an exception, " +
-               " e = {}", e.toString());
-         e.printStackTrace();
-      }
-
       // Set up the expected Reduce-side output
       final Text outputKey = new Text(inputRecord.getRecord());
-      final IntWritable outputVal = new IntWritable(numInputRecords);
-      final Pair<Text, IntWritable> output = new Pair<Text, IntWritable>(
+      final LongWritable outputVal = new LongWritable(numInputRecords);
+      final Pair<Text, LongWritable> output = new Pair<Text, LongWritable>(
             outputKey, outputVal);
       mapReduceDriver.addMultiOutput(namedOutput, output);
 
@@ -278,9 +237,9 @@ public class DdiffMapperReducerTest extends BaseTest{
       mapDriverRef = setupMapper(Source.REFERENCE, numRows);
       mapDriverRef.run();
       
-      List<Pair<Text, TaggedTextWithCountWritableComparable>> output =
+      List<Pair<HashKeyWritable, TaggedTextWithCountWritableComparable>> output =
             mapDriverRef.getExpectedOutputs();
-      for (Pair<Text, TaggedTextWithCountWritableComparable> pair : output) {
+      for (Pair<HashKeyWritable, TaggedTextWithCountWritableComparable> pair : output) {
          LOGGER.debug(pair.getFirst().toString());
       }
       
@@ -328,7 +287,7 @@ public class DdiffMapperReducerTest extends BaseTest{
       mapOutputRecords.addAll(
           DdiffTestUtils.createMapOutputRecords(inputRecords, Source.TEST, numRecPerSource));
       
-      final Text key = new Text(inputRecords.get(0).getHash().toString());
+      final HashKeyWritable key = mapOutputRecords.get(0).getKey();
       final ImmutableList<TaggedTextWithCountWritableComparable> values =
           ImmutableList.of(
                 mapOutputRecords.get(0).getValue(),
@@ -375,7 +334,7 @@ public class DdiffMapperReducerTest extends BaseTest{
       List<MapOutputRecord> mapOutputRecords =
             DdiffTestUtils.createMapOutputRecords(inputRecords, Source.REFERENCE, numRecPerSource);
 
-      final Text key = new Text(inputRecords.get(0).getHash().toString());
+      final HashKeyWritable key = mapOutputRecords.get(0).getKey();
       final ImmutableList<TaggedTextWithCountWritableComparable> values =
           ImmutableList.of(
                 mapOutputRecords.get(0).getValue()
@@ -386,10 +345,10 @@ public class DdiffMapperReducerTest extends BaseTest{
       // Set up our expected output
       final Text outputKey = new Text(
             mapOutputRecords.get(0).getValue().getRecord().toString());
-      final IntWritable outputVal = new IntWritable(numRecPerSource);
+      final LongWritable outputVal = new LongWritable(numRecPerSource);
       
-      final Pair<Text, IntWritable> output =
-          new Pair<Text, IntWritable>(outputKey, outputVal);
+      final Pair<Text, LongWritable> output =
+          new Pair<Text, LongWritable>(outputKey, outputVal);
       reduceDriver.addMultiOutput(DistributedDiff.MISSING_OUTPUT, output);
       reduceDriver.runTest();
             
@@ -424,7 +383,7 @@ public class DdiffMapperReducerTest extends BaseTest{
       List<MapOutputRecord> mapOutputRecords =
             DdiffTestUtils.createMapOutputRecords(inputRecords, Source.TEST, numRecPerSource);
 
-      final Text key = new Text(inputRecords.get(0).getHash().toString());
+      final HashKeyWritable key = mapOutputRecords.get(0).getKey();
       final ImmutableList<TaggedTextWithCountWritableComparable> values =
           ImmutableList.of(
                 mapOutputRecords.get(0).getValue()
@@ -435,10 +394,10 @@ public class DdiffMapperReducerTest extends BaseTest{
       // Set up our expected output
       final Text outputKey = new Text(
             mapOutputRecords.get(0).getValue().getRecord().toString());
-      final IntWritable outputVal = new IntWritable(numRecPerSource);
+      final LongWritable outputVal = new LongWritable(numRecPerSource);
       
-      final Pair<Text, IntWritable> output =
-          new Pair<Text, IntWritable>(outputKey, outputVal);
+      final Pair<Text, LongWritable> output =
+          new Pair<Text, LongWritable>(outputKey, outputVal);
       reduceDriver.addMultiOutput(DistributedDiff.EXTRA_OUTPUT, output);
       reduceDriver.runTest(); 
       
@@ -477,7 +436,7 @@ public class DdiffMapperReducerTest extends BaseTest{
             DdiffTestUtils.createMapOutputRecords(inputRecords, Source.TEST, 1)
             );
       
-      final Text key = new Text(inputRecords.get(0).getHash().toString());
+      final HashKeyWritable key = mapOutputRecords.get(0).getKey();
       final ImmutableList<TaggedTextWithCountWritableComparable> values =
           ImmutableList.of(
                 mapOutputRecords.get(0).getValue(),
@@ -489,10 +448,10 @@ public class DdiffMapperReducerTest extends BaseTest{
       final Text outputKey = new Text(
             mapOutputRecords.get(0).getValue().getRecord().toString());
       // There should be 3 records that have been found missing
-      final IntWritable outputVal = new IntWritable(3);
+      final LongWritable outputVal = new LongWritable(3);
       
-      final Pair<Text, IntWritable> output =
-            new Pair<Text, IntWritable>(outputKey, outputVal);
+      final Pair<Text, LongWritable> output =
+            new Pair<Text, LongWritable>(outputKey, outputVal);
       reduceDriver.addMultiOutput(DistributedDiff.MISSING_OUTPUT, output);
       reduceDriver.runTest();
       
@@ -531,7 +490,7 @@ public class DdiffMapperReducerTest extends BaseTest{
             DdiffTestUtils.createMapOutputRecords(inputRecords, Source.TEST, 5)
             );
       
-      final Text key = new Text(inputRecords.get(0).getHash().toString());
+      final HashKeyWritable key = mapOutputRecords.get(0).getKey();
       final ImmutableList<TaggedTextWithCountWritableComparable> values =
           ImmutableList.of(
                 mapOutputRecords.get(0).getValue(),
@@ -543,10 +502,10 @@ public class DdiffMapperReducerTest extends BaseTest{
       final Text outputKey = new Text(
             mapOutputRecords.get(0).getValue().getRecord().toString());
       // There should be 4 records that have been found missing
-      final IntWritable outputVal = new IntWritable(4);
+      final LongWritable outputVal = new LongWritable(4);
       
-      final Pair<Text, IntWritable> output =
-            new Pair<Text, IntWritable>(outputKey, outputVal);
+      final Pair<Text, LongWritable> output =
+            new Pair<Text, LongWritable>(outputKey, outputVal);
       reduceDriver.addMultiOutput(DistributedDiff.EXTRA_OUTPUT, output);
       reduceDriver.runTest();
       
@@ -588,11 +547,11 @@ public class DdiffMapperReducerTest extends BaseTest{
       // Generate a record with an invalid source
       TaggedTextWithCountWritableComparable invalidRecord =
             new TaggedTextWithCountWritableComparable();
-      invalidRecord.setCount(new IntWritable(3));
+      invalidRecord.setCount(3L);
       invalidRecord.setRecord(new Text(inputRecords.get(0).getRecord().toString()));
-      invalidRecord.setSource(new Text("foo"));
+      invalidRecord.setSourceId((byte) 99);
       
-      final Text key = new Text(inputRecords.get(0).getHash().toString());
+      final HashKeyWritable key = mapOutputRecords.get(0).getKey();
       final ImmutableList<TaggedTextWithCountWritableComparable> values =
           ImmutableList.of(
                 mapOutputRecords.get(0).getValue(),
@@ -619,6 +578,91 @@ public class DdiffMapperReducerTest extends BaseTest{
       DdiffTestUtils.validateCounters(counters, expectedCounts, DdiffReduceCounter.class);
    }
    
+   /**
+    * Simulates a hash collision by passing two distinct records under the
+    * same key.  In the collision-safe mode the reducer should compare the
+    * full records and report one missing and one extra record.
+    * 
+    * @throws IOException
+    */
+   @Test
+   public void shouldSeparateCollidingRecordsInCollisionSafeMode() throws IOException {
+      setUpReducer();
+      reduceDriver.getConfiguration().setBoolean(
+            DistributedDiff.CONF_COLLISION_SAFE_KEY, true);
+      
+      List<InputRecord> inputRecords = 
+            DdiffTestUtils.createInputRecords(2, false);
+      List<MapOutputRecord> refRecords =
+            DdiffTestUtils.createMapOutputRecords(inputRecords, Source.REFERENCE, 1);
+      List<MapOutputRecord> testRecords =
+            DdiffTestUtils.createMapOutputRecords(inputRecords, Source.TEST, 1);
+      
+      // Both values are reduced under the key of the first record
+      final HashKeyWritable key = refRecords.get(0).getKey();
+      final ImmutableList<TaggedTextWithCountWritableComparable> values =
+          ImmutableList.of(
+                refRecords.get(0).getValue(),
+                testRecords.get(1).getValue()
+                );
+      
+      reduceDriver.withInput(key, values);
+      reduceDriver.run();
+      
+      Map<DdiffReduceCounter, Long> expectedCounts =
+            new HashMap<DdiffReduceCounter, Long>();
+      expectedCounts.put(DdiffReduceCounter.MISSING, 1L);
+      expectedCounts.put(DdiffReduceCounter.EXTRA, 1L);
+      expectedCounts.put(DdiffReduceCounter.REFERENCE_SOURCE, 1L);
+      expectedCounts.put(DdiffReduceCounter.TEST_SOURCE, 1L);
+      expectedCounts.put(DdiffReduceCounter.INVALID_SOURCE, 0L);
+      
+      Counters counters = reduceDriver.getCounters();
+      DdiffTestUtils.validateCounters(counters, expectedCounts, DdiffReduceCounter.class);
+   }
+   
+   /**
+    * In the secondary sort mode the values carry empty records and the
+    * reducer should net the counts against the record carried by the key.
+    *
+    * @throws IOException
+    */
+   @Test
+   public void shouldReadRecordFromKeyInSecondarySortMode() throws IOException {
+      setUpReducer();
+      reduceDriver.getConfiguration().setBoolean(
+            DistributedDiff.CONF_SECONDARY_SORT_KEY, true);
+
+      InputRecord inputRecord = DdiffTestUtils.createInputRecords(1, true).get(0);
+      HashKeyWritable hashKey = DdiffTestUtils.createHashKey(inputRecord.getHash());
+      HashRecordKeyWritable key = new HashRecordKeyWritable();
+      key.set(hashKey.getBytes(), 0, hashKey.getLength());
+      key.setRecord(new Text(inputRecord.getRecord()));
+      key.setSourceId(Source.REFERENCE.getId());
+
+      final ImmutableList<TaggedTextWithCountWritableComparable> values =
+          ImmutableList.of(
+                new TaggedTextWithCountWritableComparable(new Text(), Source.REFERENCE, 4L),
+                new TaggedTextWithCountWritableComparable(new Text(), Source.TEST, -1L)
+                );
+
+      reduceDriver.withInput(key, values);
+      reduceDriver.addMultiOutput(DistributedDiff.MISSING_OUTPUT,
+            new Pair<Text, LongWritable>(new Text(inputRecord.getRecord()), new LongWritable(3)));
+      reduceDriver.runTest();
+
+      Map<DdiffReduceCounter, Long> expectedCounts =
+            new HashMap<DdiffReduceCounter, Long>();
+      expectedCounts.put(DdiffReduceCounter.MISSING, 3L);
+      expectedCounts.put(DdiffReduceCounter.EXTRA, 0L);
+      expectedCounts.put(DdiffReduceCounter.REFERENCE_SOURCE, 4L);
+      expectedCounts.put(DdiffReduceCounter.TEST_SOURCE, 1L);
+      expectedCounts.put(DdiffReduceCounter.INVALID_SOURCE, 0L);
+
+      Counters counters = reduceDriver.getCounters();
+      DdiffTestUtils.validateCounters(counters, expectedCounts, DdiffReduceCounter.class);
+   }
+
    @Test
    public void shouldRunMRandReturnFiveExtra() throws IOException {
       Map<DdiffMapperCounter, Long> expectedMapCounts =
@@ -0,0 +1,258 @@
+package com.ryanchapin.ddiff;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mrunit.mapreduce.MapDriver;
+import org.apache.hadoop.mrunit.types.Pair;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ryanchapin.ddiff.DdiffMapper.DdiffMapperCounter;
+
+/**
+ * Tests for the {@link DdiffMapper} configurations used by the two-pass
+ * broadcast and bucket digest modes and by in-mapper aggregation.  These are not run with
+ * the PowerMockRunner, as reading the cached files requires a Hadoop login.
+ */
+public class DdiffMapperTest extends BaseTest {
+
+   @Rule
+   public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+   // ------------------------------------------------------------------------
+   // Test Methods:
+   //
+
+   @Test
+   public void shouldEmitEmptyRecordsInHashOnlyMode() throws IOException {
+      List<InputRecord> inputRecords = DdiffTestUtils.createInputRecords(3, false);
+      List<MapOutputRecord> outputRecords =
+            DdiffTestUtils.createMapOutputRecords(inputRecords, Source.REFERENCE, 1);
+
+      MapDriver<LongWritable, Text, HashKeyWritable, TaggedTextWithCountWritableComparable> mapDriver =
+            MapDriver.newMapDriver(new DdiffMapperReferenceInput());
+      mapDriver.getConfiguration().setBoolean(DistributedDiff.CONF_HASH_ONLY_KEY, true);
+
+      for (int i = 0; i < inputRecords.size(); i++) {
+         mapDriver.addInput(new LongWritable(i + 1),
+               new Text(inputRecords.get(i).getRecord()));
+         mapDriver.addOutput(outputRecords.get(i).getKey(),
+               new TaggedTextWithCountWritableComparable(new Text(), Source.REFERENCE, 1L));
+      }
+      mapDriver.runTest();
+   }
+
+   @Test
+   public void shouldOnlyEmitRecordsInCachedHashFilter() throws IOException {
+      List<InputRecord> inputRecords = DdiffTestUtils.createInputRecords(4, false);
+      List<MapOutputRecord> outputRecords =
+            DdiffTestUtils.createMapOutputRecords(inputRecords, Source.TEST, 1);
+
+      // Write out the hash of the second record as the first job would
+      Configuration conf = new Configuration();
+      Path hashFile = new Path(tmpFolder.newFolder().toURI().toString(), "part-r-00000");
+      SequenceFile.Writer writer = SequenceFile.createWriter(conf,
+            SequenceFile.Writer.file(hashFile),
+            SequenceFile.Writer.keyClass(HashKeyWritable.class),
+            SequenceFile.Writer.valueClass(LongWritable.class));
+      try {
+         writer.append(outputRecords.get(1).getKey(), new LongWritable(-1L));
+      } finally {
+         writer.close();
+      }
+
+      MapDriver<LongWritable, Text, HashKeyWritable, TaggedTextWithCountWritableComparable> mapDriver =
+            MapDriver.newMapDriver(new DdiffMapperTestInput());
+      mapDriver.getConfiguration().setBoolean(DistributedDiff.CONF_HASH_FILTER_KEY, true);
+      mapDriver.withCacheFile(cacheUri(hashFile, DistributedDiff.HASH_CACHE_FILE_PREFIX + 0));
+
+      for (int i = 0; i < inputRecords.size(); i++) {
+         mapDriver.addInput(new LongWritable(i + 1),
+               new Text(inputRecords.get(i).getRecord()));
+      }
+      mapDriver.addOutput(outputRecords.get(1).getKey(), outputRecords.get(1).getValue());
+      mapDriver.runTest();
+   }
+
+   @Test
+   public void shouldEmitNetCountsWithInMapperAggregation() throws IOException {
+      List<InputRecord> inputRecords = DdiffTestUtils.createInputRecords(3, false);
+      List<MapOutputRecord> outputRecords =
+            DdiffTestUtils.createMapOutputRecords(inputRecords, Source.TEST, 1);
+
+      MapDriver<LongWritable, Text, HashKeyWritable, TaggedTextWithCountWritableComparable> mapDriver =
+            MapDriver.newMapDriver(new DdiffMapperTestInput());
+      mapDriver.getConfiguration().setInt(DistributedDiff.CONF_MAP_AGGREGATION_MB_KEY, 1);
+
+      // Read each record, and the second one twice more
+      long offset = 0;
+      for (InputRecord inputRecord : inputRecords) {
+         mapDriver.addInput(new LongWritable(offset++), new Text(inputRecord.getRecord()));
+      }
+      for (int i = 0; i < 2; i++) {
+         mapDriver.addInput(new LongWritable(offset++),
+               new Text(inputRecords.get(1).getRecord()));
+      }
+
+      // Each distinct record is emitted once, when the task completes, in
+      // the order of the slots of the table rather than the input
+      for (int i = 0; i < outputRecords.size(); i++) {
+         long count = (i == 1) ? -3L : -1L;
+         mapDriver.addOutput(outputRecords.get(i).getKey(),
+               new TaggedTextWithCountWritableComparable(
+                     new Text(inputRecords.get(i).getRecord()), Source.TEST, count));
+      }
+      mapDriver.runTest(false);
+
+      assertEquals(5L, mapDriver.getCounters()
+            .findCounter(DdiffMapperCounter.TEST_COUNT).getValue());
+      assertEquals(1L, mapDriver.getCounters()
+            .findCounter(DdiffMapperCounter.AGGREGATION_FLUSHES).getValue());
+   }
+
+   @Test
+   public void shouldKeyEachRecordByItsOwnHashAcrossAggregationFlushes() throws IOException {
+      MapDriver<LongWritable, Text, HashKeyWritable, TaggedTextWithCountWritableComparable> mapDriver =
+            MapDriver.newMapDriver(new DdiffMapperReferenceInput());
+      mapDriver.getConfiguration().setInt(DistributedDiff.CONF_MAP_AGGREGATION_MB_KEY, 1);
+
+      // Enough distinct records to fill the table several times over
+      int numRecords = 50000;
+      for (int i = 0; i < numRecords; i++) {
+         mapDriver.addInput(new LongWritable(i), new Text(INPUT_RECORD_PREFIX + i));
+      }
+      List<Pair<HashKeyWritable, TaggedTextWithCountWritableComparable>> outputs = mapDriver.run();
+
+      assertEquals(numRecords, outputs.size());
+      for (Pair<HashKeyWritable, TaggedTextWithCountWritableComparable> output : outputs) {
+         Text record = output.getSecond().getRecord();
+         assertEquals(new HashKeyWritable(DigestUtils.sha256(
+               Arrays.copyOf(record.getBytes(), record.getLength()))), output.getFirst());
+         assertEquals(1L, output.getSecond().getCount());
+      }
+      assertTrue(mapDriver.getCounters()
+            .findCounter(DdiffMapperCounter.AGGREGATION_FLUSHES).getValue() > 1L);
+   }
+
+   @Test
+   public void shouldOnlyEmitUnmatchedRecordsInBroadcastMode() throws IOException {
+      List<InputRecord> inputRecords = DdiffTestUtils.createInputRecords(3, false);
+      List<MapOutputRecord> outputRecords =
+            DdiffTestUtils.createMapOutputRecords(inputRecords, Source.TEST, 1);
+
+      // The reference holds the first two records, the second one twice
+      File refFile = tmpFolder.newFile();
+      String ref = inputRecords.get(0).getRecord() + "\n" +
+            inputRecords.get(1).getRecord() + "\n" + inputRecords.get(1).getRecord() + "\n";
+      Files.write(refFile.toPath(), ref.getBytes(StandardCharsets.UTF_8));
+
+      Configuration conf = new Configuration();
+      Path table = new Path(tmpFolder.newFolder().toURI().toString(), "part-r-00000");
+      ReferenceTableBuilder builder =
+            new ReferenceTableBuilder(conf, DdiffMapper.HASH_ALGO_DEFAULT);
+      builder.build(new Path(refFile.toURI()), table);
+      assertEquals(3L, builder.getRecordsRead());
+      assertEquals(2, builder.getDistinctRecords());
+
+      MapDriver<LongWritable, Text, HashKeyWritable, TaggedTextWithCountWritableComparable> mapDriver =
+            MapDriver.newMapDriver(new DdiffMapperTestInput());
+      mapDriver.getConfiguration().setBoolean(DistributedDiff.CONF_BROADCAST_KEY, true);
+      mapDriver.withCacheFile(cacheUri(table, DistributedDiff.REFERENCE_CACHE_FILE_NAME));
+
+      // Read the second and third records, and the second one again
+      mapDriver.addInput(new LongWritable(0), new Text(inputRecords.get(1).getRecord()));
+      mapDriver.addInput(new LongWritable(1), new Text(inputRecords.get(2).getRecord()));
+      mapDriver.addInput(new LongWritable(2), new Text(inputRecords.get(1).getRecord()));
+
+      // The unmatched record is emitted as it is read and the net count of
+      // the matched record when the task completes
+      mapDriver.addOutput(outputRecords.get(2).getKey(), outputRecords.get(2).getValue());
+      mapDriver.addOutput(outputRecords.get(1).getKey(),
+            new TaggedTextWithCountWritableComparable(
+                  new Text(inputRecords.get(1).getRecord()), Source.TEST, -2L));
+      mapDriver.runTest();
+
+      assertEquals(2L, mapDriver.getCounters()
+            .findCounter(DdiffMapperCounter.BROADCAST_MATCHES).getValue());
+   }
+
+   @Test
+   public void shouldSplitReferenceTableRecordsOnConfiguredDelimiter() throws IOException {
+      // Records that hold newlines, as read by the mappers with the delimiter
+      File refFile = tmpFolder.newFile();
+      Files.write(refFile.toPath(), "a\nb||c||a\nb||".getBytes(StandardCharsets.UTF_8));
+
+      Configuration conf = new Configuration();
+      conf.set(DiffInputFormat.CONF_DELIMITER_KEY, "||");
+      Path table = new Path(tmpFolder.newFolder().toURI().toString(), "part-r-00000");
+      ReferenceTableBuilder builder =
+            new ReferenceTableBuilder(conf, DdiffMapper.HASH_ALGO_DEFAULT);
+      builder.build(new Path(refFile.toURI()), table);
+      assertEquals(3L, builder.getRecordsRead());
+      assertEquals(2, builder.getDistinctRecords());
+   }
+
+   @Test
+   public void shouldOnlyEmitRecordsInCachedDirtyBuckets() throws Exception {
+      List<InputRecord> inputRecords = DdiffTestUtils.createInputRecords(4, false);
+      List<MapOutputRecord> outputRecords =
+            DdiffTestUtils.createMapOutputRecords(inputRecords, Source.REFERENCE, 1);
+
+      // Mark only the bucket of the third record as dirty, as the driver would
+      int numBuckets = 1 << 16;
+      BitSet dirty = new BitSet();
+      dirty.set(BucketDigests.getBucket(outputRecords.get(2).getKey().getBytes(), numBuckets));
+      Configuration conf = new Configuration();
+      Path bucketsFile = new Path(tmpFolder.newFolder().toURI().toString(), "dirty-buckets");
+      BucketDigests.writeBuckets(FileSystem.getLocal(conf), bucketsFile, dirty);
+
+      MapDriver<LongWritable, Text, HashKeyWritable, TaggedTextWithCountWritableComparable> mapDriver =
+            MapDriver.newMapDriver(new DdiffMapperReferenceInput());
+      mapDriver.getConfiguration().setBoolean(DistributedDiff.CONF_BUCKET_FILTER_KEY, true);
+      mapDriver.getConfiguration().setInt(DistributedDiff.CONF_DIGEST_BUCKETS_KEY, numBuckets);
+      mapDriver.withCacheFile(cacheUri(bucketsFile, DistributedDiff.DIRTY_BUCKETS_CACHE_FILE_NAME));
+
+      for (int i = 0; i < inputRecords.size(); i++) {
+         mapDriver.addInput(new LongWritable(i + 1),
+               new Text(inputRecords.get(i).getRecord()));
+      }
+      mapDriver.addOutput(outputRecords.get(2).getKey(), outputRecords.get(2).getValue());
+      mapDriver.runTest();
+   }
+
+   // ------------------------------------------------------------------------
+   // Utility Methods:
+   //
+
+   /**
+    * Returns the URI of the file linked under the given name, as the driver
+    * adds it to the distributed cache.
+    */
+   private static URI cacheUri(Path file, String name) throws IOException {
+      URI uri = file.toUri();
+      try {
+         return new URI(uri.getScheme(), uri.getAuthority(), uri.getPath(), null, name);
+      } catch (URISyntaxException e) {
+         throw new IOException(e);
+      }
+   }
+}
@@ -7,7 +7,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.hadoop.io.IntWritable;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Counters;
 import org.slf4j.Logger;
@@ -24,8 +27,9 @@ public class DdiffTestUtils {
     * @param inputRecords - List of {@link InputRecords} from which {@link MapOutputRecord}
     *                       instances will be generated
     * @param source       - The {@link Source} enum value to indicate the input data source.
-    * @param count        - The number to set for
-    *                       {@link TaggedTextWithCountWritableComparable#setCount(IntWritable)}
+    * @param count        - The number of occurrences, which is signed per
+    *                       {@link Source#getSign()} and set for
+    *                       {@link TaggedTextWithCountWritableComparable#setCount(long)}
     * @return
     */
    public static List<MapOutputRecord>
@@ -38,13 +42,12 @@ public class DdiffTestUtils {
          MapOutputRecord outputRecord = new MapOutputRecord();
    
          // Generate the expected output data
-         Text key      = new Text(inputRecord.getHash());
+         HashKeyWritable key = createHashKey(inputRecord.getHash());
          
-         Text record          = new Text(inputRecord.getRecord());
-         IntWritable countVal = new IntWritable(count);
-         Text sourceVal       = new Text(source.toString());
+         Text record = new Text(inputRecord.getRecord());
          TaggedTextWithCountWritableComparable value =
-               new TaggedTextWithCountWritableComparable(record, sourceVal, countVal);
+               new TaggedTextWithCountWritableComparable(
+                     record, source, source.getSign() * count);
          
          outputRecord.setKey(key);
          outputRecord.setValue(value);
@@ -75,12 +78,38 @@ public class DdiffTestUtils {
          InputRecord inputRecord = 
                new InputRecord(
                      BaseTest.INPUT_RECORD_PREFIX + counter,
-                     BaseTest.HASH_PREFIX + counter);
+                     DigestUtils.sha256Hex(BaseTest.INPUT_RECORD_PREFIX + counter));
          inputRecords.add(inputRecord);
       }
       return inputRecords;
    }
    
+   /**
+    * Copies every property of conf, such as the configuration of a job set
+    * up by the driver, into the configuration of an MRUnit driver, as
+    * returned by its getConfiguration().
+    */
+   public static void copyConfiguration(Configuration conf, Configuration driverConf) {
+      for (Map.Entry<String, String> entry : conf) {
+         driverConf.set(entry.getKey(), entry.getValue());
+      }
+   }
+
+   /**
+    * Creates the {@link HashKeyWritable} that the mapper emits for a record
+    * with the given hex encoded hash.
+    * 
+    * @param hexHash - hex encoded hash of the record
+    * @return        - {@link HashKeyWritable} containing the decoded hash bytes
+    */
+   public static HashKeyWritable createHashKey(String hexHash) {
+      try {
+         return new HashKeyWritable(Hex.decodeHex(hexHash.toCharArray()));
+      } catch (DecoderException e) {
+         throw new IllegalArgumentException("Invalid hex hash " + hexHash, e);
+      }
+   }
+   
    public static <E extends Enum<E>> Map<E, Long> getCounters(Counters counters, Class<E> enumType) {
       Map<E, Long> retVal = new HashMap<E, Long>();
       long   count = 0;
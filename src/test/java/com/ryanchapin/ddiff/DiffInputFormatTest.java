@@ -0,0 +1,150 @@
+package com.ryanchapin.ddiff;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the {@link DiffInputFormat} and its {@link DiffLineRecordReader},
+ * which are expected to read the same lines as the {@link TextInputFormat}.
+ */
+public class DiffInputFormatTest extends BaseTest {
+
+   @Rule
+   public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+   // ------------------------------------------------------------------------
+   // Utility Methods:
+   //
+
+   /**
+    * Returns the offset and the bytes of each line of the splits, of
+    * splitBytes each, of the file.
+    */
+   private static List<String> read(RecordReader<LongWritable, Text> prototype,
+         Configuration conf, File file, long splitBytes) throws Exception
+   {
+      List<String> lines = new ArrayList<String>();
+      TaskAttemptContext context = new TaskAttemptContextImpl(conf, new TaskAttemptID());
+      for (long start = 0; start < file.length(); start += splitBytes) {
+         FileSplit split = new FileSplit(new Path(file.toURI()), start,
+               Math.min(splitBytes, file.length() - start), null);
+         RecordReader<LongWritable, Text> reader = (prototype instanceof DiffLineRecordReader) ?
+               new DiffLineRecordReader() : new TextInputFormat().createRecordReader(split, context);
+         reader.initialize(split, context);
+         try {
+            while (reader.nextKeyValue()) {
+               Text value = reader.getCurrentValue();
+               lines.add(reader.getCurrentKey().get() + ":" +
+                     new String(value.getBytes(), 0, value.getLength(), StandardCharsets.ISO_8859_1));
+            }
+         } finally {
+            reader.close();
+         }
+      }
+      return lines;
+   }
+
+   private File write(byte[] content) throws IOException {
+      File file = tmpFolder.newFile();
+      Files.write(file.toPath(), content);
+      return file;
+   }
+
+   // ------------------------------------------------------------------------
+   // Test Methods:
+   //
+
+   @Test
+   public void shouldReadTheLinesOfTextInputFormatWhateverTheSplits() throws Exception {
+      // Random lines of bytes, including ones that are not valid UTF-8,
+      // terminated by \n, \r or \r\n, with an unterminated last line
+      Random random = new Random(7L);
+      byte[] alphabet = { 'a', 'b', '\n', '\r', (byte) 0xc3, (byte) 0xff };
+      byte[] content = new byte[5000];
+      for (int i = 0; i < content.length; i++) {
+         content[i] = alphabet[random.nextInt(alphabet.length)];
+      }
+      File file = write(content);
+
+      for (String delimiter : new String[] { null, "ab", "\r\n" }) {
+         Configuration conf = new Configuration();
+         conf.setInt(DiffInputFormat.CONF_BUFFER_BYTES_KEY, 64);
+         if (null != delimiter) {
+            conf.set(DiffInputFormat.CONF_DELIMITER_KEY, delimiter);
+         }
+         List<String> expected = read(null, conf, file, file.length());
+         assertFalse(expected.isEmpty());
+         for (long splitBytes : new long[] { 1, 7, 100, 1000, file.length() }) {
+            assertEquals(delimiter + "/" + splitBytes, expected,
+                  read(new DiffLineRecordReader(), conf, file, splitBytes));
+         }
+      }
+   }
+
+   @Test
+   public void shouldReadLinesLongerThanTheBuffer() throws Exception {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < 1000; i++) {
+         sb.append(INPUT_RECORD_PREFIX);
+      }
+      String line = sb.toString();
+      File file = write((line + "\r\n" + line + "\r" + line).getBytes(StandardCharsets.UTF_8));
+
+      Configuration conf = new Configuration();
+      conf.setInt(DiffInputFormat.CONF_BUFFER_BYTES_KEY, 64);
+      List<String> lines = read(new DiffLineRecordReader(), conf, file, file.length());
+      assertEquals(3, lines.size());
+      assertEquals("0:" + line, lines.get(0));
+      assertEquals((line.length() + 2) + ":" + line, lines.get(1));
+      assertEquals((2 * line.length() + 3) + ":" + line, lines.get(2));
+   }
+
+   @Test
+   public void shouldReadCompressedInputsWhole() throws Exception {
+      File file = new File(tmpFolder.getRoot(), "input.gz");
+      try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file.toPath()))) {
+         out.write("a\nb\r\nc".getBytes(StandardCharsets.UTF_8));
+      }
+      Configuration conf = new Configuration();
+      Job job = Job.getInstance(conf);
+      FileInputFormat.setInputPaths(job, new Path(file.toURI()));
+      FileInputFormat.setMaxInputSplitSize(job, 4);
+      assertEquals(1, new DiffInputFormat().getSplits(job).size());
+
+      List<String> lines = new ArrayList<String>();
+      for (String line : read(new DiffLineRecordReader(), conf, file, file.length())) {
+         lines.add(line.substring(line.indexOf(':') + 1));
+      }
+      List<String> expected = new ArrayList<String>();
+      expected.add("a");
+      expected.add("b");
+      expected.add("c");
+      assertEquals(expected, lines);
+   }
+}
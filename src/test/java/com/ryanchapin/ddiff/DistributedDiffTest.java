@@ -1,8 +1,12 @@
 package com.ryanchapin.ddiff;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.apache.hadoop.conf.Configuration;
@@ -325,6 +329,293 @@ public class DistributedDiffTest extends BaseTest {
       assertEquals(STRING_ENCODING_VALID, ddiff.getStringEncoding());   
    }
    
+   /** -- Two Pass Args ---------------------------------------------------- */
+   @Test
+   public void shouldDefaultToSingleJob() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_VALID_SHORT_OPTS);
+      assertFalse(ddiff.isTwoPass());
+   }
+   
+   @Test
+   public void shouldSetTwoPassWithTwoPassArg() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_VALID_TWO_PASS);
+      assertTrue(ddiff.isTwoPass());
+   }
+   
+   @Test(expected = IllegalArgumentException.class)
+   public void shouldThrowIllegalArgExcpOnTwoPassWithCollisionSafe() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_TWO_PASS_COLLISION_SAFE);
+   }
+   
+   /** -- Secondary Sort Args ---------------------------------------------- */
+   @Test
+   public void shouldSetSecondarySortWithSecondarySortArg() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_VALID_SECONDARY_SORT);
+      assertTrue(ddiff.isSecondarySort());
+      
+      ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_VALID_SHORT_OPTS);
+      assertFalse(ddiff.isSecondarySort());
+   }
+   
+   /** -- Plan Override Args ---------------------------------------------- */
+   @Test
+   public void shouldLeavePlanToPlannerWithoutOverrideArgs() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_VALID_SHORT_OPTS);
+      assertEquals(0, ddiff.getNumReduceTasks());
+      assertEquals(0, ddiff.getSplitSizeMb());
+      assertEquals(0, ddiff.getSortMb());
+   }
+   
+   @Test
+   public void shouldSetPlanOverridesWithOverrideArgs() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_VALID_PLAN_OVERRIDES);
+      assertEquals(12,  ddiff.getNumReduceTasks());
+      assertEquals(256, ddiff.getSplitSizeMb());
+      assertEquals(300, ddiff.getSortMb());
+   }
+   
+   @Test
+   public void shouldSetMapAggregationWithMapAggregationArg() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_VALID_MAP_AGGREGATION);
+      assertEquals(64, ddiff.getMapAggregationMb());
+      
+      ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_VALID_SHORT_OPTS);
+      assertEquals(0, ddiff.getMapAggregationMb());
+   }
+   
+   @Test
+   public void shouldSetBroadcastThresholdWithBroadcastArg() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_VALID_BROADCAST_DISABLED);
+      assertEquals(0, ddiff.getBroadcastThresholdMb());
+      
+      // The size of the mocked reference input is unknown
+      ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_VALID_SHORT_OPTS);
+      assertEquals(DistributedDiff.OPTION_BROADCAST_THRESHOLD_MB_DEFAULT,
+            ddiff.getBroadcastThresholdMb());
+      assertFalse(ddiff.isBroadcast());
+   }
+   
+   @Test(expected = IllegalArgumentException.class)
+   public void shouldThrowIllegalArgExcpOnNegativeBroadcastThresholdArg() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_INVALID_BROADCAST_THRESHOLD);
+   }
+   
+   @Test
+   public void shouldSetSortedInputsWithSortedInputsArg() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_VALID_SORTED_INPUTS);
+      assertTrue(ddiff.isSortedInputs());
+      
+      ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_VALID_SHORT_OPTS);
+      assertFalse(ddiff.isSortedInputs());
+   }
+   
+   @Test
+   public void shouldSetFingerprintCheckWithFingerprintArg() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_VALID_FINGERPRINT_CHECK);
+      assertTrue(ddiff.isFingerprintCheck());
+      
+      ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_VALID_SHORT_OPTS);
+      assertFalse(ddiff.isFingerprintCheck());
+   }
+   
+   @Test
+   public void shouldSetDigestBucketsWithDigestBucketsArg() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_VALID_DIGEST_BUCKETS);
+      assertEquals(65536, ddiff.getDigestBuckets());
+      
+      ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_VALID_SHORT_OPTS);
+      assertEquals(0, ddiff.getDigestBuckets());
+   }
+   
+   @Test(expected = IllegalArgumentException.class)
+   public void shouldThrowIllegalArgExcpOnDigestBucketsWithTwoPass() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_INVALID_DIGEST_BUCKETS_TWO_PASS);
+   }
+   
+   @Test
+   public void shouldNotRequireTestInputPathToBuildIndex() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_VALID_BUILD_INDEX);
+      assertTrue(ddiff.isBuildIndex());
+      assertEquals(null, ddiff.getTestInputPath());
+   }
+   
+   @Test
+   public void shouldSetReferenceIndexInPlaceOfRefInputPath() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_VALID_REFERENCE_INDEX);
+      assertEquals(INPUT_PATH_REF_VALID, ddiff.getReferenceIndexPath());
+      assertEquals(null, ddiff.getReferenceInputPath());
+      assertFalse(ddiff.isBuildIndex());
+   }
+   
+   @Test(expected = IllegalArgumentException.class)
+   public void shouldThrowIllegalArgExcpOnReferenceIndexWithRefInputPath() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_INVALID_REFERENCE_INDEX_AND_INPUT);
+   }
+   
+   @Test(expected = IllegalArgumentException.class)
+   public void shouldThrowIllegalArgExcpOnReferenceIndexWithTwoPass() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_INVALID_REFERENCE_INDEX_TWO_PASS);
+   }
+   
+   @Test
+   public void shouldSetSummaryCachePath() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_VALID_SUMMARY_CACHE);
+      assertEquals(CACHE_PATH_VALID, ddiff.getSummaryCachePath());
+   }
+   
+   @Test(expected = IllegalArgumentException.class)
+   public void shouldThrowIllegalArgExcpOnSummaryCacheWithTwoPass() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_INVALID_SUMMARY_CACHE_TWO_PASS);
+   }
+   
+   @Test(expected = IllegalArgumentException.class)
+   public void shouldThrowIllegalArgExcpOnSummaryCacheWithReferenceIndex() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_INVALID_SUMMARY_CACHE_REFERENCE_INDEX);
+   }
+   
+   @Test
+   public void shouldSetManifestPath() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_VALID_MANIFEST);
+      assertEquals(MANIFEST_PATH_VALID, ddiff.getManifestPath());
+   }
+   
+   @Test(expected = IllegalArgumentException.class)
+   public void shouldThrowIllegalArgExcpOnManifestWithRefInputPath() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_INVALID_MANIFEST_AND_REF_INPUT);
+   }
+   
+   @Test(expected = IllegalArgumentException.class)
+   public void shouldThrowIllegalArgExcpOnManifestWithTwoPass() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_INVALID_MANIFEST_TWO_PASS);
+   }
+   
+   @Test
+   public void shouldSetTestSetsWithLabeledTestInputPaths() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_VALID_TEST_SETS);
+      assertEquals(Arrays.asList("first", "second"), ddiff.getTestSetLabels());
+      assertEquals(Arrays.asList(INPUT_PATH_TEST_VALID, INPUT_PATH_REF_VALID),
+            ddiff.getTestSetPaths());
+      assertNull(ddiff.getTestInputPath());
+   }
+   
+   @Test(expected = IllegalArgumentException.class)
+   public void shouldThrowIllegalArgExcpOnUnlabeledTestSet() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_INVALID_TEST_SETS_UNLABELED);
+   }
+   
+   @Test(expected = IllegalArgumentException.class)
+   public void shouldThrowIllegalArgExcpOnParentDirectoryTestSetLabel() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_INVALID_TEST_SETS_PARENT_LABEL);
+   }
+   
+   @Test(expected = IllegalArgumentException.class)
+   public void shouldThrowIllegalArgExcpOnHiddenTestSetLabel() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_INVALID_TEST_SETS_HIDDEN_LABEL);
+   }
+   
+   @Test(expected = IllegalArgumentException.class)
+   public void shouldThrowIllegalArgExcpOnDuplicateTestSetLabel() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_INVALID_TEST_SETS_DUPLICATE_LABEL);
+   }
+   
+   @Test(expected = IllegalArgumentException.class)
+   public void shouldThrowIllegalArgExcpOnTestSetsWithTwoPass() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_INVALID_TEST_SETS_TWO_PASS);
+   }
+   
+   @Test
+   public void shouldSetLocalEngine() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_VALID_LOCAL_ENGINE);
+      assertTrue(ddiff.isLocalEngine());
+      
+      ddiff.run(ARGS_VALID_SHORT_OPTS);
+      assertFalse(ddiff.isLocalEngine());
+   }
+   
+   @Test(expected = IllegalArgumentException.class)
+   public void shouldThrowIllegalArgExcpOnInvalidEngine() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_INVALID_ENGINE);
+   }
+   
+   @Test(expected = IllegalArgumentException.class)
+   public void shouldThrowIllegalArgExcpOnLocalEngineWithTwoPass() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_INVALID_LOCAL_ENGINE_TWO_PASS);
+   }
+   
+   @Test(expected = IllegalArgumentException.class)
+   public void shouldThrowIllegalArgExcpOnSortedInputsWithTwoPass() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_INVALID_SORTED_INPUTS_TWO_PASS);
+   }
+   
+   @Test(expected = IllegalArgumentException.class)
+   public void shouldThrowIllegalArgExcpOnSortedInputsWithCollisionSafe() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_INVALID_SORTED_INPUTS_COLLISION_SAFE);
+   }
+   
+   @Test(expected = IllegalArgumentException.class)
+   public void shouldThrowIllegalArgExcpOnSortedInputsWithSecondarySort() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_INVALID_SORTED_INPUTS_SECONDARY_SORT);
+   }
+   
+   @Test(expected = IllegalArgumentException.class)
+   public void shouldThrowIllegalArgExcpOnSortedInputsWithMapAggregation() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_INVALID_SORTED_INPUTS_MAP_AGGREGATION);
+   }
+   
+   @Test(expected = IllegalArgumentException.class)
+   public void shouldThrowIllegalArgExcpOnNonPositiveNumReducersArg() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_INVALID_NUM_REDUCERS);
+   }
+   
+   @Test(expected = IllegalArgumentException.class)
+   public void shouldThrowIllegalArgExcpOnNonNumericSortMbArg() {
+      DistributedDiff ddiff = getConfiguredDdiff();
+      ddiff.run(ARGS_INVALID_SORT_MB);
+   }
+   
    /** -- Help ------------------------------------------------------------- */
    @Test
    public void shouldPrintHelpAndExitWithHelpArg() {
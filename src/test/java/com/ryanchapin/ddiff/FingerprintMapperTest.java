@@ -0,0 +1,207 @@
+package com.ryanchapin.ddiff;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mrunit.mapreduce.MapDriver;
+import org.apache.hadoop.mrunit.types.Pair;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ryanchapin.ddiff.FingerprintMapper.FingerprintCounter;
+
+public class FingerprintMapperTest extends BaseTest {
+
+   @Rule
+   public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+   // ------------------------------------------------------------------------
+   // Test Methods:
+   //
+
+   @Test
+   public void shouldCancelFingerprintsOfSameRecordsInAnyOrder() throws IOException {
+      List<String> ref = new ArrayList<String>();
+      for (int i = 0; i < 100; i++) {
+         ref.add(INPUT_RECORD_PREFIX + (i % 40));
+      }
+      List<String> test = new ArrayList<String>(ref);
+      Collections.shuffle(test);
+
+      Counters refCounters  = fingerprint(new FingerprintMapperReferenceInput(), ref);
+      Counters testCounters = fingerprint(new FingerprintMapperTestInput(), test);
+
+      assertEquals(100L, refCounters.findCounter(FingerprintCounter.REFERENCE_COUNT).getValue());
+      assertEquals(100L, testCounters.findCounter(FingerprintCounter.TEST_COUNT).getValue());
+      for (FingerprintCounter counter : new FingerprintCounter[] {
+            FingerprintCounter.RECORDS, FingerprintCounter.SUM_HIGH, FingerprintCounter.SUM_LOW})
+      {
+         assertEquals(0L, refCounters.findCounter(counter).getValue() +
+               testCounters.findCounter(counter).getValue());
+      }
+   }
+
+   @Test
+   public void shouldNotCancelFingerprintsOfDifferentRecords() throws IOException {
+      List<String> ref = new ArrayList<String>();
+      for (int i = 0; i < 100; i++) {
+         ref.add(INPUT_RECORD_PREFIX + (i % 40));
+      }
+
+      // The same number of records, with one duplicate in place of another
+      List<String> test = new ArrayList<String>(ref);
+      test.set(0, INPUT_RECORD_PREFIX + 1);
+
+      Counters refCounters  = fingerprint(new FingerprintMapperReferenceInput(), ref);
+      Counters testCounters = fingerprint(new FingerprintMapperTestInput(), test);
+
+      assertEquals(0L, refCounters.findCounter(FingerprintCounter.RECORDS).getValue() +
+            testCounters.findCounter(FingerprintCounter.RECORDS).getValue());
+      assertTrue(0L != refCounters.findCounter(FingerprintCounter.SUM_HIGH).getValue() +
+            testCounters.findCounter(FingerprintCounter.SUM_HIGH).getValue());
+      assertTrue(0L != refCounters.findCounter(FingerprintCounter.SUM_LOW).getValue() +
+            testCounters.findCounter(FingerprintCounter.SUM_LOW).getValue());
+   }
+
+   @Test
+   public void shouldMatchFingerprintsOnlyOfSameRecords() throws IOException {
+      List<String> ref = new ArrayList<String>();
+      for (int i = 0; i < 100; i++) {
+         ref.add(INPUT_RECORD_PREFIX + (i % 40));
+      }
+      List<String> test = new ArrayList<String>(ref);
+      Collections.shuffle(test);
+      assertTrue(DistributedDiff.isFingerprintMatch(sum(
+            fingerprint(new FingerprintMapperReferenceInput(), ref),
+            fingerprint(new FingerprintMapperTestInput(), test))));
+
+      // One record short
+      test.remove(0);
+      assertFalse(DistributedDiff.isFingerprintMatch(sum(
+            fingerprint(new FingerprintMapperReferenceInput(), ref),
+            fingerprint(new FingerprintMapperTestInput(), test))));
+   }
+
+   @Test
+   public void shouldLeaveOnlyIdenticalAndSuccessMarkersInOutputOfMatchingInputs() throws IOException {
+      File outDir = tmpFolder.newFolder();
+      Files.write(new File(outDir, "missing-r-00000").toPath(),
+            "stale\n".getBytes(StandardCharsets.UTF_8));
+
+      FileSystem fs = FileSystem.getLocal(new Configuration());
+      Path outPath = new Path(outDir.toURI());
+      DistributedDiff.writeIdenticalOutput(fs, outPath);
+
+      List<String> names = new ArrayList<String>();
+      for (FileStatus status : fs.listStatus(outPath)) {
+         names.add(status.getPath().getName());
+         assertEquals(0L, status.getLen());
+      }
+      Collections.sort(names);
+      assertEquals(Arrays.asList(DistributedDiff.IDENTICAL_MARKER_FILE_NAME, "_SUCCESS"), names);
+   }
+
+   @Test
+   public void shouldOnlyDirtyBucketsOfDifferentRecords() throws IOException {
+      List<String> ref = new ArrayList<String>();
+      for (int i = 0; i < 1000; i++) {
+         ref.add(INPUT_RECORD_PREFIX + i);
+      }
+      List<String> test = new ArrayList<String>(ref);
+      Collections.shuffle(test);
+      test.remove(INPUT_RECORD_PREFIX + 17);
+      test.add(INPUT_RECORD_PREFIX + 1000);
+
+      int numBuckets = 4096;
+      BucketDigests digests = new BucketDigests(numBuckets);
+      for (Pair<IntWritable, BucketDigestWritable> output :
+            digest(new FingerprintMapperReferenceInput(), ref, numBuckets))
+      {
+         digests.add(output.getFirst().get(), output.getSecond());
+      }
+      for (Pair<IntWritable, BucketDigestWritable> output :
+            digest(new FingerprintMapperTestInput(), test, numBuckets))
+      {
+         digests.add(output.getFirst().get(), output.getSecond());
+      }
+
+      BitSet expected = new BitSet();
+      expected.set(getBucket(INPUT_RECORD_PREFIX + 17, numBuckets));
+      expected.set(getBucket(INPUT_RECORD_PREFIX + 1000, numBuckets));
+      assertEquals(expected, digests.getDirtyBuckets());
+   }
+
+   // ------------------------------------------------------------------------
+   // Utility Methods:
+   //
+
+   private static Counters fingerprint(FingerprintMapper mapper, List<String> records)
+         throws IOException
+   {
+      MapDriver<LongWritable, Text, IntWritable, BucketDigestWritable> mapDriver =
+            MapDriver.newMapDriver(mapper);
+      long offset = 0;
+      for (String record : records) {
+         mapDriver.addInput(new LongWritable(offset++), new Text(record));
+      }
+      mapDriver.runTest();
+      return mapDriver.getCounters();
+   }
+
+   /**
+    * Returns the counters of the job whose map tasks reported the given
+    * counters.
+    */
+   private static Counters sum(Counters... taskCounters) {
+      Counters retVal = new Counters();
+      for (Counters counters : taskCounters) {
+         retVal.incrAllCounters(counters);
+      }
+      return retVal;
+   }
+
+   /**
+    * Returns the partial bucket digests written by the mapper in the bucket
+    * digest mode.
+    */
+   private static List<Pair<IntWritable, BucketDigestWritable>> digest(
+         FingerprintMapper mapper, List<String> records, int numBuckets) throws IOException
+   {
+      MapDriver<LongWritable, Text, IntWritable, BucketDigestWritable> mapDriver =
+            MapDriver.newMapDriver(mapper);
+      mapDriver.getConfiguration().setInt(DistributedDiff.CONF_DIGEST_BUCKETS_KEY, numBuckets);
+      long offset = 0;
+      for (String record : records) {
+         mapDriver.addInput(new LongWritable(offset++), new Text(record));
+      }
+      return mapDriver.run();
+   }
+
+   private static int getBucket(String record, int numBuckets) {
+      RecordHasher hasher = DdiffMapper.HASH_ALGO_DEFAULT.newHasher();
+      byte[] hash = new byte[hasher.getHashLength()];
+      Text text = new Text(record);
+      hasher.hash(text.getBytes(), 0, text.getLength(), hash);
+      return BucketDigests.getBucket(hash, numBuckets);
+   }
+}
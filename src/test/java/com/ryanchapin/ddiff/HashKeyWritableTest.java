@@ -0,0 +1,135 @@
+package com.ryanchapin.ddiff;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparator;
+import org.junit.Test;
+
+public class HashKeyWritableTest extends BaseTest {
+
+   // ------------------------------------------------------------------------
+   // Utility Methods:
+   //
+
+   private static HashKeyWritable createKey(String record) {
+      return new HashKeyWritable(DigestUtils.sha256(record));
+   }
+
+   private static DataOutputBuffer serialize(HashKeyWritable key) throws IOException {
+      DataOutputBuffer out = new DataOutputBuffer();
+      key.write(out);
+      return out;
+   }
+
+   // ------------------------------------------------------------------------
+   // Test Methods:
+   //
+
+   @Test
+   public void shouldTruncateDigestsToKeyWidth() {
+      assertEquals(HashKeyWritable.WIDTH_256, createKey(INPUT_RECORD_PREFIX).getLength());
+      assertEquals(HashKeyWritable.WIDTH_128,
+            new HashKeyWritable(DigestUtils.md5(INPUT_RECORD_PREFIX)).getLength());
+      assertEquals(HashKeyWritable.WIDTH_256,
+            new HashKeyWritable(DigestUtils.sha512(INPUT_RECORD_PREFIX)).getLength());
+   }
+
+   @Test
+   public void shouldRoundTripSerializedKey() throws IOException {
+      HashKeyWritable key = createKey(INPUT_RECORD_PREFIX);
+      DataOutputBuffer out = serialize(key);
+      assertEquals(1 + HashKeyWritable.WIDTH_256, out.getLength());
+
+      DataInputBuffer in = new DataInputBuffer();
+      in.reset(out.getData(), out.getLength());
+      HashKeyWritable copy = new HashKeyWritable();
+      copy.readFields(in);
+
+      assertEquals(key, copy);
+      assertEquals(key.hashCode(), copy.hashCode());
+      assertEquals(key.toString(), DigestUtils.sha256Hex(INPUT_RECORD_PREFIX));
+   }
+
+   @Test
+   public void shouldCompareRawBytesConsistentlyWithCompareTo() throws IOException {
+      WritableComparator comparator = WritableComparator.get(HashKeyWritable.class);
+      for (int i = 0; i < 50; i++) {
+         HashKeyWritable a = createKey(INPUT_RECORD_PREFIX + i);
+         HashKeyWritable b = createKey(INPUT_RECORD_PREFIX + (i + 1));
+         DataOutputBuffer aBytes = serialize(a);
+         DataOutputBuffer bBytes = serialize(b);
+
+         int expected = Integer.signum(a.compareTo(b));
+         int actual   = Integer.signum(comparator.compare(
+               aBytes.getData(), 0, aBytes.getLength(),
+               bBytes.getData(), 0, bBytes.getLength()));
+         assertEquals(expected, actual);
+      }
+   }
+
+   @Test
+   public void shouldPartitionWithinRange() {
+      HashKeyPartitioner<Object> partitioner = new HashKeyPartitioner<Object>();
+      int numPartitions = 7;
+      for (int i = 0; i < 100; i++) {
+         int partition = partitioner.getPartition(
+               createKey(INPUT_RECORD_PREFIX + i), null, numPartitions);
+         assertTrue(partition >= 0 && partition < numPartitions);
+      }
+   }
+
+   @Test
+   public void shouldPartitionSortedKeysIntoContiguousRanges() {
+      HashKeyPartitioner<Object> partitioner = new HashKeyPartitioner<Object>();
+      int numPartitions = 5;
+
+      List<HashKeyWritable> keys = new ArrayList<HashKeyWritable>();
+      for (int i = 0; i < 200; i++) {
+         keys.add(createKey(INPUT_RECORD_PREFIX + i));
+      }
+      Collections.sort(keys);
+
+      int previous = 0;
+      for (HashKeyWritable key : keys) {
+         int partition = partitioner.getPartition(key, null, numPartitions);
+         assertTrue(partition >= previous);
+         previous = partition;
+
+         long leading = HashKeyPartitioner.leadingInt(key) & 0xFFFFFFFFL;
+         assertTrue(leading >= HashKeyPartitioner.getRangeStart(partition, numPartitions));
+         assertTrue(leading < HashKeyPartitioner.getRangeStart(partition + 1, numPartitions));
+      }
+   }
+
+   @Test
+   public void shouldSplitHashRangeEvenly() {
+      assertEquals(0L, HashKeyPartitioner.getRangeStart(0, 4));
+      assertEquals(0x40000000L, HashKeyPartitioner.getRangeStart(1, 4));
+      assertEquals(0xC0000000L, HashKeyPartitioner.getRangeStart(3, 4));
+      assertEquals(1L << 32, HashKeyPartitioner.getRangeStart(4, 4));
+
+      // Each range boundary falls in the partition that it starts
+      int numPartitions = 7;
+      for (int p = 1; p < numPartitions; p++) {
+         long start = HashKeyPartitioner.getRangeStart(p, numPartitions);
+         assertEquals(p, HashKeyPartitioner.getPartition((int) start, numPartitions));
+         assertEquals(p - 1, HashKeyPartitioner.getPartition((int) (start - 1), numPartitions));
+      }
+      assertEquals(0, HashKeyPartitioner.getPartition(0, numPartitions));
+      assertEquals(numPartitions - 1, HashKeyPartitioner.getPartition(-1, numPartitions));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void shouldThrowIllegalArgExcpOnPartitionOutOfRange() {
+      HashKeyPartitioner.getRangeStart(5, 4);
+   }
+}
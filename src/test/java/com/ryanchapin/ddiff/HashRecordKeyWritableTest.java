@@ -0,0 +1,95 @@
+package com.ryanchapin.ddiff;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.junit.Test;
+
+public class HashRecordKeyWritableTest extends BaseTest {
+
+   // ------------------------------------------------------------------------
+   // Utility Methods:
+   //
+
+   private static HashRecordKeyWritable createKey(String hashOf, String record, Source source) {
+      HashRecordKeyWritable key = new HashRecordKeyWritable();
+      byte[] digest = DigestUtils.sha256(hashOf);
+      key.set(digest, 0, digest.length);
+      key.setRecord(new Text(record));
+      key.setSourceId(source.getId());
+      return key;
+   }
+
+   private static int compareRaw(WritableComparator comparator,
+         HashRecordKeyWritable a, HashRecordKeyWritable b) throws IOException
+   {
+      DataOutputBuffer aBytes = new DataOutputBuffer();
+      DataOutputBuffer bBytes = new DataOutputBuffer();
+      a.write(aBytes);
+      b.write(bBytes);
+      return Integer.signum(comparator.compare(
+            aBytes.getData(), 0, aBytes.getLength(),
+            bBytes.getData(), 0, bBytes.getLength()));
+   }
+
+   // ------------------------------------------------------------------------
+   // Test Methods:
+   //
+
+   @Test
+   public void shouldRoundTripSerializedKey() throws IOException {
+      HashRecordKeyWritable key = createKey(INPUT_RECORD_PREFIX, INPUT_RECORD_PREFIX, Source.TEST);
+      DataOutputBuffer out = new DataOutputBuffer();
+      key.write(out);
+
+      DataInputBuffer in = new DataInputBuffer();
+      in.reset(out.getData(), out.getLength());
+      HashRecordKeyWritable copy = new HashRecordKeyWritable();
+      copy.readFields(in);
+
+      assertEquals(key, copy);
+      assertEquals(HashKeyWritable.WIDTH_256, copy.getLength());
+      assertEquals(new Text(INPUT_RECORD_PREFIX), copy.getRecord());
+      assertEquals(Source.TEST.getId(), copy.getSourceId());
+   }
+
+   @Test
+   public void shouldSortByHashRecordAndSourceConsistentlyWithCompareTo() throws IOException {
+      WritableComparator comparator = WritableComparator.get(HashRecordKeyWritable.class);
+      HashRecordKeyWritable[] keys = {
+            createKey("a", "a", Source.REFERENCE),
+            createKey("a", "a", Source.TEST),
+            createKey("a", "b", Source.REFERENCE),
+            createKey("a", "ab", Source.TEST),
+            createKey("b", "a", Source.REFERENCE),
+      };
+      for (HashRecordKeyWritable a : keys) {
+         for (HashRecordKeyWritable b : keys) {
+            assertEquals(Integer.signum(a.compareTo(b)), compareRaw(comparator, a, b));
+         }
+      }
+
+      // Reference values for a record sort before test values
+      assertEquals(-1, compareRaw(comparator, keys[0], keys[1]));
+   }
+
+   @Test
+   public void shouldGroupAndPartitionOnHashAlone() throws IOException {
+      HashRecordKeyWritable ref  = createKey(INPUT_RECORD_PREFIX, "a", Source.REFERENCE);
+      HashRecordKeyWritable test = createKey(INPUT_RECORD_PREFIX, "zz", Source.TEST);
+
+      assertEquals(0, compareRaw(new HashKeyWritable.Comparator(), ref, test));
+      assertTrue(compareRaw(WritableComparator.get(HashRecordKeyWritable.class), ref, test) < 0);
+
+      HashKeyPartitioner<Object> partitioner = new HashKeyPartitioner<Object>();
+      assertEquals(partitioner.getPartition(ref, null, 13),
+            partitioner.getPartition(test, null, 13));
+   }
+}
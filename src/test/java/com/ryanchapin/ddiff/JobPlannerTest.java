@@ -0,0 +1,324 @@
+package com.ryanchapin.ddiff;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.LocalJobRunner;
+import org.apache.hadoop.mapreduce.MRConfig;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.util.ToolRunner;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the {@link JobPlanner}.  These are not run with the
+ * PowerMockRunner, as measuring the inputs requires a Hadoop login.
+ */
+public class JobPlannerTest extends BaseTest {
+
+   private static final long GB = 1024L * 1024L * 1024L;
+
+   @Rule
+   public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+   // ------------------------------------------------------------------------
+   // Test Methods:
+   //
+
+   @Test
+   public void shouldMeasureInputBytesAndRecordLength() throws IOException {
+      // 10 records of 9 bytes plus the newline in each input
+      File refDir = tmpFolder.newFolder();
+      writeRecords(new File(refDir, "part-00000"), 10);
+      writeRecords(new File(refDir, "_SUCCESS"), 0);
+      File testFile = tmpFolder.newFile();
+      writeRecords(testFile, 10);
+
+      Configuration conf = new Configuration();
+      JobPlanner planner = new JobPlanner(conf, RecordHashAlgorithm.SHA1SUM);
+      planner.measure(FileSystem.getLocal(conf),
+            new Path(refDir.toURI()), new Path(testFile.toURI()));
+
+      assertEquals(200L, planner.getInputBytes());
+      assertEquals(10.0, planner.getAverageRecordLength(), 0.0);
+      assertEquals(20L, planner.getEstimatedRecords());
+
+      // The in-process map tasks only need a buffer for their own output
+      JobPlan plan = planner.plan(true);
+      assertEquals(1, plan.getNumReduceTasks());
+      assertEquals(JobPlanner.MIN_SPLIT_SIZE, plan.getSplitSize());
+      assertEquals(1, plan.getSortMb());
+      assertEquals(JobPlanner.MIN_SORT_FACTOR, plan.getSortFactor());
+      assertTrue(plan.isLocal());
+
+      // A map-only job over the same inputs is run in-process as well
+      plan = planner.planMapOnly();
+      assertTrue(plan.isLocal());
+      assertEquals(Runtime.getRuntime().availableProcessors(), plan.getLocalMaxMaps());
+      assertEquals(JobPlan.UNSET, plan.getSortMb());
+   }
+
+   @Test
+   public void shouldEstimateBroadcastRecordsPerTestMapTask() throws IOException {
+      // 10 reference records and 30 test records of 10 bytes
+      File refFile = tmpFolder.newFile();
+      writeRecords(refFile, 10);
+      File testFile = tmpFolder.newFile();
+      writeRecords(testFile, 30);
+
+      Configuration conf = new Configuration();
+      JobPlanner planner = new JobPlanner(conf, RecordHashAlgorithm.SHA1SUM);
+      planner.measure(FileSystem.getLocal(conf),
+            new Path(refFile.toURI()), new Path(testFile.toURI()));
+
+      // A single map task emits at most one count per reference record
+      assertEquals(20L, planner.estimateBroadcastRecords(10L, 100L, 0L));
+
+      // Each of 2 map tasks may emit a count for every reference record
+      assertEquals(30L, planner.estimateBroadcastRecords(10L, 100L, 150L));
+
+      // But no more records than are in the test input
+      assertEquals(40L, planner.estimateBroadcastRecords(10L, 100L, 50L));
+   }
+
+   @Test
+   public void shouldLeavePlanEmptyForMissingInput() throws IOException {
+      Configuration conf = new Configuration();
+      JobPlanner planner = new JobPlanner(conf, RecordHashAlgorithm.SHA1SUM);
+      planner.measure(FileSystem.getLocal(conf),
+            new Path(new File(tmpFolder.getRoot(), "missing").toURI()));
+
+      JobPlan plan = planner.plan(true);
+      assertEquals(JobPlan.UNSET, plan.getNumReduceTasks());
+      assertEquals(JobPlan.UNSET, plan.getSplitSize());
+      assertEquals(JobPlan.UNSET, plan.getSortMb());
+
+      // An empty plan leaves the conf untouched
+      plan.apply(conf);
+      assertEquals(null, conf.get(FileInputFormat.SPLIT_MAXSIZE));
+      assertFalse(planner.planMapOnly().isLocal());
+   }
+
+   @Test
+   public void shouldScaleReducersWithShuffledBytes() {
+      JobPlanner planner = new JobPlanner(new Configuration(), RecordHashAlgorithm.SHA1SUM);
+
+      // 100 GB of 100 byte records shuffle 100 + 20 + 6 bytes per record
+      JobPlan plan = planner.plan(100 * GB, 100.0, 1.0, true);
+      assertEquals(126, plan.getNumReduceTasks());
+      assertEquals(JobPlanner.MIN_SPLIT_SIZE, plan.getSplitSize());
+      assertEquals(JobPlanner.MAX_SORT_FACTOR, plan.getSortFactor());
+
+      // Shuffling only the hashes needs far fewer reducers
+      plan = planner.plan(100 * GB, 100.0, 1.0, false);
+      assertEquals(26, plan.getNumReduceTasks());
+
+      // As does shuffling only a fraction of the records
+      plan = planner.plan(100 * GB, 100.0, 0.01, true);
+      assertEquals(2, plan.getNumReduceTasks());
+   }
+
+   @Test
+   public void shouldCapReducersAndSortBuffer() {
+      Configuration conf = new Configuration();
+      conf.setInt(JobPlanner.CONF_MAX_REDUCERS_KEY, 50);
+      conf.setInt(JobPlanner.CONF_MAX_SORT_MB_KEY, 200);
+      JobPlanner planner = new JobPlanner(conf, RecordHashAlgorithm.SHA1SUM);
+
+      // 128 MB splits of 20 byte records do not fit in 200 MB
+      JobPlan plan = planner.plan(100 * GB, 20.0, 1.0, true);
+      assertEquals(50, plan.getNumReduceTasks());
+      assertEquals(200, plan.getSortMb());
+      assertEquals(0.9f, plan.getSpillPercent(), 0.0f);
+   }
+
+   @Test
+   public void shouldGrowSplitsToBoundMapTasks() {
+      JobPlanner planner = new JobPlanner(new Configuration(), RecordHashAlgorithm.SHA1SUM);
+
+      // 10000 splits of 128 MB would not cover 2 TB
+      JobPlan plan = planner.plan(2048 * GB, 100.0, 1.0, false);
+      assertEquals(210L * 1024L * 1024L, plan.getSplitSize());
+   }
+
+   @Test
+   public void shouldRunSmallInputsInProcess() {
+      Configuration conf = new Configuration();
+      conf.set(MRConfig.FRAMEWORK_NAME, MRConfig.YARN_FRAMEWORK_NAME);
+      JobPlanner planner = new JobPlanner(conf, RecordHashAlgorithm.SHA1SUM);
+      planner.setRuntime(8, 4 * GB);
+
+      assertFalse(planner.plan(100 * GB, 100.0, 1.0, true).isLocal());
+      JobPlan plan = planner.plan(JobPlanner.DEFAULT_LOCAL_BYTES, 100.0, 1.0, true);
+      assertTrue(plan.isLocal());
+
+      // 64 MB of 100 byte records need 114 MB once shuffled, of which 17
+      // fit in half of the heap, but only 8 can run at once
+      assertEquals(114, plan.getSortMb());
+      assertEquals(8, plan.getLocalMaxMaps());
+
+      plan.apply(conf);
+      assertEquals(MRConfig.LOCAL_FRAMEWORK_NAME, conf.get(MRConfig.FRAMEWORK_NAME));
+      assertEquals(8, conf.getInt(LocalJobRunner.LOCAL_MAX_MAPS, 1));
+      assertEquals(114, conf.getInt(MRJobConfig.IO_SORT_MB, 100));
+   }
+
+   @Test
+   public void shouldBoundInProcessMapsByHeap() {
+      JobPlanner planner = new JobPlanner(new Configuration(), RecordHashAlgorithm.SHA1SUM);
+
+      // Only 2 buffers of 114 MB fit in half of a 512 MB heap
+      planner.setRuntime(8, GB / 2);
+      JobPlan plan = planner.plan(JobPlanner.DEFAULT_LOCAL_BYTES, 100.0, 1.0, true);
+      assertEquals(114, plan.getSortMb());
+      assertEquals(2, plan.getLocalMaxMaps());
+
+      // Nor is the buffer allowed to outgrow half of the heap
+      planner.setRuntime(8, GB / 8);
+      plan = planner.plan(JobPlanner.DEFAULT_LOCAL_BYTES, 100.0, 1.0, true);
+      assertEquals(64, plan.getSortMb());
+      assertEquals(0.9f, plan.getSpillPercent(), 0.0f);
+      assertEquals(1, plan.getLocalMaxMaps());
+
+      // Small inputs need far less than the Hadoop default
+      planner.setRuntime(8, 4 * GB);
+      plan = planner.plan(1024L * 1024L, 100.0, 1.0, true);
+      assertEquals(2, plan.getSortMb());
+      assertEquals(8, plan.getLocalMaxMaps());
+   }
+
+   @Test
+   public void shouldNotRunInProcessIfDisabledOrSetOnCommandLine() {
+      Configuration conf = new Configuration();
+      conf.setLong(JobPlanner.CONF_LOCAL_BYTES_KEY, 0L);
+      JobPlanner planner = new JobPlanner(conf, RecordHashAlgorithm.SHA1SUM);
+      assertFalse(planner.plan(1024L, 100.0, 1.0, true).isLocal());
+
+      conf.set(MRConfig.FRAMEWORK_NAME, MRConfig.YARN_FRAMEWORK_NAME, "from command line");
+      JobPlan plan = new JobPlan();
+      plan.setLocal(true);
+      plan.apply(conf);
+      assertEquals(MRConfig.YARN_FRAMEWORK_NAME, conf.get(MRConfig.FRAMEWORK_NAME));
+   }
+
+   @Test
+   public void shouldNotOverwriteCommandLineSettings() {
+      Configuration conf = new Configuration();
+      conf.set(MRJobConfig.NUM_REDUCES, "7", "from command line");
+
+      JobPlan plan = new JobPlan();
+      plan.setNumReduceTasks(40);
+      plan.setSortMb(300);
+      plan.apply(conf);
+
+      assertEquals(7, conf.getInt(MRJobConfig.NUM_REDUCES, 1));
+      assertEquals(300, conf.getInt(MRJobConfig.IO_SORT_MB, 100));
+   }
+
+   @Test
+   public void shouldWriteSameOutputAndCountersInProcess() throws Exception {
+      // A configured cluster is only used if the plan is not applied
+      Configuration conf = new Configuration();
+      conf.set(MRConfig.FRAMEWORK_NAME, MRConfig.YARN_FRAMEWORK_NAME);
+      conf.set("hadoop.tmp.dir", tmpFolder.newFolder().getAbsolutePath());
+      DistributedDiff ddiff = runDiff(conf);
+
+      assertEquals(2L, ddiff.getJob().getCounters()
+            .findCounter(DdiffReducer.DdiffReduceCounter.MISSING).getValue());
+      assertEquals(1L, ddiff.getJob().getCounters()
+            .findCounter(DdiffReducer.DdiffReduceCounter.EXTRA).getValue());
+      assertEquals(4L, ddiff.getJob().getCounters()
+            .findCounter(DdiffReducer.DdiffReduceCounter.REFERENCE_SOURCE).getValue());
+      assertEquals(3L, ddiff.getJob().getCounters()
+            .findCounter(DdiffReducer.DdiffReduceCounter.TEST_SOURCE).getValue());
+      assertEquals(MRConfig.LOCAL_FRAMEWORK_NAME,
+            ddiff.getJob().getConfiguration().get(MRConfig.FRAMEWORK_NAME));
+
+      // The plan is not carried over to later jobs
+      assertEquals(MRConfig.YARN_FRAMEWORK_NAME, ddiff.getConf().get(MRConfig.FRAMEWORK_NAME));
+   }
+
+   @Test
+   public void shouldRunMapOnlyJobsInProcess() throws Exception {
+      Configuration conf = new Configuration();
+      conf.set(MRConfig.FRAMEWORK_NAME, MRConfig.YARN_FRAMEWORK_NAME);
+      conf.set("hadoop.tmp.dir", tmpFolder.newFolder().getAbsolutePath());
+      DistributedDiff ddiff = runDiff(conf, "-" + DistributedDiff.OPTION_KEY_FINGERPRINT_CHECK);
+
+      assertEquals(MRConfig.LOCAL_FRAMEWORK_NAME,
+            ddiff.getFingerprintJob().getConfiguration().get(MRConfig.FRAMEWORK_NAME));
+      assertEquals(2L, ddiff.getJob().getCounters()
+            .findCounter(DdiffReducer.DdiffReduceCounter.MISSING).getValue());
+      assertEquals(1L, ddiff.getJob().getCounters()
+            .findCounter(DdiffReducer.DdiffReduceCounter.EXTRA).getValue());
+   }
+
+   // ------------------------------------------------------------------------
+   // Utility Methods:
+   //
+
+   /**
+    * Diffs a reference input of a, b, b and c against a test input of b, c
+    * and d through {@link ToolRunner}, as {@link Main} does, and checks that
+    * a and one b are written out as missing and d as extra.
+    */
+   private DistributedDiff runDiff(Configuration conf, String... args) throws Exception {
+      File refFile = tmpFolder.newFile();
+      Files.write(refFile.toPath(), "a\nb\nb\nc\n".getBytes(StandardCharsets.UTF_8));
+      File testFile = tmpFolder.newFile();
+      Files.write(testFile.toPath(), "b\nc\nd\n".getBytes(StandardCharsets.UTF_8));
+      File outDir = new File(tmpFolder.getRoot(), "out");
+
+      List<String> allArgs = new ArrayList<String>(Arrays.asList(
+            "-" + DistributedDiff.OPTION_KEY_REF_INPUT_PATH, refFile.getAbsolutePath(),
+            "-" + DistributedDiff.OPTION_KEY_TEST_INPUT_PATH, testFile.getAbsolutePath(),
+            "-" + DistributedDiff.OPTION_KEY_OUTPUT_PATH, outDir.getAbsolutePath()));
+      allArgs.addAll(Arrays.asList(args));
+      DistributedDiff ddiff = new DistributedDiff();
+      assertEquals(0, ToolRunner.run(conf, ddiff, allArgs.toArray(new String[allArgs.size()])));
+
+      assertEquals(Arrays.asList("a\t1", "b\t1"),
+            readPartFiles(conf, outDir, DistributedDiff.MISSING_OUTPUT + "-r-"));
+      assertEquals(Arrays.asList("d\t1"),
+            readPartFiles(conf, outDir, DistributedDiff.EXTRA_OUTPUT + "-r-"));
+      return ddiff;
+   }
+
+   private static List<String> readPartFiles(Configuration conf, File dir, String prefix)
+         throws IOException
+   {
+      List<String> lines = new ArrayList<String>();
+      for (FileStatus status : FileSystem.getLocal(conf).listStatus(new Path(dir.toURI()))) {
+         if (status.getPath().getName().startsWith(prefix)) {
+            lines.addAll(Files.readAllLines(
+                  new File(status.getPath().toUri()).toPath(), StandardCharsets.UTF_8));
+         }
+      }
+      Collections.sort(lines);
+      return lines;
+   }
+
+   private static void writeRecords(File file, int numRecords) throws IOException {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < numRecords; i++) {
+         sb.append(String.format("record-%02d\n", i));
+      }
+      Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+   }
+}
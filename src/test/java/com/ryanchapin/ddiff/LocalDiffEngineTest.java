@@ -0,0 +1,201 @@
+package com.ryanchapin.ddiff;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the {@link LocalDiffEngine}, which reads and writes real files.
+ */
+public class LocalDiffEngineTest extends BaseTest {
+
+   @Rule
+   public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+   // ------------------------------------------------------------------------
+   // Test Methods:
+   //
+
+   @Test
+   public void shouldWriteMissingAndExtraRecords() throws IOException {
+      File ref  = write(tmpFolder.newFile(), "a\nb\nb\nc\n");
+      File test = write(tmpFolder.newFile(), "b\nc\nc\nd\n");
+      File out  = new File(tmpFolder.getRoot(), "out");
+
+      LocalDiffEngine engine = new LocalDiffEngine(RecordHashAlgorithm.SHA256SUM, 2, 16);
+      engine.diff(ref.toPath(), test.toPath(), out.toPath());
+
+      assertEquals(sorted("a\t1", "b\t1"), readOutput(out, DistributedDiff.MISSING_OUTPUT));
+      assertEquals(sorted("c\t1", "d\t1"), readOutput(out, DistributedDiff.EXTRA_OUTPUT));
+      assertEquals(4L, engine.getReferenceRecords());
+      assertEquals(4L, engine.getTestRecords());
+      assertEquals(2L, engine.getMissingRecords());
+      assertEquals(2L, engine.getExtraRecords());
+      assertTrue(new File(out, LocalDiffEngine.SUCCESS_FILE).exists());
+   }
+
+   @Test
+   public void shouldReadEachRecordOnceWhateverTheChunkSize() throws IOException {
+      // The same records, in another order, with CRLF terminators and no
+      // terminator on the last line, plus one extra record in the test input
+      Random random = new Random(42L);
+      List<String> records = new ArrayList<String>();
+      for (int i = 0; i < 200; i++) {
+         StringBuilder sb = new StringBuilder();
+         int length = random.nextInt(12);
+         for (int j = 0; j < length; j++) {
+            sb.append((char) ('a' + random.nextInt(3)));
+         }
+         records.add(sb.toString());
+      }
+      StringBuilder refContent = new StringBuilder();
+      for (String record : records) {
+         refContent.append(record).append('\n');
+      }
+      List<String> shuffled = new ArrayList<String>(records);
+      shuffled.add("extra record");
+      Collections.shuffle(shuffled, random);
+      StringBuilder testContent = new StringBuilder();
+      for (String record : shuffled) {
+         if (testContent.length() > 0) {
+            testContent.append("\r\n");
+         }
+         testContent.append(record);
+      }
+      File ref  = write(tmpFolder.newFile(), refContent.toString());
+      File test = write(tmpFolder.newFile(), testContent.toString());
+
+      for (long chunkBytes : new long[] { 1, 2, 3, 7, 64, 1024 * 1024 }) {
+         File out = new File(tmpFolder.getRoot(), "out-" + chunkBytes);
+         LocalDiffEngine engine =
+               new LocalDiffEngine(RecordHashAlgorithm.MURMUR3_128, 3, 16, chunkBytes,
+                     LocalDiffEngine.MAX_FANOUT);
+         engine.diff(ref.toPath(), test.toPath(), out.toPath());
+
+         assertEquals(records.size(), engine.getReferenceRecords());
+         assertEquals(records.size() + 1, engine.getTestRecords());
+         assertEquals(new ArrayList<String>(), readOutput(out, DistributedDiff.MISSING_OUTPUT));
+         assertEquals(sorted("extra record\t1"), readOutput(out, DistributedDiff.EXTRA_OUTPUT));
+      }
+   }
+
+   @Test
+   public void shouldSkipHiddenFilesOfInputDirectory() throws IOException {
+      File refDir = tmpFolder.newFolder();
+      write(new File(refDir, "part-r-00000"), "a\n");
+      write(new File(refDir, "part-r-00001"), "b\n");
+      write(new File(refDir, "_SUCCESS"), "c\n");
+      write(new File(refDir, ".part-r-00000.crc"), "d\n");
+      File test = write(tmpFolder.newFile(), "b\na\n");
+      File out  = tmpFolder.newFolder();
+
+      LocalDiffEngine engine = new LocalDiffEngine(RecordHashAlgorithm.XXHASH64, 1, 16);
+      engine.diff(refDir.toPath(), test.toPath(), out.toPath());
+
+      assertEquals(2L, engine.getReferenceRecords());
+      assertEquals(0L, engine.getMissingRecords());
+      assertEquals(0L, engine.getExtraRecords());
+      assertEquals(1, out.list().length);
+   }
+
+   @Test
+   public void shouldSpillRecordsThatExceedMemoryBudget() throws IOException {
+      // Twice the records of the budget, each referenced twice and tested
+      // once, with every tenth missing from the test input
+      StringBuilder refContent  = new StringBuilder();
+      StringBuilder testContent = new StringBuilder();
+      List<String> missing = new ArrayList<String>();
+      for (int i = 0; i < 40000; i++) {
+         String record = INPUT_RECORD_PREFIX + i;
+         refContent.append(record).append('\n').append(record).append('\n');
+         if (i % 10 == 0) {
+            missing.add(record + "\t2");
+         } else {
+            testContent.append(record).append('\n');
+            missing.add(record + "\t1");
+         }
+      }
+      testContent.append("extra record\n");
+      Collections.sort(missing);
+      File ref  = write(tmpFolder.newFile(), refContent.toString());
+      File test = write(tmpFolder.newFile(), testContent.toString());
+      File out  = new File(tmpFolder.getRoot(), "out");
+      File spillDir = tmpFolder.newFolder();
+
+      // Splitting partitions in two at a time has them split more than once
+      LocalDiffEngine engine = new LocalDiffEngine(RecordHashAlgorithm.MURMUR3_128, 2, 1,
+            64 * 1024, 2);
+      engine.setSpillDir(spillDir.toPath());
+      engine.diff(ref.toPath(), test.toPath(), out.toPath());
+
+      assertTrue(engine.getSpilledBytes() > refContent.length());
+      assertEquals(missing, readOutput(out, DistributedDiff.MISSING_OUTPUT));
+      assertEquals(sorted("extra record\t1"), readOutput(out, DistributedDiff.EXTRA_OUTPUT));
+      assertEquals(44000L, engine.getMissingRecords());
+      assertEquals(1L, engine.getExtraRecords());
+      assertEquals(0, spillDir.list().length);
+   }
+
+   @Test(expected = IOException.class)
+   public void shouldThrowIOExcpIfRecordExceedsMemoryBudget() throws IOException {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < 300 * 1024; i++) {
+         sb.append('a');
+      }
+      File ref  = write(tmpFolder.newFile(), sb.append('\n').toString());
+      File test = write(tmpFolder.newFile(), "");
+
+      new LocalDiffEngine(RecordHashAlgorithm.SHA1SUM, 1, 1).diff(
+            ref.toPath(), test.toPath(), new File(tmpFolder.getRoot(), "out").toPath());
+   }
+
+   @Test(expected = IOException.class)
+   public void shouldThrowIOExcpOnMissingInput() throws IOException {
+      File test = write(tmpFolder.newFile(), "a\n");
+      new LocalDiffEngine(RecordHashAlgorithm.SHA1SUM, 1, 16).diff(
+            new File(tmpFolder.getRoot(), "missing").toPath(), test.toPath(),
+            new File(tmpFolder.getRoot(), "out").toPath());
+   }
+
+   // ------------------------------------------------------------------------
+   // Utility Methods:
+   //
+
+   private static File write(File file, String content) throws IOException {
+      Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+      return file;
+   }
+
+   /**
+    * Returns the sorted lines of every file of the named output.
+    */
+   private static List<String> readOutput(File dir, String namedOutput) throws IOException {
+      List<String> lines = new ArrayList<String>();
+      for (File file : dir.listFiles()) {
+         if (file.getName().startsWith(namedOutput + "-r-")) {
+            lines.addAll(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+         }
+      }
+      Collections.sort(lines);
+      return lines;
+   }
+
+   private static List<String> sorted(String... lines) {
+      List<String> retVal = new ArrayList<String>();
+      Collections.addAll(retVal, lines);
+      Collections.sort(retVal);
+      return retVal;
+   }
+}
@@ -1,21 +1,19 @@
 package com.ryanchapin.ddiff;
 
-import org.apache.hadoop.io.Text;
-
 /**
  * Data container class for expected Mapper output records
  * 
  * @since 2015-01-23
  */
 public class MapOutputRecord {
-   private Text key;
+   private HashKeyWritable key;
    private TaggedTextWithCountWritableComparable value;
    
-   public Text getKey() {
+   public HashKeyWritable getKey() {
       return key;
    }
 
-   public void setKey(Text key) {
+   public void setKey(HashKeyWritable key) {
       this.key = key;
    }
 
@@ -29,7 +27,7 @@ public class MapOutputRecord {
 
    public MapOutputRecord() {}
    
-   public MapOutputRecord(Text key, TaggedTextWithCountWritableComparable value) {        
+   public MapOutputRecord(HashKeyWritable key, TaggedTextWithCountWritableComparable value) {        
       this.key   = key;
       this.value = value;
    }
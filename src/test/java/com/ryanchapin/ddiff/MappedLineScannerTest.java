@@ -0,0 +1,162 @@
+package com.ryanchapin.ddiff;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedLineScannerTest extends BaseTest {
+
+   @Rule
+   public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+   // ------------------------------------------------------------------------
+   // Utility Methods:
+   //
+
+   private File write(String content) throws IOException {
+      File file = tmpFolder.newFile();
+      Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+      return file;
+   }
+
+   private static List<String> scan(FileChannel channel, long start, long end, int windowBytes)
+         throws IOException
+   {
+      final List<String> lines = new ArrayList<String>();
+      long count = new MappedLineScanner(channel, start, end, windowBytes).scan(
+            new MappedLineScanner.LineHandler() {
+               @Override
+               public void line(ByteBuffer buffer, int offset, int length) {
+                  byte[] bytes = new byte[length];
+                  for (int i = 0; i < length; i++) {
+                     bytes[i] = buffer.get(offset + i);
+                  }
+                  lines.add(new String(bytes, StandardCharsets.UTF_8));
+               }
+            });
+      assertEquals(lines.size(), count);
+      return lines;
+   }
+
+   // ------------------------------------------------------------------------
+   // Test Methods:
+   //
+
+   @Test
+   public void shouldScanEachLineOfEverySplitOnce() throws IOException {
+      // Lines of every length from 0 to 20, so that terminators fall at
+      // every position of a word, and an unterminated last line
+      List<String> expected = new ArrayList<String>();
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i <= 20; i++) {
+         StringBuilder line = new StringBuilder();
+         for (int j = 0; j < i; j++) {
+            line.append((char) ('a' + j));
+         }
+         expected.add(line.toString());
+         sb.append(line).append('\n');
+      }
+      expected.add("last");
+      sb.append("last");
+      File file = write(sb.toString());
+
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+         for (long splitBytes : new long[] { 1, 9, 40, 1024 }) {
+            for (int windowBytes : new int[] { 32, 64, MappedLineScanner.DEFAULT_WINDOW_BYTES }) {
+               long[] boundaries = MappedLineScanner.alignedSplits(channel, splitBytes);
+               assertEquals(0L, boundaries[0]);
+               assertEquals(channel.size(), boundaries[boundaries.length - 1]);
+
+               List<String> lines = new ArrayList<String>();
+               for (int i = 0; i + 1 < boundaries.length; i++) {
+                  lines.addAll(scan(channel, boundaries[i], boundaries[i + 1], windowBytes));
+               }
+               assertEquals(splitBytes + "/" + windowBytes, expected, lines);
+            }
+         }
+      }
+   }
+
+   @Test
+   public void shouldScanLinesOfEveryTerminatorAsTheRecordReader() throws IOException {
+      // Terminators at every position of a word and across window and
+      // split boundaries, including a \r\n that a boundary could split
+      List<String> expected = new ArrayList<String>();
+      StringBuilder sb = new StringBuilder();
+      String[] terminators = { "\n", "\r", "\r\n" };
+      for (int i = 0; i <= 30; i++) {
+         StringBuilder line = new StringBuilder();
+         for (int j = 0; j < i % 11; j++) {
+            line.append((char) ('a' + j));
+         }
+         expected.add(line.toString());
+         sb.append(line).append(terminators[i % terminators.length]);
+      }
+      // An empty line between \r and \n terminated lines
+      sb.append("x\r\ry\r");
+      expected.add("x");
+      expected.add("");
+      expected.add("y");
+      File file = write(sb.toString());
+
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+         for (long splitBytes = 1; splitBytes <= 40; splitBytes++) {
+            for (int windowBytes : new int[] { 32, 33, 64 }) {
+               long[] boundaries = MappedLineScanner.alignedSplits(channel, splitBytes);
+               List<String> lines = new ArrayList<String>();
+               for (int i = 0; i + 1 < boundaries.length; i++) {
+                  lines.addAll(scan(channel, boundaries[i], boundaries[i + 1], windowBytes));
+               }
+               assertEquals(splitBytes + "/" + windowBytes, expected, lines);
+            }
+         }
+      }
+   }
+
+   @Test
+   public void shouldAlignSplitsToNewlines() throws IOException {
+      File file = write("aaaa\nbbbb\ncccc\n");
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+         assertEquals(Arrays.toString(new long[] { 0, 10, 15 }),
+               Arrays.toString(MappedLineScanner.alignedSplits(channel, 6)));
+         assertEquals(Arrays.toString(new long[] { 0, 15 }),
+               Arrays.toString(MappedLineScanner.alignedSplits(channel, 15)));
+      }
+   }
+
+   @Test
+   public void shouldFindNewlinesInEitherByteOrder() {
+      ByteBuffer buffer = ByteBuffer.wrap("0123456789abcdef\nx".getBytes(StandardCharsets.UTF_8));
+      assertEquals(16, MappedLineScanner.indexOfTerminator(buffer, 0, 18));
+      assertEquals(-1, MappedLineScanner.indexOfTerminator(buffer, 0, 16));
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      assertEquals(16, MappedLineScanner.indexOfTerminator(buffer, 3, 18));
+      assertEquals(-1, MappedLineScanner.indexOfTerminator(buffer, 17, 18));
+
+      buffer = ByteBuffer.wrap("0123456789ab\rdef\nx".getBytes(StandardCharsets.UTF_8));
+      assertEquals(12, MappedLineScanner.indexOfTerminator(buffer, 0, 18));
+      assertEquals(16, MappedLineScanner.indexOfTerminator(buffer, 13, 18));
+   }
+
+   @Test(expected = IOException.class)
+   public void shouldThrowIOExcpOnLineLongerThanWindow() throws IOException {
+      File file = write("short\n0123456789012345678901234567890123456789\nshort\n");
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+         scan(channel, 0, channel.size(), 16);
+      }
+   }
+}
@@ -0,0 +1,154 @@
+package com.ryanchapin.ddiff;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Test;
+
+public class OffHeapCountTableTest extends BaseTest {
+
+   private static final int HASH_WIDTH = HashKeyWritable.WIDTH_128;
+
+   // ------------------------------------------------------------------------
+   // Utility Methods:
+   //
+
+   private static boolean add(OffHeapCountTable table, String record, long count) {
+      byte[] bytes = record.getBytes(StandardCharsets.UTF_8);
+      return table.add(DigestUtils.md5(bytes), 0, bytes, 0, bytes.length, count);
+   }
+
+   private static Map<String, Long> entries(OffHeapCountTable table) {
+      Map<String, Long> retVal = new HashMap<String, Long>();
+      byte[] hash = new byte[HASH_WIDTH];
+      for (long slot = table.nextEntry(0); slot >= 0; slot = table.nextEntry(slot + 1)) {
+         byte[] bytes = new byte[table.getRecordLength(slot)];
+         table.copyRecord(slot, bytes, 0);
+         String record = new String(bytes, StandardCharsets.UTF_8);
+         table.copyHash(slot, hash, 0);
+         assertEquals(DigestUtils.md5Hex(record), Hex.encodeHexString(hash));
+         retVal.put(record, table.getCount(slot));
+      }
+      assertEquals(table.size(), retVal.size());
+      return retVal;
+   }
+
+   // ------------------------------------------------------------------------
+   // Test Methods:
+   //
+
+   @Test
+   public void shouldSumCountsOfDuplicateRecordsAcrossResizes() {
+      OffHeapCountTable table = new OffHeapCountTable(HASH_WIDTH, true, 16 * 1024 * 1024);
+      for (int i = 0; i < 50000; i++) {
+         assertTrue(add(table, INPUT_RECORD_PREFIX + (i % 30000), 1L));
+      }
+      assertTrue(add(table, INPUT_RECORD_PREFIX + 0, -4L));
+
+      assertEquals(30000L, table.size());
+      assertTrue(table.getCapacity() * 3 >= table.size() * 4);
+      Map<String, Long> entries = entries(table);
+      assertEquals(Long.valueOf(-2L), entries.get(INPUT_RECORD_PREFIX + 0));
+      assertEquals(Long.valueOf(2L), entries.get(INPUT_RECORD_PREFIX + 19999));
+      assertEquals(Long.valueOf(1L), entries.get(INPUT_RECORD_PREFIX + 29999));
+   }
+
+   @Test
+   public void shouldSpanSegmentsOfSlotsAndRecords() {
+      // Segments of 1024 slots and 4 KB of records
+      OffHeapCountTable table =
+            new OffHeapCountTable(HASH_WIDTH, true, 16 * 1024 * 1024, 1024, 4096);
+      for (int i = 0; i < 10000; i++) {
+         assertTrue(add(table, INPUT_RECORD_PREFIX + i, i));
+      }
+      Map<String, Long> entries = entries(table);
+      for (int i = 0; i < 10000; i++) {
+         assertEquals(Long.valueOf(i), entries.get(INPUT_RECORD_PREFIX + i));
+      }
+
+      // A record longer than a segment of records cannot be kept
+      byte[] record = new byte[4096];
+      assertFalse(table.add(DigestUtils.md5(record), 0, record, 0, record.length, 1L));
+      assertEquals(10000L, table.size());
+   }
+
+   @Test
+   public void shouldKeepDistinctRecordsWithTheSameHash() {
+      OffHeapCountTable table = new OffHeapCountTable(HASH_WIDTH, true, 1024 * 1024);
+      byte[] hash = DigestUtils.md5(INPUT_RECORD_PREFIX);
+      byte[] record = "xab".getBytes(StandardCharsets.UTF_8);
+      assertTrue(table.add(hash, 0, record, 1, 1, 1L));
+      assertTrue(table.add(hash, 0, record, 2, 1, 1L));
+      assertTrue(table.add(hash, 0, record, 1, 1, 1L));
+
+      assertEquals(2L, table.size());
+      long first  = table.nextEntry(0);
+      long second = table.nextEntry(first + 1);
+      assertEquals(3L, table.getCount(first) + table.getCount(second));
+      assertEquals(-1L, table.nextEntry(second + 1));
+   }
+
+   @Test
+   public void shouldKeyByHashAloneWithoutRecords() {
+      OffHeapCountTable table = new OffHeapCountTable(HashKeyWritable.WIDTH_256, false, 1024 * 1024);
+      byte[] hashes = new byte[2 * HashKeyWritable.WIDTH_256];
+      System.arraycopy(DigestUtils.sha256("a"), 0, hashes, 0, HashKeyWritable.WIDTH_256);
+      System.arraycopy(DigestUtils.sha256("b"), 0, hashes, HashKeyWritable.WIDTH_256,
+            HashKeyWritable.WIDTH_256);
+      assertTrue(table.add(hashes, 0, 1L));
+      assertTrue(table.add(hashes, HashKeyWritable.WIDTH_256, -1L));
+      assertTrue(table.add(hashes, 0, 1L));
+
+      assertEquals(2L, table.size());
+      assertEquals(-1L, table.getRecordOffset(table.nextEntry(0)));
+      byte[] hash = new byte[HashKeyWritable.WIDTH_256];
+      for (long slot = table.nextEntry(0); slot >= 0; slot = table.nextEntry(slot + 1)) {
+         table.copyHash(slot, hash, 0);
+         long expected = Hex.encodeHexString(hash).equals(DigestUtils.sha256Hex("a")) ? 2L : -1L;
+         assertEquals(expected, table.getCount(slot));
+      }
+   }
+
+   @Test
+   public void shouldRejectNewRecordsOnceBudgetIsReached() {
+      long budget = 256 * 1024;
+      OffHeapCountTable table = new OffHeapCountTable(HASH_WIDTH, true, budget);
+
+      int added = 0;
+      while (add(table, INPUT_RECORD_PREFIX + added, 1L)) {
+         added++;
+      }
+      assertTrue(added > 1000);
+      assertEquals(added, table.size());
+      assertTrue(table.getAllocatedBytes() <= budget);
+
+      // Existing records are still counted when the table is full
+      assertTrue(add(table, INPUT_RECORD_PREFIX + 0, 1L));
+      assertEquals(Long.valueOf(2L), entries(table).get(INPUT_RECORD_PREFIX + 0));
+
+      long allocated = table.getAllocatedBytes();
+      table.clear();
+      assertTrue(table.isEmpty());
+      assertEquals(-1L, table.nextEntry(0));
+      assertEquals(allocated, table.getAllocatedBytes());
+      assertTrue(add(table, INPUT_RECORD_PREFIX + added, 1L));
+      assertEquals(Long.valueOf(1L), entries(table).get(INPUT_RECORD_PREFIX + added));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void shouldThrowIllegalArgExcpOnBudgetSmallerThanTable() {
+      new OffHeapCountTable(HASH_WIDTH, true, 1024);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void shouldThrowIllegalArgExcpOnHashWidthNotMultipleOf8() {
+      new OffHeapCountTable(20, true, 1024 * 1024);
+   }
+}
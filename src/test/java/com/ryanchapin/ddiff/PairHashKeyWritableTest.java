@@ -0,0 +1,87 @@
+package com.ryanchapin.ddiff;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparator;
+import org.junit.Test;
+
+public class PairHashKeyWritableTest extends BaseTest {
+
+   // ------------------------------------------------------------------------
+   // Utility Methods:
+   //
+
+   private static PairHashKeyWritable createKey(String hashOf, int pair) {
+      PairHashKeyWritable key = new PairHashKeyWritable();
+      byte[] digest = DigestUtils.sha256(hashOf);
+      key.set(digest, 0, digest.length);
+      key.setPair(pair);
+      return key;
+   }
+
+   private static int compareRaw(WritableComparator comparator,
+         PairHashKeyWritable a, PairHashKeyWritable b) throws IOException
+   {
+      DataOutputBuffer aBytes = new DataOutputBuffer();
+      DataOutputBuffer bBytes = new DataOutputBuffer();
+      a.write(aBytes);
+      b.write(bBytes);
+      return Integer.signum(comparator.compare(
+            aBytes.getData(), 0, aBytes.getLength(),
+            bBytes.getData(), 0, bBytes.getLength()));
+   }
+
+   // ------------------------------------------------------------------------
+   // Test Methods:
+   //
+
+   @Test
+   public void shouldRoundTripSerializedKey() throws IOException {
+      PairHashKeyWritable key = createKey(INPUT_RECORD_PREFIX, 1234);
+      DataOutputBuffer out = new DataOutputBuffer();
+      key.write(out);
+
+      DataInputBuffer in = new DataInputBuffer();
+      in.reset(out.getData(), out.getLength());
+      PairHashKeyWritable copy = new PairHashKeyWritable();
+      copy.readFields(in);
+
+      assertEquals(key, copy);
+      assertEquals(HashKeyWritable.WIDTH_256, copy.getLength());
+      assertEquals(1234, copy.getPair());
+   }
+
+   @Test
+   public void shouldSortByHashAndPairConsistentlyWithCompareTo() throws IOException {
+      WritableComparator comparator = WritableComparator.get(PairHashKeyWritable.class);
+      PairHashKeyWritable[] keys = {
+            createKey("a", 0),
+            createKey("a", 1),
+            createKey("a", 300),
+            createKey("b", 0),
+            createKey("b", 2),
+      };
+      for (PairHashKeyWritable a : keys) {
+         for (PairHashKeyWritable b : keys) {
+            assertEquals(Integer.signum(a.compareTo(b)), compareRaw(comparator, a, b));
+         }
+      }
+   }
+
+   @Test
+   public void shouldPartitionOnHashAlone() throws IOException {
+      PairHashKeyWritable first  = createKey(INPUT_RECORD_PREFIX, 0);
+      PairHashKeyWritable second = createKey(INPUT_RECORD_PREFIX, 7);
+      assertTrue(compareRaw(WritableComparator.get(PairHashKeyWritable.class), first, second) < 0);
+
+      HashKeyPartitioner<Object> partitioner = new HashKeyPartitioner<Object>();
+      assertEquals(partitioner.getPartition(first, null, 13),
+            partitioner.getPartition(second, null, 13));
+   }
+}
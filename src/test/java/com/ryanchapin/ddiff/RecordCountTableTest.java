@@ -0,0 +1,126 @@
+package com.ryanchapin.ddiff;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+public class RecordCountTableTest extends BaseTest {
+
+   private static final int HASH_WIDTH = HashKeyWritable.WIDTH_128;
+
+   // ------------------------------------------------------------------------
+   // Utility Methods:
+   //
+
+   private static boolean add(RecordCountTable table, String record, long count) {
+      byte[] bytes = record.getBytes(StandardCharsets.UTF_8);
+      return table.add(DigestUtils.md5(bytes), bytes, bytes.length, count);
+   }
+
+   private static Map<String, Long> entries(RecordCountTable table) {
+      Map<String, Long> retVal = new HashMap<String, Long>();
+      Text record = new Text();
+      HashKeyWritable hash = new HashKeyWritable();
+      for (int i = 0; i < table.size(); i++) {
+         table.copyRecord(i, record);
+         table.copyHash(i, hash);
+         assertEquals(DigestUtils.md5Hex(record.toString()), hash.toString());
+         retVal.put(record.toString(), table.getCount(i));
+      }
+      return retVal;
+   }
+
+   // ------------------------------------------------------------------------
+   // Test Methods:
+   //
+
+   @Test
+   public void shouldSumCountsOfDuplicateRecords() {
+      RecordCountTable table = new RecordCountTable(HASH_WIDTH, 1024 * 1024);
+      for (int i = 0; i < 5000; i++) {
+         assertTrue(add(table, INPUT_RECORD_PREFIX + (i % 3000), 1L));
+      }
+      assertTrue(add(table, INPUT_RECORD_PREFIX + 0, -4L));
+
+      assertEquals(3000, table.size());
+      Map<String, Long> entries = entries(table);
+      assertEquals(Long.valueOf(-2L), entries.get(INPUT_RECORD_PREFIX + 0));
+      assertEquals(Long.valueOf(2L), entries.get(INPUT_RECORD_PREFIX + 1999));
+      assertEquals(Long.valueOf(1L), entries.get(INPUT_RECORD_PREFIX + 2999));
+   }
+
+   @Test
+   public void shouldKeepDistinctRecordsWithTheSameHash() {
+      RecordCountTable table = new RecordCountTable(HASH_WIDTH, 1024 * 1024);
+      byte[] hash = DigestUtils.md5(INPUT_RECORD_PREFIX);
+      byte[] a = "a".getBytes(StandardCharsets.UTF_8);
+      byte[] b = "b".getBytes(StandardCharsets.UTF_8);
+      assertTrue(table.add(hash, a, a.length, 1L));
+      assertTrue(table.add(hash, b, b.length, 1L));
+      assertTrue(table.add(hash, a, a.length, 1L));
+
+      assertEquals(2, table.size());
+      assertEquals(2L, table.getCount(0));
+      assertEquals(1L, table.getCount(1));
+   }
+
+   @Test
+   public void shouldRejectNewRecordsOnceBudgetIsReached() {
+      long budget = 256 * 1024;
+      RecordCountTable table = new RecordCountTable(HASH_WIDTH, budget);
+
+      int added = 0;
+      while (add(table, INPUT_RECORD_PREFIX + added, 1L)) {
+         added++;
+      }
+      assertTrue(added > 1000);
+      assertEquals(added, table.size());
+      assertTrue(table.getAllocatedBytes() <= budget);
+
+      // Existing records are still counted when the table is full
+      assertTrue(add(table, INPUT_RECORD_PREFIX + 0, 1L));
+      assertEquals(Long.valueOf(2L), entries(table).get(INPUT_RECORD_PREFIX + 0));
+
+      long allocated = table.getAllocatedBytes();
+      table.clear();
+      assertTrue(table.isEmpty());
+      assertEquals(allocated, table.getAllocatedBytes());
+      assertTrue(add(table, INPUT_RECORD_PREFIX + added, 1L));
+      assertEquals(1, table.size());
+   }
+
+   @Test
+   public void shouldOnlyCountPresentRecordsWithAddIfPresent() {
+      RecordCountTable table = new RecordCountTable(HASH_WIDTH, 1024 * 1024);
+      assertTrue(add(table, INPUT_RECORD_PREFIX + 0, 0L));
+
+      byte[] present = (INPUT_RECORD_PREFIX + 0).getBytes(StandardCharsets.UTF_8);
+      byte[] absent = (INPUT_RECORD_PREFIX + 1).getBytes(StandardCharsets.UTF_8);
+      assertTrue(table.addIfPresent(DigestUtils.md5(present), present, present.length, -1L));
+      assertFalse(table.addIfPresent(DigestUtils.md5(absent), absent, absent.length, -1L));
+
+      assertEquals(1, table.size());
+      assertEquals(-1L, table.getCount(0));
+   }
+
+   @Test
+   public void shouldNotAddRecordLargerThanBudget() {
+      RecordCountTable table = new RecordCountTable(HASH_WIDTH, 256 * 1024);
+      byte[] record = new byte[512 * 1024];
+      assertFalse(table.add(DigestUtils.md5(record), record, record.length, 1L));
+      assertTrue(table.isEmpty());
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void shouldThrowIllegalArgExcpOnBudgetSmallerThanTable() {
+      new RecordCountTable(HASH_WIDTH, 1024);
+   }
+}
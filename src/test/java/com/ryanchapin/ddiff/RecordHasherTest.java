@@ -0,0 +1,106 @@
+package com.ryanchapin.ddiff;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Test;
+
+public class RecordHasherTest extends BaseTest {
+
+   // ------------------------------------------------------------------------
+   // Utility Methods:
+   //
+
+   private static String hashHex(RecordHasher hasher, String record)
+         throws UnsupportedEncodingException
+   {
+      byte[] bytes = record.getBytes("UTF-8");
+      byte[] out = new byte[hasher.getHashLength()];
+      int length = hasher.hash(bytes, 0, bytes.length, out);
+      assertEquals(hasher.getHashLength(), length);
+      return Hex.encodeHexString(out);
+   }
+
+   // ------------------------------------------------------------------------
+   // Test Methods:
+   //
+
+   @Test
+   public void shouldMatchDigestUtils() throws UnsupportedEncodingException {
+      assertEquals(DigestUtils.md5Hex(INPUT_RECORD_PREFIX),
+            hashHex(RecordHashAlgorithm.MD5SUM.newHasher(), INPUT_RECORD_PREFIX));
+      assertEquals(DigestUtils.sha256Hex(INPUT_RECORD_PREFIX),
+            hashHex(RecordHashAlgorithm.SHA256SUM.newHasher(), INPUT_RECORD_PREFIX));
+   }
+
+   @Test
+   public void shouldMatchMurmur3ReferenceVectors() throws UnsupportedEncodingException {
+      RecordHasher hasher = RecordHashAlgorithm.MURMUR3_128.newHasher();
+      assertEquals("00000000000000000000000000000000", hashHex(hasher, ""));
+      assertEquals("cbd8a7b341bd9b025b1e906a48ae1d19", hashHex(hasher, "hello"));
+   }
+
+   @Test
+   public void shouldMatchXxHash64ReferenceVectors() throws UnsupportedEncodingException {
+      RecordHasher hasher = RecordHashAlgorithm.XXHASH64.newHasher();
+      assertEquals("ef46db3751d8e999", hashHex(hasher, ""));
+      assertEquals("44bc2cf5ad770999", hashHex(hasher, "abc"));
+   }
+
+   @Test
+   public void shouldHashRecordsLongerThanOneStripe() throws UnsupportedEncodingException {
+      // Exercise the bulk loops of each algorithm along with the tails
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < 7; i++) {
+         sb.append(INPUT_RECORD_PREFIX);
+      }
+      String record = sb.toString();
+      for (RecordHashAlgorithm algo : RecordHashAlgorithm.values()) {
+         RecordHasher hasher = algo.newHasher();
+         String hash = hashHex(hasher, record);
+         assertEquals(algo.name(), hash, hashHex(hasher, record));
+         assertFalse(algo.name(), hash.equals(hashHex(hasher, record + "x")));
+      }
+   }
+
+   @Test
+   public void shouldKeyRecordsByTheSameWidthAsTheShuffle() {
+      int[][] widths = { { 8, 8 }, { 16, 16 }, { 20, 16 }, { 32, 32 }, { 64, 32 } };
+      for (int[] width : widths) {
+         assertEquals(width[1], RecordHashAlgorithm.keyWidth(width[0]));
+         assertEquals(width[1], HashKeyWritable.keyWidth(width[0]));
+      }
+   }
+
+   @Test
+   public void shouldHashSlicesOfBuffersAsArrays() throws UnsupportedEncodingException {
+      byte[] bytes = ("x" + INPUT_RECORD_PREFIX + INPUT_RECORD_PREFIX + "y").getBytes("UTF-8");
+      ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+      direct.put(bytes);
+      for (RecordHashAlgorithm algo : RecordHashAlgorithm.values()) {
+         RecordHasher hasher = algo.newHasher();
+         byte[] expected = new byte[hasher.getHashLength()];
+         byte[] actual   = new byte[hasher.getHashLength()];
+         for (ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+            for (ByteBuffer buffer : new ByteBuffer[] { direct, ByteBuffer.wrap(bytes) }) {
+               buffer.order(order);
+               int position = buffer.position();
+               for (int length = 0; length < bytes.length - 1; length++) {
+                  hasher.hash(bytes, 1, length, expected);
+                  hasher.hash(buffer, 1, length, actual);
+                  assertTrue(algo.name() + " " + length, Arrays.equals(expected, actual));
+               }
+               assertEquals(position, buffer.position());
+            }
+         }
+      }
+   }
+}
@@ -0,0 +1,164 @@
+package com.ryanchapin.ddiff;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.mrunit.mapreduce.ReduceDriver;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+import com.ryanchapin.ddiff.DdiffReducer.DdiffReduceCounter;
+import com.ryanchapin.ddiff.ReferenceIndexReducer.ReferenceIndexCounter;
+
+/**
+ * Tests for the {@link ReferenceIndex}, the {@link ReferenceIndexReducer}
+ * that builds it and the {@link DdiffReducer} that merges it.  These are
+ * not run with the PowerMockRunner, as reading the index requires a Hadoop
+ * login.
+ */
+public class ReferenceIndexTest extends BaseTest {
+
+   @Rule
+   public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+   // ------------------------------------------------------------------------
+   // Test Methods:
+   //
+
+   @Test
+   public void shouldWriteCountOfEachDistinctRecord() throws IOException {
+      List<InputRecord> inputRecords = DdiffTestUtils.createInputRecords(1, true);
+      List<MapOutputRecord> records =
+            DdiffTestUtils.createMapOutputRecords(inputRecords, Source.REFERENCE, 1);
+      HashKeyWritable key = records.get(0).getKey();
+      Text record = new Text(inputRecords.get(0).getRecord());
+
+      // The second record shares the hash of the first
+      Text collision = new Text(inputRecords.get(0).getRecord() + "-collision");
+
+      ReduceDriver<HashKeyWritable, TaggedTextWithCountWritableComparable,
+                   HashKeyWritable, TaggedTextWithCountWritableComparable> reduceDriver =
+            ReduceDriver.newReduceDriver(new ReferenceIndexReducer());
+      reduceDriver.withInput(key, ImmutableList.of(
+            new TaggedTextWithCountWritableComparable(record, Source.REFERENCE, 2L),
+            new TaggedTextWithCountWritableComparable(collision, Source.REFERENCE, 1L),
+            new TaggedTextWithCountWritableComparable(record, Source.REFERENCE, 1L)));
+      reduceDriver.withOutput(key,
+            new TaggedTextWithCountWritableComparable(record, Source.REFERENCE, 3L));
+      reduceDriver.withOutput(key,
+            new TaggedTextWithCountWritableComparable(collision, Source.REFERENCE, 1L));
+      reduceDriver.runTest();
+
+      assertEquals(4L, reduceDriver.getCounters()
+            .findCounter(ReferenceIndexCounter.RECORDS).getValue());
+      assertEquals(2L, reduceDriver.getCounters()
+            .findCounter(ReferenceIndexCounter.DISTINCT_RECORDS).getValue());
+   }
+
+   @Test
+   public void shouldReadBackWrittenMetadata() throws IOException {
+      FileSystem fs = FileSystem.getLocal(new Configuration());
+      Path index = new Path(tmpFolder.newFolder().toURI().toString());
+      new ReferenceIndex(RecordHashAlgorithm.MURMUR3_128, "UTF-8", 7, 1000L, 900L)
+            .write(fs, index);
+
+      ReferenceIndex read = ReferenceIndex.read(fs, index);
+      assertEquals(RecordHashAlgorithm.MURMUR3_128, read.getHashAlgorithm());
+      assertEquals("UTF-8", read.getStringEncoding());
+      assertEquals(7, read.getNumPartitions());
+      assertEquals(1000L, read.getRecords());
+      assertEquals(900L, read.getDistinctRecords());
+      assertEquals(new Path(index, "part-r-00003"), ReferenceIndex.getPartitionPath(index, 3));
+   }
+
+   @Test(expected = IOException.class)
+   public void shouldThrowIOExcpOnMissingMetadata() throws IOException {
+      FileSystem fs = FileSystem.getLocal(new Configuration());
+      ReferenceIndex.read(fs, new Path(tmpFolder.newFolder().toURI().toString()));
+   }
+
+   @Test
+   public void shouldMergeIndexPartitionWithTestRecords() throws IOException {
+      // Order the records by hash, as they are in the index and the shuffle
+      List<InputRecord> inputRecords = DdiffTestUtils.createInputRecords(4, false);
+      List<MapOutputRecord> records =
+            DdiffTestUtils.createMapOutputRecords(inputRecords, Source.REFERENCE, 1);
+      Map<HashKeyWritable, Text> recordsByKey = new HashMap<HashKeyWritable, Text>();
+      for (int i = 0; i < records.size(); i++) {
+         recordsByKey.put(records.get(i).getKey(), new Text(inputRecords.get(i).getRecord()));
+      }
+      List<HashKeyWritable> keys = new ArrayList<HashKeyWritable>(recordsByKey.keySet());
+      Collections.sort(keys, new Comparator<HashKeyWritable>() {
+         @Override
+         public int compare(HashKeyWritable k1, HashKeyWritable k2) {
+            return k1.compareTo(k2);
+         }
+      });
+
+      // The index holds the first three records, the second one twice
+      Configuration conf = new Configuration();
+      Path index = new Path(tmpFolder.newFolder().toURI().toString());
+      SequenceFile.Writer writer = SequenceFile.createWriter(conf,
+            SequenceFile.Writer.file(ReferenceIndex.getPartitionPath(index, 0)),
+            SequenceFile.Writer.keyClass(HashKeyWritable.class),
+            SequenceFile.Writer.valueClass(TaggedTextWithCountWritableComparable.class));
+      try {
+         for (int i = 0; i < 3; i++) {
+            writer.append(keys.get(i), new TaggedTextWithCountWritableComparable(
+                  recordsByKey.get(keys.get(i)), Source.REFERENCE, (i == 1) ? 2L : 1L));
+         }
+      } finally {
+         writer.close();
+      }
+
+      // The test holds the second and fourth records, so the first and
+      // third are only in the index, one copy of the second is missing and
+      // the fourth is extra.  The reducer writes them to real files, so the
+      // named outputs are defined as for the diff job.
+      Job job = Job.getInstance(conf);
+      job.getConfiguration().set(DistributedDiff.CONF_REFERENCE_INDEX_PATH_KEY, index.toString());
+      FileOutputFormat.setOutputPath(job, new Path(tmpFolder.newFolder().toURI().toString()));
+      MultipleOutputs.addNamedOutput(job, DistributedDiff.MISSING_OUTPUT,
+            TextOutputFormat.class, Text.class, LongWritable.class);
+      MultipleOutputs.addNamedOutput(job, DistributedDiff.EXTRA_OUTPUT,
+            TextOutputFormat.class, Text.class, LongWritable.class);
+      ReduceDriver<HashKeyWritable, TaggedTextWithCountWritableComparable,
+                   Text, LongWritable> reduceDriver =
+            ReduceDriver.newReduceDriver(new DdiffReducer());
+      DdiffTestUtils.copyConfiguration(job.getConfiguration(), reduceDriver.getConfiguration());
+      for (int i : new int[] { 1, 3 }) {
+         reduceDriver.withInput(keys.get(i), ImmutableList.of(
+               new TaggedTextWithCountWritableComparable(
+                     recordsByKey.get(keys.get(i)), Source.TEST, -1L)));
+      }
+      reduceDriver.run();
+
+      Map<DdiffReduceCounter, Long> expectedCounts = new HashMap<DdiffReduceCounter, Long>();
+      expectedCounts.put(DdiffReduceCounter.MISSING, 3L);
+      expectedCounts.put(DdiffReduceCounter.EXTRA, 1L);
+      expectedCounts.put(DdiffReduceCounter.REFERENCE_SOURCE, 4L);
+      expectedCounts.put(DdiffReduceCounter.TEST_SOURCE, 2L);
+      expectedCounts.put(DdiffReduceCounter.INVALID_SOURCE, 0L);
+      DdiffTestUtils.validateCounters(reduceDriver.getCounters(), expectedCounts,
+            DdiffReduceCounter.class);
+   }
+}
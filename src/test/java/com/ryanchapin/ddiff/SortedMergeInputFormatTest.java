@@ -0,0 +1,223 @@
+package com.ryanchapin.ddiff;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobID;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.task.JobContextImpl;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ryanchapin.ddiff.DdiffReducer.DdiffReduceCounter;
+
+/**
+ * Tests for the {@link SortedMergeInputFormat}, its splits and its record
+ * reader.  These are not run with the PowerMockRunner, as reading the
+ * inputs requires a Hadoop login.
+ */
+public class SortedMergeInputFormatTest extends BaseTest {
+
+   @Rule
+   public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+   private Configuration conf;
+   private File refDir;
+   private File testDir;
+   private Counters counters;
+
+   @Before
+   public void setUp() throws IOException {
+      conf    = new Configuration();
+      refDir  = tmpFolder.newFolder();
+      testDir = tmpFolder.newFolder();
+      conf.set(DistributedDiff.CONF_SORTED_REFERENCE_PATH_KEY, refDir.toURI().toString());
+      conf.set(DistributedDiff.CONF_SORTED_TEST_PATH_KEY, testDir.toURI().toString());
+      counters = new Counters();
+   }
+
+   // ------------------------------------------------------------------------
+   // Test Methods:
+   //
+
+   @Test
+   public void shouldMergeSortedInputsAcrossRanges() throws Exception {
+      // The reference holds every record twice across two files, and the
+      // test drops every 1000th record and duplicates every 777th
+      List<String> ref  = new ArrayList<String>();
+      List<String> test = new ArrayList<String>();
+      Map<String, Long> expected = new TreeMap<String, Long>();
+      for (int i = 0; i < 20000; i++) {
+         String record = String.format(INPUT_RECORD_PREFIX + "%06d", i);
+         ref.add(record);
+         ref.add(record);
+         int copies = (i % 1000 == 0) ? 0 : (i % 777 == 0) ? 3 : 2;
+         for (int j = 0; j < copies; j++) {
+            test.add(record);
+         }
+         if (copies != 2) {
+            expected.put(record, 2L - copies);
+         }
+      }
+      writeLines(new File(refDir, "part-00000"), ref.subList(0, 15001));
+      writeLines(new File(refDir, "part-00001"), ref.subList(15001, ref.size()));
+      writeLines(new File(refDir, "_SUCCESS"), new ArrayList<String>());
+      writeLines(new File(testDir, "part-00000"), test);
+
+      // Ranges of 64 KB over roughly 1 MB of input
+      conf.setLong(FileInputFormat.SPLIT_MAXSIZE, 64 * 1024);
+      List<InputSplit> splits = new SortedMergeInputFormat().getSplits(
+            new JobContextImpl(conf, new JobID()));
+      assertTrue(splits.size() > 10);
+
+      assertEquals(expected, merge(splits));
+      assertEquals(40000L, counters.findCounter(DdiffReduceCounter.REFERENCE_SOURCE).getValue());
+      assertEquals(test.size(), counters.findCounter(DdiffReduceCounter.TEST_SOURCE).getValue());
+   }
+
+   @Test
+   public void shouldMergeDisjointInputsInSingleRange() throws Exception {
+      List<String> ref = new ArrayList<String>();
+      ref.add("a");
+      ref.add("c");
+      List<String> test = new ArrayList<String>();
+      test.add("b");
+      test.add("c");
+      test.add("d");
+      writeLines(new File(refDir, "part-00000"), ref);
+      writeLines(new File(testDir, "part-00000"), test);
+
+      List<InputSplit> splits = new SortedMergeInputFormat().getSplits(
+            new JobContextImpl(conf, new JobID()));
+      assertEquals(1, splits.size());
+
+      Map<String, Long> expected = new TreeMap<String, Long>();
+      expected.put("a", 1L);
+      expected.put("b", -1L);
+      expected.put("d", -1L);
+      assertEquals(expected, merge(splits));
+   }
+
+   @Test(expected = IOException.class)
+   public void shouldThrowIOExcpOnUnsortedInput() throws Exception {
+      List<String> ref = new ArrayList<String>();
+      ref.add("b");
+      ref.add("a");
+      writeLines(new File(refDir, "part-00000"), ref);
+      writeLines(new File(testDir, "part-00000"), ref);
+
+      merge(new SortedMergeInputFormat().getSplits(new JobContextImpl(conf, new JobID())));
+   }
+
+   @Test
+   public void shouldSeekToFirstLineAtOrAfterKey() throws Exception {
+      List<String> lines = new ArrayList<String>();
+      for (int i = 0; i < 50000; i += 2) {
+         lines.add(String.format("%08d", i));
+      }
+      File file = new File(refDir, "part-00000");
+      writeLines(file, lines);
+
+      FileSystem fs = FileSystem.getLocal(conf);
+      SortedInputReader reader = new SortedInputReader(conf, fs,
+            SortedMergeInputFormat.listFiles(conf, refDir.toURI().toString()));
+      Text line = new Text();
+      try {
+         reader.seek(new Text(String.format("%08d", 33333)));
+         assertTrue(reader.next(line));
+         assertEquals(String.format("%08d", 33334), line.toString());
+
+         reader.seek(new Text(String.format("%08d", 10000)));
+         assertTrue(reader.next(line));
+         assertEquals(String.format("%08d", 10000), line.toString());
+
+         reader.seek(new Text("99999999"));
+         assertTrue(!reader.next(line));
+      } finally {
+         reader.close();
+      }
+   }
+
+   // ------------------------------------------------------------------------
+   // Utility Methods:
+   //
+
+   /**
+    * Reads every split and returns the net count of each differing record.
+    */
+   private Map<String, Long> merge(List<InputSplit> splits) throws Exception {
+      Map<String, Long> retVal = new TreeMap<String, Long>();
+      SortedMergeInputFormat inputFormat = new SortedMergeInputFormat();
+      for (InputSplit split : splits) {
+         TaskAttemptContextImpl context =
+               new TaskAttemptContextImpl(conf, new TaskAttemptID(), new CountersReporter());
+         RecordReader<Text, LongWritable> reader = inputFormat.createRecordReader(split, context);
+         try {
+            reader.initialize(split, context);
+            while (reader.nextKeyValue()) {
+               String record = reader.getCurrentKey().toString();
+               assertTrue("Record " + record + " read in more than one range",
+                     !retVal.containsKey(record));
+               retVal.put(record, reader.getCurrentValue().get());
+            }
+         } finally {
+            reader.close();
+         }
+      }
+      return retVal;
+   }
+
+   private static void writeLines(File file, List<String> lines) throws IOException {
+      StringBuilder sb = new StringBuilder();
+      for (String line : lines) {
+         sb.append(line).append('\n');
+      }
+      Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+   }
+
+   private class CountersReporter extends StatusReporter {
+
+      @Override
+      public Counter getCounter(Enum<?> name) {
+         return counters.findCounter(name);
+      }
+
+      @Override
+      public Counter getCounter(String group, String name) {
+         return counters.findCounter(group, name);
+      }
+
+      @Override
+      public void progress() {}
+
+      @Override
+      public float getProgress() {
+         return 0;
+      }
+
+      @Override
+      public void setStatus(String status) {}
+   }
+}
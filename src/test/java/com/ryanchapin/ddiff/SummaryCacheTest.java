@@ -0,0 +1,201 @@
+package com.ryanchapin.ddiff;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.mrunit.mapreduce.MapDriver;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ryanchapin.ddiff.FileSummaryMapper.FileSummaryCounter;
+
+/**
+ * Tests for the {@link SummaryCache}, the {@link FileSummaryMapper} that
+ * writes its summaries and the {@link SummaryMapper} that reads them.  These
+ * are not run with the PowerMockRunner, as the cache is kept on the local
+ * filesystem, which requires a Hadoop login.
+ */
+public class SummaryCacheTest extends BaseTest {
+
+   @Rule
+   public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+   private Configuration conf;
+   private FileSystem fs;
+   private SummaryCache cache;
+
+   @Before
+   public void setUp() throws IOException {
+      conf  = new Configuration();
+      fs    = FileSystem.getLocal(conf);
+      cache = new SummaryCache(conf, new Path(tmpFolder.newFolder().toURI().toString()),
+            RecordHashAlgorithm.SHA256SUM, "UTF-8");
+   }
+
+   // ------------------------------------------------------------------------
+   // Test Methods:
+   //
+
+   @Test
+   public void shouldChangeFileKeyWhenFileChanges() throws IOException {
+      File file = tmpFolder.newFile();
+      writeLines(file, INPUT_RECORD_PREFIX + 1, INPUT_RECORD_PREFIX + 2);
+      String key = cache.getFileKey(getStatus(file));
+      assertEquals(key, cache.getFileKey(getStatus(file)));
+
+      SummaryCache murmurCache = new SummaryCache(conf, cache.getCacheDir(),
+            RecordHashAlgorithm.MURMUR3_128, "UTF-8");
+      assertFalse(key.equals(murmurCache.getFileKey(getStatus(file))));
+
+      Configuration delimitedConf = new Configuration(conf);
+      delimitedConf.set(DiffInputFormat.CONF_DELIMITER_KEY, "|");
+      SummaryCache delimitedCache = new SummaryCache(delimitedConf, cache.getCacheDir(),
+            RecordHashAlgorithm.SHA256SUM, "UTF-8");
+      assertFalse(key.equals(delimitedCache.getFileKey(getStatus(file))));
+
+      writeLines(file, INPUT_RECORD_PREFIX + 1, INPUT_RECORD_PREFIX + 3);
+      assertTrue(file.setLastModified(file.lastModified() + 1000L));
+      assertFalse(key.equals(cache.getFileKey(getStatus(file))));
+   }
+
+   @Test
+   public void shouldCancelKeysInBothLists() {
+      List<String> ref  = new ArrayList<String>(Arrays.asList("a", "b", "b", "c"));
+      List<String> test = new ArrayList<String>(Arrays.asList("b", "c", "c", "d"));
+      SummaryCache.cancelMatching(ref, test);
+      assertEquals(Arrays.asList("a", "b"), ref);
+      assertEquals(Arrays.asList("c", "d"), test);
+   }
+
+   @Test
+   public void shouldKeyResultsIndependentOfFileOrder() {
+      assertEquals(
+            cache.getResultKey(Arrays.asList("a", "b"), Arrays.asList("c"), false),
+            cache.getResultKey(Arrays.asList("b", "a"), Arrays.asList("c"), false));
+      assertFalse(cache.getResultKey(Arrays.asList("a"), Arrays.asList("b"), false).equals(
+            cache.getResultKey(Arrays.asList("b"), Arrays.asList("a"), false)));
+      assertFalse(cache.getResultKey(Arrays.asList("a"), Arrays.asList("b"), false).equals(
+            cache.getResultKey(Arrays.asList("a"), Arrays.asList("b"), true)));
+   }
+
+   @Test
+   public void shouldKeyResultsByRecordDelimiter() throws IOException {
+      Configuration delimitedConf = new Configuration(conf);
+      delimitedConf.set(DiffInputFormat.CONF_DELIMITER_KEY, "|");
+      SummaryCache delimitedCache = new SummaryCache(delimitedConf, cache.getCacheDir(),
+            RecordHashAlgorithm.SHA256SUM, "UTF-8");
+      assertFalse(cache.getResultKey(Arrays.asList("a"), Arrays.asList("b"), false).equals(
+            delimitedCache.getResultKey(Arrays.asList("a"), Arrays.asList("b"), false)));
+   }
+
+   @Test
+   public void shouldCopyStoredResultToOutputPath() throws IOException {
+      File outDir = tmpFolder.newFolder();
+      writeLines(new File(outDir, DistributedDiff.MISSING_OUTPUT + "-r-00000"),
+            INPUT_RECORD_PREFIX + 1 + "\t1");
+      Path outPath = new Path(outDir.toURI().toString());
+      assertFalse(cache.copyResult("result", outPath));
+
+      cache.storeResult("result", outPath);
+      fs.delete(outPath, true);
+      assertTrue(cache.copyResult("result", outPath));
+      assertEquals(INPUT_RECORD_PREFIX + 1 + "\t1\n", new String(Files.readAllBytes(
+            new File(outDir, DistributedDiff.MISSING_OUTPUT + "-r-00000").toPath()),
+            StandardCharsets.UTF_8));
+   }
+
+   @Test
+   public void shouldStoreEmptySummaryOfEmptyFile() throws IOException {
+      assertFalse(cache.isSummaryCached("empty"));
+      cache.storeSummary("empty", null);
+      assertTrue(cache.isSummaryCached("empty"));
+   }
+
+   @Test
+   public void shouldSummarizeCountOfEachDistinctRecord() throws IOException {
+      File input = tmpFolder.newFile();
+      Path inputPath = fs.makeQualified(new Path(input.toURI().toString()));
+
+      // The summary is written to real files, so the output is defined as
+      // for the summary job
+      Job job = Job.getInstance(conf);
+      FileOutputFormat.setOutputPath(job, new Path(tmpFolder.newFolder().toURI().toString()));
+      LazyOutputFormat.setOutputFormatClass(job, SequenceFileOutputFormat.class);
+      job.setOutputKeyClass(HashKeyWritable.class);
+      job.setOutputValueClass(TaggedTextWithCountWritableComparable.class);
+
+      MapDriver<LongWritable, Text, HashKeyWritable, TaggedTextWithCountWritableComparable> mapDriver =
+            MapDriver.newMapDriver(new FileSummaryMapper());
+      DdiffTestUtils.copyConfiguration(job.getConfiguration(), mapDriver.getConfiguration());
+      mapDriver.withMapInputPath(inputPath);
+      mapDriver.withInput(new LongWritable(0), new Text(INPUT_RECORD_PREFIX + 1));
+      mapDriver.withInput(new LongWritable(1), new Text(INPUT_RECORD_PREFIX + 2));
+      mapDriver.withInput(new LongWritable(2), new Text(INPUT_RECORD_PREFIX + 1));
+      mapDriver.run();
+
+      assertEquals(3L, mapDriver.getCounters()
+            .findCounter(FileSummaryCounter.RECORDS).getValue());
+      assertEquals(2L, mapDriver.getCounters()
+            .findCounter(FileSummaryCounter.SUMMARY_RECORDS).getValue());
+   }
+
+   @Test
+   public void shouldSignSummaryCountsBySource() throws IOException {
+      List<InputRecord> inputRecords = DdiffTestUtils.createInputRecords(1, true);
+      HashKeyWritable key = DdiffTestUtils.createMapOutputRecords(
+            inputRecords, Source.REFERENCE, 1).get(0).getKey();
+      Text record = new Text(inputRecords.get(0).getRecord());
+
+      for (Source source : Source.values()) {
+         conf.setStrings(DistributedDiff.CONF_SUMMARY_TEST_KEYS_KEY, "test-a", "test-b");
+         MapDriver<HashKeyWritable, TaggedTextWithCountWritableComparable,
+                   HashKeyWritable, TaggedTextWithCountWritableComparable> mapDriver =
+               MapDriver.newMapDriver(new SummaryMapper());
+         DdiffTestUtils.copyConfiguration(conf, mapDriver.getConfiguration());
+         mapDriver.withMapInputPath(cache.getSummaryPath(
+               (Source.TEST == source) ? "test-b" : "reference"));
+         mapDriver.withInput(key,
+               new TaggedTextWithCountWritableComparable(record, Source.REFERENCE, 3L));
+         mapDriver.withOutput(key,
+               new TaggedTextWithCountWritableComparable(record, source, 3L * source.getSign()));
+         mapDriver.runTest();
+      }
+   }
+
+   // ------------------------------------------------------------------------
+   // Utility Methods:
+   //
+
+   private FileStatus getStatus(File file) throws IOException {
+      return fs.getFileStatus(new Path(file.toURI().toString()));
+   }
+
+   private static void writeLines(File file, String... lines) throws IOException {
+      StringBuilder sb = new StringBuilder();
+      for (String line : lines) {
+         sb.append(line).append('\n');
+      }
+      Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+   }
+}
@@ -0,0 +1,100 @@
+package com.ryanchapin.ddiff;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.junit.Test;
+
+public class TaggedTextWithCountWritableComparableTest extends BaseTest {
+
+   // ------------------------------------------------------------------------
+   // Utility Methods:
+   //
+
+   private static TaggedTextWithCountWritableComparable roundTrip(
+         TaggedTextWithCountWritableComparable value,
+         TaggedTextWithCountWritableComparable target) throws IOException
+   {
+      DataOutputBuffer out = new DataOutputBuffer();
+      value.write(out);
+
+      DataInputBuffer in = new DataInputBuffer();
+      in.reset(out.getData(), out.getLength());
+      target.readFields(in);
+      return target;
+   }
+
+   // ------------------------------------------------------------------------
+   // Test Methods:
+   //
+
+   @Test
+   public void shouldSerializeWithSingleByteSourceAndCount() throws IOException {
+      TaggedTextWithCountWritableComparable value =
+            new TaggedTextWithCountWritableComparable(new Text("abc"), Source.TEST, 1L);
+      DataOutputBuffer out = new DataOutputBuffer();
+      value.write(out);
+
+      // Record length and bytes, source id, and the count
+      assertEquals(1 + 3 + 1 + 1, out.getLength());
+   }
+
+   @Test
+   public void shouldRoundTripIntoReusedInstance() throws IOException {
+      TaggedTextWithCountWritableComparable target =
+            new TaggedTextWithCountWritableComparable();
+      Text record = target.getRecord();
+
+      TaggedTextWithCountWritableComparable value =
+            new TaggedTextWithCountWritableComparable(
+                  new Text(INPUT_RECORD_PREFIX), Source.REFERENCE, Integer.MAX_VALUE + 10L);
+      roundTrip(value, target);
+      assertEquals(value, target);
+      assertEquals(value.hashCode(), target.hashCode());
+
+      value = new TaggedTextWithCountWritableComparable(new Text("x"), Source.TEST, 2L);
+      roundTrip(value, target);
+      assertEquals(value, target);
+      assertEquals(Source.TEST, target.getSource());
+      assertSame(record, target.getRecord());
+   }
+
+   @Test
+   public void shouldReturnNullForInvalidSourceId() throws IOException {
+      TaggedTextWithCountWritableComparable value =
+            new TaggedTextWithCountWritableComparable();
+      value.setSourceId((byte) 99);
+      assertNull(roundTrip(value, new TaggedTextWithCountWritableComparable()).getSource());
+   }
+
+   @Test
+   public void shouldCompareRawBytesConsistentlyWithCompareTo() throws IOException {
+      WritableComparator comparator =
+            WritableComparator.get(TaggedTextWithCountWritableComparable.class);
+      TaggedTextWithCountWritableComparable[] values = {
+            new TaggedTextWithCountWritableComparable(new Text("a"), Source.REFERENCE, 1L),
+            new TaggedTextWithCountWritableComparable(new Text("a"), Source.REFERENCE, 300L),
+            new TaggedTextWithCountWritableComparable(new Text("a"), Source.TEST, -1L),
+            new TaggedTextWithCountWritableComparable(new Text("ab"), Source.REFERENCE, 1L),
+            new TaggedTextWithCountWritableComparable(new Text("b"), Source.TEST, -2L),
+      };
+      for (TaggedTextWithCountWritableComparable a : values) {
+         for (TaggedTextWithCountWritableComparable b : values) {
+            DataOutputBuffer aBytes = new DataOutputBuffer();
+            DataOutputBuffer bBytes = new DataOutputBuffer();
+            a.write(aBytes);
+            b.write(bBytes);
+            assertEquals(Integer.signum(a.compareTo(b)), Integer.signum(comparator.compare(
+                  aBytes.getData(), 0, aBytes.getLength(),
+                  bBytes.getData(), 0, bBytes.getLength())));
+         }
+      }
+   }
+}
@@ -0,0 +1,174 @@
+package com.ryanchapin.ddiff;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobID;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.mapreduce.task.JobContextImpl;
+import org.apache.hadoop.mrunit.mapreduce.ReduceDriver;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+import com.ryanchapin.ddiff.DdiffReducer.DdiffReduceCounter;
+
+/**
+ * Tests for diffing a reference against several test sets: the
+ * {@link TestSetInputFormat} that tags the splits of each input, and the
+ * {@link DdiffCombiner} and {@link DdiffReducer} that keep the counts of
+ * each source apart.  These are not run with the PowerMockRunner, as the
+ * inputs and outputs are on the local filesystem, which requires a Hadoop
+ * login.
+ */
+public class TestSetDiffTest extends BaseTest {
+
+   @Rule
+   public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+   private Configuration conf;
+   private HashKeyWritable key;
+   private Text record;
+
+   @Before
+   public void setUp() {
+      conf = new Configuration();
+      conf.setStrings(DistributedDiff.CONF_TEST_SET_LABELS_KEY, "first", "second");
+      List<InputRecord> inputRecords = DdiffTestUtils.createInputRecords(1, true);
+      key = DdiffTestUtils.createMapOutputRecords(
+            inputRecords, Source.REFERENCE, 1).get(0).getKey();
+      record = new Text(inputRecords.get(0).getRecord());
+   }
+
+   // ------------------------------------------------------------------------
+   // Test Methods:
+   //
+
+   @Test
+   public void shouldMapEveryTestSetIdToTest() {
+      assertEquals(Source.TEST.getId(), Source.getTestSetId(0));
+      for (int testSet = 0; testSet < Source.MAX_TEST_SETS; testSet++) {
+         assertEquals(Source.TEST, Source.fromId(Source.getTestSetId(testSet)));
+         assertEquals(testSet, Source.getTestSet(Source.getTestSetId(testSet)));
+      }
+      assertEquals(null, Source.fromId(Source.getTestSetId(Source.MAX_TEST_SETS)));
+   }
+
+   @Test
+   public void shouldSplitInputsWithSourceIdOfEachTestSet() throws Exception {
+      // The same file is the input of both test sets
+      File ref  = tmpFolder.newFile();
+      File test = tmpFolder.newFile();
+      for (File file : new File[] { ref, test }) {
+         Files.write(file.toPath(), (INPUT_RECORD_PREFIX + "\n").getBytes(StandardCharsets.UTF_8));
+      }
+      conf.set(DistributedDiff.CONF_SOURCE_PATH_KEY_PREFIX + Source.REFERENCE.getId(),
+            ref.toURI().toString());
+      conf.set(DistributedDiff.CONF_SOURCE_PATH_KEY_PREFIX + Source.getTestSetId(0),
+            test.toURI().toString());
+      conf.set(DistributedDiff.CONF_SOURCE_PATH_KEY_PREFIX + Source.getTestSetId(1),
+            test.toURI().toString());
+
+      List<InputSplit> splits = new TestSetInputFormat().getSplits(
+            new JobContextImpl(conf, new JobID()));
+      assertEquals(3, splits.size());
+      byte[] sourceIds = { Source.REFERENCE.getId(), Source.getTestSetId(0), Source.getTestSetId(1) };
+      String[] names = { ref.getName(), test.getName(), test.getName() };
+      for (int i = 0; i < splits.size(); i++) {
+         SourceSplit split = (SourceSplit) splits.get(i);
+         assertEquals(sourceIds[i], split.getSourceId());
+         assertEquals(names[i], split.getPath().getName());
+      }
+   }
+
+   @Test
+   public void shouldCombineCountsOfEachSourceSeparately() throws IOException {
+      ReduceDriver<HashKeyWritable, TaggedTextWithCountWritableComparable,
+                   HashKeyWritable, TaggedTextWithCountWritableComparable> combineDriver =
+            ReduceDriver.newReduceDriver(new DdiffCombiner());
+      DdiffTestUtils.copyConfiguration(conf, combineDriver.getConfiguration());
+      combineDriver.withInput(key, ImmutableList.of(
+            value(Source.REFERENCE.getId(), 1L),
+            value(Source.getTestSetId(1), -1L),
+            value(Source.REFERENCE.getId(), 1L),
+            value(Source.getTestSetId(1), -2L)));
+
+      // The reference counts are not cancelled against either test set
+      combineDriver.withOutput(key, value(Source.REFERENCE.getId(), 2L));
+      combineDriver.withOutput(key, value(Source.getTestSetId(1), -3L));
+      combineDriver.runTest();
+   }
+
+   @Test
+   public void shouldDiffEachTestSetAgainstReference() throws IOException {
+      // The reducer writes to real files, so the named outputs are defined
+      // as for the diff job
+      Job job = Job.getInstance(conf);
+      FileOutputFormat.setOutputPath(job, new Path(tmpFolder.newFolder().toURI().toString()));
+      for (String namedOutput : new String[] {
+            DistributedDiff.MISSING_OUTPUT, DistributedDiff.EXTRA_OUTPUT })
+      {
+         MultipleOutputs.addNamedOutput(job, namedOutput,
+               TextOutputFormat.class, Text.class, LongWritable.class);
+      }
+
+      // The record is read twice from the reference, once from the first
+      // test set and three times from the second
+      ReduceDriver<HashKeyWritable, TaggedTextWithCountWritableComparable,
+                   Text, LongWritable> reduceDriver =
+            ReduceDriver.newReduceDriver(new DdiffReducer());
+      DdiffTestUtils.copyConfiguration(job.getConfiguration(), reduceDriver.getConfiguration());
+      reduceDriver.withInput(key, ImmutableList.of(
+            value(Source.REFERENCE.getId(), 2L),
+            value(Source.getTestSetId(0), -1L),
+            value(Source.getTestSetId(1), -3L),
+            value(Source.getTestSetId(2), -1L)));
+      reduceDriver.run();
+
+      Counters counters = reduceDriver.getCounters();
+      Map<DdiffReduceCounter, Long> expectedCounts = new HashMap<DdiffReduceCounter, Long>();
+      expectedCounts.put(DdiffReduceCounter.MISSING, 1L);
+      expectedCounts.put(DdiffReduceCounter.EXTRA, 1L);
+      expectedCounts.put(DdiffReduceCounter.REFERENCE_SOURCE, 2L);
+      expectedCounts.put(DdiffReduceCounter.TEST_SOURCE, 4L);
+      expectedCounts.put(DdiffReduceCounter.INVALID_SOURCE, 1L);
+      DdiffTestUtils.validateCounters(counters, expectedCounts, DdiffReduceCounter.class);
+      assertEquals(1L, counters.findCounter(DistributedDiff.TEST_SET_COUNTER_GROUP,
+            "first." + DistributedDiff.MISSING_OUTPUT).getValue());
+      assertEquals(0L, counters.findCounter(DistributedDiff.TEST_SET_COUNTER_GROUP,
+            "first." + DistributedDiff.EXTRA_OUTPUT).getValue());
+      assertEquals(1L, counters.findCounter(DistributedDiff.TEST_SET_COUNTER_GROUP,
+            "second." + DistributedDiff.EXTRA_OUTPUT).getValue());
+      assertEquals(0L, counters.findCounter(DistributedDiff.TEST_SET_COUNTER_GROUP,
+            "second." + DistributedDiff.MISSING_OUTPUT).getValue());
+   }
+
+   // ------------------------------------------------------------------------
+   // Utility Methods:
+   //
+
+   private TaggedTextWithCountWritableComparable value(byte sourceId, long count) {
+      TaggedTextWithCountWritableComparable retVal =
+            new TaggedTextWithCountWritableComparable(record, Source.REFERENCE, count);
+      retVal.setSourceId(sourceId);
+      return retVal;
+   }
+}